@@ -0,0 +1,206 @@
+/*
+ * $Id$
+ *
+ * Copyright(c) 2002 Infomata
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+package com.infomata.data.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+import com.infomata.data.CSVFormat;
+import com.infomata.data.DataFile;
+import com.infomata.data.DataFileFactory;
+import com.infomata.data.DataFormat;
+import com.infomata.data.DataRow;
+import com.infomata.data.FixedWidthFormat;
+import com.infomata.data.SimpleDelimiterFormat;
+import com.infomata.data.TabFormat;
+
+/**
+ * Generated data shared by the benchmarks.  Rows come in four shapes:
+ * <ul>
+ *   <li><code>narrow</code> - a few short text and numeric cells</li>
+ *   <li><code>wide</code> - many cells of mixed types</li>
+ *   <li><code>quoted</code> - cells containing delimiters and quotes</li>
+ *   <li><code>multiline</code> - cells containing line breaks (only
+ *       for CSV; other formats get a space instead)</li>
+ * </ul>
+ * Data is generated from a fixed seed so every run measures the
+ * same input.
+ *
+ * @version $Revision$
+ */
+final class BenchData
+{
+
+    /**
+     * Number of rows in each generated file.
+     */
+    static final int ROWS = 10000;
+
+    /**
+     * Number of columns in a wide row.
+     */
+    static final int WIDE = 64;
+
+    private static final String[] WORDS = {
+        "alpha", "bravo", "charlie", "delta", "echo", "foxtrot",
+        "golf", "hotel", "india", "juliett", "kilo", "lima"
+    };
+
+    private BenchData()
+    {
+    }
+
+    /**
+     * Generates rows of the specified shape.
+     *
+     * @param shape row shape (narrow, wide, quoted or multiline).
+     * @param count number of rows.
+     * @param lineBreaks <code>true</code> if cells may contain
+     *                   line breaks.
+     * @return cell values of each row.
+     */
+    static String[][] rows(String shape, int count, boolean lineBreaks)
+    {
+        Random r = new Random(20021004L);
+        int columns = "wide".equals(shape) ? WIDE : 4;
+        String[][] rows = new String[count][columns];
+        for (int i = 0; i < count; i++)
+        {
+            for (int j = 0; j < columns; j++)
+            {
+                rows[i][j] = cell(shape, r, i, j, lineBreaks);
+            }
+        }
+        return rows;
+    }
+
+    private static String cell(String shape, Random r, int row, int col,
+                               boolean lineBreaks)
+    {
+        switch (col % 4)
+        {
+            case 0:
+                return String.valueOf(row);
+            case 2:
+                return String.valueOf(r.nextInt(100000) / 100d);
+            case 3:
+                return String.valueOf(r.nextInt(1000));
+            default:
+                break;
+        }
+
+        String word = WORDS[r.nextInt(WORDS.length)];
+        if ("quoted".equals(shape))
+        {
+            return word + ", \"" + WORDS[r.nextInt(WORDS.length)] + "\"";
+        }
+        else if ("multiline".equals(shape))
+        {
+            return word + (lineBreaks ? "\n" : " ")
+                + WORDS[r.nextInt(WORDS.length)];
+        }
+        return word;
+    }
+
+    /**
+     * Creates a data format by name.
+     *
+     * @param name format name (csv, tab, delimited or fixed).
+     * @param columns number of columns (used by fixed width).
+     * @return new data format.
+     */
+    static DataFormat format(String name, int columns)
+    {
+        if ("csv".equals(name))
+        {
+            return new CSVFormat();
+        }
+        else if ("tab".equals(name))
+        {
+            return new TabFormat();
+        }
+        else if ("delimited".equals(name))
+        {
+            return new SimpleDelimiterFormat("|", "\\");
+        }
+        else if ("fixed".equals(name))
+        {
+            int[] widths = new int[columns];
+            for (int i = 0; i < columns; i++)
+            {
+                widths[i] = 24;
+            }
+            return new FixedWidthFormat(widths);
+        }
+        throw new IllegalArgumentException("unknown format: " + name);
+    }
+
+    /**
+     * Creates a row holding the specified values.
+     *
+     * @param values cell values.
+     * @return new row.
+     */
+    static DataRow row(String[] values)
+    {
+        DataRow row = new DataRow();
+        for (int i = 0; i < values.length; i++)
+        {
+            row.add(values[i]);
+        }
+        return row;
+    }
+
+    /**
+     * Writes a temporary file of generated rows.
+     *
+     * @param format format name.
+     * @param shape row shape.
+     * @return file deleted on exit.
+     * @exception IOException if the file cannot be written.
+     */
+    static File file(String format, String shape) throws IOException
+    {
+        String[][] rows = rows(shape, ROWS, "csv".equals(format));
+        File file = File.createTempFile("datafile-bench", "." + format);
+        file.deleteOnExit();
+        DataFile out = DataFileFactory.createWriter("UTF-8", false);
+        out.setDataFormat(format(format, rows[0].length));
+        try
+        {
+            out.open(file);
+            for (int i = 0; i < rows.length; i++)
+            {
+                DataRow row = out.next();
+                for (int j = 0; j < rows[i].length; j++)
+                {
+                    row.add(rows[i][j]);
+                }
+            }
+        }
+        finally
+        {
+            out.close();
+        }
+        return file;
+    }
+
+}
@@ -0,0 +1,119 @@
+/*
+ * $Id$
+ *
+ * Copyright(c) 2002 Infomata
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+package com.infomata.data.bench;
+
+import java.text.NumberFormat;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.infomata.data.DataRow;
+import com.infomata.data.ParseContext;
+import com.infomata.data.TabFormat;
+
+/**
+ * Measures the typed accessors of {@link com.infomata.data.DataRow}
+ * on rows parsed from text, reported per row.  Rows hold an integer,
+ * a long, a decimal and a text cell, in US or German number format.
+ *
+ * @version $Revision$
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class DataRowBenchmark
+{
+
+    @Param({"US", "GERMANY"})
+    public String locale;
+
+    private DataRow[] rows = null;
+
+    @Setup
+    public void setUp()
+    {
+        Locale l = "US".equals(locale) ? Locale.US : Locale.GERMANY;
+        NumberFormat nf = NumberFormat.getInstance(l);
+        nf.setMaximumFractionDigits(50);
+        TabFormat fmt = new TabFormat();
+        fmt.setParseContext(new ParseContext(nf));
+
+        String[][] values = BenchData.rows("narrow", BenchData.ROWS, false);
+        rows = new DataRow[values.length];
+        for (int i = 0; i < values.length; i++)
+        {
+            String[] v = values[i];
+            rows[i] = fmt.parseLine(v[0] + "\t" + v[0] + "000000000\t"
+                                    + nf.format(Double.parseDouble(v[2]))
+                                    + "\t" + v[1]);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BenchData.ROWS)
+    public void getInt(Blackhole bh)
+    {
+        for (int i = 0; i < rows.length; i++)
+        {
+            bh.consume(rows[i].getInt(0));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BenchData.ROWS)
+    public void getLong(Blackhole bh)
+    {
+        for (int i = 0; i < rows.length; i++)
+        {
+            bh.consume(rows[i].getLong(1));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BenchData.ROWS)
+    public void getDouble(Blackhole bh)
+    {
+        for (int i = 0; i < rows.length; i++)
+        {
+            bh.consume(rows[i].getDouble(2));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BenchData.ROWS)
+    public void getString(Blackhole bh)
+    {
+        for (int i = 0; i < rows.length; i++)
+        {
+            bh.consume(rows[i].getString(3));
+        }
+    }
+
+}
@@ -0,0 +1,107 @@
+/*
+ * $Id$
+ *
+ * Copyright(c) 2002 Infomata
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+package com.infomata.data.bench;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.infomata.data.DataFormat;
+import com.infomata.data.DataRow;
+
+/**
+ * Measures <code>parseLine</code> and <code>format</code> of each
+ * data format, reported per row.
+ *
+ * @version $Revision$
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class FormatBenchmark
+{
+
+    @Param({"csv", "tab", "delimited", "fixed"})
+    public String format;
+
+    @Param({"narrow", "wide", "quoted", "multiline"})
+    public String shape;
+
+    private DataFormat fmt = null;
+    private String[] lines = null;
+    private DataRow[] rows = null;
+
+    @Setup
+    public void setUp()
+    {
+        String[][] values = BenchData.rows(shape, BenchData.ROWS,
+                                           "csv".equals(format));
+        fmt = BenchData.format(format, values[0].length);
+        rows = new DataRow[values.length];
+        List split = new ArrayList();
+        for (int i = 0; i < values.length; i++)
+        {
+            rows[i] = BenchData.row(values[i]);
+            // a multiline row is read back one physical line at a time
+            String[] parts = fmt.format(rows[i]).split("\n", -1);
+            for (int j = 0; j < parts.length; j++)
+            {
+                split.add(parts[j]);
+            }
+        }
+        lines = (String[])split.toArray(new String[split.size()]);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BenchData.ROWS)
+    public void parseLine(Blackhole bh)
+    {
+        for (int i = 0; i < lines.length; i++)
+        {
+            DataRow row = fmt.parseLine(lines[i]);
+            if (row != null)
+            {
+                bh.consume(row);
+            }
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BenchData.ROWS)
+    public void format(Blackhole bh)
+    {
+        for (int i = 0; i < rows.length; i++)
+        {
+            bh.consume(fmt.format(rows[i]));
+        }
+    }
+
+}
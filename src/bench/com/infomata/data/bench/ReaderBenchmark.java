@@ -0,0 +1,131 @@
+/*
+ * $Id$
+ *
+ * Copyright(c) 2002 Infomata
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+package com.infomata.data.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.infomata.data.DataFileReader;
+import com.infomata.data.DataRow;
+
+/**
+ * Measures reading a whole file with
+ * {@link com.infomata.data.DataFileReader}, touching every cell of
+ * every row (or only the four projected columns), reported per row.
+ * The <code>mode</code> parameter selects reading from a stream,
+ * memory mapped reading, and memory mapped reading with cell views and
+ * row reuse.
+ *
+ * @version $Revision$
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ReaderBenchmark
+{
+
+    @Param({"csv", "tab", "delimited", "fixed"})
+    public String format;
+
+    @Param({"narrow", "wide", "quoted", "multiline"})
+    public String shape;
+
+    @Param({"line", "mapped", "views"})
+    public String mode;
+
+    private File file = null;
+    private int columns = 0;
+
+    @Setup
+    public void setUp() throws IOException
+    {
+        file = BenchData.file(format, shape);
+        columns = "wide".equals(shape) ? BenchData.WIDE : 4;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BenchData.ROWS)
+    public void read(Blackhole bh) throws IOException
+    {
+        DataFileReader in = new DataFileReader("UTF-8");
+        in.setDataFormat(BenchData.format(format, columns));
+        in.setMemoryMapped(!"line".equals(mode));
+        in.setCellViews("views".equals(mode));
+        in.setReuseRow("views".equals(mode));
+        try
+        {
+            in.open(file);
+            DataRow row = null;
+            while ((row = in.next()) != null)
+            {
+                for (int i = 0; i < row.size(); i++)
+                {
+                    bh.consume(row.getCharSequence(i));
+                }
+            }
+        }
+        finally
+        {
+            in.close();
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BenchData.ROWS)
+    public void readProjected(Blackhole bh) throws IOException
+    {
+        int[] projected = { 0, columns / 3, 2 * columns / 3, columns - 1 };
+        DataFileReader in = new DataFileReader("UTF-8");
+        in.setDataFormat(BenchData.format(format, columns));
+        in.setMemoryMapped(!"line".equals(mode));
+        in.setCellViews("views".equals(mode));
+        in.setReuseRow("views".equals(mode));
+        in.setProjection(projected);
+        try
+        {
+            in.open(file);
+            DataRow row = null;
+            while ((row = in.next()) != null)
+            {
+                for (int i = 0; i < projected.length; i++)
+                {
+                    bh.consume(row.getCharSequence(projected[i]));
+                }
+            }
+        }
+        finally
+        {
+            in.close();
+        }
+    }
+
+}
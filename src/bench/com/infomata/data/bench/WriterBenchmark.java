@@ -0,0 +1,103 @@
+/*
+ * $Id$
+ *
+ * Copyright(c) 2002 Infomata
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+package com.infomata.data.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import com.infomata.data.DataFileWriter;
+import com.infomata.data.DataRow;
+
+/**
+ * Measures writing a whole file with
+ * {@link com.infomata.data.DataFileWriter}, reported per row, on the
+ * caller's thread or in asynchronous mode.
+ *
+ * @version $Revision$
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class WriterBenchmark
+{
+
+    @Param({"csv", "tab", "delimited", "fixed"})
+    public String format;
+
+    @Param({"narrow", "wide", "quoted", "multiline"})
+    public String shape;
+
+    @Param({"sync", "async"})
+    public String mode;
+
+    private String[][] values = null;
+    private File file = null;
+
+    @Setup
+    public void setUp() throws IOException
+    {
+        values = BenchData.rows(shape, BenchData.ROWS, "csv".equals(format));
+        file = File.createTempFile("datafile-bench", ".out");
+    }
+
+    @TearDown
+    public void tearDown()
+    {
+        file.delete();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BenchData.ROWS)
+    public void write() throws IOException
+    {
+        DataFileWriter out = new DataFileWriter("UTF-8");
+        out.setAsync("async".equals(mode));
+        out.setDataFormat(BenchData.format(format, values[0].length));
+        try
+        {
+            out.open(file);
+            for (int i = 0; i < values.length; i++)
+            {
+                DataRow row = out.next();
+                for (int j = 0; j < values[i].length; j++)
+                {
+                    row.add(values[i][j]);
+                }
+            }
+        }
+        finally
+        {
+            out.close();
+        }
+    }
+
+}
@@ -63,6 +63,77 @@ public abstract class AbstractDataFile implements DataFile
      */
     protected DataFormat format = null;
 
+    /**
+     * Flag that indicates whether files opened publish metrics.
+     */
+    private boolean metrics = Boolean.getBoolean(DataFileStats.PROPERTY);
+
+    /**
+     * Metrics of the file opened last (<code>null</code> when metrics
+     * are disabled).
+     */
+    protected DataFileStats stats = null;
+
+    /**
+     * Specifies whether files opened from now on publish metrics (row
+     * and byte counts, rates, parse and I/O time) as a JMX MBean.
+     * Defaults to the value of the system property
+     * <code>com.infomata.data.metrics</code>.
+     * 
+     * @param metrics <code>true</code> to publish metrics.
+     * @see com.infomata.data.DataFileStats
+     */
+    public void setMetricsEnabled(boolean metrics)
+    {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Checks if files opened publish metrics.
+     * 
+     * @return <code>true</code> if metrics are enabled.
+     */
+    public boolean isMetricsEnabled()
+    {
+        return metrics;
+    }
+
+    /**
+     * Retrieves the metrics of the file opened last.  They remain
+     * readable after the file is closed.
+     * 
+     * @return metrics, or <code>null</code> if metrics were disabled.
+     */
+    public DataFileStats getStats()
+    {
+        return stats;
+    }
+
+    /**
+     * Helper method to start the metrics of a file being opened.
+     * 
+     * @param source name of the file.
+     */
+    protected void openStats(String source)
+    {
+        closeStats();
+        stats = (metrics) ? DataFileStats.open(getClass().getName()
+                .substring(getClass().getName().lastIndexOf('.') + 1),
+                format, source) : null;
+    }
+
+    /**
+     * Helper method to unregister the metrics of the file being
+     * closed.
+     */
+    protected void closeStats()
+    {
+        if (stats != null)
+        {
+            stats.close();
+        }
+    }
+
     /**
      * Check if character encoding has been set.
      * @return <code>true</code> if set.  <code>false</code> otherwise.
@@ -0,0 +1,199 @@
+/*
+ * $Id$
+ *
+ * Copyright(c) 2002 Infomata
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+package com.infomata.data;
+
+/**
+ * Abstract implementation of DataFormat interface.  This class holds the
+ * settings a {@link com.infomata.data.DataFile} passes on to the format
+ * it reads with, and creates the rows the format fills.
+ *
+ * @version $Revision$
+ */
+public abstract class AbstractDataFormat implements DataFormat {
+
+    /**
+     * Flag that indicates whether parsed cells are kept as views of the
+     * line instead of being copied into individual Strings.
+     */
+    private boolean cellViews = false;
+
+    /**
+     * Row refilled for every parsed line, if recycling.
+     */
+    private DataRow recycled = null;
+
+    /**
+     * Parsing state shared by the rows created by this format.
+     */
+    private ParseContext context = null;
+
+    /**
+     * Columns materialized by the parser, or <code>null</code> for all.
+     */
+    private boolean[] projection = null;
+
+    /**
+     * Specifies whether parsed cells are kept as views of the line of
+     * data instead of being copied into a <code>String</code> each.
+     * A view is only turned into a <code>String</code> when the cell
+     * is retrieved with {@link DataRow#getString(int)}; numeric
+     * accessors parse the view directly.
+     *
+     * @param cellViews <code>true</code> to keep cells as views.
+     */
+    public void setCellViews(boolean cellViews) {
+        this.cellViews = cellViews;
+    }
+
+    /**
+     * Checks if parsed cells are kept as views of the line of data.
+     *
+     * @return <code>true</code> if cells are kept as views.
+     */
+    public boolean isCellViews() {
+        return cellViews;
+    }
+
+    /**
+     * Sets the parse context shared by the rows created by this
+     * format.  {@link com.infomata.data.DataFileReader} hands its
+     * context to the format when a file is opened, so that rows take
+     * their number and date handling from the reader.
+     *
+     * @param context shared parse context, or <code>null</code> for
+     *                rows to use JVM's locale.
+     */
+    public void setParseContext(ParseContext context) {
+        this.context = context;
+    }
+
+    /**
+     * Retrieves the parse context shared by the rows created by this
+     * format.
+     *
+     * @return shared parse context or <code>null</code>.
+     */
+    public ParseContext getParseContext() {
+        return context;
+    }
+
+    /**
+     * Restricts parsing to the specified columns.  The cells of other
+     * columns are only located; each is added to the row as an empty
+     * placeholder, so that the requested columns keep their original
+     * indexes.
+     *
+     * @param columns indexes of the columns to materialize, or
+     *                <code>null</code> for all columns.
+     */
+    public void setProjection(int[] columns) {
+        projection = toMask(columns);
+    }
+
+    /**
+     * Checks if a column is materialized by the parser.
+     *
+     * @param column index of the column.
+     * @return <code>true</code> unless the column is left out by the
+     *         projection.
+     */
+    protected boolean isProjected(int column) {
+        return projection == null
+            || (column < projection.length && projection[column]);
+    }
+
+    /**
+     * Converts a list of column indexes into a mask of the columns.
+     *
+     * @param columns column indexes, or <code>null</code>.
+     * @return mask indexed by column, or <code>null</code>.
+     */
+    static boolean[] toMask(int[] columns) {
+        if (columns == null) {
+            return null;
+        }
+        int max = -1;
+        for (int i = 0; i < columns.length; i++) {
+            if (columns[i] < 0) {
+                throw new IllegalArgumentException("negative column: "
+                                                   + columns[i]);
+            }
+            max = Math.max(max, columns[i]);
+        }
+        boolean[] mask = new boolean[max + 1];
+        for (int i = 0; i < columns.length; i++) {
+            mask[columns[i]] = true;
+        }
+        return mask;
+    }
+
+    /**
+     * Specifies a row to be refilled for every parsed line instead of
+     * creating a new one.  The content of the row returned by
+     * {@link #parseLine(String)} is then only valid until the next
+     * call.
+     *
+     * @param row row to recycle, or <code>null</code> to create a new
+     *            row for each line.
+     */
+    public void setRecycledRow(DataRow row) {
+        this.recycled = row;
+    }
+
+    /**
+     * Retrieves an empty row to hold the data items of one parsed
+     * line: the recycled row (cleared, keeping its capacity), or a
+     * new row.
+     *
+     * @return empty row.
+     */
+    protected DataRow createRow() {
+        if (recycled != null) {
+            recycled.clear();
+            return recycled;
+        }
+        return new DataRow(context);
+    }
+
+    /**
+     * Adds a cell held in a range of a character array to the row.
+     * In cell view mode, the array is referenced rather than copied,
+     * so it must not be modified once the row is returned.  Cells of
+     * columns left out by the projection are added as empty
+     * placeholders.
+     *
+     * @param row row to add the cell to.
+     * @param cs characters of the line.
+     * @param offset index of the first character of the cell.
+     * @param len number of characters in the cell.
+     */
+    protected void addCell(DataRow row, char[] cs, int offset, int len) {
+        if (projection != null && !isProjected(row.size())) {
+            row.addEmpty();
+        }
+        else if (cellViews) {
+            row.add(new CharCellView(cs, offset, len));
+        }
+        else {
+            row.add(new String(cs, offset, len));
+        }
+    }
+
+}
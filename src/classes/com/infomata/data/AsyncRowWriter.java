@@ -0,0 +1,312 @@
+/*
+ * $Id$
+ *
+ * Copyright(c) 2002 Infomata
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+package com.infomata.data;
+
+import java.io.IOException;
+import java.text.NumberFormat;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Writes rows on a background thread for
+ * {@link com.infomata.data.DataFileWriter} in asynchronous mode.
+ * <p>
+ * Rows are filled by the producer into one of two buffers of rows.
+ * When a buffer is full it is handed to the background thread, which
+ * formats, encodes and writes its rows while the producer fills the
+ * other buffer, and then returns it for reuse.  If the background
+ * thread falls behind, the producer waits for a buffer to come back,
+ * so memory stays bounded by the two buffers.  An error raised while
+ * writing is thrown to the producer by the following call to
+ * {@link #next()} or {@link #close()}.
+ * </p>
+ *
+ * @version $Revision$
+ */
+final class AsyncRowWriter implements Runnable
+{
+
+    /**
+     * Marker telling the background thread that no more rows follow.
+     */
+    private static final Buffer END = new Buffer(0, null);
+
+    private final RowEncoder out;
+
+    /**
+     * Buffers ready to be filled.
+     */
+    private final BlockingQueue free = new ArrayBlockingQueue(2);
+
+    /**
+     * Buffers ready to be written.
+     */
+    private final BlockingQueue full = new ArrayBlockingQueue(3);
+
+    private final Thread thread;
+
+    /**
+     * Buffer being filled by the producer.
+     */
+    private Buffer current = null;
+
+    /**
+     * Row handed out by the last call to next(), if any.
+     */
+    private DataRow row = null;
+
+    /**
+     * First error raised by the background thread.
+     */
+    private volatile Throwable error = null;
+
+    /**
+     * Metrics of the file written, or <code>null</code>.
+     */
+    private volatile DataFileStats stats = null;
+
+    /**
+     * Creates a new <code>AsyncRowWriter</code> instance and starts
+     * its background thread.
+     *
+     * @param out encoder the rows are formatted and written by
+     *            (closed by {@link #close()}).
+     * @param nf number format of the rows.
+     * @param bufferRows number of rows in each buffer.
+     */
+    AsyncRowWriter(RowEncoder out, NumberFormat nf, int bufferRows)
+    {
+        this.out = out;
+        free.add(new Buffer(bufferRows, nf));
+        free.add(new Buffer(bufferRows, nf));
+        thread = new Thread(this, "DataFileWriter");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Sets the metrics recording the rows written.
+     *
+     * @param stats metrics of the file, or <code>null</code>.
+     */
+    void setStats(DataFileStats stats)
+    {
+        this.stats = stats;
+    }
+
+    /**
+     * Commits the row handed out last (if any) and hands out the next
+     * row to fill.
+     *
+     * @return empty row.
+     * @throws IOException if writing failed since the last call.
+     */
+    DataRow next() throws IOException
+    {
+        check();
+        if (row != null)
+        {
+            current.count++;
+        }
+        if (current == null || current.count == current.rows.length)
+        {
+            flip();
+        }
+        row = current.rows[current.count];
+        row.clear();
+        return row;
+    }
+
+    /**
+     * Commits the row handed out last (unless it is empty), waits for
+     * all rows to be written and closes the output.
+     *
+     * @throws IOException if writing failed.
+     */
+    void close() throws IOException
+    {
+        try
+        {
+            if (row != null && row.size() > 0)
+            {
+                current.count++;
+            }
+            row = null;
+            if (current != null && current.count > 0)
+            {
+                put(current);
+            }
+            current = null;
+            put(END);
+            thread.join();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            fail(e);
+        }
+        finally
+        {
+            try
+            {
+                out.close();
+            }
+            catch (IOException e)
+            {
+                fail(e);
+            }
+        }
+        check();
+    }
+
+    /**
+     * Background thread: formats and writes full buffers until the
+     * end marker arrives.  After an error, buffers are only returned
+     * so the producer never waits for them in vain.
+     */
+    public void run()
+    {
+        try
+        {
+            for (Buffer b = (Buffer)full.take(); b != END; b = (Buffer)full.take())
+            {
+                if (error == null)
+                {
+                    try
+                    {
+                        write(b);
+                    }
+                    catch (Throwable e)
+                    {
+                        fail(e);
+                    }
+                }
+                b.count = 0;
+                free.put(b);
+            }
+            if (error == null)
+            {
+                out.flush();
+            }
+        }
+        catch (Throwable e)
+        {
+            fail(e);
+        }
+    }
+
+    /**
+     * Helper method to format and write the rows of a buffer.
+     */
+    private void write(Buffer b) throws IOException
+    {
+        DataFileStats s = stats;
+        long t = (s != null) ? System.nanoTime() : 0;
+        for (int i = 0; i < b.count; i++)
+        {
+            out.write(b.rows[i]);
+        }
+        if (s != null)
+        {
+            s.rows(b.count, System.nanoTime() - t);
+        }
+    }
+
+    /**
+     * Helper method to hand the current buffer over and take a
+     * free one, waiting if both are still being written.
+     */
+    private void flip() throws IOException
+    {
+        if (current != null)
+        {
+            put(current);
+        }
+        try
+        {
+            current = (Buffer)free.take();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted while waiting for writer");
+        }
+        check();
+    }
+
+    private void put(Buffer b) throws IOException
+    {
+        try
+        {
+            full.put(b);
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted while waiting for writer");
+        }
+    }
+
+    private void fail(Throwable e)
+    {
+        if (error == null)
+        {
+            error = e;
+        }
+    }
+
+    /**
+     * Helper method to throw the error raised by the background
+     * thread, if any.
+     */
+    private void check() throws IOException
+    {
+        Throwable e = error;
+        if (e instanceof IOException)
+        {
+            throw (IOException)e;
+        }
+        if (e != null)
+        {
+            IOException io = new IOException("failed to write data file: " + e);
+            io.initCause(e);
+            throw io;
+        }
+    }
+
+    /**
+     * Rows filled by the producer, reused once written.
+     */
+    private static final class Buffer
+    {
+        final DataRow[] rows;
+        int count = 0;
+
+        Buffer(int size, NumberFormat nf)
+        {
+            rows = new DataRow[size];
+            for (int i = 0; i < size; i++)
+            {
+                rows[i] = new DataRow(nf);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,441 @@
+/*
+ * $Id$
+ *
+ * Copyright(c) 2002 Infomata
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+package com.infomata.data;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.PushbackInputStream;
+import java.io.SequenceInputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Gzip input inflated ahead of the reader on a pipeline thread.  The
+ * pipeline thread reads the compressed stream member by member; members
+ * that carry their size in a <code>BC</code> extra subfield (as written
+ * by {@link com.infomata.data.BlockGzipOutputStream} and by BGZF
+ * writers) are inflated in parallel on a <code>ForkJoinPool</code>,
+ * while any other gzip data is inflated by the pipeline thread itself.
+ * Either way the inflated data is handed to the reader in order.
+ *
+ * @version $Revision$
+ */
+final class BlockGzipInputStream extends InputStream implements Runnable
+{
+
+    /**
+     * Number of bytes handed over at a time for data that is not
+     * made of sized members.
+     */
+    private static final int CHUNK_SIZE = 64 << 10;
+
+    /**
+     * Flag bit of the gzip header indicating an extra field.
+     */
+    private static final int FEXTRA = 4;
+
+    /**
+     * Marker queued after the last block.
+     */
+    private static final Object END = new Object();
+
+    private DataInputStream in = null;
+    private ForkJoinPool pool = null;
+    private BlockingQueue queue = null;
+    private Thread thread = null;
+    private byte[] current = new byte[0];
+    private int pos = 0;
+    private boolean eof = false;
+    private volatile boolean closed = false;
+
+    /**
+     * Starts inflating the specified gzip stream.
+     *
+     * @param in compressed stream.
+     * @param threads number of threads inflating members in parallel.
+     */
+    BlockGzipInputStream(InputStream in, int threads)
+    {
+        this.in = new DataInputStream(in);
+        if (threads > 1)
+        {
+            pool = new ForkJoinPool(threads);
+        }
+        queue = new ArrayBlockingQueue(threads * 2 + 2);
+        thread = new Thread(this, "DataFileReader-gzip");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Inflates a stream if it starts with the gzip magic bytes.
+     *
+     * @param in stream to read.
+     * @param threads number of threads inflating members in parallel.
+     * @return inflating stream for gzip data, otherwise a stream
+     *         returning the data of <code>in</code> unchanged.
+     * @throws IOException if the stream cannot be read.
+     */
+    static InputStream detect(InputStream in, int threads) throws IOException
+    {
+        PushbackInputStream pin = new PushbackInputStream(in, 2);
+        int b1 = pin.read();
+        int b2 = (b1 < 0) ? -1 : pin.read();
+        if (b2 >= 0)
+        {
+            pin.unread(b2);
+        }
+        if (b1 >= 0)
+        {
+            pin.unread(b1);
+        }
+        if (b1 == 0x1f && b2 == 0x8b)
+        {
+            return new BlockGzipInputStream(pin, threads);
+        }
+        return pin;
+    }
+
+    public int read() throws IOException
+    {
+        if (!fill())
+        {
+            return -1;
+        }
+        return current[pos++] & 0xff;
+    }
+
+    public int read(byte[] b, int off, int len) throws IOException
+    {
+        if (len == 0)
+        {
+            return 0;
+        }
+        if (!fill())
+        {
+            return -1;
+        }
+        int n = Math.min(len, current.length - pos);
+        System.arraycopy(current, pos, b, off, n);
+        pos += n;
+        return n;
+    }
+
+    public int available()
+    {
+        return current.length - pos;
+    }
+
+    /**
+     * Stops inflating and closes the compressed stream.
+     *
+     * @throws IOException if the stream fails to close.
+     */
+    public void close() throws IOException
+    {
+        if (closed)
+        {
+            return;
+        }
+        closed = true;
+        thread.interrupt();
+        if (pool != null)
+        {
+            pool.shutdownNow();
+        }
+        queue.clear();
+        in.close();
+    }
+
+    /**
+     * Reads the compressed stream and queues the inflated blocks.
+     */
+    public void run()
+    {
+        try
+        {
+            for (byte[] head = readHeader(); head != null; head = readHeader())
+            {
+                int size = blockSize(head);
+                if (size < 0)
+                {
+                    inflateStream(head);
+                    break;
+                }
+
+                byte[] member = new byte[size];
+                System.arraycopy(head, 0, member, 0, head.length);
+                in.readFully(member, head.length, size - head.length);
+                if (pool != null)
+                {
+                    queue.put(pool.submit(new InflateTask(member)));
+                }
+                else
+                {
+                    queue.put(inflate(member));
+                }
+            }
+            queue.put(END);
+        }
+        catch (InterruptedException e)
+        {
+            // closed by the reader.
+        }
+        catch (Throwable t)
+        {
+            try
+            {
+                queue.put(t);
+            }
+            catch (InterruptedException e)
+            {
+                // closed by the reader.
+            }
+        }
+    }
+
+    /**
+     * Helper method to take the next inflated block from the queue.
+     *
+     * @return <code>false</code> at the end of the data.
+     */
+    private boolean fill() throws IOException
+    {
+        while (pos >= current.length)
+        {
+            if (eof || closed)
+            {
+                return false;
+            }
+
+            Object next = null;
+            try
+            {
+                next = queue.take();
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("interrupted while reading");
+            }
+
+            if (next == END)
+            {
+                eof = true;
+                return false;
+            }
+            if (next instanceof ForkJoinTask)
+            {
+                try
+                {
+                    next = ((ForkJoinTask)next).join();
+                }
+                catch (RuntimeException e)
+                {
+                    next = (e.getCause() != null) ? e.getCause() : e;
+                }
+            }
+            if (next instanceof Throwable)
+            {
+                eof = true;
+                throw asIOException((Throwable)next);
+            }
+            current = (byte[])next;
+            pos = 0;
+        }
+        return true;
+    }
+
+    /**
+     * Helper method to read the fixed part and the extra field of a
+     * member header.
+     *
+     * @return bytes of the header read, or <code>null</code> at the
+     *         end of the stream.
+     */
+    private byte[] readHeader() throws IOException
+    {
+        int b = in.read();
+        if (b < 0)
+        {
+            return null;
+        }
+
+        byte[] head = new byte[10];
+        head[0] = (byte)b;
+        in.readFully(head, 1, 9);
+        if (head[0] != 0x1f || head[1] != (byte)0x8b)
+        {
+            throw new IOException("Not in gzip format");
+        }
+        if ((head[3] & FEXTRA) == 0)
+        {
+            return head;
+        }
+
+        int xlen = in.readUnsignedByte() | (in.readUnsignedByte() << 8);
+        byte[] h = new byte[12 + xlen];
+        System.arraycopy(head, 0, h, 0, 10);
+        h[10] = (byte)xlen;
+        h[11] = (byte)(xlen >> 8);
+        in.readFully(h, 12, xlen);
+        return h;
+    }
+
+    /**
+     * Helper method to find the total size of a member in the
+     * <code>BC</code> subfield of its header.
+     *
+     * @return size of the member, or <code>-1</code> if not recorded.
+     */
+    private static int blockSize(byte[] head)
+    {
+        int i = 12;
+        while (i + 4 <= head.length)
+        {
+            int len = (head[i + 2] & 0xff) | ((head[i + 3] & 0xff) << 8);
+            if (head[i] == 'B' && head[i + 1] == 'C' && len == 2
+                && i + 6 <= head.length)
+            {
+                int size = ((head[i + 4] & 0xff) | ((head[i + 5] & 0xff) << 8)) + 1;
+                return (size >= head.length + 8) ? size : -1;
+            }
+            i += 4 + len;
+        }
+        return -1;
+    }
+
+    /**
+     * Helper method to inflate the rest of the stream (starting with the
+     * header already read) on this thread.
+     */
+    private void inflateStream(byte[] head)
+        throws IOException, InterruptedException
+    {
+        InputStream rest = new SequenceInputStream(
+                new ByteArrayInputStream(head), in);
+        GZIPInputStream gz = new GZIPInputStream(rest, CHUNK_SIZE);
+        for (;;)
+        {
+            byte[] chunk = new byte[CHUNK_SIZE];
+            int n = 0;
+            int r = 0;
+            while (n < chunk.length && (r = gz.read(chunk, n, chunk.length - n)) > 0)
+            {
+                n += r;
+            }
+            if (n > 0)
+            {
+                if (n < chunk.length)
+                {
+                    byte[] b = new byte[n];
+                    System.arraycopy(chunk, 0, b, 0, n);
+                    chunk = b;
+                }
+                queue.put(chunk);
+            }
+            if (r < 0)
+            {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Inflates one complete gzip member, checking its CRC and size.
+     *
+     * @param member bytes of the member.
+     * @return inflated data.
+     * @throws IOException if the member is corrupt.
+     */
+    static byte[] inflate(byte[] member) throws IOException
+    {
+        int n = member.length;
+        int size = (member[n - 4] & 0xff) | ((member[n - 3] & 0xff) << 8)
+                | ((member[n - 2] & 0xff) << 16) | ((member[n - 1] & 0xff) << 24);
+        if (size < 0)
+        {
+            throw new IOException("gzip block too large: " + size);
+        }
+        byte[] data = new byte[size];
+        GZIPInputStream gz = new GZIPInputStream(
+                new ByteArrayInputStream(member), Math.max(member.length, 512));
+        try
+        {
+            int off = 0;
+            while (off < size)
+            {
+                int r = gz.read(data, off, size - off);
+                if (r < 0)
+                {
+                    throw new EOFException("truncated gzip block");
+                }
+                off += r;
+            }
+            if (gz.read() >= 0)
+            {
+                throw new IOException("gzip block larger than recorded");
+            }
+        }
+        finally
+        {
+            gz.close();
+        }
+        return data;
+    }
+
+    private static IOException asIOException(Throwable t)
+    {
+        if (t instanceof IOException)
+        {
+            return (IOException)t;
+        }
+        IOException e = new IOException("gzip read failed: " + t);
+        e.initCause(t);
+        return e;
+    }
+
+    /**
+     * Inflates one member on the pool.
+     */
+    private static class InflateTask implements Callable
+    {
+        private final byte[] member;
+
+        InflateTask(byte[] member)
+        {
+            this.member = member;
+        }
+
+        public Object call() throws IOException
+        {
+            return inflate(member);
+        }
+    }
+
+}
@@ -0,0 +1,258 @@
+/*
+ * $Id$
+ *
+ * Copyright(c) 2002 Infomata
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+package com.infomata.data;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Gzip output compressed in parallel blocks.  The data is cut into
+ * blocks that are deflated on a <code>ForkJoinPool</code> and written
+ * in order, each as a complete gzip member.  Concatenated members are
+ * standard gzip (any gzip reader restores the data), and every member
+ * carries the size of its block in a <code>BC</code> extra subfield
+ * (the layout used by BGZF), so that
+ * {@link com.infomata.data.BlockGzipInputStream} can inflate the
+ * members in parallel as well.
+ *
+ * @version $Revision$
+ */
+final class BlockGzipOutputStream extends OutputStream
+{
+
+    /**
+     * Maximum number of bytes of data in a block, small enough for the
+     * compressed block to fit the 16 bit block size.
+     */
+    static final int BLOCK_SIZE = 0xff00;
+
+    /**
+     * Length of the member header, including the <code>BC</code> extra
+     * subfield.
+     */
+    static final int HEADER_SIZE = 18;
+
+    /**
+     * Empty member written at the end of the output.
+     */
+    private static final byte[] EOF_BLOCK = { 0x1f, (byte)0x8b, 8, 4, 0, 0,
+            0, 0, 0, (byte)0xff, 6, 0, 'B', 'C', 2, 0, 0x1b, 0, 3, 0, 0, 0, 0,
+            0, 0, 0, 0, 0 };
+
+    private OutputStream out = null;
+    private ForkJoinPool pool = null;
+    private LinkedList pending = new LinkedList();
+    private int maxPending = 0;
+    private byte[] block = new byte[BLOCK_SIZE];
+    private int count = 0;
+    private boolean closed = false;
+
+    /**
+     * Creates a new <code>BlockGzipOutputStream</code> instance.
+     *
+     * @param out stream the compressed data is written to.
+     * @param threads number of threads compressing blocks.
+     */
+    BlockGzipOutputStream(OutputStream out, int threads)
+    {
+        this.out = out;
+        pool = new ForkJoinPool(threads);
+        maxPending = threads * 2;
+    }
+
+    public void write(int b) throws IOException
+    {
+        block[count++] = (byte)b;
+        if (count == BLOCK_SIZE)
+        {
+            submit();
+        }
+    }
+
+    public void write(byte[] b, int off, int len) throws IOException
+    {
+        while (len > 0)
+        {
+            int n = Math.min(len, BLOCK_SIZE - count);
+            System.arraycopy(b, off, block, count, n);
+            count += n;
+            off += n;
+            len -= n;
+            if (count == BLOCK_SIZE)
+            {
+                submit();
+            }
+        }
+    }
+
+    /**
+     * Compresses the data buffered so far into a (shorter) block and
+     * writes all pending blocks.
+     *
+     * @throws IOException if the data cannot be written.
+     */
+    public void flush() throws IOException
+    {
+        if (count > 0)
+        {
+            submit();
+        }
+        while (!pending.isEmpty())
+        {
+            writeNext();
+        }
+        out.flush();
+    }
+
+    /**
+     * Writes the remaining blocks and the end of file marker, and
+     * closes the underlying stream.
+     *
+     * @throws IOException if the data cannot be written.
+     */
+    public void close() throws IOException
+    {
+        if (closed)
+        {
+            return;
+        }
+        try
+        {
+            flush();
+            out.write(EOF_BLOCK);
+        }
+        finally
+        {
+            closed = true;
+            pool.shutdownNow();
+            out.close();
+        }
+    }
+
+    /**
+     * Helper method to start compressing the buffered block, and to
+     * write finished blocks while too many are in flight.
+     */
+    private void submit() throws IOException
+    {
+        if (closed)
+        {
+            throw new IOException("stream closed");
+        }
+        pending.addLast(pool.submit(new DeflateTask(block, count)));
+        block = new byte[BLOCK_SIZE];
+        count = 0;
+        while (pending.size() > maxPending)
+        {
+            writeNext();
+        }
+    }
+
+    private void writeNext() throws IOException
+    {
+        ForkJoinTask task = (ForkJoinTask)pending.removeFirst();
+        byte[] member = null;
+        try
+        {
+            member = (byte[])task.join();
+        }
+        catch (RuntimeException e)
+        {
+            Throwable t = (e.getCause() != null) ? e.getCause() : e;
+            IOException ex = new IOException("compression failed: " + t);
+            ex.initCause(t);
+            throw ex;
+        }
+        out.write(member);
+    }
+
+    /**
+     * Compresses one block into a gzip member.
+     */
+    private static class DeflateTask implements Callable
+    {
+        private final byte[] data;
+        private final int len;
+
+        DeflateTask(byte[] data, int len)
+        {
+            this.data = data;
+            this.len = len;
+        }
+
+        public Object call()
+        {
+            // deflate output is at most a few bytes per 16 KB larger.
+            byte[] b = new byte[HEADER_SIZE + len + (len >> 10) + 64];
+            b[0] = 0x1f;
+            b[1] = (byte)0x8b;
+            b[2] = 8;
+            b[3] = 4;
+            b[9] = (byte)0xff;
+            b[10] = 6;
+            b[12] = 'B';
+            b[13] = 'C';
+            b[14] = 2;
+
+            Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+            int n = HEADER_SIZE;
+            try
+            {
+                deflater.setInput(data, 0, len);
+                deflater.finish();
+                while (!deflater.finished())
+                {
+                    n += deflater.deflate(b, n, b.length - 8 - n);
+                }
+            }
+            finally
+            {
+                deflater.end();
+            }
+
+            CRC32 crc = new CRC32();
+            crc.update(data, 0, len);
+            n = putInt(b, n, (int)crc.getValue());
+            n = putInt(b, n, len);
+            b[16] = (byte)(n - 1);
+            b[17] = (byte)((n - 1) >> 8);
+
+            byte[] member = new byte[n];
+            System.arraycopy(b, 0, member, 0, n);
+            return member;
+        }
+
+        private static int putInt(byte[] b, int pos, int v)
+        {
+            b[pos] = (byte)v;
+            b[pos + 1] = (byte)(v >> 8);
+            b[pos + 2] = (byte)(v >> 16);
+            b[pos + 3] = (byte)(v >> 24);
+            return pos + 4;
+        }
+    }
+
+}
@@ -0,0 +1,48 @@
+/*
+ * $Id$
+ *
+ * Copyright(c) 2002 Infomata
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+package com.infomata.data;
+
+/**
+ * Extension of {@link com.infomata.data.DataFormat} for formats that
+ * write a row directly into a reusable
+ * {@link com.infomata.data.FormatBuffer} instead of returning a new
+ * <code>String</code>.  {@link com.infomata.data.DataFileWriter} formats
+ * the rows of such formats into one buffer and encodes them in bulk;
+ * other formats are written through {@link #format(DataRow)}.
+ * <p>
+ * A format implementing this interface must produce the same characters
+ * from both methods.  If a subclass overrides only
+ * {@link #format(DataRow)}, the writer uses the overriding method.
+ * </p>
+ *
+ * @version $Revision$
+ */
+public interface BufferDataFormat extends DataFormat {
+
+    /**
+     * Appends the data contained in the row to the buffer, without
+     * a line separator.
+     *
+     * @param row a <code>DataRow</code> object containing data.
+     * @param out buffer the formatted row is appended to.
+     */
+    public void format(DataRow row, FormatBuffer out);
+
+}
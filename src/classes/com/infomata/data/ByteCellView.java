@@ -0,0 +1,75 @@
+/*
+ * $Id$
+ *
+ * Copyright(c) 2002 Infomata
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+package com.infomata.data;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Cell content viewed in place in a byte buffer.  Only used for cells
+ * whose bytes map one to one onto characters: ASCII content, or any
+ * content in ISO-8859-1.
+ *
+ * @version $Revision$
+ */
+final class ByteCellView implements CharSequence {
+
+    private final ByteBuffer buf;
+    private final int offset;
+    private final int len;
+
+    /**
+     * Creates a new <code>ByteCellView</code> instance.
+     *
+     * @param buf buffer containing the cell.
+     * @param offset index of the first byte of the cell.
+     * @param len number of bytes in the cell.
+     */
+    ByteCellView(ByteBuffer buf, int offset, int len) {
+        this.buf = buf;
+        this.offset = offset;
+        this.len = len;
+    }
+
+    public int length() {
+        return len;
+    }
+
+    public char charAt(int index) {
+        if (index < 0 || index >= len) {
+            throw new IndexOutOfBoundsException(String.valueOf(index));
+        }
+        return (char)(buf.get(offset + index) & 0xff);
+    }
+
+    public CharSequence subSequence(int start, int end) {
+        if (start < 0 || end > len || start > end) {
+            throw new IndexOutOfBoundsException(start + ", " + end);
+        }
+        return new ByteCellView(buf, offset + start, end - start);
+    }
+
+    public String toString() {
+        byte[] b = new byte[len];
+        buf.get(offset, b, 0, len);
+        return new String(b, StandardCharsets.ISO_8859_1);
+    }
+
+}
@@ -0,0 +1,98 @@
+/*
+ * $Id$
+ *
+ * Copyright(c) 2002 Infomata
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+package com.infomata.data;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+/**
+ * Extension of {@link com.infomata.data.DataFormat} for formats that can
+ * locate rows and cells directly in the encoded bytes of a data file,
+ * without first decoding each line into a <code>String</code>.
+ * {@link com.infomata.data.DataFileReader} uses this interface when it
+ * reads a file in memory mapped mode.
+ * <p>
+ * Byte scanning is only used with character encodings in which the
+ * delimiter, quote and new line characters are encoded as their single
+ * ASCII byte and never appear inside the encoding of another character
+ * (US-ASCII, the ISO-8859 family, single byte Windows code pages and UTF-8).
+ * </p>
+ *
+ * @see com.infomata.data.DataFileReader#setMemoryMapped(boolean)
+ * @version $Revision$
+ */
+public interface ByteDataFormat extends DataFormat {
+
+    /**
+     * Prepares the format for scanning data encoded in the specified
+     * character set.  Called by the reader before the first
+     * {@link #scanRow(ByteBuffer, int, int, boolean, CellIndex)}.
+     *
+     * @param charset character set in which the data file is encoded.
+     */
+    public void setCharset(Charset charset);
+
+    /**
+     * Retrieves the byte that encloses cells in which delimiters and
+     * line breaks are part of the data.  Used to find row boundaries
+     * when a file is split for parallel reading: a line break ends a
+     * row only when preceded by an even number of quote bytes.
+     *
+     * @return quote byte, or <code>-1</code> if every line break ends
+     *         a row.
+     */
+    public int getQuote();
+
+    /**
+     * Locates the cells of the row starting at <code>start</code>.
+     * The content of each cell (without delimiters and enclosing
+     * quotes) is recorded in <code>cells</code> as a range of
+     * absolute buffer indexes.  Cells whose content still contains
+     * escape sequences are flagged so that they are passed through
+     * {@link #unescape(ByteBuffer, int, int, byte[])} before use.
+     *
+     * @param buf buffer containing encoded data.
+     * @param start index of the first byte of the row.
+     * @param limit index after the last available byte.
+     * @param eof <code>true</code> if no data follows <code>limit</code>,
+     *            in which case an unterminated row ends at
+     *            <code>limit</code>.
+     * @param cells cell index to fill (cleared by this method).
+     * @return index of the first byte after the row terminator, or
+     *         <code>-1</code> if the row does not terminate before
+     *         <code>limit</code> and more data is required.
+     */
+    public int scanRow(ByteBuffer buf, int start, int limit, boolean eof,
+                       CellIndex cells);
+
+    /**
+     * Removes escape sequences from a cell flagged by
+     * {@link #scanRow(ByteBuffer, int, int, boolean, CellIndex)}.
+     *
+     * @param buf buffer containing encoded data.
+     * @param start index of the first byte of the cell content.
+     * @param end index after the last byte of the cell content.
+     * @param dest destination with room for at least
+     *             <code>end - start</code> bytes.
+     * @return number of bytes written to <code>dest</code>.
+     */
+    public int unescape(ByteBuffer buf, int start, int end, byte[] dest);
+
+}
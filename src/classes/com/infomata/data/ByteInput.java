@@ -0,0 +1,76 @@
+/*
+ * $Id$
+ *
+ * Copyright(c) 2002 Infomata
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+package com.infomata.data;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Source of encoded bytes read a window at a time by
+ * {@link com.infomata.data.ByteRowReader}.  The window is a buffer whose
+ * index zero corresponds to input offset {@link #base()}; rows are
+ * located in it until one continues past its end, at which point the
+ * window is moved forward.
+ *
+ * @version $Revision$
+ */
+abstract class ByteInput
+{
+
+    /**
+     * Retrieves the current window.  Index zero of the buffer
+     * corresponds to input offset {@link #base()}.
+     *
+     * @return current window.
+     */
+    abstract ByteBuffer window();
+
+    /**
+     * Retrieves the input offset of the first byte of the window.
+     *
+     * @return input offset of the window.
+     */
+    abstract long base();
+
+    /**
+     * Checks if the window reaches the end of the input.
+     *
+     * @return <code>true</code> if no data follows the window.
+     */
+    abstract boolean isEof();
+
+    /**
+     * Moves the window so that it starts at the specified input offset.
+     * If the offset is the start of the current window (a row did not
+     * fit into it), the window is enlarged instead.
+     *
+     * @param from input offset of the new window.
+     * @throws IOException if the input cannot be read.
+     */
+    abstract void moveTo(long from) throws IOException;
+
+    /**
+     * Releases the input.
+     *
+     * @throws IOException if the input fails to close.
+     */
+    abstract void close() throws IOException;
+
+}
@@ -0,0 +1,574 @@
+/*
+ * $Id$
+ *
+ * Copyright(c) 2002 Infomata
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+package com.infomata.data;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+
+/**
+ * Reads rows from a memory mapped file or a stream by letting a
+ * {@link com.infomata.data.ByteDataFormat} locate the cells in the
+ * encoded bytes.  Only the content of each cell is decoded into a
+ * <code>String</code>; no intermediate line is built.  Cells in
+ * ISO-8859-1 and cells holding only ASCII bytes are widened byte by
+ * byte without a <code>CharsetDecoder</code>.
+ *
+ * @version $Revision$
+ */
+final class ByteRowReader
+{
+
+    private ByteInput in = null;
+    private ByteDataFormat format = null;
+    private Charset charset = null;
+    private CellIndex cells = new CellIndex();
+    private byte[] scratch = new byte[256];
+    private int pos = 0;
+
+    /**
+     * Flag that indicates whether cells are viewed in place.
+     */
+    private boolean cellViews = false;
+
+    /**
+     * Flag that indicates whether every byte maps to the character
+     * with the same code (ISO-8859-1).
+     */
+    private boolean latin1 = false;
+
+    /**
+     * Flag that indicates whether the data is encoded in UTF-8.
+     */
+    private boolean utf8 = false;
+
+    /**
+     * Parsing state shared by the rows read.
+     */
+    private ParseContext context = null;
+
+    /**
+     * Columns decoded, or <code>null</code> for all.
+     */
+    private boolean[] projection = null;
+
+    /**
+     * Condition on the rows returned, or <code>null</code>.
+     */
+    private RowFilter filter = null;
+
+    /**
+     * Number of rows that did not match the filter.
+     */
+    private long rejected = 0;
+
+    /**
+     * Number of rows holding line breaks in escaped cells, counted
+     * only when <code>countMultiline</code> is set.
+     */
+    private long multiline = 0;
+    private boolean countMultiline = false;
+
+    /**
+     * Cells of the last row located, as seen by the filter.
+     */
+    private BufferCells filterCells = new BufferCells();
+
+    /**
+     * Creates a new <code>ByteRowReader</code> instance.
+     *
+     * @param in input (memory mapped file or stream).
+     * @param format format used to locate rows and cells.
+     * @param charset character set of the file.
+     */
+    ByteRowReader(ByteInput in, ByteDataFormat format, Charset charset)
+    {
+        this.in = in;
+        this.format = format;
+        this.charset = charset;
+        latin1 = "ISO-8859-1".equals(charset.name());
+        utf8 = "UTF-8".equals(charset.name());
+        format.setCharset(charset);
+    }
+
+    /**
+     * Sets the parse context shared by the rows read.
+     *
+     * @param context shared parse context.
+     */
+    void setParseContext(ParseContext context)
+    {
+        this.context = context;
+    }
+
+    /**
+     * Restricts decoding to the columns of a mask.  The cells of other
+     * columns are located but added as empty placeholders.
+     *
+     * @param projection mask of the columns to decode, indexed by
+     *                   column, or <code>null</code> for all columns.
+     */
+    void setProjection(boolean[] projection)
+    {
+        this.projection = projection;
+    }
+
+    /**
+     * Sets a condition on the rows returned.  Rows that do not match
+     * are skipped right after their cells are located; the filter
+     * compares the cells in place in the buffer.
+     *
+     * @param filter filter with all columns given by index, or
+     *               <code>null</code> to return all rows.
+     */
+    void setFilter(RowFilter filter)
+    {
+        this.filter = filter;
+    }
+
+    /**
+     * Retrieves the number of rows skipped because they did not match
+     * the filter.
+     *
+     * @return number of rows rejected.
+     */
+    long getRowsRejected()
+    {
+        return rejected;
+    }
+
+    /**
+     * Specifies whether rows spanning several lines are counted.
+     *
+     * @param count <code>true</code> to count multi-line rows.
+     */
+    void setCountMultiline(boolean count)
+    {
+        countMultiline = count;
+    }
+
+    /**
+     * Retrieves the number of rows located so far whose escaped
+     * cells hold line breaks.
+     *
+     * @return number of multi-line rows.
+     */
+    long getMultilineRows()
+    {
+        return multiline;
+    }
+
+    /**
+     * Specifies whether cells are kept as views of the bytes read.
+     * Cells in UTF-8 that contain bytes outside of ASCII are kept as
+     * bytes until their characters are accessed.  Cells that need
+     * unescaping, or that contain bytes outside of ASCII in other
+     * single byte character sets, are still decoded into Strings.
+     *
+     * @param cellViews <code>true</code> to keep cells as views.
+     */
+    void setCellViews(boolean cellViews)
+    {
+        this.cellViews = cellViews;
+    }
+
+    /**
+     * Checks if the delimiters used by the byte scanning formats can be
+     * located directly in data encoded in the specified character set.
+     * This is true for UTF-8 and for single byte character sets that
+     * encode ASCII as ASCII.
+     *
+     * @param charset character set of the data file.
+     * @return <code>true</code> if the bytes can be scanned directly.
+     */
+    static boolean supports(Charset charset)
+    {
+        if ("UTF-8".equals(charset.name()))
+        {
+            return true;
+        }
+
+        CharsetEncoder enc = charset.newEncoder();
+        if (enc.maxBytesPerChar() != 1f)
+        {
+            return false;
+        }
+
+        char[] ascii = new char[128];
+        for (int i = 0; i < ascii.length; i++)
+        {
+            ascii[i] = (char)i;
+        }
+        byte[] encoded = new String(ascii).getBytes(charset);
+        if (encoded.length != ascii.length)
+        {
+            return false;
+        }
+        for (int i = 0; i < encoded.length; i++)
+        {
+            if (encoded[i] != i)
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Reads the next row.
+     *
+     * @return next row of data or <code>null</code> at the end of file.
+     * @throws IOException if the file cannot be read.
+     */
+    DataRow next() throws IOException
+    {
+        return next((DataRow)null);
+    }
+
+    /**
+     * Reads the next row into the specified row.
+     *
+     * @param recycled row to refill, or <code>null</code> to create a
+     *                 new row.
+     * @return next row of data or <code>null</code> at the end of file.
+     * @throws IOException if the file cannot be read.
+     */
+    DataRow next(DataRow recycled) throws IOException
+    {
+        return next(recycled, Long.MAX_VALUE);
+    }
+
+    /**
+     * Reads the next row starting before the specified offset into the
+     * specified row.
+     *
+     * @param recycled row to refill, or <code>null</code> to create a
+     *                 new row.
+     * @param end offset at which to stop reading.
+     * @return next row of data or <code>null</code> if no more rows
+     *         start before <code>end</code>.
+     * @throws IOException if the file cannot be read.
+     */
+    DataRow next(DataRow recycled, long end) throws IOException
+    {
+        ByteBuffer buf = scanMatching(end);
+        if (buf == null)
+        {
+            return null;
+        }
+
+        DataRow row = recycled;
+        if (row == null)
+        {
+            row = new DataRow(context);
+        }
+        else
+        {
+            row.clear();
+        }
+        row.ensureCapacity(cells.size());
+        for (int i = 0; i < cells.size(); i++)
+        {
+            if (!isProjected(i))
+            {
+                row.addEmpty();
+            }
+            else if (cellViews && isViewable(buf, i))
+            {
+                int start = cells.start(i);
+                row.add(new ByteCellView(buf, start, cells.end(i) - start));
+            }
+            else if (cellViews && utf8 && !cells.isEscaped(i))
+            {
+                int start = cells.start(i);
+                row.add(new Utf8CellView(buf, start, cells.end(i) - start));
+            }
+            else
+            {
+                row.add(decode(buf, i));
+            }
+        }
+        return row;
+    }
+
+    /**
+     * Reads the next row into a columnar batch.  Cells holding only
+     * ASCII (or any ISO-8859-1 text) are copied into the batch
+     * directly from the mapped bytes.
+     *
+     * @param batch batch to add the row to.
+     * @return <code>false</code> at the end of file.
+     * @throws IOException if the file cannot be read.
+     */
+    boolean next(ColumnBatch batch) throws IOException
+    {
+        ByteBuffer buf = scanMatching(Long.MAX_VALUE);
+        if (buf == null)
+        {
+            return false;
+        }
+
+        for (int i = 0; i < cells.size(); i++)
+        {
+            if (!isProjected(i))
+            {
+                batch.addNull();
+            }
+            else if (isViewable(buf, i))
+            {
+                batch.addCell(buf, cells.start(i), cells.end(i));
+            }
+            else
+            {
+                batch.addCell(decode(buf, i));
+            }
+        }
+        batch.endRow();
+        return true;
+    }
+
+    /**
+     * Skips the next row without building it.
+     *
+     * @return <code>false</code> at the end of file.
+     * @throws IOException if the file cannot be read.
+     */
+    boolean skip() throws IOException
+    {
+        return scan() != null;
+    }
+
+    /**
+     * Helper method to locate the cells of the next row matching the
+     * filter.
+     *
+     * @param end offset at which to stop reading.
+     * @return buffer in which the cells were located, or
+     *         <code>null</code> if no matching row starts before
+     *         <code>end</code>.
+     * @throws IOException if the file cannot be read.
+     */
+    private ByteBuffer scanMatching(long end) throws IOException
+    {
+        for (;;)
+        {
+            ByteBuffer buf = (position() < end) ? scan() : null;
+            if (buf == null || filter == null)
+            {
+                return buf;
+            }
+            filterCells.buf = buf;
+            if (filter.matches(filterCells, context))
+            {
+                return buf;
+            }
+            rejected++;
+        }
+    }
+
+    /**
+     * Helper method to locate the cells of the next row, moving the
+     * window forward when the row continues past its end.
+     * 
+     * @return buffer in which the cells were located, or
+     *         <code>null</code> at the end of file.
+     * @throws IOException if the file cannot be read.
+     */
+    private ByteBuffer scan() throws IOException
+    {
+        for (;;)
+        {
+            ByteBuffer buf = in.window();
+            int limit = buf.limit();
+            boolean eof = in.isEof();
+
+            if (pos < limit)
+            {
+                int end = format.scanRow(buf, pos, limit, eof, cells);
+                if (end >= 0)
+                {
+                    pos = end;
+                    if (countMultiline && isMultiline(buf))
+                    {
+                        multiline++;
+                    }
+                    return buf;
+                }
+            }
+            else if (eof)
+            {
+                return null;
+            }
+
+            // row continues past the end of the window.
+            in.moveTo(in.base() + pos);
+            cells.reset();
+            pos = 0;
+        }
+    }
+
+    /**
+     * Helper method to check if an escaped cell of the row located
+     * last holds a line break.
+     */
+    private boolean isMultiline(ByteBuffer buf)
+    {
+        for (int c = 0; c < cells.size(); c++)
+        {
+            if (cells.isEscaped(c))
+            {
+                for (int i = cells.start(c), n = cells.end(c); i < n; i++)
+                {
+                    byte b = buf.get(i);
+                    if (b == '\n' || b == '\r')
+                    {
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Retrieves the file offset of the next row.
+     *
+     * @return file offset at which the next row starts.
+     */
+    long position()
+    {
+        return in.base() + pos;
+    }
+
+    /**
+     * Moves to the specified file offset, which must be the start of
+     * a row.
+     *
+     * @param offset file offset of the next row to read.
+     * @throws IOException if the file cannot be mapped, or if the
+     *         offset lies before the window of a stream.
+     */
+    void seek(long offset) throws IOException
+    {
+        long rel = offset - in.base();
+        if (rel >= 0 && rel <= in.window().limit())
+        {
+            pos = (int)rel;
+        }
+        else
+        {
+            in.moveTo(offset);
+            cells.reset();
+            pos = 0;
+        }
+    }
+
+    /**
+     * Releases the input.
+     *
+     * @throws IOException if the file fails to close.
+     */
+    void close() throws IOException
+    {
+        in.close();
+    }
+
+    /**
+     * Helper method to check if a column is decoded.
+     */
+    private boolean isProjected(int column)
+    {
+        return projection == null
+            || (column < projection.length && projection[column]);
+    }
+
+    /**
+     * Helper method to check if a cell can be viewed in place.
+     */
+    private boolean isViewable(ByteBuffer buf, int cell)
+    {
+        if (cells.isEscaped(cell))
+        {
+            return false;
+        }
+        if (!latin1)
+        {
+            for (int i = cells.start(cell); i < cells.end(cell); i++)
+            {
+                if (buf.get(i) < 0)
+                {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Cells located in the buffer, viewed in place when their bytes map
+     * one to one onto characters.
+     */
+    private final class BufferCells implements RowFilter.Cells
+    {
+        ByteBuffer buf = null;
+
+        public CharSequence get(int column)
+        {
+            if (column >= cells.size())
+            {
+                return "";
+            }
+            if (isViewable(buf, column))
+            {
+                int start = cells.start(column);
+                return new ByteCellView(buf, start, cells.end(column) - start);
+            }
+            return decode(buf, column);
+        }
+    }
+
+    /**
+     * Helper method to decode the content of a cell into a
+     * <code>String</code>.
+     */
+    private String decode(ByteBuffer buf, int cell)
+    {
+        int start = cells.start(cell);
+        int len = cells.end(cell) - start;
+
+        if (len > scratch.length)
+        {
+            scratch = new byte[Math.max(len, scratch.length * 2)];
+        }
+
+        if (cells.isEscaped(cell))
+        {
+            len = format.unescape(buf, start, start + len, scratch);
+        }
+        else
+        {
+            buf.get(start, scratch, 0, len);
+        }
+
+        return new String(scratch, 0, len, charset);
+    }
+
+}
@@ -19,7 +19,8 @@
  */
 package com.infomata.data;
 
-import java.util.Iterator;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
 
 /**
  * Implementation DataFormat interface for CSV formated files.
@@ -27,7 +28,7 @@ import java.util.Iterator;
  * @author <a href="mailto:oldman1004@gmail.com">skim</a>
  * @version $Revision: 1.5 $
  */
-public class CSVFormat implements DataFormat {
+public class CSVFormat extends AbstractDataFormat implements ByteDataFormat, CellDataFormat {
 
      /** 
       * Converts a set of data into a line in data file.
@@ -36,79 +37,144 @@ public class CSVFormat implements DataFormat {
       * @return properly CSV formatted line of data.
       */
     public String format(DataRow row) {
-        
-        StringBuffer o = new StringBuffer();
-        boolean first = true;
-        Iterator items = row.iterator();
-        while (items.hasNext()) {
-            if (first) {
-                first = false;
-            }
-            else
-            {
-                o.append(",");
-            }
-            String cell = (String)items.next();
-            o.append(encode(cell));
-        }
-
+        FormatBuffer o = new FormatBuffer();
+        format(row, o);
         return o.toString();
-
     } // format(DataRow)
 
+    /**
+     * Appends the CSV formatted cells of the row to the buffer.
+     * @see com.infomata.data.BufferDataFormat#format(DataRow, FormatBuffer)
+     * @param row row of data to be converted
+     * @param out buffer receiving the formatted line.
+     */
+    public void format(DataRow row, FormatBuffer out) {
+        int n = row.size();
+        for (int i = 0; i < n; i++) {
+            formatCell(row.cell(i), i, out);
+        }
+    } // format(DataRow, FormatBuffer)
+
+    /**
+     * Appends a comma unless the cell is the first one, and the cell
+     * in quotes if it contains a quote, comma or new line or starts
+     * with white space.
+     * @see com.infomata.data.CellDataFormat#formatCell(CharSequence, int, FormatBuffer)
+     */
+    public void formatCell(CharSequence cell, int column, FormatBuffer out) {
+        if (column > 0) {
+            out.append(COMMA);
+        }
+        encode(cell, out);
+    } // formatCell(CharSequence, int, FormatBuffer)
+
   
     /** 
      * Parses a line of data properly formatted in CSV format
-     * into set of data.
+     * into set of data.  A line that ends inside a quoted cell
+     * returns <code>null</code>; the cell is kept and continued with
+     * the following lines, which are scanned only once each, until
+     * its closing quote is found.
      * @see com.infomata.data.DataFormat#parseLine(String)
      * @param line CSV formated line of data
-     * @return row of data
+     * @return row of data, or <code>null</code> if the row continues
+     *         on the next line.
      */
     public DataRow parseLine(String line) {
 
-        DataRow res = null;
+        if (line == null) {
+            return null;
+        }
+
+        char[] cs = null;
+        int len = 0;
+        int i = 0;
+        boolean paired = true;
 
         if (row == null) {
-            row = new DataRow();
+            row = createRow();
+            cs = line.toCharArray();
+            len = cs.length;
         }
         else {
-            line = remainder + NEW_LINE + line;
+            // continue the open quoted cell.
+            int n = line.length();
+            cs = grow(pendingLen + 1 + n);
+            cs[pendingLen] = NEW_LINE;
+            line.getChars(0, n, cs, pendingLen + 1);
+            i = pendingLen + 1;
+            len = i + n;
+            paired = false;
         }
 
         int offset = 0;
-        boolean paired = true;
-
-        if (line != null) {
-            char[] cs = line.toCharArray();
-            for (int i = 0; i < cs.length; i++) {
-                if (cs[i] == QUOTE) {
-                    paired = !paired;
-                }
-                else if (cs[i] == COMMA && paired) {
-                    row.add(decode(cs, offset, i - offset));
-                    offset = i + 1;
-                }
+        for (; i < len; i++) {
+            if (cs[i] == QUOTE) {
+                paired = !paired;
             }
-            if (paired) {
-                if (offset < cs.length) {
-                    row.add(decode(cs, offset, cs.length - offset));
-                }
-                else if (cs[offset - 1] == COMMA)
-                {
-                    row.addEmpty();
-                }
-                res = row;
-                row = null;
+            else if (cs[i] == COMMA && paired) {
+                decode(row, cs, offset, i - offset);
+                offset = i + 1;
             }
-            else {
-                remainder = new String(cs, offset, cs.length - offset);
+        }
+
+        if (!paired) {
+            // keep the open cell; earlier cells may be views of cs,
+            // so it is copied rather than moved.
+            if (cs != pending || offset > 0) {
+                pending = new char[Math.max(2 * (len - offset), 64)];
+                System.arraycopy(cs, offset, pending, 0, len - offset);
             }
+            pendingLen = len - offset;
+            return null;
         }
 
+        if (offset < len) {
+            decode(row, cs, offset, len - offset);
+        }
+        else if (offset > 0 && cs[offset - 1] == COMMA) {
+            row.addEmpty();
+        }
+        DataRow res = row;
+        row = null;
+        pending = null;
+        pendingLen = 0;
         return res;
 
     } // parseLine(String)
 
+    /**
+     * Ends a row left open by {@link #parseLine(String)} at the end of
+     * the input, keeping its unterminated cell as it is (opening quote
+     * included), as the byte scanner does.
+     *
+     * @return the open row, or <code>null</code> if there is none.
+     */
+    DataRow finish() {
+        DataRow res = row;
+        if (res != null) {
+            decode(res, pending, 0, pendingLen);
+        }
+        row = null;
+        pending = null;
+        pendingLen = 0;
+        return res;
+    }
+
+    /**
+     * Helper method to make room in the buffer of the open cell,
+     * copying it into a larger array when needed (the old array is
+     * left intact for the views into it).
+     */
+    private char[] grow(int min) {
+        if (pending.length < min) {
+            char[] a = new char[Math.max(min, 2 * pending.length)];
+            System.arraycopy(pending, 0, a, 0, pendingLen);
+            pending = a;
+        }
+        return pending;
+    }
+
 
     /**
      * Helper method to convert one data item into
@@ -117,66 +183,76 @@ public class CSVFormat implements DataFormat {
      * @param datum data item
      * @return CSV encoded string
      */
-    private String encode(String datum) {
+    private void encode(CharSequence datum, FormatBuffer o) {
 
-        String res = null;
         if (datum == null) {
-            res = "null";
+            o.append("null");
+            return;
         }
-        else if (datum.length() == 0) {
-            res = "";
+
+        int len = datum.length();
+        boolean quote = len > 0 && Character.isWhitespace(datum.charAt(0));
+        for (int i = 0; i < len && !quote; i++) {
+            char c = datum.charAt(i);
+            quote = c == QUOTE || c == COMMA || c == NEW_LINE;
         }
-        else if (datum.indexOf(QUOTE) >= 0 
-                 || datum.indexOf(COMMA) >= 0
-                 || datum.indexOf(NEW_LINE) >= 0
-                 || Character.isWhitespace(datum.charAt(0))) {
-            
-            StringBuffer o = new StringBuffer();
+
+        if (quote) {
             o.append(QUOTE);
-            
-            char[] cs = datum.toCharArray();
-            for (int i = 0; i < cs.length; i++) {
-                if (cs[i] == QUOTE) {
+            for (int i = 0; i < len; i++) {
+                char c = datum.charAt(i);
+                if (c == QUOTE) {
                     o.append(QUOTE); // add 1 more.
                 }
-                o.append(cs[i]);
+                o.append(c);
             }
-            
             o.append(QUOTE);
-            res = o.toString();
-            
         }
         else {
-            res = datum;
+            o.append(datum);
         }
 
-        return res;
-
-    } // encode(String)
+    } // encode(CharSequence, FormatBuffer)
 
 
     /**
      * Helper method to remove CSV encoding from CSV formated
-     * data cell.
+     * data cell and add the result to the row.  Cells without
+     * doubled quotes are added as is (without enclosing quotes).
      *
+     * @param row row to add the cell to
      * @param cs a <code>char[]</code> value
      * @param offset an <code>int</code> value
      * @param len an <code>int</code> value
-     * @return a <code>String</code> value
      */
-    private static String decode(char[] cs, int offset, int len) {
-        
-        while (Character.isWhitespace(cs[offset]) && offset < cs.length) {
+    private void decode(DataRow row, char[] cs, int offset, int len) {
+
+        if (!isProjected(row.size())) {
+            row.addEmpty();
+            return;
+        }
+
+        while (len > 0 && Character.isWhitespace(cs[offset])) {
             offset += 1;
             len -= 1;
         }
 
         int end = offset + len - 1;
         
-        StringBuffer o = new StringBuffer();
-
         // decode escaped content.
-        if (cs[offset] == QUOTE && cs[end] == QUOTE) {
+        if (len > 0 && cs[offset] == QUOTE && cs[end] == QUOTE) {
+
+            boolean doubled = false;
+            for (int i = offset + 1; i < end && !doubled; i++) {
+                doubled = cs[i] == QUOTE;
+            }
+
+            if (!doubled) {
+                addCell(row, cs, offset + 1, Math.max(len - 2, 0));
+                return;
+            }
+
+            StringBuffer o = new StringBuffer();
 
             for (int i = offset + 1; i < end; i++) {
                 // remove doubled '"'
@@ -188,17 +264,190 @@ public class CSVFormat implements DataFormat {
                 }
             }
 
+            row.add(o.toString());
+
         }
         else {
-            o.append(cs, offset, len);
+            addCell(row, cs, offset, len);
         }
 
-        return o.toString();
+    } // decode(DataRow, char[], int, int)
+
+    /**
+     * CSV delimiters and quotes are ASCII, so the byte scanner
+     * does not depend on the character set.
+     * @see com.infomata.data.ByteDataFormat#setCharset(Charset)
+     */
+    public void setCharset(Charset charset) {
+    }
 
-    } // decode(char[], int, int)
+    /**
+     * Line breaks between quotes belong to the cell.
+     * @see com.infomata.data.ByteDataFormat#getQuote()
+     */
+    public int getQuote() {
+        return QUOTE;
+    }
 
+    /**
+     * Locates the cells of a CSV row in encoded bytes.  Follows the
+     * same rules as {@link #parseLine(String)}: commas and line breaks
+     * between an odd number of quotes belong to the cell.  Only the
+     * quotes, commas and line breaks found by the structural index
+     * are examined.
+     * @see com.infomata.data.ByteDataFormat#scanRow(ByteBuffer, int, int, boolean, CellIndex)
+     */
+    public int scanRow(ByteBuffer buf, int start, int limit, boolean eof,
+                       CellIndex cells) {
+
+        cells.clear();
+
+        StructuralIndex index = cells.structure(STRUCTURAL);
+        int offset = start;
+        boolean paired = true;
+        int quotes = 0;
+        boolean cr = false;
+
+        for (int i = index.next(buf, start, limit); i < limit;
+             i = index.next(buf, i + 1, limit)) {
+            byte b = buf.get(i);
+            if (b == QUOTE) {
+                paired = !paired;
+                quotes++;
+            }
+            else if (!paired) {
+                if (b == CR) {
+                    cr = true;
+                }
+            }
+            else if (b == COMMA) {
+                addCell(buf, offset, i, quotes, cr, cells);
+                offset = i + 1;
+                quotes = 0;
+                cr = false;
+            }
+            else if (b == NEW_LINE || b == CR) {
+                int end = i + 1;
+                if (b == CR) {
+                    if (end == limit && !eof) {
+                        return -1;
+                    }
+                    if (end < limit && buf.get(end) == NEW_LINE) {
+                        end++;
+                    }
+                }
+                if (i > start) {
+                    addCell(buf, offset, i, quotes, cr, cells);
+                }
+                return end;
+            }
+        }
+
+        if (!eof) {
+            return -1;
+        }
+        if (limit > start) {
+            addCell(buf, offset, limit, quotes, cr, cells);
+        }
+        return limit;
+
+    } // scanRow(ByteBuffer, int, int, boolean, CellIndex)
+
+    /**
+     * Removes CSV encoding from a cell located by
+     * {@link #scanRow(ByteBuffer, int, int, boolean, CellIndex)}.
+     * Line breaks inside the cell are converted to a single new line
+     * character, as they are when the cell spans several lines
+     * passed to {@link #parseLine(String)}.
+     * @see com.infomata.data.ByteDataFormat#unescape(ByteBuffer, int, int, byte[])
+     */
+    public int unescape(ByteBuffer buf, int start, int end, byte[] dest) {
+
+        int n = 0;
+
+        if (end - start > 1 && buf.get(start) == QUOTE
+            && buf.get(end - 1) == QUOTE) {
+            end -= 1;
+            for (int i = start + 1; i < end; i++) {
+                // remove doubled '"'
+                if (buf.get(i) == QUOTE) {
+                    i++;
+                }
+                if (i < end) {
+                    n = put(buf, i, end, dest, n);
+                }
+            }
+        }
+        else if (end - start > 1 || (end > start && buf.get(start) != QUOTE)) {
+            for (int i = start; i < end; i++) {
+                n = put(buf, i, end, dest, n);
+            }
+        }
+
+        return n;
+
+    } // unescape(ByteBuffer, int, int, byte[])
+
+    /**
+     * Helper method to record the content of one cell, skipping
+     * leading white space.  A cell that is simply enclosed in quotes
+     * is recorded without them, so it does not need unescaping.
+     */
+    private static void addCell(ByteBuffer buf, int offset, int end,
+                                int quotes, boolean cr, CellIndex cells) {
+
+        while (offset < end && isWhitespace(buf.get(offset))) {
+            offset += 1;
+        }
+
+        boolean enclosed = end - offset > 1 && buf.get(offset) == QUOTE
+            && buf.get(end - 1) == QUOTE;
+
+        if (quotes == 0 && !cr) {
+            cells.add(offset, end, false);
+        }
+        else if (quotes == 2 && !cr && enclosed) {
+            cells.add(offset + 1, end - 1, false);
+        }
+        else if (quotes == 1 && end - offset == 1) {
+            cells.add(offset, offset, false);
+        }
+        else {
+            cells.add(offset, end, true);
+        }
+    }
+
+    /**
+     * Helper method to copy one byte of a cell, converting line breaks
+     * into a new line character.
+     */
+    private static int put(ByteBuffer buf, int i, int end, byte[] dest, int n) {
+        byte b = buf.get(i);
+        if (b == CR) {
+            if (i + 1 < end && buf.get(i + 1) == NEW_LINE) {
+                return n;
+            }
+            b = NEW_LINE;
+        }
+        dest[n] = b;
+        return n + 1;
+    }
+
+    private static boolean isWhitespace(byte b) {
+        return b >= 0 && Character.isWhitespace((char)b);
+    }
+
+    /**
+     * Row whose last cell continues on the next line, or
+     * <code>null</code>.
+     */
     private DataRow row = null;
-    private String remainder = null;
+
+    /**
+     * Text of the open cell of <code>row</code>.
+     */
+    private char[] pending = null;
+    private int pendingLen = 0;
 
     /**
      * Double quote
@@ -210,9 +459,19 @@ public class CSVFormat implements DataFormat {
      */
     private static final char NEW_LINE = '\n';
 
+    /**
+     * carriage return character.
+     */
+    private static final char CR = '\r';
+
     /**
      * Delimiter (comma)
      */
     private static final char COMMA = ',';
+
+    /**
+     * Bytes that can end a cell or a row.
+     */
+    private static final byte[] STRUCTURAL = { QUOTE, COMMA, NEW_LINE, CR };
     
 }
@@ -0,0 +1,46 @@
+/*
+ * $Id$
+ *
+ * Copyright(c) 2002 Infomata
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+package com.infomata.data;
+
+/**
+ * Extension of {@link com.infomata.data.BufferDataFormat} for formats
+ * that can format a row one cell at a time.
+ * {@link com.infomata.data.DataFileWriter} uses this interface for its
+ * typed write methods ({@link DataFileWriter#writeInt(int)},
+ * {@link DataFileWriter#writeString(CharSequence)} and so on), which
+ * then write cells without filling a {@link com.infomata.data.DataRow}.
+ * With other formats those methods fill a row and format it whole.
+ *
+ * @version $Revision$
+ */
+public interface CellDataFormat extends BufferDataFormat {
+
+    /**
+     * Appends one cell to the buffer, preceded by the separator of
+     * the format unless it is the first cell of its row.  Quoting and
+     * escaping are applied as in {@link #format(DataRow, FormatBuffer)}.
+     *
+     * @param cell value of the cell, or <code>null</code>.
+     * @param column index of the cell in its row.
+     * @param out buffer the cell is appended to.
+     */
+    public void formatCell(CharSequence cell, int column, FormatBuffer out);
+
+}
@@ -0,0 +1,166 @@
+/*
+ * $Id$
+ *
+ * Copyright(c) 2002 Infomata
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+package com.infomata.data;
+
+/**
+ * Positions of the cells of one row within a byte buffer, as located by
+ * {@link com.infomata.data.ByteDataFormat#scanRow(java.nio.ByteBuffer, int, int, boolean, CellIndex)}.
+ * An instance is reused from row to row, so the arrays only grow when
+ * a row is wider than any row seen before.
+ * <p>
+ * A cell index also caches the positions of the delimiters, quotes and
+ * line breaks found ahead of the current row in the buffer being
+ * scanned.  Call {@link #reset()} before scanning a buffer whose
+ * content has changed since it was last scanned.
+ * </p>
+ *
+ * @version $Revision$
+ */
+public final class CellIndex {
+
+    private int count = 0;
+    private int[] starts = null;
+    private int[] ends = null;
+    private boolean[] escaped = null;
+
+    /**
+     * Structural byte positions of the buffer being scanned
+     * (created on first use).
+     */
+    private StructuralIndex structure = null;
+
+    /**
+     * Creates a new <code>CellIndex</code> instance.
+     */
+    public CellIndex() {
+        this(16);
+    }
+
+    /**
+     * Creates a new <code>CellIndex</code> instance with room for the
+     * specified number of cells.
+     *
+     * @param capacity initial number of cells.
+     */
+    public CellIndex(int capacity) {
+        capacity = Math.max(capacity, 1);
+        starts = new int[capacity];
+        ends = new int[capacity];
+        escaped = new boolean[capacity];
+    }
+
+    /**
+     * Removes all cells.
+     */
+    public void clear() {
+        count = 0;
+    }
+
+    /**
+     * Forgets the structural byte positions cached for the buffer
+     * scanned last.
+     */
+    public void reset() {
+        if (structure != null) {
+            structure.reset();
+        }
+    }
+
+    /**
+     * Retrieves the structural index used by a format to skip to its
+     * next structural byte.
+     *
+     * @param targets structural bytes of the format.
+     * @return structural index for <code>targets</code>.
+     */
+    StructuralIndex structure(byte[] targets) {
+        if (structure == null || !structure.hasTargets(targets)) {
+            structure = new StructuralIndex(targets);
+        }
+        return structure;
+    }
+
+    /**
+     * Records the next cell.
+     *
+     * @param start index of the first byte of the cell content.
+     * @param end index after the last byte of the cell content.
+     * @param esc <code>true</code> if the content contains escape
+     *            sequences.
+     */
+    public void add(int start, int end, boolean esc) {
+        if (count == starts.length) {
+            int size = count * 2;
+            int[] s = new int[size];
+            int[] e = new int[size];
+            boolean[] x = new boolean[size];
+            System.arraycopy(starts, 0, s, 0, count);
+            System.arraycopy(ends, 0, e, 0, count);
+            System.arraycopy(escaped, 0, x, 0, count);
+            starts = s;
+            ends = e;
+            escaped = x;
+        }
+        starts[count] = start;
+        ends[count] = end;
+        escaped[count] = esc;
+        count++;
+    }
+
+    /**
+     * Retrieves the number of cells.
+     *
+     * @return number of cells in the row.
+     */
+    public int size() {
+        return count;
+    }
+
+    /**
+     * Retrieves the buffer index of the first byte of a cell.
+     *
+     * @param cell cell number (starts at zero)
+     * @return index of the first byte of the cell content.
+     */
+    public int start(int cell) {
+        return starts[cell];
+    }
+
+    /**
+     * Retrieves the buffer index after the last byte of a cell.
+     *
+     * @param cell cell number (starts at zero)
+     * @return index after the last byte of the cell content.
+     */
+    public int end(int cell) {
+        return ends[cell];
+    }
+
+    /**
+     * Checks if the content of a cell contains escape sequences.
+     *
+     * @param cell cell number (starts at zero)
+     * @return <code>true</code> if the content must be unescaped.
+     */
+    public boolean isEscaped(int cell) {
+        return escaped[cell];
+    }
+
+}
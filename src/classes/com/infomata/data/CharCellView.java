@@ -0,0 +1,68 @@
+/*
+ * $Id$
+ *
+ * Copyright(c) 2002 Infomata
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+package com.infomata.data;
+
+/**
+ * Cell content viewed in place in a character array.
+ *
+ * @version $Revision$
+ */
+final class CharCellView implements CharSequence {
+
+    private final char[] cs;
+    private final int offset;
+    private final int len;
+
+    /**
+     * Creates a new <code>CharCellView</code> instance.
+     *
+     * @param cs characters containing the cell.
+     * @param offset index of the first character of the cell.
+     * @param len number of characters in the cell.
+     */
+    CharCellView(char[] cs, int offset, int len) {
+        this.cs = cs;
+        this.offset = offset;
+        this.len = len;
+    }
+
+    public int length() {
+        return len;
+    }
+
+    public char charAt(int index) {
+        if (index < 0 || index >= len) {
+            throw new IndexOutOfBoundsException(String.valueOf(index));
+        }
+        return cs[offset + index];
+    }
+
+    public CharSequence subSequence(int start, int end) {
+        if (start < 0 || end > len || start > end) {
+            throw new IndexOutOfBoundsException(start + ", " + end);
+        }
+        return new CharCellView(cs, offset + start, end - start);
+    }
+
+    public String toString() {
+        return new String(cs, offset, len);
+    }
+
+}
@@ -0,0 +1,601 @@
+/*
+ * $Id$
+ *
+ * Copyright(c) 2002 Infomata
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+package com.infomata.data;
+
+import java.nio.ByteBuffer;
+import java.text.ParsePosition;
+import java.util.List;
+
+/**
+ * A block of consecutive rows of a data file stored by column, as
+ * returned by {@link com.infomata.data.DataFileReader#nextBatch(int)}.
+ * <p>
+ * The text of all cells is copied into one shared character array
+ * ({@link #getChars()}); each column holds the start and end offsets
+ * of its cells in that array.  Columns declared numeric in the
+ * reader's {@link com.infomata.data.DataSchema} also hold their values
+ * already parsed into an <code>int[]</code>, <code>long[]</code> or
+ * <code>double[]</code>, so that a computation over a column is a
+ * plain loop over an array:
+ * </p>
+ * <pre class="example">
+ * double sum = 0;
+ * double[] prices = batch.getDoubles(2);
+ * boolean[] nulls = batch.getNulls(2);
+ * for (int i = 0; i &lt; batch.size(); i++) {
+ *     if (!nulls[i]) {
+ *         sum += prices[i];
+ *     }
+ * }
+ * </pre>
+ * <p>
+ * Arrays returned by the accessors may be longer than the batch;
+ * only the first {@link #size()} entries are valid.  A cell is null
+ * when the row has fewer cells than the batch has columns, or when
+ * the cell of a numeric column is empty or not a number.
+ * </p>
+ *
+ * @see com.infomata.data.DataSchema
+ * @version $Revision$
+ */
+public final class ColumnBatch {
+
+    private DataSchema schema = null;
+    private List labels = null;
+    private ParseContext context = null;
+
+    /**
+     * Text of all cells.
+     */
+    private char[] chars = new char[4096];
+    private int length = 0;
+
+    private int rows = 0;
+    private int capacity = 0;
+    private int columns = 0;
+
+    /**
+     * Number of cells added to the row being filled.
+     */
+    private int cell = 0;
+
+    private int[] types = new int[0];
+    private int[][] starts = new int[0][];
+    private int[][] ends = new int[0][];
+    private boolean[][] nulls = new boolean[0][];
+    private int[][] ints = new int[0][];
+    private long[][] longs = new long[0][];
+    private double[][] doubles = new double[0][];
+
+    /**
+     * Cell being parsed as a number.
+     */
+    private Slice slice = new Slice();
+
+    /**
+     * Creates a new <code>ColumnBatch</code> instance.
+     *
+     * @param schema column types, or <code>null</code> to read all
+     *               columns as text.
+     * @param labels column labels, or <code>null</code> if the file
+     *               has no header.
+     * @param context parse context used for numeric columns.
+     */
+    ColumnBatch(DataSchema schema, List labels, ParseContext context) {
+        this.schema = schema;
+        this.labels = labels;
+        this.context = context;
+    }
+
+    /**
+     * Removes all rows and makes room for the specified number
+     * of rows.
+     *
+     * @param maxRows number of rows the batch will be filled with.
+     */
+    void clear(int maxRows) {
+        rows = 0;
+        length = 0;
+        cell = 0;
+        if (maxRows > capacity) {
+            capacity = maxRows;
+            for (int i = 0; i < columns; i++) {
+                allocate(i);
+            }
+        }
+    }
+
+    /**
+     * Adds the cells of a row read by the line based reader.
+     *
+     * @param row row of data.
+     * @param projection mask of the columns read, or <code>null</code>
+     *                   if all columns were read.
+     */
+    void addRow(DataRow row, boolean[] projection) {
+        for (int i = 0; i < row.size(); i++) {
+            if (projection != null
+                && (i >= projection.length || !projection[i])) {
+                addNull();
+            }
+            else {
+                addCell(row.getCharSequence(i));
+            }
+        }
+        endRow();
+    }
+
+    /**
+     * Adds a null cell (a cell left out by a projection) to the row
+     * being filled.
+     */
+    void addNull() {
+        reserve(0);
+        int col = cell++;
+        starts[col][rows] = length;
+        ends[col][rows] = length;
+        nulls[col][rows] = true;
+    }
+
+    /**
+     * Adds the next cell of the row being filled.
+     *
+     * @param cs content of the cell.
+     */
+    void addCell(CharSequence cs) {
+        int len = cs.length();
+        reserve(len);
+        if (cs instanceof String) {
+            ((String)cs).getChars(0, len, chars, length);
+        }
+        else {
+            for (int i = 0; i < len; i++) {
+                chars[length + i] = cs.charAt(i);
+            }
+        }
+        store(len);
+    }
+
+    /**
+     * Adds the next cell of the row being filled from bytes in which
+     * every byte is the code of one character (ASCII, or any byte in
+     * ISO-8859-1).
+     *
+     * @param buf buffer containing the cell.
+     * @param start index of the first byte of the cell.
+     * @param end index after the last byte of the cell.
+     */
+    void addCell(ByteBuffer buf, int start, int end) {
+        int len = end - start;
+        reserve(len);
+        for (int i = 0; i < len; i++) {
+            chars[length + i] = (char)(buf.get(start + i) & 0xff);
+        }
+        store(len);
+    }
+
+    /**
+     * Completes the row being filled.  Columns for which the row has
+     * no cell are set to null.
+     */
+    void endRow() {
+        for (int i = cell; i < columns; i++) {
+            starts[i][rows] = length;
+            ends[i][rows] = length;
+            nulls[i][rows] = true;
+        }
+        cell = 0;
+        rows++;
+    }
+
+    /**
+     * Retrieves the number of rows in the batch.
+     *
+     * @return number of rows.
+     */
+    public int size() {
+        return rows;
+    }
+
+    /**
+     * Retrieves the number of columns in the batch (the widest row
+     * read so far).
+     *
+     * @return number of columns.
+     */
+    public int getColumnCount() {
+        return columns;
+    }
+
+    /**
+     * Retrieves the type of a column.
+     *
+     * @param column column index (starts at zero)
+     * @return one of the types defined in
+     *         {@link com.infomata.data.DataSchema}.
+     */
+    public int getType(int column) {
+        return types[column];
+    }
+
+    /**
+     * Retrieves the index of the column with the specified label.
+     *
+     * @param label column label
+     * @return column index, or <code>-1</code> if no such column.
+     */
+    public int getColumn(String label) {
+        return (labels == null) ? -1 : labels.indexOf(label);
+    }
+
+    /**
+     * Retrieves the character array holding the text of all cells.
+     *
+     * @return shared character buffer.
+     */
+    public char[] getChars() {
+        return chars;
+    }
+
+    /**
+     * Retrieves the offsets in {@link #getChars()} at which the cells
+     * of a column start.
+     *
+     * @param column column index (starts at zero)
+     * @return start offset of each row's cell.
+     */
+    public int[] getStarts(int column) {
+        return starts[column];
+    }
+
+    /**
+     * Retrieves the offsets in {@link #getChars()} after the last
+     * character of the cells of a column.
+     *
+     * @param column column index (starts at zero)
+     * @return end offset of each row's cell.
+     */
+    public int[] getEnds(int column) {
+        return ends[column];
+    }
+
+    /**
+     * Retrieves the null flags of a column.
+     *
+     * @param column column index (starts at zero)
+     * @return <code>true</code> for each row whose cell is null.
+     */
+    public boolean[] getNulls(int column) {
+        return nulls[column];
+    }
+
+    /**
+     * Retrieves the values of an {@link DataSchema#INT} column.
+     *
+     * @param column column index (starts at zero)
+     * @return values of the column, or <code>null</code> if the
+     *         column is of another type.
+     */
+    public int[] getInts(int column) {
+        return ints[column];
+    }
+
+    /**
+     * Retrieves the values of a {@link DataSchema#LONG} column.
+     *
+     * @param column column index (starts at zero)
+     * @return values of the column, or <code>null</code> if the
+     *         column is of another type.
+     */
+    public long[] getLongs(int column) {
+        return longs[column];
+    }
+
+    /**
+     * Retrieves the values of a {@link DataSchema#DOUBLE} column.
+     *
+     * @param column column index (starts at zero)
+     * @return values of the column, or <code>null</code> if the
+     *         column is of another type.
+     */
+    public double[] getDoubles(int column) {
+        return doubles[column];
+    }
+
+    /**
+     * Checks if a cell is null.
+     *
+     * @param column column index (starts at zero)
+     * @param row row index within the batch (starts at zero)
+     * @return <code>true</code> if the cell is null.
+     */
+    public boolean isNull(int column, int row) {
+        return nulls[column][row];
+    }
+
+    /**
+     * Retrieves the text of a cell.
+     *
+     * @param column column index (starts at zero)
+     * @param row row index within the batch (starts at zero)
+     * @return text of the cell (empty if the row has no cell in
+     *         the column).
+     */
+    public String getString(int column, int row) {
+        if (column >= columns || row >= rows) {
+            throw new IndexOutOfBoundsException(column + ", " + row);
+        }
+        int start = starts[column][row];
+        return new String(chars, start, ends[column][row] - start);
+    }
+
+    /**
+     * Retrieves the text of a cell without copying it.  The view
+     * is only valid until the batch is refilled.
+     *
+     * @param column column index (starts at zero)
+     * @param row row index within the batch (starts at zero)
+     * @return view of the cell text (empty if the row has no cell
+     *         in the column).
+     */
+    public CharSequence getCharSequence(int column, int row) {
+        if (column >= columns || row >= rows) {
+            throw new IndexOutOfBoundsException(column + ", " + row);
+        }
+        int start = starts[column][row];
+        return new CharCellView(chars, start, ends[column][row] - start);
+    }
+
+    /**
+     * Retrieves the value of a cell of a numeric column as an
+     * <code>int</code>.
+     *
+     * @param column column index (starts at zero)
+     * @param row row index within the batch (starts at zero)
+     * @return value of the cell (<code>0</code> if null).
+     * @throws IllegalStateException if the column is not numeric.
+     */
+    public int getInt(int column, int row) {
+        return (int)getLong(column, row);
+    }
+
+    /**
+     * Retrieves the value of a cell of a numeric column as a
+     * <code>long</code>.
+     *
+     * @param column column index (starts at zero)
+     * @param row row index within the batch (starts at zero)
+     * @return value of the cell (<code>0</code> if null).
+     * @throws IllegalStateException if the column is not numeric.
+     */
+    public long getLong(int column, int row) {
+        switch (types[column]) {
+        case DataSchema.INT:
+            return ints[column][row];
+        case DataSchema.LONG:
+            return longs[column][row];
+        case DataSchema.DOUBLE:
+            return (long)doubles[column][row];
+        default:
+            throw new IllegalStateException("column " + column + " is not numeric");
+        }
+    }
+
+    /**
+     * Retrieves the value of a cell of a numeric column as a
+     * <code>double</code>.
+     *
+     * @param column column index (starts at zero)
+     * @param row row index within the batch (starts at zero)
+     * @return value of the cell (<code>0</code> if null).
+     * @throws IllegalStateException if the column is not numeric.
+     */
+    public double getDouble(int column, int row) {
+        switch (types[column]) {
+        case DataSchema.INT:
+            return ints[column][row];
+        case DataSchema.LONG:
+            return longs[column][row];
+        case DataSchema.DOUBLE:
+            return doubles[column][row];
+        default:
+            throw new IllegalStateException("column " + column + " is not numeric");
+        }
+    }
+
+    /**
+     * Helper method to make room for a cell of the specified length.
+     */
+    private void reserve(int len) {
+        if (length + len > chars.length) {
+            char[] tmp = new char[Math.max(length + len, chars.length * 2)];
+            System.arraycopy(chars, 0, tmp, 0, length);
+            chars = tmp;
+        }
+        if (cell == columns) {
+            addColumn();
+        }
+    }
+
+    /**
+     * Helper method to record the cell just copied to the end of
+     * the character buffer.
+     */
+    private void store(int len) {
+        int col = cell++;
+        int start = length;
+        length += len;
+        starts[col][rows] = start;
+        ends[col][rows] = length;
+        nulls[col][rows] = false;
+
+        if (types[col] == DataSchema.STRING) {
+            return;
+        }
+
+        slice.set(start, length);
+        NumberParser parser = context.getNumberParser();
+        if (types[col] == DataSchema.DOUBLE) {
+            double d = parser.parseDouble(slice);
+            if (Double.isNaN(d)) {
+                Number n = parseSlow();
+                nulls[col][rows] = (n == null);
+                d = (n == null) ? 0d : n.doubleValue();
+            }
+            doubles[col][rows] = d;
+        }
+        else {
+            long l = parser.parseLong(slice);
+            if (l == NumberParser.NOT_PARSED) {
+                Number n = parseSlow();
+                nulls[col][rows] = (n == null);
+                l = (n == null) ? 0L : n.longValue();
+            }
+            if (types[col] == DataSchema.INT) {
+                ints[col][rows] = (int)l;
+            }
+            else {
+                longs[col][rows] = l;
+            }
+        }
+    }
+
+    /**
+     * Helper method to parse the current cell with the
+     * <code>NumberFormat</code> of the parse context.
+     *
+     * @return parsed value, or <code>null</code> if the cell is
+     *         empty or not a number.
+     */
+    private Number parseSlow() {
+        String val = slice.toString().trim();
+        if (val.length() == 0) {
+            return null;
+        }
+        if (val.endsWith("-")) {
+            val = "-" + val.substring(0, val.length() - 1);
+        }
+        ParsePosition pos = new ParsePosition(0);
+        Number n = context.getNumberFormat().parse(val, pos);
+        if (n == null) {
+            try {
+                n = Double.valueOf(val);
+            }
+            catch (NumberFormatException e) {
+                // not a number
+            }
+        }
+        return n;
+    }
+
+    /**
+     * Helper method to add a column, null in the rows already read.
+     */
+    private void addColumn() {
+        int col = columns++;
+        if (col == types.length) {
+            int size = Math.max(8, col * 2);
+            int[] t = new int[size];
+            System.arraycopy(types, 0, t, 0, col);
+            types = t;
+            starts = (int[][])grow(starts, new int[size][]);
+            ends = (int[][])grow(ends, new int[size][]);
+            nulls = (boolean[][])grow(nulls, new boolean[size][]);
+            ints = (int[][])grow(ints, new int[size][]);
+            longs = (long[][])grow(longs, new long[size][]);
+            doubles = (double[][])grow(doubles, new double[size][]);
+        }
+
+        String label = (labels != null && col < labels.size())
+            ? (String)labels.get(col) : null;
+        types[col] = (schema == null) ? DataSchema.STRING
+            : schema.getType(col, label);
+        allocate(col);
+
+        for (int i = 0; i < rows; i++) {
+            starts[col][i] = 0;
+            ends[col][i] = 0;
+            nulls[col][i] = true;
+        }
+    }
+
+    /**
+     * Helper method to allocate the arrays of a column.
+     */
+    private void allocate(int col) {
+        starts[col] = new int[capacity];
+        ends[col] = new int[capacity];
+        nulls[col] = new boolean[capacity];
+        switch (types[col]) {
+        case DataSchema.INT:
+            ints[col] = new int[capacity];
+            break;
+        case DataSchema.LONG:
+            longs[col] = new long[capacity];
+            break;
+        case DataSchema.DOUBLE:
+            doubles[col] = new double[capacity];
+            break;
+        default:
+            break;
+        }
+    }
+
+    /**
+     * Helper method to copy the columns of an array into a larger one.
+     */
+    private static Object[] grow(Object[] from, Object[] to) {
+        System.arraycopy(from, 0, to, 0, from.length);
+        return to;
+    }
+
+    /**
+     * Cell of the shared character buffer, reused for every cell
+     * parsed as a number.
+     */
+    private final class Slice implements CharSequence {
+
+        private int start = 0;
+        private int end = 0;
+
+        void set(int start, int end) {
+            this.start = start;
+            this.end = end;
+        }
+
+        public int length() {
+            return end - start;
+        }
+
+        public char charAt(int index) {
+            return chars[start + index];
+        }
+
+        public CharSequence subSequence(int s, int e) {
+            return new CharCellView(chars, start + s, e - s);
+        }
+
+        public String toString() {
+            return new String(chars, start, end - start);
+        }
+
+    }
+
+}
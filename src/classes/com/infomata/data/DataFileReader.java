@@ -21,11 +21,26 @@ package com.infomata.data;
 
 import java.io.BufferedReader;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.io.UnsupportedEncodingException;
 import java.net.URL;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
 import java.text.NumberFormat;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Function;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 
 // TODO: update javadoc
@@ -63,6 +78,29 @@ import java.text.NumberFormat;
  * }
  * </pre>
  * </p>
+ * <p>
+ * Large files on a local disk can be read in memory mapped mode (see
+ * {@link #setMemoryMapped(boolean)}).  The file is then mapped into memory
+ * a window at a time and formats implementing
+ * {@link com.infomata.data.ByteDataFormat} (CSV, tab separated and simple
+ * delimiter formats) locate the cells directly in the encoded bytes,
+ * without building a <code>String</code> for each line.  The same files
+ * can also be parsed by several threads at once (see
+ * {@link #setParallelism(int)}).
+ * </p>
+ * <p>
+ * Other inputs are read as a stream of bytes.  The same formats then
+ * locate the cells in a buffer of bytes and only the content of each
+ * cell is decoded: ISO-8859-1 and ASCII cells are widened byte by
+ * byte, and UTF-8 cells stay in bytes until they are needed as text
+ * (with {@link #setCellViews(boolean)}).  Formats that parse lines are
+ * fed through a <code>CharsetDecoder</code>, except for ISO-8859-1 and
+ * ASCII data, whose bytes are mapped onto characters directly.
+ * </p>
+ * <p>
+ * Gzip compressed files are recognized by their first bytes and
+ * inflated while they are read (see {@link #setGzipThreads(int)}).
+ * </p>
  * 
  * @author <a href="mailto:oldman1004@gmail.com">Sam Kim</a>
  * @version $Revision: 1.2 $
@@ -70,9 +108,176 @@ import java.text.NumberFormat;
 public class DataFileReader extends AbstractDataFile
 {
 
+    /**
+     * Number of rows read at a time when loading a table.
+     */
+    private static final int TABLE_BATCH_SIZE = 4096;
+
     private DataRow row = null;
     private BufferedReader in = null;
 
+    /**
+     * Reader used in memory mapped mode.
+     */
+    private ByteRowReader bytes = null;
+
+    /**
+     * Flag that indicates whether files are read through a memory map.
+     */
+    private boolean mapped = false;
+
+    /**
+     * Size of the memory mapped window.
+     */
+    private int windowSize = MappedFileInput.DEFAULT_WINDOW_SIZE;
+
+    /**
+     * Size of the buffer in which streams are scanned.
+     */
+    private int bufferSize = StreamInput.DEFAULT_BUFFER_SIZE;
+
+    /**
+     * Number of threads inflating gzip files.
+     */
+    private int gzipThreads = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * Flag that indicates whether cells are read as views.
+     */
+    private boolean cellViews = false;
+
+    /**
+     * Number and date parsing state shared by the rows read.
+     */
+    private ParseContext context = null;
+
+    /**
+     * Row refilled by every call to next(), if recycling.
+     */
+    private DataRow recycled = null;
+
+    /**
+     * Flag that indicates whether the same row is refilled by every
+     * call to next().
+     */
+    private boolean reuseRow = false;
+
+    /**
+     * Reader used in parallel mode.
+     */
+    private ParallelRowReader parallel = null;
+
+    /**
+     * Number of threads parsing the file (1 for sequential reading).
+     */
+    private int parallelism = 1;
+
+    /**
+     * Number of bytes parsed by one thread at a time in parallel mode.
+     */
+    private int chunkSize = ParallelRowReader.DEFAULT_CHUNK_SIZE;
+
+    /**
+     * Flag that indicates whether rows read in parallel are returned in
+     * file order.
+     */
+    private boolean ordered = true;
+
+    /**
+     * Column types used by nextBatch(), or <code>null</code>.
+     */
+    private DataSchema schema = null;
+
+    /**
+     * Batch refilled by every call to nextBatch(), if recycling.
+     */
+    private ColumnBatch batch = null;
+
+    /**
+     * Indexes of the columns to materialize, or <code>null</code>.
+     */
+    private int[] projectedColumns = null;
+
+    /**
+     * Labels of the columns to materialize, or <code>null</code>.
+     */
+    private String[] projectedLabels = null;
+
+    /**
+     * Mask of the columns materialized in the open file, or
+     * <code>null</code> for all.
+     */
+    private boolean[] projection = null;
+
+    /**
+     * Condition on the rows returned, or <code>null</code>.
+     */
+    private RowFilter filter = null;
+
+    /**
+     * Filter resolved against the header of the open file.
+     */
+    private RowFilter boundFilter = null;
+
+    /**
+     * Flag that indicates whether the bytes read are counted by a
+     * metered stream (rather than by the position reached).
+     */
+    private boolean meteredStream = false;
+
+    /**
+     * Multi-line rows already added to the metrics.
+     */
+    private long multiline = 0;
+
+    /**
+     * File offset of the first row read by the parallel reader.
+     */
+    private long parallelStart = 0;
+
+    /**
+     * Mapper of the rows returned by {@link #nextRecord()}, or
+     * <code>null</code>.
+     */
+    private RecordMapper mapper = null;
+
+    /**
+     * Number of rows returned since the file was opened.
+     */
+    private long emitted = 0;
+
+    /**
+     * Number of rows skipped by the filter (outside of the byte and
+     * parallel readers, which count their own).
+     */
+    private long rejected = 0;
+
+    /**
+     * File opened with open(File), or <code>null</code>.
+     */
+    private File source = null;
+
+    /**
+     * Flag that indicates whether row indexes are kept next to the
+     * files read.
+     */
+    private boolean rowIndex = false;
+
+    /**
+     * Row index of the open file, once loaded or built.
+     */
+    private RowIndex index = null;
+
+    /**
+     * Row index built while the file is read from its start.
+     */
+    private RowIndex building = null;
+
+    /**
+     * Number of the next row in the file, counting the header row.
+     */
+    private long fileRow = 0;
+
     /**
      * Creates a new <code>DataFile</code> instance for reading data files.
      * 
@@ -84,119 +289,1348 @@ public class DataFileReader extends AbstractDataFile
     }
 
     /**
-     * Finalization method that closes the file descriptor. This would work only
-     * if JVM is current (1.3 or later?).
+     * Specifies whether files opened with {@link #open(File)} are read
+     * through a memory map.  Memory mapped mode is used only when the
+     * data format implements {@link com.infomata.data.ByteDataFormat} and
+     * the character encoding is UTF-8 or a single byte encoding compatible
+     * with ASCII.  Otherwise the file is read as a stream as usual.
+     * 
+     * @param mapped <code>true</code> to read files through a memory map.
      */
-    public void finalize()
+    public void setMemoryMapped(boolean mapped)
     {
-        try
-        {
-            close();
-        }
-        catch (IOException e)
+        this.mapped = mapped;
+    }
+
+    /**
+     * Sets the number of bytes mapped into memory at a time in memory
+     * mapped mode.  Files larger than the window are read by moving the
+     * window forward.  Defaults to 64 MB.
+     * 
+     * @param windowSize size of the mapped window in bytes.
+     */
+    public void setMappedWindowSize(int windowSize)
+    {
+        if (windowSize <= 0)
         {
-            e.printStackTrace();
+            throw new IllegalArgumentException("window size must be positive.");
         }
-    } // finalize()
+        this.windowSize = windowSize;
+    }
 
     /**
-     * @see com.infomata.data.DataFile#close()
+     * Sets the number of bytes read from a stream at a time when
+     * files are not memory mapped.  Rows longer than the buffer
+     * enlarge it.  Defaults to 64 KB.
+     * 
+     * @param bufferSize size of the stream buffer in bytes.
      */
-    public void close() throws IOException
+    public void setStreamBufferSize(int bufferSize)
     {
-        if (containsHeader())
+        if (bufferSize <= 0)
         {
-            resetHeaders();
+            throw new IllegalArgumentException("buffer size must be positive.");
         }
+        this.bufferSize = bufferSize;
+    }
 
-        if (in != null)
+    /**
+     * Sets the number of threads that inflate gzip compressed files.
+     * Gzip data is always inflated on a separate thread, ahead of the
+     * parsing; files made of members that record their size (as
+     * written by {@link DataFileWriter#setGzip(boolean)} or by BGZF
+     * tools) are inflated by up to this many threads at once.
+     * Defaults to the number of processors.
+     * 
+     * @param threads number of inflating threads.
+     */
+    public void setGzipThreads(int threads)
+    {
+        if (threads <= 0)
         {
-            in.close();
+            throw new IllegalArgumentException("threads must be positive.");
         }
-    } // close()
+        gzipThreads = threads;
+    }
 
     /**
-     * @see com.infomata.data.DataFile#open(java.io.File)
+     * Specifies whether the cells of rows read are kept as views of the
+     * data read (the bytes read, or the line for formats that parse lines)
+     * instead of being copied into a <code>String</code> each.  A cell
+     * is turned into a <code>String</code> only when it is retrieved
+     * with {@link DataRow#getString(int)}, while the numeric accessors
+     * of {@link DataRow} parse plain numbers directly off the view.
+     * This saves most of the allocation when only a few columns of a
+     * wide file are used.  Supported by formats extending
+     * {@link com.infomata.data.AbstractDataFormat}.
+     * 
+     * @param cellViews <code>true</code> to read cells as views.
      */
-    public final void open(File file) throws IOException
+    public void setCellViews(boolean cellViews)
     {
-        if (!file.exists())
+        this.cellViews = cellViews;
+    }
+
+    /**
+     * Specifies whether {@link #next()} refills one <code>DataRow</code>
+     * in place instead of creating a new row for every line.
+     * <b>When recycling, the row returned by {@link #next()} is only
+     * valid until the following call to {@link #next()}</b>; copy any
+     * values that must be kept.  A streaming read loop then allocates
+     * little more than the cell data itself.  Rows read in parallel
+     * mode are never recycled.  Formats not extending
+     * {@link com.infomata.data.AbstractDataFormat} still return a new
+     * row for each line.
+     * 
+     * @param reuseRow <code>true</code> to refill the same row.
+     */
+    public void setReuseRow(boolean reuseRow)
+    {
+        this.reuseRow = reuseRow;
+    }
+
+    /**
+     * Sets the number of threads that parse a file opened with
+     * {@link #open(File)}.  With more than one thread the file is memory
+     * mapped and split into chunks of bytes that are parsed on a
+     * <code>ForkJoinPool</code>, with row boundaries resolved exactly
+     * (including CSV cells containing line breaks).  The same
+     * requirements as for {@link #setMemoryMapped(boolean)} apply.
+     * 
+     * @param parallelism number of threads, <code>1</code> (the default)
+     *                    to read sequentially.
+     * @see #setOrdered(boolean)
+     */
+    public void setParallelism(int parallelism)
+    {
+        if (parallelism < 1)
         {
-            throw new IOException("No such file: " + file.getAbsolutePath());
+            throw new IllegalArgumentException("parallelism must be positive.");
         }
+        this.parallelism = parallelism;
+    }
 
-        if (in != null)
+    /**
+     * Sets the number of bytes each thread parses at a time in parallel
+     * mode.  Defaults to 8 MB.
+     * 
+     * @param chunkSize size of a chunk in bytes.
+     */
+    public void setParallelChunkSize(int chunkSize)
+    {
+        if (chunkSize <= 0)
         {
-            close();
+            throw new IllegalArgumentException("chunk size must be positive.");
         }
+        this.chunkSize = chunkSize;
+    }
 
-        open(file.toURL());
-    } // open(File)
+    /**
+     * Specifies whether rows read in parallel mode are returned in the
+     * order in which they appear in the file.  Unordered reading returns
+     * the rows of each chunk as soon as the chunk is parsed.
+     * 
+     * @param ordered <code>true</code> (the default) to keep file order.
+     */
+    public void setOrdered(boolean ordered)
+    {
+        this.ordered = ordered;
+    }
 
     /**
-     * @see com.infomata.data.DataFile#open(java.net.URL)
+     * Restricts reading to the specified columns.  The cells of the
+     * other columns are only located (with the same delimiter and quote
+     * handling) and added to each row as empty placeholders, without
+     * decoding or copying their content, so the requested columns keep
+     * their original indexes and labels.  On wide files most of the
+     * parsing cost is saved.  Applies to the formats included in this
+     * package, to formats extending
+     * {@link com.infomata.data.AbstractDataFormat} that add their cells
+     * with <code>addCell</code>, and to columnar batches.  Takes effect
+     * when the next file is opened; the header row is always read in
+     * full.
+     * 
+     * @param columns indexes of the columns to read, or
+     *                <code>null</code> to read all columns.
      */
-    public final void open(URL file) throws IOException
+    public void setProjection(int[] columns)
     {
-        InputStream is = file.openStream();
-        InputStreamReader isr = (containsCharacterEncoding()) ? new InputStreamReader(
-                is, getCharacterEncoding())
-                : new InputStreamReader(is);
+        AbstractDataFormat.toMask(columns);
+        projectedColumns = (columns == null) ? null : columns.clone();
+        projectedLabels = null;
+    }
 
-        in = new BufferedReader(isr);
+    /**
+     * Restricts reading to the columns with the specified labels,
+     * resolved against the header row when a file is opened (see
+     * {@link #setProjection(int[])}).
+     * 
+     * @param labels labels of the columns to read, or <code>null</code>
+     *               to read all columns.
+     * @throws IllegalArgumentException (when a file is opened) if the
+     *         file has no header row, or a label is not in it.
+     */
+    public void setProjection(String[] labels)
+    {
+        projectedLabels = (labels == null) ? null : labels.clone();
+        projectedColumns = null;
+    }
 
-        if (format == null)
+    /**
+     * Sets a condition on the rows returned by {@link #next()},
+     * {@link #nextBatch(int)} and {@link #readTable()}; rows that do
+     * not match are skipped.  With formats implementing
+     * {@link com.infomata.data.ByteDataFormat}, the filter is evaluated
+     * on the cells located in the bytes read, before the row is built,
+     * so skipped rows cost little more than locating their cells.
+     * Columns given by label are resolved against the header row, and
+     * the columns tested are read even if a projection leaves them out.
+     * No row index is built while a filter is in use.  Takes effect
+     * when the next file is opened.
+     * 
+     * @param filter condition on the rows, or <code>null</code> to
+     *               return all rows.
+     * @see #getRowsScanned()
+     * @see #getRowsEmitted()
+     */
+    public void setFilter(RowFilter filter)
+    {
+        this.filter = filter;
+    }
+
+    /**
+     * Sets the mapper used by {@link #nextRecord()} to turn rows into
+     * instances of a record type or class.  Its bindings are resolved
+     * against the header row when the next file is opened, and the
+     * columns it binds are read even if a projection leaves them out.
+     * 
+     * @param mapper record mapper, or <code>null</code>.
+     */
+    public void setRecordMapper(RecordMapper mapper)
+    {
+        this.mapper = mapper;
+    }
+
+    /**
+     * Reads the next row and maps it with the mapper set with
+     * {@link #setRecordMapper(RecordMapper)}.
+     * 
+     * @return new instance, or <code>null</code> at the end of file.
+     * @throws IOException if the file cannot be read.
+     * @throws IllegalStateException if no mapper is set.
+     */
+    public final Object nextRecord() throws IOException
+    {
+        if (mapper == null)
         {
-            format = new CSVFormat();
+            throw new IllegalStateException("No record mapper set.");
         }
-        
-        if (containsHeader())
+        DataRow r = next();
+        return (r == null) ? null : mapper.map(r);
+    }
+
+    /**
+     * Returns the remaining rows of the open file as a stream.
+     * <p>
+     * When the file was opened with {@link #open(File)}, is read by a
+     * {@link com.infomata.data.ByteDataFormat} and is not compressed,
+     * the stream reads the file on its own, from the current row on,
+     * without moving this reader; its spliterator splits by cutting
+     * the remaining bytes in two at a row boundary (found from the
+     * parity of the quotes before the cut), so a parallel stream
+     * parses each part of the file on a different thread.  Rows of
+     * different parts use different parse contexts.  The projection
+     * and filter of the reader apply; rows are never recycled.  Close
+     * the stream to release the file.
+     * </p>
+     * <p>
+     * Otherwise the stream takes its rows from {@link #next()}, and a
+     * parallel stream parses sequentially.
+     * </p>
+     * 
+     * @return stream of <code>DataRow</code>s.
+     * @throws IOException if the file cannot be opened again.
+     * @throws IllegalStateException if no file is open.
+     */
+    public final Stream<DataRow> stream() throws IOException
+    {
+        long from = -1;
+        if (source != null && format instanceof ByteDataFormat)
         {
-            DataRow row = next();
-            setHeaderList(row.getValues());
+            if (bytes != null && !isGzip(source))
+            {
+                from = bytes.position();
+            }
+            else if (parallel != null && getRowsScanned() == 0)
+            {
+                from = parallelStart;
+            }
         }
-        
-        if (nf == null)
+
+        if (from < 0)
         {
-            nf = NumberFormat.getInstance();
+            if (in == null && bytes == null && parallel == null)
+            {
+                throw new IllegalStateException("No file is open.");
+            }
+            if (reuseRow)
+            {
+                throw new IllegalStateException(
+                        "Rows cannot be streamed while they are recycled.");
+            }
+            return (Stream<DataRow>)StreamSupport.stream(
+                    Spliterators.spliteratorUnknownSize(new RowIterator(),
+                            Spliterator.ORDERED | Spliterator.NONNULL), false);
         }
 
-    } // open(URL)
+        final RandomAccessFile file = new RandomAccessFile(source, "r");
+        FileChannel channel = file.getChannel();
+        RowSpliterator rows = new RowSpliterator(channel, from, channel.size(),
+                (ByteDataFormat)format, charset(),
+                parseContext().getNumberFormat(), windowSize);
+        rows.setCellViews(cellViews);
+        rows.setProjection(projection);
+        rows.setFilter(boundFilter);
+        rows.setHeaderIndex(headerIndex);
+        return ((Stream<DataRow>)StreamSupport.stream(rows, false)).onClose(new Runnable()
+        {
+            public void run()
+            {
+                try
+                {
+                    file.close();
+                }
+                catch (IOException e)
+                {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        });
+
+    } // stream()
 
     /**
-     * @see com.infomata.data.DataFile#next()
+     * Returns the remaining rows of the open file as a stream of
+     * instances created by the mapper set with
+     * {@link #setRecordMapper(RecordMapper)}.  Splits like
+     * {@link #stream()}.
+     * 
+     * @return stream of mapped instances.
+     * @throws IOException if the file cannot be opened again.
+     * @throws IllegalStateException if no mapper is set.
      */
-    public final DataRow next() throws IOException
+    public final <T> Stream<T> records() throws IOException
     {
-
-        String line = in.readLine();
-
-        if (line != null)
+        if (mapper == null)
         {
-            row = format.parseLine(line);
-
-            if (row == null)
+            throw new IllegalStateException("No record mapper set.");
+        }
+        final RecordMapper m = mapper;
+        return stream().map(new Function<DataRow, T>()
+        {
+            public T apply(DataRow row)
             {
-                // cases where cell contains new line char without
-                // proper termination by delimiter (i.e. CSV with new line
-                // in data cell)
-                // DataFormat class should keep the previous row
-                // in memory and return only the line terminates
-                // properly.
-                row = next();
+                return (T)m.map(row);
             }
+        });
+    }
 
-            if (containsHeader())
-            {
-                row.setHeaderIndex(headerIndex);
-            }
+    /**
+     * Retrieves the number of rows read since the file was opened,
+     * whether they matched the filter or not (not counting the header
+     * row).  In parallel mode rows parsed ahead are counted as well.
+     * 
+     * @return number of rows scanned.
+     */
+    public long getRowsScanned()
+    {
+        long n = emitted + rejected;
+        if (bytes != null)
+        {
+            n += bytes.getRowsRejected();
         }
-        else
+        if (parallel != null)
         {
-            row = null;
+            n += parallel.getRowsRejected();
         }
+        return n;
+    }
 
-        return row;
+    /**
+     * Retrieves the number of rows returned since the file was opened
+     * (not counting the header row).
+     * 
+     * @return number of rows emitted.
+     */
+    public long getRowsEmitted()
+    {
+        return emitted;
+    }
 
-    } // next()
+    /**
+     * Specifies whether a sparse row index is kept next to the files
+     * read, in a file named after the data file with <code>.idx</code>
+     * appended.  The index is built while a file is read from start
+     * to end (or by {@link #seek(long)}), records the offset of every
+     * 1024th row, and is used by {@link #seek(long)} to reach any row
+     * after skipping at most 1023 rows.  An index is discarded when
+     * the size or modification time of its file, or the class of the
+     * data format, has changed.  Only rows of files opened with
+     * {@link #open(File)} are indexed, and only when they are read by
+     * a {@link com.infomata.data.ByteDataFormat}, uncompressed and
+     * not in parallel.
+     * 
+     * @param rowIndex <code>true</code> to keep row indexes.
+     */
+    public void setRowIndex(boolean rowIndex)
+    {
+        this.rowIndex = rowIndex;
+    }
+
+    /**
+     * Declares the column types used by {@link #nextBatch(int)}.
+     * Columns declared numeric are parsed while reading, using the
+     * number format of the reader.
+     * 
+     * @param schema column types, or <code>null</code> to read all
+     *               columns as text.
+     */
+    public void setSchema(DataSchema schema)
+    {
+        this.schema = schema;
+        batch = null;
+    }
+
+    /**
+     * Finalization method that closes the file descriptor. This would work only
+     * if JVM is current (1.3 or later?).
+     */
+    public void finalize()
+    {
+        try
+        {
+            close();
+        }
+        catch (IOException e)
+        {
+            e.printStackTrace();
+        }
+    } // finalize()
+
+    /**
+     * @see com.infomata.data.DataFile#close()
+     */
+    public void close() throws IOException
+    {
+        if (containsHeader())
+        {
+            resetHeaders();
+        }
+
+        if (in != null)
+        {
+            in.close();
+        }
+
+        if (bytes != null)
+        {
+            rejected += bytes.getRowsRejected();
+            bytes.close();
+            bytes = null;
+        }
+
+        if (parallel != null)
+        {
+            rejected += parallel.getRowsRejected();
+            parallel.close();
+            parallel = null;
+        }
+
+        if (recycled != null && format instanceof AbstractDataFormat)
+        {
+            ((AbstractDataFormat)format).setRecycledRow(null);
+        }
+        if (projection != null && format instanceof AbstractDataFormat)
+        {
+            ((AbstractDataFormat)format).setProjection(null);
+        }
+        projection = null;
+        recycled = null;
+        batch = null;
+        index = null;
+        building = null;
+        source = null;
+        closeStats();
+    } // close()
+
+    /**
+     * @see com.infomata.data.DataFile#open(java.io.File)
+     */
+    public final void open(File file) throws IOException
+    {
+        if (!file.exists())
+        {
+            throw new IOException("No such file: " + file.getAbsolutePath());
+        }
+
+        if (in != null || bytes != null || parallel != null)
+        {
+            close();
+        }
+
+        if (format == null)
+        {
+            format = new CSVFormat();
+        }
+
+        Charset charset = charset();
+        boolean gzip = isGzip(file);
+        openStats(file.getPath());
+        source = file;
+        boolean opened = false;
+        try
+        {
+            if ((mapped || parallelism > 1) && format instanceof ByteDataFormat
+                && ByteRowReader.supports(charset) && !gzip)
+            {
+                in = null;
+                bytes = new ByteRowReader(new MappedFileInput(file, windowSize),
+                        (ByteDataFormat)format, charset);
+                bytes.setCellViews(cellViews);
+                bytes.setParseContext(parseContext());
+                prepare();
+
+                if (parallelism > 1)
+                {
+                    // header (if any) has been read sequentially.
+                    parallelStart = bytes.position();
+                    parallel = new ParallelRowReader(file, bytes.position(),
+                            (ByteDataFormat)format, charset, parallelism,
+                            chunkSize, ordered);
+                    parallel.setCellViews(cellViews);
+                    parallel.setParseContext(context);
+                    parallel.setProjection(projection);
+                    parallel.setFilter(boundFilter);
+                    bytes.close();
+                    bytes = null;
+                    building = null;
+                }
+            }
+            else if (gzip)
+            {
+                openStream(new BlockGzipInputStream(
+                        metered(new FileInputStream(file)), gzipThreads), null,
+                        charset);
+            }
+            else
+            {
+                FileInputStream fis = new FileInputStream(file);
+                openStream(metered(fis), fis.getChannel(), charset);
+            }
+            opened = true;
+        }
+        finally
+        {
+            if (!opened)
+            {
+                closeStats();
+            }
+        }
+    } // open(File)
+
+    /**
+     * @see com.infomata.data.DataFile#open(java.net.URL)
+     */
+    public final void open(URL file) throws IOException
+    {
+        if (in != null || bytes != null || parallel != null)
+        {
+            close();
+        }
+
+        if (format == null)
+        {
+            format = new CSVFormat();
+        }
+
+        Charset charset = charset();
+        source = null;
+        openStats(file.toString());
+        boolean opened = false;
+        try
+        {
+            openStream(BlockGzipInputStream.detect(metered(file.openStream()),
+                    gzipThreads), null, charset);
+            opened = true;
+        }
+        finally
+        {
+            if (!opened)
+            {
+                closeStats();
+            }
+        }
+
+    } // open(URL)
+
+    /**
+     * Starts reading a stream of (uncompressed) data.
+     * 
+     * @param is stream to read.
+     * @param channel channel of the file read by the stream, if the
+     *                stream reads a file directly; allows
+     *                {@link #seek(long)}.
+     * @param charset character set of the stream.
+     * @throws IOException if the header row cannot be read.
+     */
+    private void openStream(InputStream is, FileChannel channel,
+            Charset charset) throws IOException
+    {
+        if (isByteScanned(format) && ByteRowReader.supports(charset))
+        {
+            in = null;
+            bytes = new ByteRowReader(new StreamInput(is, channel, bufferSize),
+                    (ByteDataFormat)format, charset);
+            bytes.setCellViews(cellViews);
+            bytes.setParseContext(parseContext());
+        }
+        else if (Latin1Reader.supports(charset))
+        {
+            in = new BufferedReader(new Latin1Reader(is));
+        }
+        else
+        {
+            in = new BufferedReader(new InputStreamReader(is, charset));
+        }
+
+        prepare();
+
+    } // openStream()
+
+    /**
+     * Helper method to count the bytes read from a stream in the
+     * metrics of the file, if enabled.
+     * 
+     * @param is stream to read.
+     * @return stream to read from.
+     */
+    private InputStream metered(InputStream is)
+    {
+        meteredStream = stats != null;
+        return (stats != null) ? new MeteredInputStream(is, stats) : is;
+    }
+
+    /**
+     * Retrieves the character set of the files read.
+     * 
+     * @return the character set set with the character encoding, or
+     *         the default character set.
+     * @throws UnsupportedEncodingException if the character encoding
+     *         is not supported.
+     */
+    private Charset charset() throws UnsupportedEncodingException
+    {
+        if (!containsCharacterEncoding())
+        {
+            return Charset.defaultCharset();
+        }
+        try
+        {
+            return Charset.forName(getCharacterEncoding());
+        }
+        catch (IllegalArgumentException e)
+        {
+            throw new UnsupportedEncodingException(getCharacterEncoding());
+        }
+    }
+
+    /**
+     * Checks if a file starts with the gzip magic bytes.
+     * 
+     * @param file file to check.
+     * @return <code>true</code> if the file holds gzip data.
+     * @throws IOException if the file cannot be read.
+     */
+    private static boolean isGzip(File file) throws IOException
+    {
+        InputStream is = new FileInputStream(file);
+        try
+        {
+            return is.read() == 0x1f && is.read() == 0x8b;
+        }
+        finally
+        {
+            is.close();
+        }
+    }
+
+    /**
+     * Checks if a stream can be read by scanning its bytes with the
+     * specified format.  The format must implement
+     * {@link ByteDataFormat}, and a subclass that overrides
+     * <code>parseLine</code> without overriding <code>scanRow</code>
+     * is read line by line, so that its parsing is kept.
+     * 
+     * @param format data format of the file.
+     * @return <code>true</code> if the bytes can be scanned.
+     */
+    private static boolean isByteScanned(DataFormat format)
+    {
+        if (!(format instanceof ByteDataFormat))
+        {
+            return false;
+        }
+        try
+        {
+            Class c = format.getClass();
+            Class line = c.getMethod("parseLine",
+                    new Class[] { String.class }).getDeclaringClass();
+            Class scan = c.getMethod("scanRow", new Class[] {
+                    java.nio.ByteBuffer.class, int.class, int.class,
+                    boolean.class, CellIndex.class }).getDeclaringClass();
+            return line == scan;
+        }
+        catch (NoSuchMethodException e)
+        {
+            return false;
+        }
+    }
+
+    /**
+     * Hands the parse context and recycling settings to the format,
+     * and reads the header row (if any) of a newly opened file.
+     * 
+     * @throws IOException if the header row cannot be read.
+     */
+    private void prepare() throws IOException
+    {
+        boundFilter = null;
+        fileRow = 0;
+        index = null;
+        building = null;
+        if (rowIndex && source != null && bytes != null)
+        {
+            index = RowIndex.load(source, format);
+            if (index == null)
+            {
+                building = new RowIndex(RowIndex.DEFAULT_INTERVAL);
+            }
+        }
+
+        parseContext().setStats(stats);
+        multiline = 0;
+        if (bytes != null)
+        {
+            bytes.setCountMultiline(stats != null);
+        }
+        recycled = (reuseRow) ? new DataRow(context) : null;
+        if (format instanceof AbstractDataFormat)
+        {
+            ((AbstractDataFormat)format).setParseContext(context);
+            ((AbstractDataFormat)format).setRecycledRow(recycled);
+        }
+
+        if (cellViews && format instanceof AbstractDataFormat)
+        {
+            ((AbstractDataFormat)format).setCellViews(true);
+        }
+
+        if (containsHeader())
+        {
+            DataRow row = advance();
+            setHeaderList(row.getValues());
+            if (recycled != null)
+            {
+                recycled.ensureCapacity(row.size());
+            }
+        }
+
+        project();
+        
+    } // prepare()
+
+    /**
+     * Resolves the projection against the header row (if any) and
+     * hands it to the parsers.
+     */
+    private void project()
+    {
+        int[] columns = projectedColumns;
+        if (projectedLabels != null)
+        {
+            if (!containsHeader())
+            {
+                throw new IllegalArgumentException(
+                        "Columns can only be selected by label in files with a header row.");
+            }
+            List header = getHeaderList();
+            columns = new int[projectedLabels.length];
+            for (int i = 0; i < columns.length; i++)
+            {
+                columns[i] = header.indexOf(projectedLabels[i]);
+                if (columns[i] < 0)
+                {
+                    throw new IllegalArgumentException("No such column: "
+                            + projectedLabels[i]);
+                }
+            }
+        }
+
+        boundFilter = null;
+        if (filter != null)
+        {
+            boundFilter = filter.bind((containsHeader()) ? getHeaderList()
+                    : null);
+            building = null;
+            if (columns != null)
+            {
+                // the filter needs the columns it tests.
+                List tested = new ArrayList();
+                boundFilter.columns(tested);
+                int[] all = new int[columns.length + tested.size()];
+                System.arraycopy(columns, 0, all, 0, columns.length);
+                for (int i = 0; i < tested.size(); i++)
+                {
+                    all[columns.length + i] = ((Integer)tested.get(i)).intValue();
+                }
+                columns = all;
+            }
+        }
+
+        if (mapper != null)
+        {
+            mapper.resolve((containsHeader()) ? getHeaderList() : null);
+            if (columns != null)
+            {
+                // the mapper needs the columns it binds.
+                List bound = new ArrayList();
+                mapper.columns(bound);
+                int[] all = new int[columns.length + bound.size()];
+                System.arraycopy(columns, 0, all, 0, columns.length);
+                for (int i = 0; i < bound.size(); i++)
+                {
+                    all[columns.length + i] = ((Integer)bound.get(i)).intValue();
+                }
+                columns = all;
+            }
+        }
+
+        projection = AbstractDataFormat.toMask(columns);
+        if (format instanceof AbstractDataFormat)
+        {
+            ((AbstractDataFormat)format).setProjection(columns);
+        }
+        if (bytes != null)
+        {
+            bytes.setProjection(projection);
+            bytes.setFilter(boundFilter);
+        }
+        emitted = 0;
+        rejected = 0;
+    }
+
+    /**
+     * Retrieves the parse context shared by the rows read, creating it
+     * with the number format set with {@link #setNumberFormat(NumberFormat)}
+     * (if any) on first use.
+     * 
+     * @return parse context.
+     */
+    private ParseContext parseContext()
+    {
+        if (context == null)
+        {
+            if (nf == null)
+            {
+                nf = ParseContext.createNumberFormat();
+            }
+            context = new ParseContext(nf);
+        }
+        return context;
+    }
+
+    /**
+     * Sets the number format used to parse numeric data of the rows
+     * read.  If a file is open, rows read from then on use the new
+     * format.
+     * 
+     * @see com.infomata.data.DataFile#setNumberFormat(java.text.NumberFormat)
+     */
+    public void setNumberFormat(NumberFormat numberFormat)
+    {
+        super.setNumberFormat(numberFormat);
+        if (context != null)
+        {
+            context.setNumberFormat(numberFormat);
+        }
+    }
+
+    /**
+     * Reads the next row.
+     * <p>
+     * The rows returned share the number and date formats of this
+     * reader, which are not thread-safe: separate rows from one reader
+     * must not be parsed concurrently on different threads.
+     * </p>
+     *
+     * @see com.infomata.data.DataFile#next()
+     */
+    public final DataRow next() throws IOException
+    {
+        if (stats == null)
+        {
+            return advance();
+        }
+        long t = System.nanoTime();
+        DataRow r = advance();
+        record((r == null) ? 0 : 1, System.nanoTime() - t, r == null);
+        return r;
+
+    } // next()
+
+    /**
+     * Helper method to add rows read to the metrics of the file.
+     * 
+     * @param rows number of rows read.
+     * @param nanos time taken to read them.
+     * @param eof <code>true</code> if the end of file was reached.
+     */
+    private void record(int rows, long nanos, boolean eof)
+    {
+        if (rows > 0)
+        {
+            stats.rows(rows, nanos);
+        }
+        if (bytes != null)
+        {
+            if (!meteredStream)
+            {
+                stats.position(bytes.position());
+            }
+            long m = bytes.getMultilineRows();
+            if (m > multiline)
+            {
+                stats.multiline(m - multiline);
+                multiline = m;
+            }
+        }
+        else if (eof && parallel != null && source != null)
+        {
+            stats.position(source.length());
+        }
+    }
+
+    /**
+     * Helper method to read the next row that matches the filter.
+     * 
+     * @return next row, or <code>null</code> at the end of file.
+     * @throws IOException if the file cannot be read.
+     */
+    private DataRow advance() throws IOException
+    {
+        DataRow r = nextRow();
+        if (boundFilter != null && in != null)
+        {
+            // rows parsed from lines are filtered once built.
+            while (r != null && !boundFilter.matches(r, context))
+            {
+                rejected++;
+                r = nextRow();
+            }
+        }
+        if (r != null)
+        {
+            emitted++;
+        }
+        row = r;
+        return r;
+
+    } // advance()
+
+    /**
+     * Helper method to read the next row, whether it matches the
+     * filter or not when read line by line.
+     * 
+     * @return next row, or <code>null</code> at the end of file.
+     * @throws IOException if the file cannot be read.
+     */
+    private DataRow nextRow() throws IOException
+    {
+
+        if (parallel != null)
+        {
+            row = parallel.next();
+            if (row != null && containsHeader())
+            {
+                row.setHeaderIndex(headerIndex);
+            }
+            return row;
+        }
+
+        if (bytes != null)
+        {
+            row = read(recycled);
+            return row;
+        }
+
+        row = null;
+        boolean continued = false;
+        for (String line = in.readLine(); line != null; line = in.readLine())
+        {
+            row = format.parseLine(line);
+            if (row != null)
+            {
+                break;
+            }
+            // cases where cell contains new line char without
+            // proper termination by delimiter (i.e. CSV with new line
+            // in data cell)
+            // DataFormat class should keep the previous row
+            // in memory and return only the line terminates
+            // properly.
+            continued = true;
+        }
+
+        if (row == null && continued && format instanceof CSVFormat)
+        {
+            // end of file inside a quoted cell.
+            row = ((CSVFormat)format).finish();
+        }
+        if (continued && stats != null)
+        {
+            stats.multiline(1);
+        }
+        if (row != null && containsHeader())
+        {
+            row.setHeaderIndex(headerIndex);
+        }
+
+        return row;
+
+    } // nextRow()
+
+    /**
+     * Helper method to read the next row with the byte reader,
+     * keeping track of the row number.
+     * 
+     * @param target row to refill, or <code>null</code> for a new row.
+     * @return next row, or <code>null</code> at the end of file.
+     * @throws IOException if the file cannot be read.
+     */
+    private DataRow read(DataRow target) throws IOException
+    {
+        if (building != null)
+        {
+            building.add(fileRow, bytes.position());
+        }
+
+        DataRow r = bytes.next(target);
+        if (r == null)
+        {
+            finishIndex();
+            return null;
+        }
+
+        fileRow++;
+        if (containsHeader())
+        {
+            r.setHeaderIndex(headerIndex);
+        }
+        return r;
+    }
+
+    /**
+     * Helper method to keep the row index built while reading the
+     * file from start to end.
+     */
+    private void finishIndex()
+    {
+        if (building != null)
+        {
+            building.finish(fileRow, bytes.position());
+            building.save(source, format);
+            index = building;
+            building = null;
+        }
+    }
+
+    /**
+     * Moves to the specified row, so that the following call to
+     * {@link #next()} returns it.  Rows are numbered from zero, not
+     * counting the header row.  The row is found with the row index
+     * of the file (see {@link #setRowIndex(boolean)}); if there is
+     * none, the index is built first by scanning the whole file once.
+     * Moving past the last row positions the reader at the end of
+     * the file.
+     * <p>
+     * Only supported for files opened with {@link #open(File)} that
+     * are read by a {@link com.infomata.data.ByteDataFormat},
+     * uncompressed and not in parallel.
+     * </p>
+     * 
+     * @param row number of the row to move to.
+     * @throws IOException if the file cannot be read, or cannot be
+     *         read out of order.
+     */
+    public final void seek(long row) throws IOException
+    {
+        if (row < 0)
+        {
+            throw new IllegalArgumentException("row must not be negative.");
+        }
+
+        RowIndex idx = rowIndex();
+        long target = row + ((containsHeader()) ? 1 : 0);
+        long first = Math.min(target - target % idx.getInterval(),
+                idx.getRowCount());
+        bytes.seek(idx.offset(first));
+        fileRow = first;
+        while (fileRow < target && bytes.skip())
+        {
+            fileRow++;
+        }
+        building = null;
+
+    } // seek()
+
+    /**
+     * Retrieves the number of rows of the open file, not counting the
+     * header row.  Uses (and, if needed, builds) the row index, with
+     * the same requirements as {@link #seek(long)}.
+     * 
+     * @return number of rows in the file.
+     * @throws IOException if the file cannot be read.
+     */
+    public final long getRowCount() throws IOException
+    {
+        long rows = rowIndex().getRowCount();
+        return (containsHeader() && rows > 0) ? rows - 1 : rows;
+    }
+
+    /**
+     * Reads a range of rows.  The reader moves to the first row as
+     * with {@link #seek(long)} and reads up to <code>count</code>
+     * rows (matching the filter, if any); rows read this way are
+     * never recycled.
+     * 
+     * @param first number of the first row to read.
+     * @param count maximum number of rows to read.
+     * @return rows read (fewer than <code>count</code> at the end of
+     *         file).
+     * @throws IOException if the file cannot be read.
+     */
+    public final List readRows(long first, int count) throws IOException
+    {
+        seek(first);
+        List rows = new ArrayList(count);
+        for (DataRow r = null; rows.size() < count && (r = read(null)) != null;)
+        {
+            rows.add(r);
+            emitted++;
+        }
+        return rows;
+
+    } // readRows()
+
+    /**
+     * Helper method to retrieve the row index of the open file,
+     * building it if needed.
+     */
+    private RowIndex rowIndex() throws IOException
+    {
+        if (bytes == null || source == null)
+        {
+            throw new IOException("Rows can only be located in files opened"
+                    + " with open(File), read by a ByteDataFormat,"
+                    + " uncompressed and not in parallel.");
+        }
+        if (index == null)
+        {
+            index = RowIndex.build(source, (ByteDataFormat)format, charset(),
+                    RowIndex.DEFAULT_INTERVAL);
+            if (rowIndex)
+            {
+                index.save(source, format);
+            }
+            building = null;
+        }
+        return index;
+    }
+
+    /**
+     * Reads up to <code>maxRows</code> rows into a columnar batch.
+     * The cells are copied into the batch's shared character buffer
+     * (in memory mapped mode straight from the mapped bytes, without
+     * creating a <code>DataRow</code>), and the columns declared
+     * numeric with {@link #setSchema(DataSchema)} are parsed into
+     * arrays of primitives.  When {@link #setReuseRow(boolean)} is on,
+     * the same batch is refilled by every call and is only valid until
+     * the following call.
+     * 
+     * @param maxRows maximum number of rows in the batch.
+     * @return next batch of rows, or <code>null</code> at the end of
+     *         file.
+     * @throws IOException if the file cannot be read.
+     */
+    public final ColumnBatch nextBatch(int maxRows) throws IOException
+    {
+        if (maxRows <= 0)
+        {
+            throw new IllegalArgumentException("maxRows must be positive.");
+        }
+
+        ColumnBatch b = batch;
+        if (b == null)
+        {
+            List labels = (containsHeader()) ? new ArrayList(getHeaderList())
+                    : null;
+            b = new ColumnBatch(schema, labels, parseContext());
+            batch = (reuseRow) ? b : null;
+        }
+        if (stats == null)
+        {
+            return (fill(b, maxRows)) ? b : null;
+        }
+        long t = System.nanoTime();
+        boolean filled = fill(b, maxRows);
+        record(b.size(), System.nanoTime() - t, b.size() < maxRows);
+        return (filled) ? b : null;
+
+    } // nextBatch()
+
+    /**
+     * Reads all remaining rows into an in-memory columnar table.
+     * Columns declared with {@link #setSchema(DataSchema)} keep their
+     * declared type; the types of other columns are inferred from the
+     * data (see {@link com.infomata.data.DataTable}).
+     * 
+     * @return table holding the remaining rows of the file.
+     * @throws IOException if the file cannot be read.
+     */
+    public final DataTable readTable() throws IOException
+    {
+        List labels = (containsHeader()) ? new ArrayList(getHeaderList())
+                : null;
+        DataTable table = new DataTable(schema, labels, parseContext());
+        ColumnBatch b = new ColumnBatch(schema, labels, context);
+        while (fill(b, TABLE_BATCH_SIZE))
+        {
+            table.append(b);
+        }
+        table.finish();
+        return table;
+
+    } // readTable()
+
+    /**
+     * Reads all remaining rows into a table held outside of the Java
+     * heap (see {@link com.infomata.data.OffHeapTable}).  The table
+     * must be closed to release its memory.  Combined with
+     * {@link #setCellViews(boolean)} or memory mapped mode, the cells
+     * are copied into the table without creating a <code>String</code>.
+     * 
+     * @return table holding the remaining rows of the file.
+     * @throws IOException if the file cannot be read.
+     */
+    public final OffHeapTable readOffHeapTable() throws IOException
+    {
+        List labels = (containsHeader()) ? new ArrayList(getHeaderList())
+                : null;
+        OffHeapTable table = new OffHeapTable(labels, parseContext());
+        boolean done = false;
+        try
+        {
+            for (DataRow r = next(); r != null; r = next())
+            {
+                table.append(r);
+            }
+            done = true;
+        }
+        finally
+        {
+            if (!done)
+            {
+                table.close();
+            }
+        }
+        return table;
+
+    } // readOffHeapTable()
+
+    /**
+     * Refills a batch with up to <code>maxRows</code> rows.
+     * 
+     * @param b batch to fill.
+     * @param maxRows maximum number of rows.
+     * @return <code>false</code> if no rows were left.
+     * @throws IOException if the file cannot be read.
+     */
+    private boolean fill(ColumnBatch b, int maxRows) throws IOException
+    {
+        b.clear(maxRows);
+
+        if (bytes != null)
+        {
+            while (b.size() < maxRows)
+            {
+                if (building != null)
+                {
+                    building.add(fileRow, bytes.position());
+                }
+                // rows are added to the batch by the byte reader
+                if (!bytes.next(b))
+                {
+                    finishIndex();
+                    break;
+                }
+                fileRow++;
+                emitted++;
+            }
+        }
+        else
+        {
+            DataRow r = null;
+            while (b.size() < maxRows && (r = advance()) != null)
+            {
+                b.addRow(r, projection);
+            }
+        }
+
+        return b.size() > 0;
+    }
+
+    /**
+     * Iterator over the rows returned by {@link DataFileReader#next()}.
+     */
+    private class RowIterator implements Iterator
+    {
+        private DataRow ahead = null;
+
+        public boolean hasNext()
+        {
+            if (ahead == null)
+            {
+                try
+                {
+                    ahead = DataFileReader.this.next();
+                }
+                catch (IOException e)
+                {
+                    throw new UncheckedIOException(e);
+                }
+            }
+            return ahead != null;
+        }
+
+        public Object next()
+        {
+            if (!hasNext())
+            {
+                throw new NoSuchElementException();
+            }
+            DataRow r = ahead;
+            ahead = null;
+            return r;
+        }
+    }
 }
@@ -0,0 +1,839 @@
+/*
+ * $Id$
+ *
+ * Copyright(c) 2002 Infomata
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+package com.infomata.data;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+
+/**
+ * <p>
+ * Sorts the rows of a data file by one or more columns with bounded
+ * memory.  Rows are read with a {@link com.infomata.data.DataFileReader},
+ * so quoted cells spanning several lines and character encodings are
+ * handled as when reading the file, and written with a
+ * {@link com.infomata.data.DataFileWriter} in any data format.
+ * </p>
+ * <b>USAGE:</b>
+ *
+ * <pre class="example">
+ * DataFileSorter sorter = new DataFileSorter();
+ * sorter.addKey(&quot;country&quot;, DataSchema.STRING, true);
+ * sorter.addKey(&quot;price&quot;, DataSchema.DOUBLE, false);
+ * sorter.addDateKey(&quot;day&quot;, &quot;dd.MM.yyyy&quot;, true);
+ * sorter.setMemoryLimit(256L * 1024 * 1024);
+ *
+ * DataFileReader in = new DataFileReader(&quot;UTF-8&quot;);
+ * in.containsHeader(true);
+ * in.open(new File(&quot;/data/sales.csv&quot;));
+ * DataFileWriter out = new DataFileWriter(&quot;UTF-8&quot;);
+ * out.setDataFormat(new TabFormat());
+ * out.open(new File(&quot;/data/sales-sorted.txt&quot;));
+ * try
+ * {
+ *     sorter.sort(in, out);
+ * }
+ * finally
+ * {
+ *     in.close();
+ *     out.close();
+ * }
+ * </pre>
+ * <p>
+ * Rows are collected into chunks of about a share of the memory limit.
+ * Each full chunk is sorted and spilled to a temporary file (a run) by
+ * one of {@link #setParallelism(int)} threads while the next chunk is
+ * read.  The runs are then merged through a priority queue holding the
+ * next row of every run; with very many runs, groups of runs are first
+ * merged into longer runs.  A file that fits in one chunk is sorted in
+ * memory without temporary files.
+ * </p>
+ * <p>
+ * Runs hold the rows in a compact binary form: the row's position in
+ * the input, its numeric keys already converted, the number of cells
+ * and the UTF-8 bytes of each cell, with lengths as variable length
+ * integers.  The position makes the sort stable: rows with equal keys
+ * keep their input order.
+ * </p>
+ * <p>
+ * Numeric and date keys are compared as numbers, text keys by
+ * <code>String.compareTo</code>.  Cells that are missing, empty or do
+ * not parse as the key's type sort before all values of an ascending
+ * key, and after all values of a descending one.  If the reader
+ * has a header, it is written as the first row.
+ * </p>
+ *
+ * @version $Revision$
+ */
+public class DataFileSorter
+{
+
+    /**
+     * Greatest number of runs merged at a time.
+     */
+    static final int MAX_MERGE = 128;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /**
+     * Estimated memory taken by a row and by each of its cells apart
+     * from the characters.
+     */
+    private static final int ROW_OVERHEAD = 64;
+    private static final int CELL_OVERHEAD = 48;
+
+    private List keys = new ArrayList();
+
+    private long memoryLimit = 64L * 1024 * 1024;
+
+    private int parallelism = Runtime.getRuntime().availableProcessors();
+
+    private File tempDirectory = null;
+
+    private int runCount = 0;
+
+    /**
+     * Creates a new <code>DataFileSorter</code> instance without keys.
+     */
+    public DataFileSorter()
+    {
+    }
+
+    /**
+     * Adds a sort key, after the keys added before.
+     *
+     * @param column column index (starts at zero)
+     * @param type {@link DataSchema#STRING}, {@link DataSchema#INT},
+     *            {@link DataSchema#LONG} or {@link DataSchema#DOUBLE}.
+     * @param ascending <code>false</code> to sort in descending order.
+     */
+    public void addKey(int column, int type, boolean ascending)
+    {
+        keys.add(new Key(column, null, type, null, false, ascending));
+    }
+
+    /**
+     * Adds a sort key on the column with the specified header label.
+     *
+     * @param label column label
+     * @param type {@link DataSchema#STRING}, {@link DataSchema#INT},
+     *            {@link DataSchema#LONG} or {@link DataSchema#DOUBLE}.
+     * @param ascending <code>false</code> to sort in descending order.
+     */
+    public void addKey(String label, int type, boolean ascending)
+    {
+        keys.add(new Key(-1, label, type, null, false, ascending));
+    }
+
+    /**
+     * Adds a sort key on a column of dates.
+     *
+     * @param column column index (starts at zero)
+     * @param pattern date pattern, or <code>null</code> for ISO-8601.
+     * @param ascending <code>false</code> to sort in descending order.
+     * @see DataRow#getEpochDay(int, String, long)
+     */
+    public void addDateKey(int column, String pattern, boolean ascending)
+    {
+        keys.add(new Key(column, null, DataSchema.LONG, pattern, true, ascending));
+    }
+
+    /**
+     * Adds a sort key on the column of dates with the specified header
+     * label.
+     *
+     * @param label column label
+     * @param pattern date pattern, or <code>null</code> for ISO-8601.
+     * @param ascending <code>false</code> to sort in descending order.
+     */
+    public void addDateKey(String label, String pattern, boolean ascending)
+    {
+        keys.add(new Key(-1, label, DataSchema.LONG, pattern, true, ascending));
+    }
+
+    /**
+     * Sets the memory the rows being sorted may take (64 MB by
+     * default).  The rows read are kept in chunks of about a
+     * <code>parallelism + 1</code>-th of the limit.
+     *
+     * @param bytes memory limit in bytes.
+     */
+    public void setMemoryLimit(long bytes)
+    {
+        memoryLimit = Math.max(bytes, 64 * 1024);
+    }
+
+    /**
+     * Sets the number of threads sorting and spilling chunks (the
+     * number of processors by default).
+     *
+     * @param parallelism number of threads.
+     */
+    public void setParallelism(int parallelism)
+    {
+        this.parallelism = Math.max(parallelism, 1);
+    }
+
+    /**
+     * Sets the directory of the temporary run files.
+     *
+     * @param dir directory, or <code>null</code> for the default
+     *            temporary directory.
+     */
+    public void setTempDirectory(File dir)
+    {
+        tempDirectory = dir;
+    }
+
+    /**
+     * Retrieves the number of runs spilled by the last sort.
+     *
+     * @return number of temporary runs, zero if the rows were sorted
+     *         in memory.
+     */
+    public int getRunCount()
+    {
+        return runCount;
+    }
+
+    /**
+     * Sorts the remaining rows of an open reader and writes them to an
+     * open writer, which are left open.
+     *
+     * @param in reader positioned before the rows to sort.
+     * @param out writer receiving the sorted rows.
+     * @throws IOException if reading, writing or spilling fails.
+     * @throws IllegalArgumentException if a key names a column label
+     *         the file does not have.
+     */
+    public void sort(DataFileReader in, DataFileWriter out) throws IOException
+    {
+        Key[] k = resolve(in);
+        Comparator order = new EntryOrder(k);
+        runCount = 0;
+
+        if (in.containsHeader())
+        {
+            List h = in.getHeaderList();
+            for (int i = 0; i < h.size(); i++)
+            {
+                out.writeString((String)h.get(i));
+            }
+            out.endRow();
+        }
+
+        long chunkBytes = memoryLimit / (parallelism + 1);
+        List runs = new ArrayList();
+        List pending = new ArrayList();
+        Semaphore slots = new Semaphore(parallelism);
+        ExecutorService pool = null;
+        try
+        {
+            long seq = 0;
+            List chunk = new ArrayList();
+            long bytes = 0;
+            for (DataRow row = in.next(); row != null; row = in.next())
+            {
+                Entry e = entry(row, k, seq++);
+                chunk.add(e);
+                bytes += e.size;
+                if (bytes >= chunkBytes)
+                {
+                    if (pool == null)
+                    {
+                        pool = Executors.newFixedThreadPool(parallelism);
+                    }
+                    acquire(slots);
+                    pending.add(pool.submit(new Spill(chunk, order, k, slots)));
+                    chunk = new ArrayList();
+                    bytes = 0;
+                }
+            }
+
+            Entry[] rest = (Entry[])chunk.toArray(new Entry[chunk.size()]);
+            Arrays.sort(rest, order);
+            if (pending.isEmpty())
+            {
+                for (int i = 0; i < rest.length; i++)
+                {
+                    write(rest[i], out);
+                }
+                return;
+            }
+            for (int i = 0; i < pending.size(); i++)
+            {
+                runs.add(result((Future)pending.get(i)));
+            }
+            pending.clear();
+            if (rest.length > 0)
+            {
+                runs.add(spill(rest, k));
+            }
+            runCount = runs.size();
+
+            while (runs.size() > MAX_MERGE)
+            {
+                List group = new ArrayList(runs.subList(0, MAX_MERGE));
+                runs.subList(0, MAX_MERGE).clear();
+                runs.add(merge(group, k, order, null));
+            }
+            merge(runs, k, order, out);
+        }
+        finally
+        {
+            if (pool != null)
+            {
+                pool.shutdown();
+            }
+            for (int i = 0; i < pending.size(); i++)
+            {
+                try
+                {
+                    runs.add(((Future)pending.get(i)).get());
+                }
+                catch (Exception e)
+                {
+                    // the first error is already being thrown.
+                }
+            }
+            for (int i = 0; i < runs.size(); i++)
+            {
+                ((Run)runs.get(i)).file.delete();
+            }
+        }
+    }
+
+    /**
+     * Helper method to find the columns of the keys.
+     */
+    private Key[] resolve(DataFileReader in)
+    {
+        Key[] k = (Key[])keys.toArray(new Key[keys.size()]);
+        int numeric = 0;
+        for (int i = 0; i < k.length; i++)
+        {
+            if (k[i].label != null)
+            {
+                int c = (in.containsHeader()) ? in.getHeaderList().indexOf(k[i].label)
+                        : -1;
+                if (c < 0)
+                {
+                    throw new IllegalArgumentException("no column labeled "
+                            + k[i].label);
+                }
+                k[i].column = c;
+            }
+            k[i].slot = (k[i].type == DataSchema.STRING) ? -1 : numeric++;
+        }
+        return k;
+    }
+
+    /**
+     * Helper method to copy a row and convert its numeric keys.
+     */
+    private static Entry entry(DataRow row, Key[] k, long seq)
+    {
+        int n = row.size();
+        Entry e = new Entry(seq, new String[n], new long[numericKeys(k)]);
+        long size = ROW_OVERHEAD + 8 * e.nums.length;
+        for (int i = 0; i < n; i++)
+        {
+            String s = row.getString(i);
+            e.cells[i] = (s == null) ? "" : s;
+            size += CELL_OVERHEAD + 2 * e.cells[i].length();
+        }
+        e.size = size;
+
+        for (int i = 0; i < k.length; i++)
+        {
+            Key key = k[i];
+            if (key.slot < 0)
+            {
+                continue;
+            }
+            long v = Long.MIN_VALUE;
+            if (key.column < n)
+            {
+                if (key.date)
+                {
+                    v = row.getEpochDay(key.column, key.pattern, Long.MIN_VALUE);
+                }
+                else if (key.type == DataSchema.DOUBLE)
+                {
+                    double d = row.getDouble(key.column, Double.NaN);
+                    if (!Double.isNaN(d))
+                    {
+                        // order of the bits is the order of the values
+                        long bits = Double.doubleToLongBits(d + 0d);
+                        v = bits ^ ((bits >> 63) & Long.MAX_VALUE);
+                    }
+                }
+                else
+                {
+                    v = row.getLong(key.column, Long.MIN_VALUE);
+                }
+            }
+            e.nums[key.slot] = v;
+        }
+        return e;
+    }
+
+    private static int numericKeys(Key[] k)
+    {
+        int n = 0;
+        for (int i = 0; i < k.length; i++)
+        {
+            if (k[i].slot >= 0)
+            {
+                n++;
+            }
+        }
+        return n;
+    }
+
+    /**
+     * Helper method to write a sorted chunk to a new run.
+     */
+    private Run spill(Entry[] rows, Key[] k) throws IOException
+    {
+        Run run = new Run(File.createTempFile("datafile-sort", ".run", tempDirectory));
+        boolean written = false;
+        try
+        {
+            DataOutputStream o = new DataOutputStream(new BufferedOutputStream(
+                    new FileOutputStream(run.file), 64 * 1024));
+            try
+            {
+                for (int i = 0; i < rows.length; i++)
+                {
+                    writeEntry(rows[i], o);
+                }
+            }
+            finally
+            {
+                o.close();
+            }
+            run.rows = rows.length;
+            written = true;
+        }
+        finally
+        {
+            if (!written)
+            {
+                run.file.delete();
+            }
+        }
+        return run;
+    }
+
+    /**
+     * Helper method to merge runs, into a new run if
+     * <code>out</code> is <code>null</code>.
+     */
+    private Run merge(List runs, Key[] k, Comparator order, DataFileWriter out)
+        throws IOException
+    {
+        int buffer = (int)Math.max(8 * 1024,
+                Math.min(64 * 1024, memoryLimit / (2 * (runs.size() + 1))));
+        PriorityQueue queue = new PriorityQueue(runs.size(), new SourceOrder(order));
+        Run target = null;
+        DataOutputStream o = null;
+        boolean merged = false;
+        try
+        {
+            for (int i = 0; i < runs.size(); i++)
+            {
+                Source s = new Source((Run)runs.get(i), numericKeys(k), buffer);
+                if (s.advance())
+                {
+                    queue.add(s);
+                }
+            }
+            if (out == null)
+            {
+                target = new Run(File.createTempFile("datafile-sort", ".run",
+                        tempDirectory));
+                o = new DataOutputStream(new BufferedOutputStream(
+                        new FileOutputStream(target.file), 64 * 1024));
+            }
+
+            while (!queue.isEmpty())
+            {
+                Source s = (Source)queue.poll();
+                if (o != null)
+                {
+                    writeEntry(s.current, o);
+                    target.rows++;
+                }
+                else
+                {
+                    write(s.current, out);
+                }
+                if (s.advance())
+                {
+                    queue.add(s);
+                }
+            }
+            if (o != null)
+            {
+                o.close();
+                o = null;
+            }
+            merged = true;
+        }
+        finally
+        {
+            if (o != null)
+            {
+                o.close();
+            }
+            if (!merged && target != null)
+            {
+                target.file.delete();
+            }
+            for (int i = 0; i < runs.size(); i++)
+            {
+                Run r = (Run)runs.get(i);
+                if (r.in != null)
+                {
+                    r.in.close();
+                }
+                r.file.delete();
+            }
+        }
+        return target;
+    }
+
+    private static void write(Entry e, DataFileWriter out) throws IOException
+    {
+        for (int i = 0; i < e.cells.length; i++)
+        {
+            out.writeString(e.cells[i]);
+        }
+        out.endRow();
+    }
+
+    private static void writeEntry(Entry e, DataOutputStream o) throws IOException
+    {
+        o.writeLong(e.seq);
+        for (int i = 0; i < e.nums.length; i++)
+        {
+            o.writeLong(e.nums[i]);
+        }
+        writeVarInt(e.cells.length, o);
+        for (int i = 0; i < e.cells.length; i++)
+        {
+            byte[] b = e.cells[i].getBytes(UTF8);
+            writeVarInt(b.length, o);
+            o.write(b);
+        }
+    }
+
+    private static Entry readEntry(DataInputStream in, int numeric)
+        throws IOException
+    {
+        long seq = in.readLong();
+        long[] nums = new long[numeric];
+        for (int i = 0; i < numeric; i++)
+        {
+            nums[i] = in.readLong();
+        }
+        String[] cells = new String[readVarInt(in)];
+        byte[] b = new byte[64];
+        for (int i = 0; i < cells.length; i++)
+        {
+            int len = readVarInt(in);
+            if (len > b.length)
+            {
+                b = new byte[Math.max(len, b.length * 2)];
+            }
+            in.readFully(b, 0, len);
+            cells[i] = new String(b, 0, len, UTF8);
+        }
+        return new Entry(seq, cells, nums);
+    }
+
+    private static void writeVarInt(int v, DataOutputStream o) throws IOException
+    {
+        while ((v & ~0x7f) != 0)
+        {
+            o.write((v & 0x7f) | 0x80);
+            v >>>= 7;
+        }
+        o.write(v);
+    }
+
+    private static int readVarInt(DataInputStream in) throws IOException
+    {
+        int v = 0;
+        for (int shift = 0;; shift += 7)
+        {
+            int b = in.readUnsignedByte();
+            v |= (b & 0x7f) << shift;
+            if ((b & 0x80) == 0)
+            {
+                return v;
+            }
+        }
+    }
+
+    private static void acquire(Semaphore slots) throws IOException
+    {
+        try
+        {
+            slots.acquire();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted while waiting for sort threads");
+        }
+    }
+
+    /**
+     * Helper method to wait for a spilled run, throwing the error
+     * raised while spilling it, if any.
+     */
+    private static Run result(Future f) throws IOException
+    {
+        try
+        {
+            return (Run)f.get();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted while waiting for sort threads");
+        }
+        catch (ExecutionException e)
+        {
+            Throwable t = e.getCause();
+            if (t instanceof IOException)
+            {
+                throw (IOException)t;
+            }
+            IOException io = new IOException("failed to sort data file: " + t);
+            io.initCause(t);
+            throw io;
+        }
+    }
+
+    /**
+     * Sorts a chunk and spills it to a run on a pool thread.
+     */
+    private final class Spill implements java.util.concurrent.Callable
+    {
+        private final List chunk;
+        private final Comparator order;
+        private final Key[] k;
+        private final Semaphore slots;
+
+        Spill(List chunk, Comparator order, Key[] k, Semaphore slots)
+        {
+            this.chunk = chunk;
+            this.order = order;
+            this.k = k;
+            this.slots = slots;
+        }
+
+        public Object call() throws IOException
+        {
+            try
+            {
+                Entry[] rows = (Entry[])chunk.toArray(new Entry[chunk.size()]);
+                chunk.clear();
+                Arrays.sort(rows, order);
+                return spill(rows, k);
+            }
+            finally
+            {
+                slots.release();
+            }
+        }
+    }
+
+    /**
+     * Sort key.
+     */
+    private static final class Key
+    {
+        int column;
+        final String label;
+        final int type;
+        final String pattern;
+        final boolean date;
+        final boolean ascending;
+        int slot = -1;
+
+        Key(int column, String label, int type, String pattern, boolean date,
+            boolean ascending)
+        {
+            this.column = column;
+            this.label = label;
+            this.type = type;
+            this.pattern = pattern;
+            this.date = date;
+            this.ascending = ascending;
+        }
+    }
+
+    /**
+     * Row being sorted: its cells, its numeric keys and its position
+     * in the input.
+     */
+    private static final class Entry
+    {
+        final long seq;
+        final String[] cells;
+        final long[] nums;
+        long size = 0;
+
+        Entry(long seq, String[] cells, long[] nums)
+        {
+            this.seq = seq;
+            this.cells = cells;
+            this.nums = nums;
+        }
+    }
+
+    /**
+     * Orders rows by the keys, then by position in the input.
+     */
+    private static final class EntryOrder implements Comparator
+    {
+        private final Key[] keys;
+
+        EntryOrder(Key[] keys)
+        {
+            this.keys = keys;
+        }
+
+        public int compare(Object o1, Object o2)
+        {
+            Entry a = (Entry)o1;
+            Entry b = (Entry)o2;
+            for (int i = 0; i < keys.length; i++)
+            {
+                Key k = keys[i];
+                int c;
+                if (k.slot >= 0)
+                {
+                    c = Long.compare(a.nums[k.slot], b.nums[k.slot]);
+                }
+                else
+                {
+                    c = cell(a, k.column).compareTo(cell(b, k.column));
+                }
+                if (c != 0)
+                {
+                    return (k.ascending) ? c : -c;
+                }
+            }
+            return Long.compare(a.seq, b.seq);
+        }
+
+        private static String cell(Entry e, int column)
+        {
+            return (column < e.cells.length) ? e.cells[column] : "";
+        }
+    }
+
+    /**
+     * Orders runs being merged by their next row.
+     */
+    private static final class SourceOrder implements Comparator
+    {
+        private final Comparator order;
+
+        SourceOrder(Comparator order)
+        {
+            this.order = order;
+        }
+
+        public int compare(Object a, Object b)
+        {
+            return order.compare(((Source)a).current, ((Source)b).current);
+        }
+    }
+
+    /**
+     * Sorted run in a temporary file.
+     */
+    private static final class Run
+    {
+        final File file;
+        long rows = 0;
+        DataInputStream in = null;
+
+        Run(File file)
+        {
+            this.file = file;
+        }
+    }
+
+    /**
+     * Reads the rows of a run during a merge.
+     */
+    private static final class Source
+    {
+        private final Run run;
+        private final int numeric;
+        private long left;
+        Entry current = null;
+
+        Source(Run run, int numeric, int buffer) throws IOException
+        {
+            this.run = run;
+            this.numeric = numeric;
+            this.left = run.rows;
+            run.in = new DataInputStream(new BufferedInputStream(
+                    new FileInputStream(run.file), buffer));
+        }
+
+        boolean advance() throws IOException
+        {
+            if (left == 0)
+            {
+                current = null;
+                return false;
+            }
+            left--;
+            current = readEntry(run.in, numeric);
+            return true;
+        }
+    }
+
+}
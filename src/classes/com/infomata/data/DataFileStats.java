@@ -0,0 +1,369 @@
+/*
+ * $Id$
+ *
+ * Copyright(c) 2002 Infomata
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+package com.infomata.data;
+
+import java.lang.management.ManagementFactory;
+import java.util.Hashtable;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongBinaryOperator;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Counters and rates of one file read or written by a
+ * {@link com.infomata.data.DataFileReader} or
+ * {@link com.infomata.data.DataFileWriter}, published as an MBean
+ * named
+ * <code>com.infomata.data:type=DataFileReader,id=<i>n</i>,source=<i>file</i></code>
+ * (or <code>type=DataFileWriter</code>) while the file is open.  The
+ * counts of all files of a data format are added up in a second MBean
+ * named <code>com.infomata.data:type=DataFileReader,format=<i>class</i></code>,
+ * which stays registered.
+ * <p>
+ * Metrics are off by default and are turned on per instance with
+ * {@link AbstractDataFile#setMetricsEnabled(boolean)}, or for all
+ * instances with the system property
+ * <code>com.infomata.data.metrics=true</code>.  When they are off,
+ * reading and writing only test a field for <code>null</code>.
+ * </p>
+ * <p>
+ * I/O time is measured around the reads and writes of the underlying
+ * stream; a memory mapped file has no such calls, so the time it takes
+ * to fault in pages counts as parse time.  Rows read in parallel are
+ * counted when they are returned, and rows of a stream or of an
+ * asynchronous writer when their buffer is formatted.
+ * </p>
+ *
+ * @see com.infomata.data.DataFileStatsMBean
+ * @version $Revision$
+ */
+public class DataFileStats implements DataFileStatsMBean
+{
+
+    /**
+     * System property enabling metrics on all readers and writers.
+     */
+    public static final String PROPERTY = "com.infomata.data.metrics";
+
+    /**
+     * Domain of the MBean names.
+     */
+    static final String DOMAIN = "com.infomata.data";
+
+    private static final long TICK = 5000000000L;
+    private static final double ALPHA = 1 - Math.exp(-5d / 60d);
+
+    /**
+     * Totals by kind and format class.
+     */
+    private static final Hashtable TOTALS = new Hashtable();
+
+    private static final AtomicInteger IDS = new AtomicInteger();
+
+    private final String source;
+    private final String format;
+    private final DataFileStats total;
+    private ObjectName name = null;
+
+    private final AtomicInteger open = new AtomicInteger();
+    private final LongAdder rows = new LongAdder();
+    private final LongAdder bytes = new LongAdder();
+    private final LongAdder rowNanos = new LongAdder();
+    private final LongAdder ioNanos = new LongAdder();
+    private final LongAdder multiline = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+    private final LongAccumulator maxNanos = new LongAccumulator(
+        new LongBinaryOperator()
+        {
+            public long applyAsLong(long a, long b)
+            {
+                return Math.max(a, b);
+            }
+        }, 0);
+
+    /**
+     * Moving rates, updated when read.
+     */
+    private final Rate rowRate = new Rate();
+    private final Rate byteRate = new Rate();
+
+    private DataFileStats(String source, String format, DataFileStats total)
+    {
+        this.source = source;
+        this.format = format;
+        this.total = total;
+    }
+
+    /**
+     * Creates and registers the metrics of a file being opened.
+     *
+     * @param kind <code>DataFileReader</code> or
+     *             <code>DataFileWriter</code>.
+     * @param format data format of the file.
+     * @param source name of the file.
+     * @return metrics of the file.
+     */
+    static DataFileStats open(String kind, DataFormat format, String source)
+    {
+        String cls = format.getClass().getName();
+        DataFileStats sum;
+        synchronized (TOTALS)
+        {
+            String key = kind + ":" + cls;
+            sum = (DataFileStats)TOTALS.get(key);
+            if (sum == null)
+            {
+                sum = new DataFileStats(cls, cls, null);
+                sum.register("type=" + kind + ",format=" + ObjectName.quote(cls));
+                TOTALS.put(key, sum);
+            }
+        }
+        DataFileStats stats = new DataFileStats(source, cls, sum);
+        stats.open.incrementAndGet();
+        sum.open.incrementAndGet();
+        stats.register("type=" + kind + ",id=" + IDS.incrementAndGet()
+                       + ",source=" + ObjectName.quote(source));
+        return stats;
+    }
+
+    /**
+     * Unregisters the metrics of a file being closed.  Its counters
+     * remain readable.
+     */
+    void close()
+    {
+        if (open.getAndSet(0) > 0)
+        {
+            total.open.decrementAndGet();
+            unregister();
+        }
+    }
+
+    /**
+     * Records rows read or written.
+     *
+     * @param n number of rows.
+     * @param nanos time taken by the rows, I/O included.
+     */
+    void rows(long n, long nanos)
+    {
+        rows.add(n);
+        rowNanos.add(nanos);
+        maxNanos.accumulate((n > 1) ? nanos / n : nanos);
+        if (total != null)
+        {
+            total.rows(n, nanos);
+        }
+    }
+
+    /**
+     * Records bytes transferred by the underlying stream.
+     *
+     * @param n number of bytes.
+     * @param nanos time taken by the transfer.
+     */
+    void io(long n, long nanos)
+    {
+        bytes.add(n);
+        ioNanos.add(nanos);
+        if (total != null)
+        {
+            total.io(n, nanos);
+        }
+    }
+
+    /**
+     * Records the position reached in a file read without stream
+     * calls (memory mapped).
+     *
+     * @param position number of bytes read so far.
+     */
+    void position(long position)
+    {
+        long n = position - bytes.sum();
+        if (n > 0)
+        {
+            io(n, 0);
+        }
+    }
+
+    /**
+     * Records rows read that span several lines.
+     *
+     * @param n number of rows.
+     */
+    void multiline(long n)
+    {
+        multiline.add(n);
+        if (total != null)
+        {
+            total.multiline(n);
+        }
+    }
+
+    /**
+     * Records a cell that could not be converted.
+     */
+    void parseError()
+    {
+        errors.increment();
+        if (total != null)
+        {
+            total.parseError();
+        }
+    }
+
+    public String getSource()
+    {
+        return source;
+    }
+
+    public String getFormat()
+    {
+        return format;
+    }
+
+    public int getOpenFiles()
+    {
+        return open.get();
+    }
+
+    public long getRows()
+    {
+        return rows.sum();
+    }
+
+    public long getBytes()
+    {
+        return bytes.sum();
+    }
+
+    public double getRowsPerSecond()
+    {
+        return rowRate.get(rows.sum());
+    }
+
+    public double getBytesPerSecond()
+    {
+        return byteRate.get(bytes.sum());
+    }
+
+    public long getParseMillis()
+    {
+        return Math.max(rowNanos.sum() - ioNanos.sum(), 0) / 1000000L;
+    }
+
+    public long getIoMillis()
+    {
+        return ioNanos.sum() / 1000000L;
+    }
+
+    public double getMeanRowMicros()
+    {
+        long n = rows.sum();
+        return (n == 0) ? 0d : rowNanos.sum() / 1000d / n;
+    }
+
+    public double getMaxRowMicros()
+    {
+        return maxNanos.get() / 1000d;
+    }
+
+    public long getMultilineRows()
+    {
+        return multiline.sum();
+    }
+
+    public long getParseErrors()
+    {
+        return errors.sum();
+    }
+
+    public String toString()
+    {
+        return source + ": " + getRows() + " rows, " + getBytes() + " bytes";
+    }
+
+    /**
+     * Helper method to register the MBean; metrics work without it if
+     * registration fails.
+     */
+    private void register(String properties)
+    {
+        try
+        {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName n = new ObjectName(DOMAIN + ":" + properties);
+            server.registerMBean(this, n);
+            name = n;
+        }
+        catch (JMException e)
+        {
+            // not published.
+        }
+    }
+
+    private void unregister()
+    {
+        if (name != null)
+        {
+            try
+            {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+            }
+            catch (JMException e)
+            {
+                // already gone.
+            }
+            name = null;
+        }
+    }
+
+    /**
+     * One minute exponentially weighted moving rate, ticked every five
+     * seconds when read.
+     */
+    private static final class Rate
+    {
+        private long last = System.nanoTime();
+        private long count = 0;
+        private double rate = 0d;
+        private boolean started = false;
+
+        synchronized double get(long sum)
+        {
+            long now = System.nanoTime();
+            while (now - last >= TICK)
+            {
+                double instant = (sum - count) / (TICK / 1e9);
+                count = sum;
+                rate = (started) ? rate + ALPHA * (instant - rate) : instant;
+                started = true;
+                last += TICK;
+            }
+            return rate;
+        }
+    }
+
+}
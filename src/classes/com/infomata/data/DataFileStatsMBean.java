@@ -0,0 +1,127 @@
+/*
+ * $Id$
+ *
+ * Copyright(c) 2002 Infomata
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+package com.infomata.data;
+
+/**
+ * Management interface of {@link com.infomata.data.DataFileStats}.
+ * Published over JMX for each open reader or writer with metrics
+ * enabled, and for each data format as the total of its files.
+ *
+ * @version $Revision$
+ */
+public interface DataFileStatsMBean
+{
+    /**
+     * Retrieves the file read or written, or the format name for the
+     * total of a format.
+     *
+     * @return source name.
+     */
+    public String getSource();
+
+    /**
+     * Retrieves the class name of the data format.
+     *
+     * @return data format class name.
+     */
+    public String getFormat();
+
+    /**
+     * Retrieves the number of files currently open.
+     *
+     * @return open files.
+     */
+    public int getOpenFiles();
+
+    /**
+     * Retrieves the number of rows read or written.
+     *
+     * @return row count.
+     */
+    public long getRows();
+
+    /**
+     * Retrieves the number of bytes read or written.
+     *
+     * @return byte count.
+     */
+    public long getBytes();
+
+    /**
+     * Retrieves the rate of rows per second, as an exponentially
+     * weighted average over the last minute.
+     *
+     * @return rows per second.
+     */
+    public double getRowsPerSecond();
+
+    /**
+     * Retrieves the rate of bytes per second, as an exponentially
+     * weighted average over the last minute.
+     *
+     * @return bytes per second.
+     */
+    public double getBytesPerSecond();
+
+    /**
+     * Retrieves the time spent parsing or formatting rows.
+     *
+     * @return milliseconds spent outside of I/O.
+     */
+    public long getParseMillis();
+
+    /**
+     * Retrieves the time spent reading or writing the underlying
+     * stream.
+     *
+     * @return milliseconds spent in I/O.
+     */
+    public long getIoMillis();
+
+    /**
+     * Retrieves the mean time taken by a row, I/O included.
+     *
+     * @return mean microseconds per row.
+     */
+    public double getMeanRowMicros();
+
+    /**
+     * Retrieves the longest time taken by a row, I/O included.
+     *
+     * @return maximum microseconds per row.
+     */
+    public double getMaxRowMicros();
+
+    /**
+     * Retrieves the number of rows read that span several lines
+     * (quoted cells holding line breaks).
+     *
+     * @return multi-line rows.
+     */
+    public long getMultilineRows();
+
+    /**
+     * Retrieves the number of cells that could not be converted by
+     * the typed accessors of the rows read.
+     *
+     * @return parse errors.
+     */
+    public long getParseErrors();
+}
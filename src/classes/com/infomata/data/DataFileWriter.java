@@ -19,14 +19,13 @@
  */
 package com.infomata.data;
 
-import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileOutputStream;
-import java.io.FileWriter;
 import java.io.IOException;
-import java.io.OutputStreamWriter;
-import java.io.PrintWriter;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
 import java.net.URL;
+import java.nio.charset.Charset;
 import java.text.NumberFormat;
 
 // TODO: create separate test for DataFileWriter and test encoding
@@ -65,6 +64,39 @@ import java.text.NumberFormat;
  *     write.close();
  * }
  * </pre>
+ * <p>
+ * Rows can also be formatted and written on a background thread while
+ * the caller fills the next rows (see {@link #setAsync(boolean)}), and
+ * files can be gzip compressed by several threads (see
+ * {@link #setGzip(boolean)}).
+ * </p>
+ * <p>
+ * Formats implementing {@link com.infomata.data.BufferDataFormat} write
+ * each row into one reused character buffer, which is encoded in bulk
+ * with a reused <code>CharsetEncoder</code>; other formats are written
+ * through the <code>String</code> returned by
+ * {@link com.infomata.data.DataFormat#format(DataRow)}.
+ * </p>
+ * <p>
+ * Instead of filling rows, cells can also be written one at a time
+ * with {@link #writeInt(int)}, {@link #writeLong(long)},
+ * {@link #writeDouble(double)} and {@link #writeString(CharSequence)},
+ * ending each row with {@link #endRow()}:
+ * </p>
+ * <pre class="example">
+ * write.writeString(&quot;some German text&quot;);
+ * write.writeInt(123);
+ * write.writeDouble(13323.23d);
+ * write.endRow();
+ * </pre>
+ * <p>
+ * Numbers are then written without a <code>NumberFormat</code>: integers
+ * in plain digits and doubles with the fewest digits that read back as
+ * the same value, unless {@link #setLocaleNumbers(boolean)} is set.
+ * With a {@link com.infomata.data.CellDataFormat} the cells go straight
+ * into the output buffer; with other formats, and in asynchronous mode,
+ * they fill a row handed out by {@link #next()}.
+ * </p>
  * 
  * @author <a href="mailto:oldman1004@gmail.com">Sam Kim</a>
  * @version $Revision: 1.3 $
@@ -73,7 +105,7 @@ public class DataFileWriter extends AbstractDataFile
 {
     private DataRow row = null;
 
-    private PrintWriter out = null;
+    private RowEncoder out = null;
 
     /**
      * Flag that indicates whether or not the new data is to appended to
@@ -81,6 +113,69 @@ public class DataFileWriter extends AbstractDataFile
      */
     private boolean append = false;
 
+    /**
+     * Flag that indicates whether rows are written by a background
+     * thread.
+     */
+    private boolean async = false;
+
+    /**
+     * Number of rows in each buffer in asynchronous mode.
+     */
+    private int asyncBufferRows = 1024;
+
+    /**
+     * Background writer in asynchronous mode.
+     */
+    private AsyncRowWriter asyncOut = null;
+
+    /**
+     * Flag that indicates whether files are gzip compressed.
+     */
+    private boolean gzip = false;
+
+    /**
+     * Number of threads compressing gzip blocks.
+     */
+    private int gzipThreads = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * Size of the output buffer in asynchronous mode, so that the
+     * file is written in large sequential blocks.
+     */
+    private static final int ASYNC_OUTPUT_BUFFER = 1024 * 1024;
+
+    /**
+     * Size of the encoded output written at a time otherwise.
+     */
+    private static final int OUTPUT_BUFFER = 64 * 1024;
+
+    /**
+     * Flag that indicates whether typed numbers are formatted with
+     * the <code>NumberFormat</code> of the writer.
+     */
+    private boolean localeNumbers = false;
+
+    /**
+     * Format of typed numbers when {@link #localeNumbers} is set.
+     */
+    private NumberFormat localeFormat = null;
+
+    /**
+     * Row filled by typed writes when cells cannot be written directly.
+     */
+    private DataRow typedRow = null;
+
+    /**
+     * Buffer the digits of typed numbers are written to.
+     */
+    private final FormatBuffer number = new FormatBuffer(32);
+
+    /**
+     * Start of the row being written by typed writes, for metrics.
+     */
+    private long typedStart = 0;
+
     /**
      * Creates a new <code>DataFile</code> instance for writing data files.
      * 
@@ -104,6 +199,77 @@ public class DataFileWriter extends AbstractDataFile
         this.append = append;
     }
 
+    /**
+     * Specifies whether rows are formatted and written by a background
+     * thread.  In asynchronous mode {@link #next()} only hands out an
+     * empty row from a buffer; full buffers of rows are formatted,
+     * encoded and written by the background thread while the next
+     * buffer is filled.  When both buffers are waiting to be written,
+     * {@link #next()} blocks until one is free again.  An error raised
+     * while writing is thrown by the following call to {@link #next()}
+     * or {@link #close()}, which must always be called.
+     * <p>
+     * <b>Each call to {@link #next()} returns a different row</b>, which
+     * must not be changed after the following call.  Takes effect when
+     * the next file is opened.
+     * </p>
+     * 
+     * @param async <code>true</code> to write on a background thread.
+     */
+    public void setAsync(boolean async)
+    {
+        this.async = async;
+    }
+
+    /**
+     * Sets the number of rows in each of the two buffers used in
+     * asynchronous mode.  Defaults to 1024.
+     * 
+     * @param rows rows per buffer.
+     * @see #setAsync(boolean)
+     */
+    public void setAsyncBufferRows(int rows)
+    {
+        if (rows <= 0)
+        {
+            throw new IllegalArgumentException("buffer rows must be positive.");
+        }
+        asyncBufferRows = rows;
+    }
+
+    /**
+     * Specifies whether files are written gzip compressed.  The data
+     * is cut into blocks of about 64 KB that are compressed in parallel
+     * (see {@link #setGzipThreads(int)}) and written as consecutive
+     * gzip members, which any gzip tool reads as one file.  Each member
+     * records its size in a <code>BC</code> extra subfield (as in BGZF),
+     * so that {@link DataFileReader} can inflate the file in parallel
+     * too.  When appending, the new members follow the existing ones.
+     * Takes effect when the next file is opened.
+     * 
+     * @param gzip <code>true</code> to compress files.
+     */
+    public void setGzip(boolean gzip)
+    {
+        this.gzip = gzip;
+    }
+
+    /**
+     * Sets the number of threads compressing blocks in gzip mode.
+     * Defaults to the number of processors.
+     * 
+     * @param threads number of compressing threads.
+     * @see #setGzip(boolean)
+     */
+    public void setGzipThreads(int threads)
+    {
+        if (threads <= 0)
+        {
+            throw new IllegalArgumentException("threads must be positive.");
+        }
+        gzipThreads = threads;
+    }
+
     /**
      * Finalization method that closes the file descriptor. This would work only
      * if JVM is current (1.3 or later?).
@@ -120,6 +286,157 @@ public class DataFileWriter extends AbstractDataFile
         }
     } // finalize()
 
+    /**
+     * Sets whether {@link #writeInt(int)}, {@link #writeLong(long)} and
+     * {@link #writeDouble(double)} format numbers with the
+     * <code>NumberFormat</code> of the writer, as
+     * {@link DataRow#add(double)} does, rather than in plain digits.
+     * Off by default.
+     *
+     * @param localeNumbers <code>true</code> to use the number format.
+     * @see #setNumberFormat(NumberFormat)
+     */
+    public void setLocaleNumbers(boolean localeNumbers)
+    {
+        this.localeNumbers = localeNumbers;
+        localeFormat = null;
+    }
+
+    /**
+     * @return <code>true</code> if typed numbers are formatted with the
+     *         <code>NumberFormat</code> of the writer.
+     */
+    public boolean isLocaleNumbers()
+    {
+        return localeNumbers;
+    }
+
+    /**
+     * Writes an integer as the next cell of the current row.
+     *
+     * @param value value of the cell.
+     * @throws IOException if writing fails.
+     */
+    public final void writeInt(int value) throws IOException
+    {
+        writeLong(value);
+    }
+
+    /**
+     * Writes a long integer as the next cell of the current row.
+     *
+     * @param value value of the cell.
+     * @throws IOException if writing fails.
+     */
+    public final void writeLong(long value) throws IOException
+    {
+        if (localeNumbers)
+        {
+            writeString(localeFormat().format(value));
+            return;
+        }
+        number.setLength(0);
+        NumberWriter.append(value, number);
+        writeString(number);
+    }
+
+    /**
+     * Writes a double as the next cell of the current row, with the
+     * fewest digits that read back as the same value.
+     *
+     * @param value value of the cell.
+     * @throws IOException if writing fails.
+     */
+    public final void writeDouble(double value) throws IOException
+    {
+        if (localeNumbers)
+        {
+            writeString(localeFormat().format(value));
+            return;
+        }
+        number.setLength(0);
+        NumberWriter.append(value, number);
+        writeString(number);
+    }
+
+    /**
+     * Writes text as the next cell of the current row.  The data
+     * format quotes or escapes it as needed.
+     *
+     * @param value value of the cell; <code>null</code> is written as
+     *            <code>"null"</code>, as by {@link DataRow#add(String)}.
+     * @throws IOException if writing fails.
+     */
+    public final void writeString(CharSequence value) throws IOException
+    {
+        if (typedRow == null && out != null && out.formatsCells())
+        {
+            if (row != null)
+            {
+                // commit the row handed out by next(), as next() would
+                next();
+                row = null;
+            }
+            if (stats != null && !out.inRow())
+            {
+                typedStart = System.nanoTime();
+            }
+            out.cell(value);
+            return;
+        }
+        if (typedRow == null)
+        {
+            typedRow = next();
+        }
+        typedRow.add((value == null) ? null : value.toString());
+    }
+
+    /**
+     * Ends the row written with the typed write methods.  The next
+     * typed write starts a new row.
+     *
+     * @throws IOException if writing fails.
+     */
+    public final void endRow() throws IOException
+    {
+        if (typedRow != null)
+        {
+            // written by the next call to next() or close()
+            typedRow = null;
+        }
+        else if (out != null && out.formatsCells())
+        {
+            if (row != null)
+            {
+                next();
+                row = null;
+            }
+            boolean empty = !out.inRow();
+            out.endRow();
+            if (stats != null)
+            {
+                stats.rows(1, (empty) ? 0 : System.nanoTime() - typedStart);
+            }
+        }
+        else
+        {
+            // an empty row
+            next();
+        }
+    }
+
+    /**
+     * Helper method to get the number format of typed numbers.
+     */
+    private NumberFormat localeFormat()
+    {
+        if (localeFormat == null)
+        {
+            localeFormat = (nf != null) ? nf : ParseContext.createNumberFormat();
+        }
+        return localeFormat;
+    }
+
     /*
      * (non-Javadoc)
      * @see com.infomata.data.DataFile#close()
@@ -131,15 +448,39 @@ public class DataFileWriter extends AbstractDataFile
             resetHeaders();
         }
 
+        typedRow = null;
+        if (asyncOut != null)
+        {
+            AsyncRowWriter w = asyncOut;
+            asyncOut = null;
+            w.close();
+        }
+
         if (out != null)
         {
             if (row != null && row.size() > 0)
             {
-                out.println(format.format(row));
-                row = null;
+                long t = (stats != null) ? System.nanoTime() : 0;
+                out.write(row);
+                if (stats != null)
+                {
+                    stats.rows(1, System.nanoTime() - t);
+                }
             }
-            out.close();
+            row = null;
+            RowEncoder o = out;
+            out = null;
+            try
+            {
+                o.close();
+            }
+            finally
+            {
+                closeStats();
+            }
+            return;
         }
+        closeStats();
 
     } // close()
 
@@ -155,7 +496,7 @@ public class DataFileWriter extends AbstractDataFile
                     + file.getAbsolutePath());
         }
 
-        if (out != null)
+        if (out != null || asyncOut != null)
         {
             close();
         }
@@ -169,22 +510,45 @@ public class DataFileWriter extends AbstractDataFile
      */
     public final void open(URL file) throws IOException
     {
-        if (containsCharacterEncoding())
+        if (format == null)
         {
-            FileOutputStream fos = new FileOutputStream(file.getFile(), append);
-            OutputStreamWriter ow = new OutputStreamWriter(fos,
-                    getCharacterEncoding());
-            out = new PrintWriter(ow);
+            format = new CSVFormat();
         }
-        else
+
+        Charset cs = Charset.defaultCharset();
+        if (containsCharacterEncoding())
         {
-            FileWriter fw = new FileWriter(file.getFile(), append);
-            out = new PrintWriter(new BufferedWriter(fw));
+            try
+            {
+                cs = Charset.forName(getCharacterEncoding());
+            }
+            catch (IllegalArgumentException e)
+            {
+                throw new UnsupportedEncodingException(getCharacterEncoding());
+            }
         }
 
-        if (format == null)
+        OutputStream os = new FileOutputStream(file.getFile(), append);
+        openStats(file.getFile());
+        if (stats != null)
         {
-            format = new CSVFormat();
+            os = new MeteredOutputStream(os, stats);
+        }
+        if (gzip)
+        {
+            os = new BlockGzipOutputStream(os, gzipThreads);
+        }
+        RowEncoder enc = new RowEncoder(os, cs, format,
+            (async) ? ASYNC_OUTPUT_BUFFER : OUTPUT_BUFFER);
+        if (async)
+        {
+            out = null;
+            asyncOut = new AsyncRowWriter(enc, nf, asyncBufferRows);
+            asyncOut.setStats(stats);
+        }
+        else
+        {
+            out = enc;
         }
 
     } // open()
@@ -195,19 +559,23 @@ public class DataFileWriter extends AbstractDataFile
      */
     public final DataRow next() throws IOException
     {
+        typedRow = null;
+        if (asyncOut != null)
+        {
+            return asyncOut.next();
+        }
+
         if (row == null)
         {
             row = new DataRow(nf);
         }
         else
         {
-            if (row.size() == 0)
-            {
-                out.println("");
-            }
-            else
+            long t = (stats != null) ? System.nanoTime() : 0;
+            out.write(row);
+            if (stats != null)
             {
-                out.println(format.format(row));
+                stats.rows(1, System.nanoTime() - t);
             }
             row.clear();
         }
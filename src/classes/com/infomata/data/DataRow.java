@@ -23,6 +23,9 @@ import java.text.DecimalFormat;
 import java.text.NumberFormat;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Date;
@@ -33,6 +36,14 @@ import java.util.List;
 /**
  * Object representing collection of data items contained within one
  * line of the data file
+ * <p>
+ * Rows read by a {@link com.infomata.data.DataFileReader} share its
+ * <code>NumberFormat</code> and <code>SimpleDateFormat</code>
+ * instances, which are not thread-safe.  Rows from the same reader
+ * must not be parsed with the numeric or date accessors on different
+ * threads at the same time.  Only rows of different parts of a
+ * parallel read or of a split stream use formats of their own.
+ * </p>
  *
  * @author <a href="mailto:oldman1004@gmail.com">Sam Kim</a>
  * @version $Revision: 1.4 $
@@ -45,20 +56,36 @@ public class DataRow {
     private Hashtable index = null;
 
     /**
-     * container for data items.  (stored as string)
+     * container for data items.  (stored as string, or as a
+     * <code>CharSequence</code> view until first retrieved as string)
      */
     private ArrayList items = null;
 
     /**
      * <code>NumberFormat</code> instance used to parse
-     * numeric values in specified format.
+     * numeric values in specified format.  Created or taken
+     * from the parse context on first use.
      */
     private NumberFormat nf = null;
 
     /**
-     * SimpleDateFormat instance used to parse date items.
+     * Parsing state shared with the other rows read by the
+     * same data file (or <code>null</code>).
      */
-    private SimpleDateFormat df = new SimpleDateFormat();
+    private ParseContext context = null;
+
+    /**
+     * Parser for numeric items following the rules of
+     * <code>nf</code> (created or taken from the parse
+     * context on first use).
+     */
+    private NumberParser parser = null;
+
+    /**
+     * Parsing state used for date items when the row
+     * has no parse context of its own (created on first use).
+     */
+    private ParseContext dates = null;
 
     /**
      * Creates a new <code>DataRow</code> instance.
@@ -66,8 +93,19 @@ public class DataRow {
      */
     public DataRow() {
         items = new ArrayList();
-        nf = NumberFormat.getInstance();
-        nf.setMaximumFractionDigits(50);
+    }
+
+    /**
+     * Creates a new <code>DataRow</code> instance that
+     * takes its number and date parsing from a context shared
+     * with other rows.
+     *
+     * @param context shared parse context, or <code>null</code>
+     *                to use JVM's locale.
+     */
+    public DataRow(ParseContext context) {
+        items = new ArrayList();
+        this.context = context;
     }
 
     /**
@@ -93,13 +131,25 @@ public class DataRow {
     }
 
 
+    /**
+     * Adds a datum viewed in place in the buffer it was read from.
+     * The view is turned into a <code>String</code> only when
+     * the item is retrieved as one.
+     *
+     * @param datum character sequence viewing the datum.
+     */
+    void add(CharSequence datum) {
+        items.add(datum);
+    }
+
+
     /**
      * Adds an int datum to the next location.
      *
      * @param datum int datum item
      */
     public void add(int datum) {
-        items.add(nf.format(datum));
+        items.add(numberFormat().format(datum));
     }
 
 
@@ -109,7 +159,7 @@ public class DataRow {
      * @param datum a <code>long</code> value
      */
     public void add(long datum) {
-        items.add(nf.format(datum));
+        items.add(numberFormat().format(datum));
     }
 
 
@@ -119,7 +169,7 @@ public class DataRow {
      * @param datum a <code>double</code> value
      */
     public void add(double datum) {
-        items.add(nf.format(datum));
+        items.add(numberFormat().format(datum));
     }
 
 
@@ -150,6 +200,7 @@ public class DataRow {
      * @return an <code>Iterator</code>
      */
     public Iterator iterator() {
+        materialize();
         return items.iterator();
     }
     
@@ -168,11 +219,10 @@ public class DataRow {
         Date d = null;
         String v = getString(location).trim();
         try {
-            df.applyPattern(pattern);
-            d = df.parse(v);
+            d = dateFormat(pattern).parse(v);
         }
         catch (ParseException e) {
-            // do nothing and return null
+            parseFailed();
         }
         return d;
     }
@@ -191,11 +241,10 @@ public class DataRow {
         java.sql.Date d = null;
         String v = getString(location).trim();
         try {
-            df.applyPattern(pattern);
-            d = new java.sql.Date(df.parse(v).getTime());
+            d = new java.sql.Date(dateFormat(pattern).parse(v).getTime());
         }
         catch (ParseException e) {
-            // do nothing
+            parseFailed();
         }
         return d;
     }
@@ -219,6 +268,150 @@ public class DataRow {
     }
 
 
+    /**
+     * Retrieves the date at the specified location.  The pattern uses
+     * the syntax of <code>java.time.format.DateTimeFormatter</code>;
+     * formatters are compiled once per pattern and shared by all rows,
+     * and ISO-8601 dates (<code>yyyy-MM-dd</code>,
+     * <code>yyyyMMdd</code>) are read without a formatter.  Unlike
+     * {@link #getDate(int, String)}, this method may be used by
+     * several threads at once.
+     *
+     * @param location location of the item (starts at zero)
+     * @param pattern date pattern, or <code>null</code> for ISO-8601.
+     * @return the date, or <code>null</code> if the item does not
+     *         match the pattern.
+     * @throws IllegalArgumentException if the pattern is invalid.
+     */
+    public LocalDate getLocalDate(int location, String pattern) {
+        CharSequence cs = getCharSequence(location);
+        return (LocalDate)checked(DateParser.parseDate(cs, pattern), cs);
+    }
+
+    /**
+     * Retrieves the date under the specified column label.
+     *
+     * @param label column label
+     * @param pattern date pattern, or <code>null</code> for ISO-8601.
+     * @return the date, or <code>null</code> if the column does not
+     *         exist or the item does not match the pattern.
+     * @see #getLocalDate(int, String)
+     */
+    public LocalDate getLocalDate(String label, String pattern) {
+        int idx = getIndex(label);
+        return (idx >= 0) ? getLocalDate(idx, pattern) : null;
+    }
+
+    /**
+     * Retrieves the date at the specified location as the number of
+     * days since 1970-01-01.  Dates in the ISO-8601 layouts are
+     * converted without creating any object.
+     *
+     * @param location location of the item (starts at zero)
+     * @param pattern date pattern, or <code>null</code> for ISO-8601.
+     * @param defaultVal value returned if the item does not match
+     *                   the pattern.
+     * @return epoch day of the date.
+     * @see #getLocalDate(int, String)
+     */
+    public long getEpochDay(int location, String pattern, long defaultVal) {
+        CharSequence cs = getCharSequence(location);
+        long day = DateParser.parseEpochDay(cs, pattern);
+        if (day == DateParser.NOT_PARSED) {
+            LocalDate d = (LocalDate)checked(DateParser.parseDate(cs, pattern), cs);
+            day = (d == null) ? defaultVal : d.toEpochDay();
+        }
+        return day;
+    }
+
+    /**
+     * Retrieves the date and time at the specified location.
+     * ISO-8601 items (<code>yyyy-MM-ddTHH:mm:ss</code> with optional
+     * fraction of second) and the pattern
+     * <code>yyyy-MM-dd HH:mm:ss</code> are read without a formatter.
+     *
+     * @param location location of the item (starts at zero)
+     * @param pattern date and time pattern, or <code>null</code> for
+     *                ISO-8601 (without offset).
+     * @return the date and time, or <code>null</code> if the item
+     *         does not match the pattern.
+     * @see #getLocalDate(int, String)
+     */
+    public LocalDateTime getLocalDateTime(int location, String pattern) {
+        CharSequence cs = getCharSequence(location);
+        return (LocalDateTime)checked(DateParser.parseDateTime(cs, pattern), cs);
+    }
+
+    /**
+     * Retrieves the date and time under the specified column label.
+     *
+     * @param label column label
+     * @param pattern date and time pattern, or <code>null</code> for
+     *                ISO-8601 (without offset).
+     * @return the date and time, or <code>null</code> if the column
+     *         does not exist or the item does not match the pattern.
+     * @see #getLocalDateTime(int, String)
+     */
+    public LocalDateTime getLocalDateTime(String label, String pattern) {
+        int idx = getIndex(label);
+        return (idx >= 0) ? getLocalDateTime(idx, pattern) : null;
+    }
+
+    /**
+     * Retrieves the timestamp at the specified location.  Items with
+     * an offset or time zone are converted with it; items without one
+     * are taken to be in UTC.
+     *
+     * @param location location of the item (starts at zero)
+     * @param pattern date and time pattern, or <code>null</code> for
+     *                ISO-8601 (with optional offset or zone).
+     * @return the instant, or <code>null</code> if the item does not
+     *         match the pattern.
+     * @see #getLocalDateTime(int, String)
+     */
+    public Instant getInstant(int location, String pattern) {
+        CharSequence cs = getCharSequence(location);
+        return (Instant)checked(DateParser.parseInstant(cs, pattern), cs);
+    }
+
+    /**
+     * Retrieves the timestamp under the specified column label.
+     *
+     * @param label column label
+     * @param pattern date and time pattern, or <code>null</code> for
+     *                ISO-8601.
+     * @return the instant, or <code>null</code> if the column does
+     *         not exist or the item does not match the pattern.
+     * @see #getInstant(int, String)
+     */
+    public Instant getInstant(String label, String pattern) {
+        int idx = getIndex(label);
+        return (idx >= 0) ? getInstant(idx, pattern) : null;
+    }
+
+    /**
+     * Retrieves the timestamp at the specified location as the number
+     * of milliseconds since 1970-01-01T00:00:00Z.  ISO-8601 items are
+     * converted without creating any object.
+     *
+     * @param location location of the item (starts at zero)
+     * @param pattern date and time pattern, or <code>null</code> for
+     *                ISO-8601.
+     * @param defaultVal value returned if the item does not match
+     *                   the pattern.
+     * @return epoch millisecond of the timestamp.
+     * @see #getInstant(int, String)
+     */
+    public long getEpochMilli(int location, String pattern, long defaultVal) {
+        CharSequence cs = getCharSequence(location);
+        long n = DateParser.parseEpochNano(cs, pattern, true);
+        if (n != DateParser.NOT_PARSED) {
+            return Math.floorDiv(n, 1000000L);
+        }
+        Instant t = (Instant)checked(DateParser.parseInstant(cs, pattern), cs);
+        return (t == null) ? defaultVal : t.toEpochMilli();
+    }
+
     /** Retrieves the double value of the datum contained
      * in the specified location.
      * @return a <code>double</code> value
@@ -228,18 +421,23 @@ public class DataRow {
      */
     public double getDouble(int location) throws NumberFormatException {
 
-        double d = Double.NaN;
+        double d = numberParser().parseDouble(getCharSequence(location));
+        if (!Double.isNaN(d)) {
+            return d;
+        }
+
         String val = getString(location).trim();
         val = prepareNumberValue(val);
         
         try {
-            d = nf.parse(val).doubleValue();
+            d = numberFormat().parse(val).doubleValue();
         }
         catch (ParseException e) {
             try {
                 d = Double.valueOf(val).doubleValue();
             }
             catch (Exception l) {
+                parseFailed();
                 throw new NumberFormatException(l.getMessage());
             }
         }
@@ -280,16 +478,24 @@ public class DataRow {
      * @return a <code>double</code> value
      */
     public double getDouble(int location, double defaultVal) {
+        CharSequence cs = getCharSequence(location);
+        double d = numberParser().parseDouble(cs);
+        if (!Double.isNaN(d)) {
+            return d;
+        }
+        if (NumberParser.isBlank(cs)) {
+            return defaultVal;
+        }
         String val = getString(location).trim();
         try {
-            defaultVal = nf.parse(val).doubleValue();
+            defaultVal = numberFormat().parse(val).doubleValue();
         }
         catch (ParseException e) {
             try {
                 defaultVal = Double.valueOf(val).doubleValue();
             }
             catch (NumberFormatException l) {
-                // do nothing and return defaultValue
+                parseFailed();
             }
         }
         return defaultVal;
@@ -357,18 +563,27 @@ public class DataRow {
      *         cannot parsed into an <code>int</code>
      */
     public int getInt(int location) throws NumberFormatException {
+        CharSequence cs = getCharSequence(location);
+        long v = numberParser().parseLong(cs);
+        if (v != NumberParser.NOT_PARSED) {
+            return (int)v;
+        }
         int i = 0;
+        if (NumberParser.isBlank(cs)) {
+            return i;
+        }
         String val = getString(location).trim();
         val = prepareNumberValue(val);
 
         try {
-            i = nf.parse(val).intValue();
+            i = numberFormat().parse(val).intValue();
         }
         catch (Exception e) {
             try {
                 i = Integer.parseInt(val);
             }
             catch (Exception l) {
+                parseFailed();
                 new NumberFormatException(l.getMessage());
             }
         }
@@ -421,17 +636,25 @@ public class DataRow {
      * @return a <code>int</code> value
      */
     public int getInt(int location, int defaultVal) {
+        CharSequence cs = getCharSequence(location);
+        long v = numberParser().parseLong(cs);
+        if (v != NumberParser.NOT_PARSED) {
+            return (int)v;
+        }
+        if (NumberParser.isBlank(cs)) {
+            return defaultVal;
+        }
         String val = getString(location).trim();
         val = prepareNumberValue(val);
         try {
-            defaultVal = nf.parse(val).intValue();
+            defaultVal = numberFormat().parse(val).intValue();
         }
         catch(ParseException e) {
             try {
                 defaultVal = Integer.parseInt(val);
             }
             catch (Exception l) {
-                // do nothing
+                parseFailed();
             }
         }
         return defaultVal;
@@ -485,6 +708,108 @@ public class DataRow {
         return defaultVal;
     }
 
+    /**
+     * Retrieves the long value of the datum contained
+     * in the specified location.
+     *
+     * @param location location of the item.
+     * @return a <code>long</code> at the specified <code>location</code>.
+     * @throws NumberFormatException if the value at specified location
+     *         cannot parsed into a <code>long</code>
+     */
+    public long getLong(int location) throws NumberFormatException {
+        CharSequence cs = getCharSequence(location);
+        long l = numberParser().parseLong(cs);
+        if (l != NumberParser.NOT_PARSED) {
+            return l;
+        }
+        String val = cs.toString().trim();
+        val = prepareNumberValue(val);
+        try {
+            l = numberFormat().parse(val).longValue();
+        }
+        catch (ParseException e) {
+            try {
+                l = Long.parseLong(val);
+            }
+            catch (NumberFormatException ne) {
+                parseFailed();
+                throw new NumberFormatException(ne.getMessage());
+            }
+        }
+        return l;
+    }
+
+    /**
+     * Retrieves the long value of the datum contained
+     * under specified column <code>label</code>.
+     *
+     * @param label column label
+     * @return a <code>long</code> value
+     * @throws NumberFormatException if specified column <code>label</code>
+     *         does not exist or the value cannot parsed into a
+     *         <code>long</code>
+     */
+    public long getLong(String label) throws NumberFormatException {
+        int idx = getIndex(label);
+        if (idx < 0) {
+            throw new NumberFormatException("cannot parse null - check label");
+        }
+        return getLong(idx);
+    }
+
+    /**
+     * Retrieves the long value of the datum contained
+     * in the specified location.  If the specified location does not
+     * contain a long value or empty, default value is returned.
+     *
+     * @param location   location of the item.
+     * @param defaultVal default value to use when value does not exist.
+     * @return a <code>long</code> value
+     */
+    public long getLong(int location, long defaultVal) {
+        CharSequence cs = getCharSequence(location);
+        long l = numberParser().parseLong(cs);
+        if (l != NumberParser.NOT_PARSED) {
+            return l;
+        }
+        if (NumberParser.isBlank(cs)) {
+            return defaultVal;
+        }
+        String val = prepareNumberValue(cs.toString().trim());
+        try {
+            defaultVal = numberFormat().parse(val).longValue();
+        }
+        catch (ParseException e) {
+            try {
+                defaultVal = Long.parseLong(val);
+            }
+            catch (NumberFormatException ne) {
+                parseFailed();
+            }
+        }
+        return defaultVal;
+    }
+
+    /**
+     * Retrieves the <code>long</code> value under the specified
+     * column <code>label</code>.
+     *
+     * @param label      column label (header)
+     * @param defaultVal default value to use when value does not exist.
+     * @return <code>long</code> value corresponding to the
+     *         specified column <code>label</code>, or
+     *         <code>defaultVal</code> if the column does not exist
+     *         or cannot be converted into a <code>long</code>.
+     */
+    public long getLong(String label, long defaultVal) {
+        int idx = getIndex(label);
+        if (idx >= 0) {
+            defaultVal = getLong(idx, defaultVal);
+        }
+        return defaultVal;
+    }
+
     /**
      * Retrieves the String value contained in the 
      * specified location.  
@@ -497,7 +822,7 @@ public class DataRow {
     public String getString(int location) {
         String s = "";
         try {
-            s = (String)items.get(location);
+            s = materialize(location);
         }
         catch (IndexOutOfBoundsException e) {
             // do nothing.
@@ -505,6 +830,24 @@ public class DataRow {
         return s;
     }
 
+    /**
+     * Retrieves the value contained in the specified location
+     * without converting it into a <code>String</code>.  When the
+     * row was read in cell view mode, the returned sequence views
+     * the data in place.
+     *
+     * @param location location of the item (starts at zero)
+     * @return a <code>CharSequence</code> or empty String if the
+     *         specified location does not exist. (never returns null)
+     */
+    public CharSequence getCharSequence(int location) {
+        CharSequence s = null;
+        if (location >= 0 && location < items.size()) {
+            s = (CharSequence)items.get(location);
+        }
+        return (s == null) ? "" : s;
+    }
+
     /**
      * Retrieves the <code>String</code> value located
      * under specified column <code>label</code>.
@@ -538,7 +881,7 @@ public class DataRow {
      */
     public String getString(int location, String defaultVal) {
         try {
-            String tmp = (String)items.get(location);
+            String tmp = materialize(location);
             if (tmp.length() != 0) {
                 defaultVal = tmp;
             }
@@ -608,6 +951,112 @@ public class DataRow {
         return loc;
     }
 
+    /**
+     * Helper method to retrieve the <code>NumberFormat</code>,
+     * taking it from the parse context or creating it on first use.
+     *
+     * @return number format of the row.
+     */
+    private NumberFormat numberFormat() {
+        if (nf == null) {
+            nf = (context != null) ? context.getNumberFormat()
+                : ParseContext.createNumberFormat();
+        }
+        return nf;
+    }
+
+    /**
+     * Helper method to retrieve the parser for numeric items,
+     * sharing the one of the parse context when the row
+     * uses the context's <code>NumberFormat</code>.
+     *
+     * @return number parser of the row.
+     */
+    private NumberParser numberParser() {
+        if (parser == null) {
+            NumberFormat format = numberFormat();
+            parser = (context != null && format == context.getNumberFormat())
+                ? context.getNumberParser() : NumberParser.forFormat(format);
+        }
+        return parser;
+    }
+
+    /**
+     * Helper method to record a cell that could not be converted in
+     * the metrics of the file read (if any).
+     */
+    private void parseFailed() {
+        if (context != null) {
+            context.parseFailed();
+        }
+    }
+
+    /**
+     * Helper method to record a date that did not parse.
+     *
+     * @param value parsed value, or <code>null</code>.
+     * @param cs item parsed.
+     * @return <code>value</code>
+     */
+    private Object checked(Object value, CharSequence cs) {
+        if (value == null && !NumberParser.isBlank(cs)) {
+            parseFailed();
+        }
+        return value;
+    }
+
+    /**
+     * Helper method to retrieve the <code>SimpleDateFormat</code>
+     * for the specified pattern.
+     *
+     * @param pattern date format pattern
+     * @return date format of the row.
+     */
+    private SimpleDateFormat dateFormat(String pattern) {
+        if (context != null) {
+            return context.getDateFormat(pattern);
+        }
+        if (dates == null) {
+            dates = new ParseContext();
+        }
+        return dates.getDateFormat(pattern);
+    }
+
+    /**
+     * Returns the value at the location as stored, without converting
+     * a cell view into a <code>String</code>.  Used by the formats
+     * writing rows into a {@link FormatBuffer}.
+     */
+    CharSequence cell(int location) {
+        return (CharSequence)items.get(location);
+    }
+
+    /**
+     * Helper method to replace a cell view with the
+     * <code>String</code> it represents.
+     *
+     * @param location location of the item
+     * @return the item as a <code>String</code>
+     */
+    private String materialize(int location) {
+        Object o = items.get(location);
+        if (o == null || o instanceof String) {
+            return (String)o;
+        }
+        String s = o.toString();
+        items.set(location, s);
+        return s;
+    }
+
+    /**
+     * Helper method to replace all cell views with Strings.
+     */
+    private void materialize() {
+        for (int i = 0; i < items.size(); i++) {
+            materialize(i);
+        }
+    }
+
     /**
      * <b>For debugging purpose</b>.
      * Converts the row of data into String
@@ -616,7 +1065,7 @@ public class DataRow {
     public String toString() {
         StringBuffer o = new StringBuffer("[DataRow]");
         for (Iterator i = items.iterator(); i.hasNext();) {
-            o.append("|'").append((String)i.next()).append("'");
+            o.append("|'").append(i.next()).append("'");
         }
         return o.toString();
     }
@@ -628,6 +1077,7 @@ public class DataRow {
      */
     public List getValues()
     {
+        materialize();
         return Collections.unmodifiableList(items);
     }
 
@@ -638,4 +1088,14 @@ public class DataRow {
 		items.clear();
 	}
 
+	/**
+	 * Makes room for the specified number of items, so that
+	 * a row refilled by a reader does not grow item by item.
+	 *
+	 * @param capacity number of items expected in the row.
+	 */
+	void ensureCapacity(int capacity) {
+		items.ensureCapacity(capacity);
+	}
+
 } 
@@ -0,0 +1,152 @@
+/*
+ * $Id$
+ *
+ * Copyright(c) 2002 Infomata
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+package com.infomata.data;
+
+import java.util.Hashtable;
+
+/**
+ * Declares the types of the columns of a data file, so that readers
+ * can convert the values of numeric columns while reading.  Columns
+ * are declared by index or by header label; undeclared columns are
+ * read as text ({@link #STRING}), except when loading a
+ * {@link com.infomata.data.DataTable}, which infers their type from
+ * the data.
+ *
+ * @see com.infomata.data.DataFileReader#setSchema(DataSchema)
+ * @version $Revision$
+ */
+public class DataSchema {
+
+    /**
+     * Column of text values.
+     */
+    public static final int STRING = 0;
+
+    /**
+     * Column of <code>int</code> values.
+     */
+    public static final int INT = 1;
+
+    /**
+     * Column of <code>long</code> values.
+     */
+    public static final int LONG = 2;
+
+    /**
+     * Column of <code>double</code> values.
+     */
+    public static final int DOUBLE = 3;
+
+    /**
+     * Column index to type table.
+     */
+    private Hashtable byIndex = new Hashtable();
+
+    /**
+     * Column label to type table.
+     */
+    private Hashtable byLabel = new Hashtable();
+
+    /**
+     * Creates a new <code>DataSchema</code> instance in which all
+     * columns are text.
+     */
+    public DataSchema() {
+    }
+
+    /**
+     * Declares the type of the column at the specified index.
+     *
+     * @param column column index (starts at zero)
+     * @param type one of {@link #STRING}, {@link #INT}, {@link #LONG}
+     *             or {@link #DOUBLE}.
+     * @throws IllegalArgumentException if the type is unknown.
+     */
+    public void setType(int column, int type) {
+        checkType(type);
+        byIndex.put(Integer.valueOf(column), Integer.valueOf(type));
+    }
+
+    /**
+     * Declares the type of the column with the specified header label.
+     *
+     * @param label column label
+     * @param type one of {@link #STRING}, {@link #INT}, {@link #LONG}
+     *             or {@link #DOUBLE}.
+     * @throws IllegalArgumentException if the type is unknown.
+     */
+    public void setType(String label, int type) {
+        checkType(type);
+        byLabel.put(label, Integer.valueOf(type));
+    }
+
+    /**
+     * Retrieves the type of the column at the specified index.
+     *
+     * @param column column index (starts at zero)
+     * @return declared type, or {@link #STRING} if not declared.
+     */
+    public int getType(int column) {
+        return getType(column, null);
+    }
+
+    /**
+     * Retrieves the type of a column, declared either by its index
+     * or by its label.  A declaration by index takes precedence.
+     *
+     * @param column column index (starts at zero)
+     * @param label column label, or <code>null</code> if the file
+     *              has no header.
+     * @return declared type, or {@link #STRING} if not declared.
+     */
+    public int getType(int column, String label) {
+        Integer type = (Integer)byIndex.get(Integer.valueOf(column));
+        if (type == null && label != null) {
+            type = (Integer)byLabel.get(label);
+        }
+        return (type == null) ? STRING : type.intValue();
+    }
+
+    /**
+     * Checks if the type of a column is declared, either by its index
+     * or by its label.
+     *
+     * @param column column index (starts at zero)
+     * @param label column label, or <code>null</code> if the file
+     *              has no header.
+     * @return <code>true</code> if the column type is declared.
+     */
+    public boolean isDeclared(int column, String label) {
+        return byIndex.containsKey(Integer.valueOf(column))
+            || (label != null && byLabel.containsKey(label));
+    }
+
+    /**
+     * Helper method to validate a column type.
+     *
+     * @param type column type
+     */
+    private static void checkType(int type) {
+        if (type < STRING || type > DOUBLE) {
+            throw new IllegalArgumentException("unknown column type: " + type);
+        }
+    }
+
+}
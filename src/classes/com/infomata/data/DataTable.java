@@ -0,0 +1,769 @@
+/*
+ * $Id$
+ *
+ * Copyright(c) 2002 Infomata
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+package com.infomata.data;
+
+import java.nio.charset.Charset;
+import java.text.NumberFormat;
+import java.util.Hashtable;
+import java.util.List;
+
+/**
+ * In-memory table holding all rows of a data file by column, as loaded
+ * by {@link com.infomata.data.DataFileReader#readTable()}.
+ * <p>
+ * Numeric columns are stored as one <code>int[]</code>,
+ * <code>long[]</code> or <code>double[]</code> each, with a bitmap
+ * marking null cells.  Text columns are stored as one packed array per
+ * column holding the characters of all cells back to back, plus the
+ * offset at which each cell starts; the array holds one byte per
+ * character as long as the column only contains ISO-8859-1 characters.
+ * A cell thus takes a few bytes instead of a <code>String</code>, a
+ * list slot and its share of a <code>DataRow</code>.
+ * </p>
+ * <p>
+ * Column types are taken from the reader's
+ * {@link com.infomata.data.DataSchema}.  The type of a column the
+ * schema does not declare is inferred once the whole file is loaded:
+ * the column becomes numeric when every non-empty cell is a plain
+ * number in the reader's number format (digits, separators and sign
+ * only), and stays text otherwise.  Empty cells of numeric columns are
+ * null.
+ * </p>
+ * <p>
+ * The text of a single column is limited to 2<sup>31</sup>-1
+ * characters.
+ * </p>
+ *
+ * @see com.infomata.data.DataFileReader#readTable()
+ * @version $Revision$
+ */
+public class DataTable {
+
+    private static final Charset LATIN1 = Charset.forName("ISO-8859-1");
+
+    /**
+     * Declared column types (or <code>null</code>).
+     */
+    private DataSchema schema = null;
+
+    /**
+     * Column labels (or <code>null</code> if the file has no header).
+     */
+    private List labels = null;
+
+    /**
+     * Column label to index reference table shared by the rows
+     * returned by {@link #getRow(int)}.
+     */
+    private Hashtable index = null;
+
+    /**
+     * Parse context of the reader the table was loaded from.
+     */
+    private ParseContext context = null;
+
+    private Column[] columns = new Column[0];
+    private int count = 0;
+    private int rows = 0;
+
+    /**
+     * Creates a new empty <code>DataTable</code> instance.
+     *
+     * @param schema declared column types, or <code>null</code> to
+     *               infer the types of all columns.
+     * @param labels column labels, or <code>null</code> if the file
+     *               has no header.
+     * @param context parse context used for numeric columns.
+     */
+    DataTable(DataSchema schema, List labels, ParseContext context) {
+        this.schema = schema;
+        this.labels = labels;
+        this.context = context;
+        if (labels != null) {
+            index = new Hashtable(labels.size());
+            for (int i = 0; i < labels.size(); i++) {
+                index.put(labels.get(i), Integer.valueOf(i));
+            }
+        }
+    }
+
+    /**
+     * Appends the rows of a batch read with the schema of this table.
+     *
+     * @param batch batch of rows.
+     */
+    void append(ColumnBatch batch) {
+        int n = batch.size();
+        while (count < batch.getColumnCount()) {
+            addColumn();
+        }
+
+        for (int c = 0; c < count; c++) {
+            Column col = columns[c];
+            col.ensure(rows + n);
+
+            if (c >= batch.getColumnCount()) {
+                for (int r = 0; r < n; r++) {
+                    col.appendNull(rows + r);
+                }
+                continue;
+            }
+
+            boolean[] nulls = batch.getNulls(c);
+            switch (col.type) {
+            case DataSchema.INT:
+                System.arraycopy(batch.getInts(c), 0, col.ints, rows, n);
+                break;
+            case DataSchema.LONG:
+                System.arraycopy(batch.getLongs(c), 0, col.longs, rows, n);
+                break;
+            case DataSchema.DOUBLE:
+                System.arraycopy(batch.getDoubles(c), 0, col.doubles, rows, n);
+                break;
+            default:
+                char[] cs = batch.getChars();
+                int[] starts = batch.getStarts(c);
+                int[] ends = batch.getEnds(c);
+                for (int r = 0; r < n; r++) {
+                    col.appendText(rows + r, cs, starts[r], ends[r]);
+                }
+                break;
+            }
+            for (int r = 0; r < n; r++) {
+                if (nulls[r]) {
+                    col.setNull(rows + r);
+                }
+            }
+        }
+        rows += n;
+    }
+
+    /**
+     * Completes loading by inferring the types of the columns the
+     * schema does not declare.
+     */
+    void finish() {
+        for (int c = 0; c < count; c++) {
+            if (!columns[c].declared) {
+                infer(columns[c]);
+            }
+        }
+    }
+
+    /**
+     * Retrieves the number of rows in the table.
+     *
+     * @return number of rows.
+     */
+    public int size() {
+        return rows;
+    }
+
+    /**
+     * Retrieves the number of columns in the table (the widest row
+     * of the file).
+     *
+     * @return number of columns.
+     */
+    public int getColumnCount() {
+        return count;
+    }
+
+    /**
+     * Retrieves the type of a column.
+     *
+     * @param column column index (starts at zero)
+     * @return one of the types defined in
+     *         {@link com.infomata.data.DataSchema}.
+     */
+    public int getType(int column) {
+        return columns[column].type;
+    }
+
+    /**
+     * Retrieves the declared and inferred types of all columns.
+     *
+     * @return schema declaring the type of each column by index.
+     */
+    public DataSchema getSchema() {
+        DataSchema s = new DataSchema();
+        for (int i = 0; i < count; i++) {
+            s.setType(i, columns[i].type);
+        }
+        return s;
+    }
+
+    /**
+     * Retrieves the label of a column.
+     *
+     * @param column column index (starts at zero)
+     * @return column label, or <code>null</code> if the file has no
+     *         header.
+     */
+    public String getLabel(int column) {
+        return (labels == null || column >= labels.size()) ? null
+            : (String)labels.get(column);
+    }
+
+    /**
+     * Retrieves the index of the column with the specified label.
+     *
+     * @param label column label
+     * @return column index, or <code>-1</code> if no such column.
+     */
+    public int getColumn(String label) {
+        Integer i = (index == null) ? null : (Integer)index.get(label);
+        return (i == null) ? -1 : i.intValue();
+    }
+
+    /**
+     * Checks if a cell is null (missing from its row, or empty in a
+     * numeric column).
+     *
+     * @param column column index (starts at zero)
+     * @param row row index (starts at zero)
+     * @return <code>true</code> if the cell is null.
+     */
+    public boolean isNull(int column, int row) {
+        checkRow(row);
+        return columns[column].isNull(row);
+    }
+
+    /**
+     * Retrieves the null bitmap of a column.  The cell of row
+     * <code>r</code> is null when bit <code>r % 64</code> of element
+     * <code>r / 64</code> is set.
+     *
+     * @param column column index (starts at zero)
+     * @return null bitmap of the column.
+     */
+    public long[] getNulls(int column) {
+        return columns[column].nulls;
+    }
+
+    /**
+     * Retrieves the values of an {@link DataSchema#INT} column for
+     * scanning.  Only the first {@link #size()} entries are valid.
+     *
+     * @param column column index (starts at zero)
+     * @return values of the column, or <code>null</code> if the
+     *         column is of another type.
+     */
+    public int[] getInts(int column) {
+        return columns[column].ints;
+    }
+
+    /**
+     * Retrieves the values of a {@link DataSchema#LONG} column for
+     * scanning.  Only the first {@link #size()} entries are valid.
+     *
+     * @param column column index (starts at zero)
+     * @return values of the column, or <code>null</code> if the
+     *         column is of another type.
+     */
+    public long[] getLongs(int column) {
+        return columns[column].longs;
+    }
+
+    /**
+     * Retrieves the values of a {@link DataSchema#DOUBLE} column for
+     * scanning.  Only the first {@link #size()} entries are valid.
+     *
+     * @param column column index (starts at zero)
+     * @return values of the column, or <code>null</code> if the
+     *         column is of another type.
+     */
+    public double[] getDoubles(int column) {
+        return columns[column].doubles;
+    }
+
+    /**
+     * Retrieves the value of a cell of a numeric column as an
+     * <code>int</code>.
+     *
+     * @param column column index (starts at zero)
+     * @param row row index (starts at zero)
+     * @return value of the cell (<code>0</code> if null).
+     * @throws IllegalStateException if the column is not numeric.
+     */
+    public int getInt(int column, int row) {
+        return (int)getLong(column, row);
+    }
+
+    /**
+     * Retrieves the value of a cell of a numeric column as a
+     * <code>long</code>.
+     *
+     * @param column column index (starts at zero)
+     * @param row row index (starts at zero)
+     * @return value of the cell (<code>0</code> if null).
+     * @throws IllegalStateException if the column is not numeric.
+     */
+    public long getLong(int column, int row) {
+        checkRow(row);
+        Column col = columns[column];
+        switch (col.type) {
+        case DataSchema.INT:
+            return col.ints[row];
+        case DataSchema.LONG:
+            return col.longs[row];
+        case DataSchema.DOUBLE:
+            return (long)col.doubles[row];
+        default:
+            throw new IllegalStateException("column " + column + " is not numeric");
+        }
+    }
+
+    /**
+     * Retrieves the value of a cell of a numeric column as a
+     * <code>double</code>.
+     *
+     * @param column column index (starts at zero)
+     * @param row row index (starts at zero)
+     * @return value of the cell (<code>0</code> if null).
+     * @throws IllegalStateException if the column is not numeric.
+     */
+    public double getDouble(int column, int row) {
+        checkRow(row);
+        Column col = columns[column];
+        switch (col.type) {
+        case DataSchema.INT:
+            return col.ints[row];
+        case DataSchema.LONG:
+            return col.longs[row];
+        case DataSchema.DOUBLE:
+            return col.doubles[row];
+        default:
+            throw new IllegalStateException("column " + column + " is not numeric");
+        }
+    }
+
+    /**
+     * Retrieves a cell as text.  Numbers are formatted with the
+     * number format of the reader the table was loaded from.
+     *
+     * @param column column index (starts at zero)
+     * @param row row index (starts at zero)
+     * @return text of the cell (empty if the cell is missing or a
+     *         null number).
+     */
+    public String getString(int column, int row) {
+        checkRow(row);
+        Column col = columns[column];
+        if (col.type == DataSchema.STRING) {
+            return col.text(row);
+        }
+        if (col.isNull(row)) {
+            return "";
+        }
+        NumberFormat nf = context.getNumberFormat();
+        return (col.type == DataSchema.DOUBLE) ? nf.format(col.doubles[row])
+            : nf.format(getLong(column, row));
+    }
+
+    /**
+     * Retrieves a cell of a text column without copying it.  The view
+     * reads the table's storage directly.
+     *
+     * @param column column index (starts at zero)
+     * @param row row index (starts at zero)
+     * @return view of the cell text.
+     */
+    public CharSequence getCharSequence(int column, int row) {
+        checkRow(row);
+        Column col = columns[column];
+        if (col.type != DataSchema.STRING) {
+            return getString(column, row);
+        }
+        Text t = new Text(col);
+        t.set(row);
+        return t;
+    }
+
+    /**
+     * Retrieves a row of the table as a <code>DataRow</code>, whose
+     * cells can be accessed by column label if the file has a header.
+     *
+     * @param row row index (starts at zero)
+     * @return new row holding the cells of the table row.
+     */
+    public DataRow getRow(int row) {
+        checkRow(row);
+        DataRow r = new DataRow(context);
+        r.ensureCapacity(count);
+        for (int c = 0; c < count; c++) {
+            r.add(getString(c, row));
+        }
+        r.setHeaderIndex(index);
+        return r;
+    }
+
+    /**
+     * Scans a text column for a cell equal to the specified value,
+     * without creating a <code>String</code> for each cell.
+     *
+     * @param column column index (starts at zero)
+     * @param value value to look for.
+     * @param fromRow row index at which to start the scan.
+     * @return index of the first matching row at or after
+     *         <code>fromRow</code>, or <code>-1</code> if none.
+     * @throws IllegalStateException if the column is not text.
+     */
+    public int find(int column, CharSequence value, int fromRow) {
+        Column col = columns[column];
+        if (col.type != DataSchema.STRING) {
+            throw new IllegalStateException("column " + column + " is not text");
+        }
+        int len = value.length();
+        for (int r = Math.max(fromRow, 0); r < rows; r++) {
+            int start = col.offsets[r];
+            if (col.offsets[r + 1] - start != len || col.isNull(r)) {
+                continue;
+            }
+            int i = 0;
+            while (i < len && col.charAt(start + i) == value.charAt(i)) {
+                i++;
+            }
+            if (i == len) {
+                return r;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Helper method to validate a row index.
+     */
+    private void checkRow(int row) {
+        if (row < 0 || row >= rows) {
+            throw new IndexOutOfBoundsException(String.valueOf(row));
+        }
+    }
+
+    /**
+     * Helper method to add a column, null in the rows already loaded.
+     */
+    private void addColumn() {
+        if (count == columns.length) {
+            Column[] tmp = new Column[Math.max(8, count * 2)];
+            System.arraycopy(columns, 0, tmp, 0, count);
+            columns = tmp;
+        }
+
+        String label = getLabel(count);
+        boolean declared = schema != null && schema.isDeclared(count, label);
+        int type = (declared) ? schema.getType(count, label) : DataSchema.STRING;
+        Column col = new Column(type, declared);
+        col.ensure(rows);
+        for (int r = 0; r < rows; r++) {
+            col.appendNull(r);
+        }
+        columns[count++] = col;
+    }
+
+    /**
+     * Helper method to give a column loaded as text the narrowest
+     * numeric type that holds all its values, if any.
+     */
+    private void infer(Column col) {
+        NumberParser parser = context.getNumberParser();
+        Text t = new Text(col);
+        int type = DataSchema.INT;
+        boolean numbers = false;
+
+        for (int r = 0; r < rows && type != DataSchema.STRING; r++) {
+            t.set(r);
+            if (col.isNull(r) || NumberParser.isBlank(t)) {
+                continue;
+            }
+            numbers = true;
+            if (type != DataSchema.DOUBLE) {
+                long v = parser.parseLong(t);
+                if (v != NumberParser.NOT_PARSED) {
+                    if (v < Integer.MIN_VALUE || v > Integer.MAX_VALUE) {
+                        type = DataSchema.LONG;
+                    }
+                    continue;
+                }
+            }
+            type = Double.isNaN(parser.parseDouble(t)) ? DataSchema.STRING
+                : DataSchema.DOUBLE;
+        }
+
+        if (!numbers || type == DataSchema.STRING) {
+            return;
+        }
+
+        Column num = new Column(type, true);
+        num.ensure(rows);
+        for (int r = 0; r < rows; r++) {
+            t.set(r);
+            if (col.isNull(r) || NumberParser.isBlank(t)) {
+                num.setNull(r);
+            }
+            else if (type == DataSchema.DOUBLE) {
+                num.doubles[r] = parser.parseDouble(t);
+            }
+            else if (type == DataSchema.LONG) {
+                num.longs[r] = parser.parseLong(t);
+            }
+            else {
+                num.ints[r] = (int)parser.parseLong(t);
+            }
+        }
+        col.become(num);
+    }
+
+    /**
+     * Storage of one column.
+     */
+    private static final class Column {
+
+        int type;
+        boolean declared;
+
+        int[] ints = null;
+        long[] longs = null;
+        double[] doubles = null;
+        long[] nulls = new long[0];
+
+        /**
+         * Packed text of all cells: one byte per character while the
+         * column only holds ISO-8859-1 characters, one char otherwise.
+         */
+        byte[] latin = null;
+        char[] wide = null;
+        int length = 0;
+
+        /**
+         * Start of the text of each row (plus the end of the last row).
+         */
+        int[] offsets = null;
+
+        private int capacity = 0;
+
+        Column(int type, boolean declared) {
+            this.type = type;
+            this.declared = declared;
+            if (type == DataSchema.STRING) {
+                latin = new byte[256];
+                offsets = new int[1];
+            }
+        }
+
+        /**
+         * Makes room for the specified number of rows.
+         */
+        void ensure(int rows) {
+            if (rows <= capacity) {
+                return;
+            }
+            int size = Math.max(rows, Math.max(16, capacity + (capacity >> 1)));
+            switch (type) {
+            case DataSchema.INT:
+                int[] i = new int[size];
+                if (ints != null) {
+                    System.arraycopy(ints, 0, i, 0, capacity);
+                }
+                ints = i;
+                break;
+            case DataSchema.LONG:
+                long[] l = new long[size];
+                if (longs != null) {
+                    System.arraycopy(longs, 0, l, 0, capacity);
+                }
+                longs = l;
+                break;
+            case DataSchema.DOUBLE:
+                double[] d = new double[size];
+                if (doubles != null) {
+                    System.arraycopy(doubles, 0, d, 0, capacity);
+                }
+                doubles = d;
+                break;
+            default:
+                int[] o = new int[size + 1];
+                System.arraycopy(offsets, 0, o, 0, offsets.length);
+                offsets = o;
+                break;
+            }
+            long[] n = new long[(size + 63) >>> 6];
+            System.arraycopy(nulls, 0, n, 0, nulls.length);
+            nulls = n;
+            capacity = size;
+        }
+
+        boolean isNull(int row) {
+            return (nulls[row >>> 6] & (1L << row)) != 0;
+        }
+
+        void setNull(int row) {
+            nulls[row >>> 6] |= 1L << row;
+        }
+
+        /**
+         * Records a missing cell.
+         */
+        void appendNull(int row) {
+            if (type == DataSchema.STRING) {
+                offsets[row + 1] = length;
+            }
+            setNull(row);
+        }
+
+        /**
+         * Appends the text of the cell of the specified row.
+         */
+        void appendText(int row, char[] cs, int start, int end) {
+            int len = end - start;
+            if (latin != null) {
+                for (int i = start; i < end; i++) {
+                    if (cs[i] > 0xff) {
+                        inflate();
+                        break;
+                    }
+                }
+            }
+
+            if (latin != null) {
+                reserve(len, latin.length);
+                for (int i = 0; i < len; i++) {
+                    latin[length + i] = (byte)cs[start + i];
+                }
+            }
+            else {
+                reserve(len, wide.length);
+                System.arraycopy(cs, start, wide, length, len);
+            }
+            length += len;
+            offsets[row + 1] = length;
+        }
+
+        char charAt(int pos) {
+            return (latin != null) ? (char)(latin[pos] & 0xff) : wide[pos];
+        }
+
+        String text(int row) {
+            int start = offsets[row];
+            int len = offsets[row + 1] - start;
+            return (latin != null) ? new String(latin, start, len, LATIN1)
+                : new String(wide, start, len);
+        }
+
+        /**
+         * Replaces the storage of this column with that of another.
+         */
+        void become(Column other) {
+            type = other.type;
+            declared = true;
+            ints = other.ints;
+            longs = other.longs;
+            doubles = other.doubles;
+            nulls = other.nulls;
+            capacity = other.capacity;
+            latin = null;
+            wide = null;
+            offsets = null;
+            length = 0;
+        }
+
+        /**
+         * Helper method to grow the text array for a cell.
+         */
+        private void reserve(int len, int size) {
+            if (length + len <= size) {
+                return;
+            }
+            long grown = Math.max((long)length + len, (long)size * 2);
+            if (grown > Integer.MAX_VALUE - 8) {
+                if ((long)length + len > Integer.MAX_VALUE - 8) {
+                    throw new IllegalStateException("column text exceeds "
+                                                    + "2^31 characters");
+                }
+                grown = Integer.MAX_VALUE - 8;
+            }
+            if (latin != null) {
+                byte[] tmp = new byte[(int)grown];
+                System.arraycopy(latin, 0, tmp, 0, length);
+                latin = tmp;
+            }
+            else {
+                char[] tmp = new char[(int)grown];
+                System.arraycopy(wide, 0, tmp, 0, length);
+                wide = tmp;
+            }
+        }
+
+        /**
+         * Helper method to switch from one byte to one char per
+         * character.
+         */
+        private void inflate() {
+            wide = new char[Math.max(latin.length, 16)];
+            for (int i = 0; i < length; i++) {
+                wide[i] = (char)(latin[i] & 0xff);
+            }
+            latin = null;
+        }
+
+    }
+
+    /**
+     * View of the text of one cell of a column.
+     */
+    private static final class Text implements CharSequence {
+
+        private final Column col;
+        private int start = 0;
+        private int end = 0;
+
+        Text(Column col) {
+            this.col = col;
+        }
+
+        void set(int row) {
+            start = col.offsets[row];
+            end = col.offsets[row + 1];
+        }
+
+        public int length() {
+            return end - start;
+        }
+
+        public char charAt(int index) {
+            if (index < 0 || index >= end - start) {
+                throw new IndexOutOfBoundsException(String.valueOf(index));
+            }
+            return col.charAt(start + index);
+        }
+
+        public CharSequence subSequence(int s, int e) {
+            return toString().substring(s, e);
+        }
+
+        public String toString() {
+            return (col.latin != null)
+                ? new String(col.latin, start, end - start, LATIN1)
+                : new String(col.wide, start, end - start);
+        }
+
+    }
+
+}
@@ -0,0 +1,421 @@
+/*
+ * $Id$
+ *
+ * Copyright(c) 2002 Infomata
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+package com.infomata.data;
+
+import java.text.Format;
+import java.text.ParsePosition;
+import java.time.DateTimeException;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.temporal.ChronoField;
+import java.time.temporal.TemporalAccessor;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Parser for the date and time items of a {@link com.infomata.data.DataRow}.
+ * The common ISO-8601 layouts (<code>yyyy-MM-dd</code>,
+ * <code>yyyyMMdd</code>, <code>yyyy-MM-dd'T'HH:mm:ss</code> and the ISO
+ * timestamps with fractions and offsets) are read directly from the
+ * characters of the item into an epoch day or epoch nanosecond.  Any
+ * other pattern, and any item the direct path does not accept (such as
+ * an invalid day of month, or a year outside 1678 to 2261), is parsed
+ * by a <code>DateTimeFormatter</code>, so the result is the same either
+ * way.
+ * <p>
+ * Formatters are compiled once per pattern and kept in a process wide
+ * cache.  They are immutable, and this class holds no parsing state,
+ * so rows of different threads may be parsed at the same time.  Items
+ * that do not match a pattern are reported as <code>null</code> without
+ * an exception being thrown.
+ * </p>
+ *
+ * @version $Revision$
+ */
+final class DateParser {
+
+    /**
+     * Value returned by the direct parsing methods when the item must
+     * be parsed by a formatter.
+     */
+    static final long NOT_PARSED = Long.MIN_VALUE;
+
+    /**
+     * Maximum number of patterns kept in the cache; formatters for
+     * further patterns are compiled on each use.
+     */
+    private static final int MAX_CACHED = 256;
+
+    private static final int NONE = 0;
+    private static final int ISO = 1;
+    private static final int DASHED = 2;
+    private static final int BASIC = 3;
+    private static final int T_SECONDS = 4;
+    private static final int SPACE_SECONDS = 5;
+
+    private static final long NANOS = 1000000000L;
+    private static final long DAY_NANOS = 86400L * NANOS;
+
+    private static final int[] MONTH_DAYS = {
+        31, 28, 31, 30, 31, 30, 31, 31, 30, 31, 30, 31
+    };
+
+    private static final Format ISO_DATE =
+        DateTimeFormatter.ISO_LOCAL_DATE.toFormat();
+    private static final Format ISO_LOCAL_DATE_TIME =
+        DateTimeFormatter.ISO_LOCAL_DATE_TIME.toFormat();
+    private static final Format ISO_DATE_TIME =
+        DateTimeFormatter.ISO_DATE_TIME.toFormat();
+
+    /**
+     * Formats (adapted <code>DateTimeFormatter</code>s) by pattern.
+     */
+    private static final Map FORMATS = new ConcurrentHashMap();
+
+    private DateParser() {
+    }
+
+    /**
+     * Parses a date item.
+     *
+     * @param cs item to parse.
+     * @param pattern <code>DateTimeFormatter</code> pattern, or
+     *                <code>null</code> for ISO-8601.
+     * @return the date, or <code>null</code> if the item does not
+     *         match the pattern.
+     */
+    static LocalDate parseDate(CharSequence cs, String pattern) {
+        long day = parseEpochDay(cs, pattern);
+        if (day != NOT_PARSED) {
+            return LocalDate.ofEpochDay(day);
+        }
+        TemporalAccessor t = parse(cs, (pattern == null) ? ISO_DATE
+                                   : format(pattern));
+        try {
+            return (t == null) ? null : LocalDate.from(t);
+        }
+        catch (DateTimeException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Parses a date and time item.
+     *
+     * @param cs item to parse.
+     * @param pattern <code>DateTimeFormatter</code> pattern, or
+     *                <code>null</code> for ISO-8601 (without offset).
+     * @return the date and time, or <code>null</code> if the item
+     *         does not match the pattern.
+     */
+    static LocalDateTime parseDateTime(CharSequence cs, String pattern) {
+        long n = parseEpochNano(cs, pattern, false);
+        if (n != NOT_PARSED) {
+            return LocalDateTime.ofEpochSecond(Math.floorDiv(n, NANOS),
+                                               (int)Math.floorMod(n, NANOS),
+                                               ZoneOffset.UTC);
+        }
+        TemporalAccessor t = parse(cs, (pattern == null) ? ISO_LOCAL_DATE_TIME
+                                   : format(pattern));
+        try {
+            return (t == null) ? null : LocalDateTime.from(t);
+        }
+        catch (DateTimeException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Parses a timestamp item.  Items without an offset or time zone
+     * are taken to be in UTC.
+     *
+     * @param cs item to parse.
+     * @param pattern <code>DateTimeFormatter</code> pattern, or
+     *                <code>null</code> for ISO-8601.
+     * @return the instant, or <code>null</code> if the item does not
+     *         match the pattern.
+     */
+    static Instant parseInstant(CharSequence cs, String pattern) {
+        long n = parseEpochNano(cs, pattern, true);
+        if (n != NOT_PARSED) {
+            return Instant.ofEpochSecond(Math.floorDiv(n, NANOS),
+                                         Math.floorMod(n, NANOS));
+        }
+        TemporalAccessor t = parse(cs, (pattern == null) ? ISO_DATE_TIME
+                                   : format(pattern));
+        try {
+            if (t == null) {
+                return null;
+            }
+            if (t.isSupported(ChronoField.INSTANT_SECONDS)) {
+                return Instant.from(t);
+            }
+            return LocalDateTime.from(t).toInstant(ZoneOffset.UTC);
+        }
+        catch (DateTimeException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Parses a date item written in one of the common layouts into
+     * the number of days since 1970-01-01.
+     *
+     * @param cs item to parse.
+     * @param pattern pattern of the item, or <code>null</code> for
+     *                ISO-8601.
+     * @return epoch day, or {@link #NOT_PARSED} if the item must be
+     *         parsed by a formatter.
+     */
+    static long parseEpochDay(CharSequence cs, String pattern) {
+        int layout = dateLayout(pattern);
+        if (layout == NONE) {
+            return NOT_PARSED;
+        }
+        int i = 0;
+        int end = cs.length();
+        while (i < end && cs.charAt(i) <= ' ') {
+            i++;
+        }
+        while (end > i && cs.charAt(end - 1) <= ' ') {
+            end--;
+        }
+        if (layout == BASIC) {
+            return (end - i == 8) ? epochDay(digits(cs, i, 4),
+                                             digits(cs, i + 4, 2),
+                                             digits(cs, i + 6, 2))
+                : NOT_PARSED;
+        }
+        return (end - i == 10) ? dashed(cs, i) : NOT_PARSED;
+    }
+
+    /**
+     * Parses a date and time item written in one of the common
+     * layouts into the number of nanoseconds since
+     * 1970-01-01T00:00:00, adjusted to UTC if the item has an offset.
+     *
+     * @param cs item to parse.
+     * @param pattern pattern of the item, or <code>null</code> for
+     *                ISO-8601.
+     * @param offset <code>true</code> if an ISO-8601 item may end with
+     *               an offset (<code>Z</code> or <code>+HH:MM</code>).
+     * @return epoch nanosecond, or {@link #NOT_PARSED} if the item
+     *         must be parsed by a formatter.
+     */
+    static long parseEpochNano(CharSequence cs, String pattern,
+                               boolean offset) {
+        int layout = timeLayout(pattern);
+        if (layout == NONE) {
+            return NOT_PARSED;
+        }
+        int i = 0;
+        int end = cs.length();
+        while (i < end && cs.charAt(i) <= ' ') {
+            i++;
+        }
+        while (end > i && cs.charAt(end - 1) <= ' ') {
+            end--;
+        }
+        if (end - i < 16) {
+            return NOT_PARSED;
+        }
+        long day = dashed(cs, i);
+        char sep = cs.charAt(i + 10);
+        if (day == NOT_PARSED
+            || (layout == SPACE_SECONDS && sep != ' ')
+            || (layout != SPACE_SECONDS && sep != 'T'
+                && (layout != ISO || sep != 't'))
+            || cs.charAt(i + 13) != ':') {
+            return NOT_PARSED;
+        }
+        int hour = digits(cs, i + 11, 2);
+        int minute = digits(cs, i + 14, 2);
+        int second = 0;
+        long nano = 0;
+        i += 16;
+        if (i + 3 <= end && cs.charAt(i) == ':') {
+            second = digits(cs, i + 1, 2);
+            i += 3;
+            if (layout == ISO && i < end && cs.charAt(i) == '.') {
+                int scale = 100000000;
+                for (i++; i < end && scale > 0; i++, scale /= 10) {
+                    char c = cs.charAt(i);
+                    if (c < '0' || c > '9') {
+                        break;
+                    }
+                    nano += (c - '0') * scale;
+                }
+                if (scale == 100000000) {
+                    return NOT_PARSED;
+                }
+            }
+        }
+        else if (layout != ISO) {
+            return NOT_PARSED;
+        }
+        if (hour < 0 || hour > 23 || minute < 0 || minute > 59
+            || second < 0 || second > 59) {
+            return NOT_PARSED;
+        }
+
+        long shift = 0;
+        if (i < end && offset && layout == ISO) {
+            char c = cs.charAt(i);
+            if ((c == 'Z' || c == 'z') && i + 1 == end) {
+                i++;
+            }
+            else if ((c == '+' || c == '-') && i + 6 == end
+                     && cs.charAt(i + 3) == ':') {
+                int h = digits(cs, i + 1, 2);
+                int m = digits(cs, i + 4, 2);
+                if (h < 0 || h > 18 || m < 0 || m > 59) {
+                    return NOT_PARSED;
+                }
+                shift = (h * 3600L + m * 60L) * NANOS;
+                shift = (c == '+') ? -shift : shift;
+                i = end;
+            }
+        }
+        if (i != end) {
+            return NOT_PARSED;
+        }
+        return day * DAY_NANOS
+            + (hour * 3600L + minute * 60L + second) * NANOS + nano + shift;
+    }
+
+    /**
+     * Retrieves the cached format for a pattern, compiling it on first
+     * use.
+     *
+     * @param pattern <code>DateTimeFormatter</code> pattern.
+     * @return format parsing the pattern.
+     * @throws IllegalArgumentException if the pattern is invalid.
+     */
+    static Format format(String pattern) {
+        Format f = (Format)FORMATS.get(pattern);
+        if (f == null) {
+            f = DateTimeFormatter.ofPattern(pattern).toFormat();
+            if (FORMATS.size() < MAX_CACHED) {
+                FORMATS.put(pattern, f);
+            }
+        }
+        return f;
+    }
+
+    /**
+     * Helper method to parse a whole item with a format, without
+     * throwing an exception when it does not match.
+     */
+    private static TemporalAccessor parse(CharSequence cs, Format f) {
+        String s = cs.toString().trim();
+        ParsePosition pos = new ParsePosition(0);
+        Object o = f.parseObject(s, pos);
+        if (o == null || pos.getIndex() != s.length()) {
+            return null;
+        }
+        return (TemporalAccessor)o;
+    }
+
+    private static int dateLayout(String pattern) {
+        if (pattern == null) {
+            return ISO;
+        }
+        if (pattern.equals("yyyy-MM-dd") || pattern.equals("uuuu-MM-dd")) {
+            return DASHED;
+        }
+        if (pattern.equals("yyyyMMdd") || pattern.equals("uuuuMMdd")) {
+            return BASIC;
+        }
+        return NONE;
+    }
+
+    private static int timeLayout(String pattern) {
+        if (pattern == null) {
+            return ISO;
+        }
+        if (pattern.equals("yyyy-MM-dd'T'HH:mm:ss")
+            || pattern.equals("uuuu-MM-dd'T'HH:mm:ss")) {
+            return T_SECONDS;
+        }
+        if (pattern.equals("yyyy-MM-dd HH:mm:ss")
+            || pattern.equals("uuuu-MM-dd HH:mm:ss")) {
+            return SPACE_SECONDS;
+        }
+        return NONE;
+    }
+
+    /**
+     * Helper method to read <code>yyyy-MM-dd</code> at the specified
+     * position.
+     */
+    private static long dashed(CharSequence cs, int i) {
+        if (cs.charAt(i + 4) != '-' || cs.charAt(i + 7) != '-') {
+            return NOT_PARSED;
+        }
+        return epochDay(digits(cs, i, 4), digits(cs, i + 5, 2),
+                        digits(cs, i + 8, 2));
+    }
+
+    /**
+     * Helper method to read a fixed number of digits.
+     *
+     * @return value of the digits, or <code>-1</code> if there is
+     *         anything else.
+     */
+    private static int digits(CharSequence cs, int i, int n) {
+        int v = 0;
+        for (int end = i + n; i < end; i++) {
+            char c = cs.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            v = v * 10 + (c - '0');
+        }
+        return v;
+    }
+
+    /**
+     * Computes the epoch day of a valid date (proleptic Gregorian).
+     *
+     * @return epoch day, or {@link #NOT_PARSED} if the date is invalid
+     *         or outside the years handled directly.
+     */
+    private static long epochDay(int year, int month, int day) {
+        if (year < 1678 || year > 2261 || month < 1 || month > 12
+            || day < 1) {
+            return NOT_PARSED;
+        }
+        boolean leap = (year % 4 == 0) && (year % 100 != 0 || year % 400 == 0);
+        int last = (month == 2 && leap) ? 29 : MONTH_DAYS[month - 1];
+        if (day > last) {
+            return NOT_PARSED;
+        }
+        long y = (month <= 2) ? year - 1 : year;
+        long era = y / 400;
+        long yoe = y - era * 400;
+        long doy = (153 * (month + ((month > 2) ? -3 : 9)) + 2) / 5 + day - 1;
+        long doe = yoe * 365 + yoe / 4 - yoe / 100 + doy;
+        return era * 146097 + doe - 719468;
+    }
+
+}
@@ -19,7 +19,6 @@
  */
 package com.infomata.data;
 
-import java.util.Iterator;
 
 /**
  * Data file format that uses fixed width to define each item
@@ -28,7 +27,7 @@ import java.util.Iterator;
  * @author <a href="mailto:oldman1004@gmail.com">Sam Kim</a>
  * @version $Revision: 1.2 $
  */
-public class FixedWidthFormat implements DataFormat {
+public class FixedWidthFormat extends AbstractDataFormat implements CellDataFormat {
 
     /**
      * Creates a new <code>FixedWidthFormat</code> instance.
@@ -64,21 +63,26 @@ public class FixedWidthFormat implements DataFormat {
         DataRow row = null;
 
         if (line != null) {
-            row = new DataRow();
+            row = createRow();
+            char[] cs = line.toCharArray();
             for (int i = 0; i < width.length; i++) {
-              if ( beg[ Math.min((i + 1),(width.length-1))] > line.length() ) 
+              if ( beg[ Math.min((i + 1),(width.length-1))] > cs.length ) 
 	      {
 
-                row.add( new String("") );
+                row.addEmpty();
 
 	      } else {
 
-                if (i == width.length - 1) {
-                    row.add(line.substring(beg[i]).trim());
-                } else {
-                      String val = line.substring(beg[i], beg[i + 1]);
-                      row.add(val.trim());
+                int start = beg[i];
+                int end = (i == width.length - 1) ? cs.length : beg[i + 1];
+                // trim
+                while (start < end && cs[start] <= SPACE) {
+                    start++;
                 }
+                while (end > start && cs[end - 1] <= SPACE) {
+                    end--;
+                }
+                addCell(row, cs, start, end - start);
               }
             }
         }
@@ -96,35 +100,55 @@ public class FixedWidthFormat implements DataFormat {
      * @return line of text containing data in specified widths.
      */
     public String format(DataRow row) {
+        FormatBuffer o = new FormatBuffer();
+        format(row, o);
+        return o.toString();
+    }
 
-        StringBuffer o = new StringBuffer();
-        Iterator i = row.iterator();
-        int cnt = 0;
-
-        while (i.hasNext() && cnt < beg.length) {
+    /**
+     * Appends the data of the row to the buffer, each cell padded
+     * or truncated to its width.
+     *
+     * @param row <code>DataRow</code> containing data to be written
+     *            to file.
+     * @param out buffer receiving the formatted line.
+     */
+    public void format(DataRow row, FormatBuffer out) {
 
-            String c = (String)i.next();
+        int n = Math.min(row.size(), beg.length);
 
-            int diff = width[cnt] - c.length();
+        for (int cnt = 0; cnt < n; cnt++) {
+            formatCell(row.cell(cnt), cnt, out);
+        }
 
-            if (diff > 0) {
-                o.append(c);
-                for (int j = 0; j < diff; j++) {
-                    o.append(SPACE);
-                }
-            }
-            else if (diff < 0) {
-                o.append(c.substring(0, width[cnt]));
-            }
-            else {
-                o.append(c);
-            }
+    }
 
-            cnt++;
+    /**
+     * Appends a cell padded or truncated to the width of its column.
+     * Cells beyond the last column are not written.
+     *
+     * @param cell value of the cell, or <code>null</code>.
+     * @param column index of the cell in its row.
+     * @param out buffer receiving the cell.
+     */
+    public void formatCell(CharSequence cell, int column, FormatBuffer out) {
 
+        if (column >= beg.length) {
+            return;
+        }
+        if (cell == null) {
+            cell = "null";
         }
 
-        return o.toString();
+        int diff = width[column] - cell.length();
+
+        if (diff < 0) {
+            out.append(cell, 0, width[column]);
+        }
+        else {
+            out.append(cell);
+            out.fill(SPACE, diff);
+        }
 
     }
 
@@ -0,0 +1,209 @@
+/*
+ * $Id$
+ *
+ * Copyright(c) 2002 Infomata
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+package com.infomata.data;
+
+/**
+ * Growable character buffer that a {@link com.infomata.data.BufferDataFormat}
+ * formats rows into.  Unlike <code>StringBuffer</code> it is not
+ * synchronized and it hands its characters to the writer without
+ * copying them into a <code>String</code>, so that
+ * {@link com.infomata.data.DataFileWriter} can format many rows into the
+ * same buffer and encode them in bulk.
+ * <p>
+ * A <code>null</code> value is appended as <code>"null"</code>, as
+ * <code>StringBuffer</code> does.
+ * </p>
+ *
+ * @version $Revision$
+ */
+public final class FormatBuffer implements CharSequence {
+
+    private char[] chars;
+    private int length = 0;
+
+    /**
+     * Creates an empty buffer with room for 128 characters.
+     */
+    public FormatBuffer() {
+        this(128);
+    }
+
+    /**
+     * Creates an empty buffer.
+     *
+     * @param capacity initial number of characters the buffer holds.
+     */
+    public FormatBuffer(int capacity) {
+        chars = new char[Math.max(capacity, 16)];
+    }
+
+    /**
+     * Appends a character.
+     *
+     * @param c character to append.
+     * @return this buffer.
+     */
+    public FormatBuffer append(char c) {
+        if (length == chars.length) {
+            grow(length + 1);
+        }
+        chars[length++] = c;
+        return this;
+    }
+
+    /**
+     * Appends a character sequence.
+     *
+     * @param s characters to append, or <code>null</code>.
+     * @return this buffer.
+     */
+    public FormatBuffer append(CharSequence s) {
+        if (s == null) {
+            s = "null";
+        }
+        return append(s, 0, s.length());
+    }
+
+    /**
+     * Appends part of a character sequence.
+     *
+     * @param s characters to append.
+     * @param start index of the first character appended.
+     * @param end index after the last character appended.
+     * @return this buffer.
+     */
+    public FormatBuffer append(CharSequence s, int start, int end) {
+        int n = end - start;
+        if (length + n > chars.length) {
+            grow(length + n);
+        }
+        if (s instanceof String) {
+            ((String)s).getChars(start, end, chars, length);
+        }
+        else {
+            for (int i = start; i < end; i++) {
+                chars[length + i - start] = s.charAt(i);
+            }
+        }
+        length += n;
+        return this;
+    }
+
+    /**
+     * Appends part of a character array.
+     *
+     * @param cs characters to append.
+     * @param offset index of the first character appended.
+     * @param len number of characters appended.
+     * @return this buffer.
+     */
+    public FormatBuffer append(char[] cs, int offset, int len) {
+        if (length + len > chars.length) {
+            grow(length + len);
+        }
+        System.arraycopy(cs, offset, chars, length, len);
+        length += len;
+        return this;
+    }
+
+    /**
+     * Appends a character the specified number of times.
+     *
+     * @param c character to append.
+     * @param count number of times it is appended.
+     * @return this buffer.
+     */
+    public FormatBuffer fill(char c, int count) {
+        if (count > 0) {
+            if (length + count > chars.length) {
+                grow(length + count);
+            }
+            java.util.Arrays.fill(chars, length, length + count, c);
+            length += count;
+        }
+        return this;
+    }
+
+    /**
+     * @see java.lang.CharSequence#length()
+     */
+    public int length() {
+        return length;
+    }
+
+    /**
+     * Shortens the buffer.
+     *
+     * @param len new length, not greater than the current one.
+     */
+    public void setLength(int len) {
+        if (len < 0 || len > length) {
+            throw new IndexOutOfBoundsException("length " + len);
+        }
+        length = len;
+    }
+
+    /**
+     * @see java.lang.CharSequence#charAt(int)
+     */
+    public char charAt(int index) {
+        if (index < 0 || index >= length) {
+            throw new IndexOutOfBoundsException("index " + index);
+        }
+        return chars[index];
+    }
+
+    /**
+     * @see java.lang.CharSequence#subSequence(int, int)
+     */
+    public CharSequence subSequence(int start, int end) {
+        return new String(chars, start, end - start);
+    }
+
+    /**
+     * @return the characters of the buffer as a <code>String</code>.
+     */
+    public String toString() {
+        return new String(chars, 0, length);
+    }
+
+    /**
+     * Returns the backing array; the characters are valid up to
+     * {@link #length()}.
+     */
+    char[] array() {
+        return chars;
+    }
+
+    /**
+     * Removes the first <code>n</code> characters.
+     */
+    void remove(int n) {
+        System.arraycopy(chars, n, chars, 0, length - n);
+        length -= n;
+    }
+
+    private void grow(int min) {
+        char[] tmp = new char[Math.max(min, chars.length * 2)];
+        System.arraycopy(chars, 0, tmp, 0, length);
+        chars = tmp;
+    }
+
+}
@@ -23,12 +23,12 @@ package com.infomata.data;
  * Sample implementation of {@link com.infomata.data.DataFormat}
  * interface for data file with one item per line.
  * <pre>
- *  public class ItemPerLineFormat implements DataFormat {
+ *  public class ItemPerLineFormat extends AbstractDataFormat {
  *
  *    public DataRow parseLine(String line) {
  *        DataRow row = null;
  *        if (line != null) {
- *            row = new DataRow();
+ *            row = createRow();
  *            row.add(line);
  *        }
  *        return row;
@@ -42,12 +42,12 @@ package com.infomata.data;
  * @author <a href="mailto:oldman1004@gmail.com">Sam Kim</a>
  * @version $Revision: 1.2 $
  */
-public class ItemPerLineFormat implements DataFormat {
+public class ItemPerLineFormat extends AbstractDataFormat {
 
     public DataRow parseLine(String line) {
         DataRow row = null;
         if (line != null) {
-            row = new DataRow();
+            row = createRow();
             row.add(line);
         }
         return row;
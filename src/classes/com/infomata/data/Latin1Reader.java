@@ -0,0 +1,88 @@
+/*
+ * $Id$
+ *
+ * Copyright(c) 2002 Infomata
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+package com.infomata.data;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.nio.charset.Charset;
+
+/**
+ * Reader for single byte data in which every byte maps to the character
+ * with the same code (ISO-8859-1, and ASCII).  Bytes are widened into
+ * characters directly instead of going through a
+ * <code>CharsetDecoder</code>.
+ *
+ * @version $Revision$
+ */
+final class Latin1Reader extends Reader
+{
+
+    private InputStream in = null;
+    private byte[] buf = new byte[8192];
+
+    /**
+     * Creates a new <code>Latin1Reader</code> instance.
+     *
+     * @param in stream to read.
+     */
+    Latin1Reader(InputStream in)
+    {
+        this.in = in;
+    }
+
+    /**
+     * Checks if data in the specified character set can be read by
+     * widening bytes.  Bytes outside of ASCII in data declared as
+     * ASCII are read as ISO-8859-1 characters.
+     *
+     * @param charset character set of the data.
+     * @return <code>true</code> for ISO-8859-1 and US-ASCII.
+     */
+    static boolean supports(Charset charset)
+    {
+        String name = charset.name();
+        return "ISO-8859-1".equals(name) || "US-ASCII".equals(name);
+    }
+
+    public int read(char[] cbuf, int off, int len) throws IOException
+    {
+        if (len == 0)
+        {
+            return 0;
+        }
+        if (len > buf.length)
+        {
+            buf = new byte[len];
+        }
+        int n = in.read(buf, 0, len);
+        for (int i = 0; i < n; i++)
+        {
+            cbuf[off + i] = (char)(buf[i] & 0xff);
+        }
+        return n;
+    }
+
+    public void close() throws IOException
+    {
+        in.close();
+    }
+
+}
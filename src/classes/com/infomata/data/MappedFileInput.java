@@ -0,0 +1,168 @@
+/*
+ * $Id$
+ *
+ * Copyright(c) 2002 Infomata
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+package com.infomata.data;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Read-only view of a file through a memory mapped window.  Files larger
+ * than the window (and larger than the 2 GB limit of a single
+ * <code>MappedByteBuffer</code>) are read by moving the window forward.
+ *
+ * @version $Revision$
+ */
+final class MappedFileInput extends ByteInput
+{
+
+    /**
+     * Default size of the mapped window (64 MB).
+     */
+    static final int DEFAULT_WINDOW_SIZE = 64 << 20;
+
+    private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+
+    private RandomAccessFile file = null;
+    private FileChannel channel = null;
+    private long size = 0;
+    private long base = 0;
+    private ByteBuffer window = null;
+    private int windowSize = 0;
+
+    /**
+     * Opens the file and maps its first window.
+     *
+     * @param f file to map.
+     * @param windowSize number of bytes mapped at a time.
+     * @throws IOException if the file cannot be opened or mapped.
+     */
+    MappedFileInput(File f, int windowSize) throws IOException
+    {
+        this.windowSize = windowSize;
+        file = new RandomAccessFile(f, "r");
+        channel = file.getChannel();
+        size = channel.size();
+        map(0, windowSize);
+    }
+
+    /**
+     * Maps a window of a file opened by the caller, who remains
+     * responsible for closing the channel.
+     *
+     * @param channel channel of the file to map.
+     * @param from file offset of the first window.
+     * @param windowSize number of bytes mapped at a time.
+     * @throws IOException if the file cannot be mapped.
+     */
+    MappedFileInput(FileChannel channel, long from, int windowSize)
+        throws IOException
+    {
+        this.windowSize = windowSize;
+        this.channel = channel;
+        size = channel.size();
+        map(from, windowSize);
+    }
+
+    /**
+     * Retrieves the currently mapped window.  Index zero of the buffer
+     * corresponds to file offset {@link #base()}.
+     *
+     * @return mapped window.
+     */
+    ByteBuffer window()
+    {
+        return window;
+    }
+
+    /**
+     * Retrieves the file offset of the first byte of the window.
+     *
+     * @return file offset of the window.
+     */
+    long base()
+    {
+        return base;
+    }
+
+    /**
+     * Retrieves the size of the file.
+     *
+     * @return file size in bytes.
+     */
+    long size()
+    {
+        return size;
+    }
+
+    /**
+     * Checks if the window reaches the end of the file.
+     *
+     * @return <code>true</code> if no data follows the window.
+     */
+    boolean isEof()
+    {
+        return base + window.limit() >= size;
+    }
+
+    /**
+     * Moves the window so that it starts at the specified file offset.
+     * If the offset is the start of the current window (a row did not
+     * fit into it), the window size is doubled instead.
+     *
+     * @param from file offset of the new window.
+     * @throws IOException if mapping fails.
+     */
+    void moveTo(long from) throws IOException
+    {
+        int len = windowSize;
+        if (from == base)
+        {
+            len = (int)Math.max(len, Math.min((long)window.limit() * 2,
+                                              Integer.MAX_VALUE));
+        }
+        map(from, len);
+    }
+
+    /**
+     * Releases the file.
+     *
+     * @throws IOException if the file fails to close.
+     */
+    void close() throws IOException
+    {
+        window = EMPTY;
+        channel = null;
+        if (file != null)
+        {
+            file.close();
+        }
+    }
+
+    private void map(long from, int len) throws IOException
+    {
+        long n = Math.min(len, size - from);
+        window = (n <= 0) ? EMPTY : channel.map(FileChannel.MapMode.READ_ONLY, from, n);
+        base = from;
+    }
+
+}
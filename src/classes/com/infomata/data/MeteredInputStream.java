@@ -0,0 +1,72 @@
+/*
+ * $Id$
+ *
+ * Copyright(c) 2002 Infomata
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+package com.infomata.data;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Input stream that records the bytes read, and the time spent reading
+ * them, in the metrics of a file.
+ *
+ * @see com.infomata.data.DataFileStats
+ * @version $Revision$
+ */
+final class MeteredInputStream extends FilterInputStream
+{
+    private final DataFileStats stats;
+
+    /**
+     * Creates a new <code>MeteredInputStream</code> instance.
+     *
+     * @param in stream to read.
+     * @param stats metrics of the file.
+     */
+    MeteredInputStream(InputStream in, DataFileStats stats)
+    {
+        super(in);
+        this.stats = stats;
+    }
+
+    public int read() throws IOException
+    {
+        long t = System.nanoTime();
+        int b = in.read();
+        stats.io((b < 0) ? 0 : 1, System.nanoTime() - t);
+        return b;
+    }
+
+    public int read(byte[] b, int off, int len) throws IOException
+    {
+        long t = System.nanoTime();
+        int n = in.read(b, off, len);
+        stats.io(Math.max(n, 0), System.nanoTime() - t);
+        return n;
+    }
+
+    public long skip(long n) throws IOException
+    {
+        long t = System.nanoTime();
+        long k = in.skip(n);
+        stats.io(k, System.nanoTime() - t);
+        return k;
+    }
+}
@@ -0,0 +1,69 @@
+/*
+ * $Id$
+ *
+ * Copyright(c) 2002 Infomata
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+package com.infomata.data;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Output stream that records the bytes written, and the time spent
+ * writing them, in the metrics of a file.
+ *
+ * @see com.infomata.data.DataFileStats
+ * @version $Revision$
+ */
+final class MeteredOutputStream extends FilterOutputStream
+{
+    private final DataFileStats stats;
+
+    /**
+     * Creates a new <code>MeteredOutputStream</code> instance.
+     *
+     * @param out stream to write.
+     * @param stats metrics of the file.
+     */
+    MeteredOutputStream(OutputStream out, DataFileStats stats)
+    {
+        super(out);
+        this.stats = stats;
+    }
+
+    public void write(int b) throws IOException
+    {
+        long t = System.nanoTime();
+        out.write(b);
+        stats.io(1, System.nanoTime() - t);
+    }
+
+    public void write(byte[] b, int off, int len) throws IOException
+    {
+        long t = System.nanoTime();
+        out.write(b, off, len);
+        stats.io(len, System.nanoTime() - t);
+    }
+
+    public void flush() throws IOException
+    {
+        long t = System.nanoTime();
+        out.flush();
+        stats.io(0, System.nanoTime() - t);
+    }
+}
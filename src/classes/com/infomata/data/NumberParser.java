@@ -0,0 +1,330 @@
+/*
+ * $Id$
+ *
+ * Copyright(c) 2002 Infomata
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+package com.infomata.data;
+
+import java.text.DecimalFormat;
+import java.text.DecimalFormatSymbols;
+import java.text.NumberFormat;
+
+/**
+ * Parser for the numeric items of a {@link com.infomata.data.DataRow}.
+ * Reads the characters of an item directly and produces a primitive
+ * value, using the decimal separator, grouping separator and minus sign
+ * of the <code>DecimalFormatSymbols</code> of the row's
+ * <code>NumberFormat</code>.  A minus sign after the digits is accepted
+ * as well, as it is by the row's other numeric accessors.
+ * <p>
+ * Only the common forms of numbers are handled here.  When an item uses
+ * anything else (exponents, currency or percent signs, text after the
+ * number, more digits than fit a <code>long</code>), the parser reports
+ * that it did not parse the item and the row falls back to its
+ * <code>NumberFormat</code>, so the result is the same either way.
+ * Instances hold no parsing state and may be shared between threads.
+ * </p>
+ *
+ * @version $Revision$
+ */
+final class NumberParser {
+
+    /**
+     * Value returned by {@link #parseLong(CharSequence)} when the
+     * item must be parsed by the <code>NumberFormat</code>.
+     */
+    static final long NOT_PARSED = Long.MIN_VALUE;
+
+    /**
+     * Parser that never parses an item, used for number formats
+     * whose rules it does not know.
+     */
+    static final NumberParser NONE = new NumberParser();
+
+    /**
+     * Powers of ten that are exactly representable as a double.
+     */
+    private static final double[] POWERS = {
+        1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+        1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+
+    private final boolean enabled;
+    private final char decimal;
+    private final char grouping;
+    private final boolean groupingUsed;
+    private final char minus;
+
+    /**
+     * Creates the disabled parser.
+     */
+    private NumberParser() {
+        enabled = false;
+        decimal = '.';
+        grouping = ',';
+        groupingUsed = false;
+        minus = '-';
+    }
+
+    /**
+     * Creates a new <code>NumberParser</code> instance.
+     *
+     * @param symbols symbols of the number format.
+     * @param groupingUsed <code>true</code> if the number format
+     *                     accepts grouping separators.
+     */
+    NumberParser(DecimalFormatSymbols symbols, boolean groupingUsed) {
+        enabled = true;
+        decimal = symbols.getDecimalSeparator();
+        grouping = symbols.getGroupingSeparator();
+        this.groupingUsed = groupingUsed && grouping != decimal;
+        minus = symbols.getMinusSign();
+    }
+
+    /**
+     * Creates a parser following the rules of the specified
+     * <code>NumberFormat</code>.  Only a plain
+     * <code>DecimalFormat</code> (no prefix or suffix other than the
+     * minus sign, no multiplier, not restricted to integers) can be
+     * followed; for any other format the returned parser leaves all
+     * items to the format itself.
+     *
+     * @param format number format of a row.
+     * @return parser for <code>format</code>.
+     */
+    static NumberParser forFormat(NumberFormat format) {
+        if (!(format instanceof DecimalFormat)) {
+            return NONE;
+        }
+        DecimalFormat df = (DecimalFormat)format;
+        DecimalFormatSymbols symbols = df.getDecimalFormatSymbols();
+        String minus = String.valueOf(symbols.getMinusSign());
+        if (df.getMultiplier() != 1
+            || df.isParseIntegerOnly()
+            || df.isParseBigDecimal()
+            || df.getPositivePrefix().length() > 0
+            || df.getPositiveSuffix().length() > 0
+            || !df.getNegativePrefix().equals(minus)
+            || df.getNegativeSuffix().length() > 0) {
+            return NONE;
+        }
+        return new NumberParser(symbols, df.isGroupingUsed());
+    }
+
+    /**
+     * Checks if an item is empty or contains only white space.
+     *
+     * @param cs item to check.
+     * @return <code>true</code> if the item holds no value.
+     */
+    static boolean isBlank(CharSequence cs) {
+        for (int i = 0, n = cs.length(); i < n; i++) {
+            if (cs.charAt(i) > ' ') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Parses an item holding a whole number.
+     *
+     * @param cs item to parse.
+     * @return value of the item, or {@link #NOT_PARSED} if the item
+     *         must be parsed by the <code>NumberFormat</code>.
+     */
+    long parseLong(CharSequence cs) {
+        if (!enabled) {
+            return NOT_PARSED;
+        }
+        int i = 0;
+        int end = cs.length();
+        while (i < end && cs.charAt(i) <= ' ') {
+            i++;
+        }
+        while (end > i && cs.charAt(end - 1) <= ' ') {
+            end--;
+        }
+        if (i == end) {
+            return NOT_PARSED;
+        }
+
+        boolean negative = false;
+        char c = cs.charAt(i);
+        if (c == minus || c == '-') {
+            negative = true;
+            i++;
+        }
+        else if (c == '+') {
+            i++;
+        }
+        c = cs.charAt(end - 1);
+        if (end > i && (c == minus || c == '-')) {
+            if (negative) {
+                return NOT_PARSED;
+            }
+            negative = true;
+            end--;
+        }
+
+        long v = 0;
+        int digits = 0;
+        for (; i < end; i++) {
+            c = cs.charAt(i);
+            if (c >= '0' && c <= '9') {
+                if (++digits > 18) {
+                    return NOT_PARSED;
+                }
+                v = v * 10 + (c - '0');
+            }
+            else if (c != grouping || !groupingUsed || digits == 0) {
+                return NOT_PARSED;
+            }
+        }
+        if (digits == 0) {
+            return NOT_PARSED;
+        }
+        return negative ? -v : v;
+    }
+
+    /**
+     * Parses an item holding a decimal number.  The result is the
+     * double nearest to the decimal value, as with
+     * <code>Double.parseDouble</code>.
+     *
+     * @param cs item to parse.
+     * @return value of the item, or <code>NaN</code> if the item
+     *         must be parsed by the <code>NumberFormat</code>.
+     */
+    double parseDouble(CharSequence cs) {
+        if (!enabled) {
+            return Double.NaN;
+        }
+        int i = 0;
+        int end = cs.length();
+        while (i < end && cs.charAt(i) <= ' ') {
+            i++;
+        }
+        while (end > i && cs.charAt(end - 1) <= ' ') {
+            end--;
+        }
+        if (i == end) {
+            return Double.NaN;
+        }
+
+        boolean negative = false;
+        char c = cs.charAt(i);
+        if (c == minus || c == '-') {
+            negative = true;
+            i++;
+        }
+        else if (c == '+') {
+            i++;
+        }
+        c = cs.charAt(end - 1);
+        if (end > i && (c == minus || c == '-')) {
+            if (negative) {
+                return Double.NaN;
+            }
+            negative = true;
+            end--;
+        }
+
+        int begin = i;
+        long m = 0;         // significant digits
+        int significant = 0;
+        int exponent = 0;   // power of ten applied to m
+        int digits = 0;
+        boolean fraction = false;
+        boolean exact = true;
+        for (; i < end; i++) {
+            c = cs.charAt(i);
+            if (c >= '0' && c <= '9') {
+                digits++;
+                if (m == 0 && c == '0') {
+                    if (fraction) {
+                        exponent--;
+                    }
+                }
+                else if (significant < 18) {
+                    m = m * 10 + (c - '0');
+                    significant++;
+                    if (fraction) {
+                        exponent--;
+                    }
+                }
+                else {
+                    exact = exact && c == '0';
+                    if (!fraction) {
+                        exponent++;
+                    }
+                }
+            }
+            else if (c == decimal && !fraction) {
+                fraction = true;
+            }
+            else if (c != grouping || !groupingUsed || digits == 0
+                     || fraction) {
+                return Double.NaN;
+            }
+        }
+        if (digits == 0) {
+            return Double.NaN;
+        }
+
+        double d;
+        if (m == 0) {
+            d = 0d;
+        }
+        else if (exact && significant <= 15 && exponent >= -22
+                 && exponent <= 22) {
+            // both m and the power of ten are exact, so the
+            // single rounding of the product gives the nearest double
+            d = (exponent < 0) ? m / POWERS[-exponent]
+                : m * POWERS[exponent];
+        }
+        else {
+            d = parseSlow(cs, begin, end);
+        }
+        return negative ? -d : d;
+    }
+
+    /**
+     * Helper method to parse the digits of an item that has too many
+     * significant digits for exact arithmetic.
+     *
+     * @param cs item to parse.
+     * @param begin index of the first digit.
+     * @param end index after the last digit.
+     * @return unsigned value of the item.
+     */
+    private double parseSlow(CharSequence cs, int begin, int end) {
+        char[] buf = new char[end - begin];
+        int n = 0;
+        for (int i = begin; i < end; i++) {
+            char c = cs.charAt(i);
+            if (c >= '0' && c <= '9') {
+                buf[n++] = c;
+            }
+            else if (c == decimal) {
+                buf[n++] = '.';
+            }
+        }
+        return Double.parseDouble(new String(buf, 0, n));
+    }
+
+}
@@ -0,0 +1,380 @@
+/*
+ * $Id$
+ *
+ * Copyright(c) 2002 Infomata
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+package com.infomata.data;
+
+import java.math.BigInteger;
+
+/**
+ * Writes the numeric cells of {@link com.infomata.data.DataFileWriter}
+ * straight into a {@link com.infomata.data.FormatBuffer}, without a
+ * <code>NumberFormat</code> and without creating a <code>String</code>.
+ * <p>
+ * Integers are written two digits at a time.  Doubles are written with
+ * the shortest sequence of digits that reads back as the same double,
+ * found with the Ryu algorithm (Ulf Adams, "Ryu: fast float-to-string
+ * conversion", PLDI 2018), in plain notation when the decimal point is
+ * at most 21 digits to the right or 6 zeros to the left of the digits
+ * (<code>123.45</code>, <code>0.000001</code>, <code>3</code>) and in
+ * scientific notation otherwise (<code>1.5E-7</code>, <code>1E300</code>).
+ * Both forms are read by <code>Double.parseDouble</code> and by the
+ * numeric accessors of {@link com.infomata.data.DataRow}.
+ * </p>
+ *
+ * @version $Revision$
+ */
+final class NumberWriter {
+
+    private static final int MANTISSA_BITS = 52;
+    private static final int EXPONENT_BITS = 11;
+    private static final int BIAS = 1023;
+
+    private static final int POW5_BITCOUNT = 125;
+    private static final int POW5_INV_BITCOUNT = 125;
+
+    /**
+     * 5^i in 125 bits, as low and high 64 bits, for i up to 325.
+     */
+    private static final long[][] POW5_SPLIT = new long[326][];
+
+    /**
+     * 2^(k + 124) / 5^i + 1, where k is the bit length of 5^i, as low
+     * and high 64 bits, for i up to 341.
+     */
+    private static final long[][] POW5_INV_SPLIT = new long[342][];
+
+    /**
+     * The two digit strings "00" to "99".
+     */
+    private static final char[] DIGIT_PAIRS = new char[200];
+
+    static {
+        BigInteger mask = BigInteger.ONE.shiftLeft(64).subtract(BigInteger.ONE);
+        for (int i = 0; i < POW5_INV_SPLIT.length; i++) {
+            BigInteger pow = BigInteger.valueOf(5).pow(i);
+            int len = pow.bitLength();
+            if (i < POW5_SPLIT.length) {
+                POW5_SPLIT[i] = split(pow.shiftLeft(POW5_BITCOUNT).shiftRight(len), mask);
+            }
+            BigInteger inv = BigInteger.ONE.shiftLeft(len - 1 + POW5_INV_BITCOUNT)
+                .divide(pow).add(BigInteger.ONE);
+            POW5_INV_SPLIT[i] = split(inv, mask);
+        }
+        for (int i = 0; i < 100; i++) {
+            DIGIT_PAIRS[2 * i] = (char)('0' + i / 10);
+            DIGIT_PAIRS[2 * i + 1] = (char)('0' + i % 10);
+        }
+    }
+
+    private NumberWriter() {
+    }
+
+    /**
+     * Appends the decimal digits of an integer, with a leading minus
+     * sign if it is negative.
+     *
+     * @param v value to write.
+     * @param out buffer receiving the digits.
+     */
+    static void append(long v, FormatBuffer out) {
+        if (v == Long.MIN_VALUE) {
+            out.append("-9223372036854775808");
+            return;
+        }
+        if (v < 0) {
+            out.append('-');
+            v = -v;
+        }
+        int n = digits(v);
+        int end = out.length() + n;
+        out.fill('0', n);
+        char[] cs = out.array();
+        int p = end;
+        while (v >= 100) {
+            int r = (int)(v % 100);
+            v /= 100;
+            cs[--p] = DIGIT_PAIRS[2 * r + 1];
+            cs[--p] = DIGIT_PAIRS[2 * r];
+        }
+        if (v >= 10) {
+            cs[--p] = DIGIT_PAIRS[2 * (int)v + 1];
+            cs[--p] = DIGIT_PAIRS[2 * (int)v];
+        }
+        else {
+            cs[--p] = (char)('0' + v);
+        }
+    }
+
+    /**
+     * Appends the shortest decimal representation of a double that
+     * reads back as the same value.  Not-a-number and infinities are
+     * written as <code>NaN</code>, <code>Infinity</code> and
+     * <code>-Infinity</code>.
+     *
+     * @param d value to write.
+     * @param out buffer receiving the characters.
+     */
+    static void append(double d, FormatBuffer out) {
+        long bits = Double.doubleToRawLongBits(d);
+        boolean negative = bits < 0;
+        long mantissa = bits & ((1L << MANTISSA_BITS) - 1);
+        int exponent = (int)((bits >>> MANTISSA_BITS) & ((1 << EXPONENT_BITS) - 1));
+
+        if (exponent == (1 << EXPONENT_BITS) - 1) {
+            out.append((mantissa != 0) ? "NaN" : negative ? "-Infinity" : "Infinity");
+            return;
+        }
+        if (negative) {
+            out.append('-');
+        }
+        if (exponent == 0 && mantissa == 0) {
+            out.append('0');
+            return;
+        }
+
+        long m2 = (exponent == 0) ? mantissa : mantissa | (1L << MANTISSA_BITS);
+        int e2 = ((exponent == 0) ? 1 : exponent) - BIAS - MANTISSA_BITS;
+
+        // integers below 2^53 are their own shortest representation
+        if (e2 <= 0 && e2 > -MANTISSA_BITS - 1 && (m2 & ((1L << -e2) - 1)) == 0) {
+            long v = m2 >> -e2;
+            int zeros = 0;
+            while (v % 10 == 0) {
+                v /= 10;
+                zeros++;
+            }
+            decimal(v, zeros, out);
+            return;
+        }
+
+        shortest(m2, e2 - 2, mantissa != 0 || exponent <= 1, out);
+    }
+
+    /**
+     * Ryu: finds the shortest decimal in the interval of reals that
+     * round to the double <code>m2 * 2^(e2 + 2)</code> and writes it.
+     */
+    private static void shortest(long m2, int e2, boolean mmShift, FormatBuffer out) {
+
+        boolean acceptBounds = (m2 & 1) == 0;
+        long mv = 4 * m2;
+        int mm = mmShift ? 1 : 0;
+
+        long vr;
+        long vp;
+        long vm;
+        int e10;
+        boolean vmIsTrailingZeros = false;
+        boolean vrIsTrailingZeros = false;
+
+        if (e2 >= 0) {
+            int q = log10Pow2(e2) - ((e2 > 3) ? 1 : 0);
+            e10 = q;
+            int k = POW5_INV_BITCOUNT + pow5bits(q) - 1;
+            int i = -e2 + q + k;
+            long[] mul = POW5_INV_SPLIT[q];
+            vr = mulShift(mv, mul, i);
+            vp = mulShift(mv + 2, mul, i);
+            vm = mulShift(mv - 1 - mm, mul, i);
+            if (q <= 21) {
+                if (mv % 5 == 0) {
+                    vrIsTrailingZeros = pow5Factor(mv) >= q;
+                }
+                else if (acceptBounds) {
+                    vmIsTrailingZeros = pow5Factor(mv - 1 - mm) >= q;
+                }
+                else if (pow5Factor(mv + 2) >= q) {
+                    vp--;
+                }
+            }
+        }
+        else {
+            int q = log10Pow5(-e2) - ((-e2 > 1) ? 1 : 0);
+            e10 = q + e2;
+            int i = -e2 - q;
+            int k = pow5bits(i) - POW5_BITCOUNT;
+            int j = q - k;
+            long[] mul = POW5_SPLIT[i];
+            vr = mulShift(mv, mul, j);
+            vp = mulShift(mv + 2, mul, j);
+            vm = mulShift(mv - 1 - mm, mul, j);
+            if (q <= 1) {
+                vrIsTrailingZeros = true;
+                if (acceptBounds) {
+                    vmIsTrailingZeros = mmShift;
+                }
+                else {
+                    vp--;
+                }
+            }
+            else if (q < 63) {
+                vrIsTrailingZeros = (mv & ((1L << q) - 1)) == 0;
+            }
+        }
+
+        int removed = 0;
+        int lastRemovedDigit = 0;
+        long output;
+        if (vmIsTrailingZeros || vrIsTrailingZeros) {
+            while (vp / 10 > vm / 10) {
+                vmIsTrailingZeros &= vm % 10 == 0;
+                vrIsTrailingZeros &= lastRemovedDigit == 0;
+                lastRemovedDigit = (int)(vr % 10);
+                vr /= 10;
+                vp /= 10;
+                vm /= 10;
+                removed++;
+            }
+            if (vmIsTrailingZeros) {
+                while (vm % 10 == 0) {
+                    vrIsTrailingZeros &= lastRemovedDigit == 0;
+                    lastRemovedDigit = (int)(vr % 10);
+                    vr /= 10;
+                    vp /= 10;
+                    vm /= 10;
+                    removed++;
+                }
+            }
+            if (vrIsTrailingZeros && lastRemovedDigit == 5 && vr % 2 == 0) {
+                // exactly halfway: round to even
+                lastRemovedDigit = 4;
+            }
+            output = vr + (((vr == vm && (!acceptBounds || !vmIsTrailingZeros))
+                            || lastRemovedDigit >= 5) ? 1 : 0);
+        }
+        else {
+            boolean roundUp = false;
+            while (vp / 10 > vm / 10) {
+                roundUp = vr % 10 >= 5;
+                vr /= 10;
+                vp /= 10;
+                vm /= 10;
+                removed++;
+            }
+            output = vr + ((vr == vm || roundUp) ? 1 : 0);
+        }
+
+        int exp = e10 + removed;
+        while (output % 10 == 0) {
+            output /= 10;
+            exp++;
+        }
+        decimal(output, exp, out);
+    }
+
+    /**
+     * Helper method to write <code>digits * 10^exp</code>, where
+     * <code>digits</code> has no trailing zero.
+     */
+    private static void decimal(long digits, int exp, FormatBuffer out) {
+        int n = digits(digits);
+        int point = n + exp;
+        if (exp >= 0 && point <= 21) {
+            append(digits, out);
+            out.fill('0', exp);
+        }
+        else if (point > 0 && point <= 21) {
+            int start = out.length();
+            append(digits, out);
+            out.append('0');
+            char[] cs = out.array();
+            System.arraycopy(cs, start + point, cs, start + point + 1, n - point);
+            cs[start + point] = '.';
+        }
+        else if (point > -6 && point <= 0) {
+            out.append('0').append('.').fill('0', -point);
+            append(digits, out);
+        }
+        else {
+            int start = out.length();
+            append(digits, out);
+            if (n > 1) {
+                out.append('0');
+                char[] cs = out.array();
+                System.arraycopy(cs, start + 1, cs, start + 2, n - 1);
+                cs[start + 1] = '.';
+            }
+            out.append('E');
+            append(point - 1, out);
+        }
+    }
+
+    /**
+     * Helper method to count the decimal digits of a non-negative value.
+     */
+    private static int digits(long v) {
+        int n = 1;
+        for (long p = 10; n < 19 && v >= p; p *= 10) {
+            n++;
+        }
+        return n;
+    }
+
+    /**
+     * Helper method to compute <code>(m * mul) &gt;&gt; j</code> for a
+     * factor of up to 55 bits and a 128 bit multiplier, where
+     * <code>j</code> is greater than 64.
+     */
+    private static long mulShift(long m, long[] mul, int j) {
+        long high1 = Math.multiplyHigh(m, mul[1]) + ((mul[1] < 0) ? m : 0);
+        long low1 = m * mul[1];
+        long high0 = Math.multiplyHigh(m, mul[0]) + ((mul[0] < 0) ? m : 0);
+        long sum = high0 + low1;
+        if (Long.compareUnsigned(sum, high0) < 0) {
+            high1++;
+        }
+        int dist = j - 64;
+        return (high1 << (64 - dist)) | (sum >>> dist);
+    }
+
+    private static int pow5Factor(long value) {
+        int count = 0;
+        while (value > 0 && value % 5 == 0) {
+            value /= 5;
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Bit length of 5^e, for e up to 3528.
+     */
+    private static int pow5bits(int e) {
+        return (int)(((e * 1217359L) >>> 19) + 1);
+    }
+
+    /**
+     * floor(log10(2^e)), for e up to 1650.
+     */
+    private static int log10Pow2(int e) {
+        return (int)((e * 78913L) >>> 18);
+    }
+
+    /**
+     * floor(log10(5^e)), for e up to 2620.
+     */
+    private static int log10Pow5(int e) {
+        return (int)((e * 732923L) >>> 20);
+    }
+
+    private static long[] split(BigInteger v, BigInteger mask) {
+        return new long[] {v.and(mask).longValue(), v.shiftRight(64).longValue()};
+    }
+
+}
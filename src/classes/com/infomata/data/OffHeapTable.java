@@ -0,0 +1,606 @@
+/*
+ * $Id$
+ *
+ * Copyright(c) 2002 Infomata
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+package com.infomata.data;
+
+import java.io.Closeable;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Hashtable;
+import java.util.List;
+
+/**
+ * Table holding the rows of a data file outside of the Java heap, as
+ * loaded by {@link com.infomata.data.DataFileReader#readOffHeapTable()}.
+ * Large files can be kept resident for lookups and repeated scans
+ * without millions of <code>DataRow</code> and <code>String</code>
+ * objects for the garbage collector to trace.
+ * <p>
+ * Rows are stored back to back in direct memory segments of up to
+ * 64 MB, in a compact binary layout:
+ * </p>
+ * <pre>
+ * int   (number of cells &lt;&lt; 1) | wide
+ * int[] end of each cell, in characters from the start of the text
+ * text  one byte per character (ISO-8859-1 rows) or two (wide rows)
+ * </pre>
+ * <p>
+ * and the address of every row is kept in direct memory as well, so
+ * that the heap holds only a few objects per segment.  The accessors
+ * read the cells in place: {@link #getCharSequence(int, long)} returns a
+ * view of the stored text and the numeric and date accessors parse it
+ * without creating a <code>String</code>, with the same results as the
+ * accessors of {@link com.infomata.data.DataRow}.
+ * </p>
+ * <p>
+ * {@link #close()} drops the memory segments, whose direct memory is
+ * then returned when the garbage collector reclaims the few buffer
+ * objects holding it; the table and the views it returned cannot be
+ * used after it is closed.
+ * </p>
+ * <p>
+ * The accessors and {@link #close()} are synchronized, so a table can
+ * be shared by several threads: reads run one at a time, and a read
+ * after the table is closed throws an
+ * <code>IllegalStateException</code>.  Unlike
+ * {@link com.infomata.data.DataTable} the number of rows is not limited to 2<sup>31</sup>-1.
+ * </p>
+ *
+ * @see com.infomata.data.DataFileReader#readOffHeapTable()
+ * @version $Revision$
+ */
+public class OffHeapTable implements Closeable {
+
+    /**
+     * Largest size of a memory segment; longer rows get a segment of
+     * their own.
+     */
+    static final int SEGMENT_SIZE = 64 * 1024 * 1024;
+
+    /**
+     * Size of the first memory segment; segments double up to
+     * {@link #SEGMENT_SIZE}.
+     */
+    private static final int FIRST_SEGMENT_SIZE = 256 * 1024;
+
+    /**
+     * Row addresses held by each segment of the row index.
+     */
+    private static final int INDEX_SHIFT = 17;
+    private static final int INDEX_ROWS = 1 << INDEX_SHIFT;
+
+    private List labels = null;
+    private Hashtable index = null;
+    private ParseContext context = null;
+
+    private List segments = new ArrayList();
+    private ByteBuffer segment = null;
+    private int segmentNo = -1;
+
+    private List addresses = new ArrayList();
+    private long rows = 0;
+    private int columns = 0;
+    private long memory = 0;
+
+    private volatile boolean closed = false;
+
+    /**
+     * View reused by the accessors that do not hand out the cell.
+     */
+    private final Cell cursor = new Cell(this);
+
+    /**
+     * Creates a new empty <code>OffHeapTable</code> instance.
+     *
+     * @param labels column labels, or <code>null</code> if the file
+     *               has no header.
+     * @param context parse context used for numeric cells.
+     */
+    OffHeapTable(List labels, ParseContext context) {
+        this.labels = labels;
+        this.context = context;
+        if (labels != null) {
+            index = new Hashtable(labels.size());
+            for (int i = 0; i < labels.size(); i++) {
+                index.put(labels.get(i), Integer.valueOf(i));
+            }
+        }
+    }
+
+    /**
+     * Copies a row into the table.
+     *
+     * @param row row to append.
+     */
+    void append(DataRow row) {
+        checkOpen();
+        int n = row.size();
+        long chars = 0;
+        boolean wide = false;
+        for (int c = 0; c < n; c++) {
+            CharSequence cs = row.getCharSequence(c);
+            chars += cs.length();
+            for (int i = 0; i < cs.length() && !wide; i++) {
+                wide = cs.charAt(i) > 0xff;
+            }
+        }
+        long size = 4L + 4L * n + ((wide) ? 2 * chars : chars);
+        if (size > Integer.MAX_VALUE - 8) {
+            throw new IllegalStateException("row " + rows + " exceeds 2 GB");
+        }
+
+        if (segment == null || segment.remaining() < size) {
+            allocate((int)size);
+        }
+        ByteBuffer b = segment;
+        int pos = b.position();
+        setAddress(rows, ((long)segmentNo << 32) | pos);
+
+        b.putInt(pos, (n << 1) | ((wide) ? 1 : 0));
+        int text = pos + 4 + 4 * n;
+        int end = 0;
+        for (int c = 0; c < n; c++) {
+            CharSequence cs = row.getCharSequence(c);
+            int len = cs.length();
+            if (wide) {
+                for (int i = 0; i < len; i++) {
+                    b.putChar(text + 2 * (end + i), cs.charAt(i));
+                }
+            }
+            else {
+                for (int i = 0; i < len; i++) {
+                    b.put(text + end + i, (byte)cs.charAt(i));
+                }
+            }
+            end += len;
+            b.putInt(pos + 4 + 4 * c, end);
+        }
+        b.position(pos + (int)size);
+        rows++;
+        columns = Math.max(columns, n);
+    }
+
+    /**
+     * Retrieves the number of rows in the table.
+     *
+     * @return number of rows.
+     */
+    public long size() {
+        return rows;
+    }
+
+    /**
+     * Retrieves the number of columns in the table (the widest row
+     * of the file).
+     *
+     * @return number of columns.
+     */
+    public int getColumnCount() {
+        return columns;
+    }
+
+    /**
+     * Retrieves the number of cells of a row.
+     *
+     * @param row row index (starts at zero)
+     * @return number of cells.
+     */
+    public synchronized int getCellCount(long row) {
+        return locate(0, row, cursor).cells;
+    }
+
+    /**
+     * Retrieves the number of bytes of direct memory held by the table.
+     *
+     * @return bytes allocated for rows and row addresses.
+     */
+    public long getMemorySize() {
+        return memory;
+    }
+
+    /**
+     * Retrieves the label of a column.
+     *
+     * @param column column index (starts at zero)
+     * @return column label, or <code>null</code> if the file has no
+     *         header.
+     */
+    public String getLabel(int column) {
+        return (labels == null || column >= labels.size()) ? null
+            : (String)labels.get(column);
+    }
+
+    /**
+     * Retrieves the index of the column with the specified label.
+     *
+     * @param label column label
+     * @return column index, or <code>-1</code> if no such column.
+     */
+    public int getColumn(String label) {
+        Integer i = (index == null) ? null : (Integer)index.get(label);
+        return (i == null) ? -1 : i.intValue();
+    }
+
+    /**
+     * Retrieves a cell without copying it.  The view reads the table's
+     * memory directly and is valid until the table is closed.
+     *
+     * @param column column index (starts at zero)
+     * @param row row index (starts at zero)
+     * @return view of the cell text (empty if the row has no such
+     *         cell).
+     */
+    public synchronized CharSequence getCharSequence(int column, long row) {
+        return locate(column, row, new Cell(this));
+    }
+
+    /**
+     * Retrieves a cell as a <code>String</code> on the heap.
+     *
+     * @param column column index (starts at zero)
+     * @param row row index (starts at zero)
+     * @return text of the cell (empty if the row has no such cell).
+     */
+    public synchronized String getString(int column, long row) {
+        return locate(column, row, cursor).toString();
+    }
+
+    /**
+     * Retrieves a cell as an <code>int</code>.
+     *
+     * @param column column index (starts at zero)
+     * @param row row index (starts at zero)
+     * @return value of the cell.
+     * @throws NumberFormatException if the cell is not a number or
+     *         is outside the range of an <code>int</code>.
+     * @see DataRow#getInt(int)
+     */
+    public synchronized int getInt(int column, long row) throws NumberFormatException {
+        Cell c = locate(column, row, cursor);
+        long v = context.getNumberParser().parseLong(c);
+        if (v == NumberParser.NOT_PARSED) {
+            v = heapRow(c).getLong(0);
+        }
+        if (v < Integer.MIN_VALUE || v > Integer.MAX_VALUE) {
+            context.parseFailed();
+            throw new NumberFormatException("value out of int range: " + c);
+        }
+        return (int)v;
+    }
+
+    /**
+     * Retrieves a cell as an <code>int</code>.
+     *
+     * @param column column index (starts at zero)
+     * @param row row index (starts at zero)
+     * @param defaultVal value returned if the cell is empty, not a
+     *                   number or outside the range of an
+     *                   <code>int</code>.
+     * @return value of the cell.
+     * @see DataRow#getInt(int, int)
+     */
+    public synchronized int getInt(int column, long row, int defaultVal) {
+        Cell c = locate(column, row, cursor);
+        long v = context.getNumberParser().parseLong(c);
+        if (v == NumberParser.NOT_PARSED) {
+            if (NumberParser.isBlank(c)) {
+                return defaultVal;
+            }
+            v = heapRow(c).getLong(0, Long.MIN_VALUE);
+        }
+        return (v < Integer.MIN_VALUE || v > Integer.MAX_VALUE) ? defaultVal
+            : (int)v;
+    }
+
+    /**
+     * Retrieves a cell as a <code>long</code>.
+     *
+     * @param column column index (starts at zero)
+     * @param row row index (starts at zero)
+     * @return value of the cell.
+     * @throws NumberFormatException if the cell is not a number.
+     * @see DataRow#getLong(int)
+     */
+    public synchronized long getLong(int column, long row) throws NumberFormatException {
+        Cell c = locate(column, row, cursor);
+        long v = context.getNumberParser().parseLong(c);
+        return (v != NumberParser.NOT_PARSED) ? v : heapRow(c).getLong(0);
+    }
+
+    /**
+     * Retrieves a cell as a <code>long</code>.
+     *
+     * @param column column index (starts at zero)
+     * @param row row index (starts at zero)
+     * @param defaultVal value returned if the cell is empty or not a
+     *                   number.
+     * @return value of the cell.
+     * @see DataRow#getLong(int, long)
+     */
+    public synchronized long getLong(int column, long row, long defaultVal) {
+        Cell c = locate(column, row, cursor);
+        long v = context.getNumberParser().parseLong(c);
+        if (v != NumberParser.NOT_PARSED) {
+            return v;
+        }
+        return (NumberParser.isBlank(c)) ? defaultVal
+            : heapRow(c).getLong(0, defaultVal);
+    }
+
+    /**
+     * Retrieves a cell as a <code>double</code>.
+     *
+     * @param column column index (starts at zero)
+     * @param row row index (starts at zero)
+     * @return value of the cell.
+     * @throws NumberFormatException if the cell is not a number.
+     * @see DataRow#getDouble(int)
+     */
+    public synchronized double getDouble(int column, long row) throws NumberFormatException {
+        Cell c = locate(column, row, cursor);
+        double d = context.getNumberParser().parseDouble(c);
+        return (!Double.isNaN(d)) ? d : heapRow(c).getDouble(0);
+    }
+
+    /**
+     * Retrieves a cell as a <code>double</code>.
+     *
+     * @param column column index (starts at zero)
+     * @param row row index (starts at zero)
+     * @param defaultVal value returned if the cell is empty or not a
+     *                   number.
+     * @return value of the cell.
+     * @see DataRow#getDouble(int, double)
+     */
+    public synchronized double getDouble(int column, long row, double defaultVal) {
+        Cell c = locate(column, row, cursor);
+        double d = context.getNumberParser().parseDouble(c);
+        if (!Double.isNaN(d)) {
+            return d;
+        }
+        return (NumberParser.isBlank(c)) ? defaultVal
+            : heapRow(c).getDouble(0, defaultVal);
+    }
+
+    /**
+     * Retrieves a cell as a date.
+     *
+     * @param column column index (starts at zero)
+     * @param row row index (starts at zero)
+     * @param pattern date pattern, or <code>null</code> for ISO-8601.
+     * @return the date, or <code>null</code> if the cell does not
+     *         match the pattern.
+     * @see DataRow#getLocalDate(int, String)
+     */
+    public synchronized LocalDate getLocalDate(int column, long row, String pattern) {
+        Cell c = locate(column, row, cursor);
+        LocalDate d = DateParser.parseDate(c, pattern);
+        if (d == null && !NumberParser.isBlank(c)) {
+            context.parseFailed();
+        }
+        return d;
+    }
+
+    /**
+     * Retrieves a cell as the number of days since 1970-01-01.
+     *
+     * @param column column index (starts at zero)
+     * @param row row index (starts at zero)
+     * @param pattern date pattern, or <code>null</code> for ISO-8601.
+     * @param defaultVal value returned if the cell is not a date.
+     * @return the day.
+     * @see DataRow#getEpochDay(int, String, long)
+     */
+    public synchronized long getEpochDay(int column, long row, String pattern, long defaultVal) {
+        Cell c = locate(column, row, cursor);
+        long day = DateParser.parseEpochDay(c, pattern);
+        if (day == DateParser.NOT_PARSED) {
+            LocalDate d = getLocalDate(column, row, pattern);
+            day = (d == null) ? defaultVal : d.toEpochDay();
+        }
+        return day;
+    }
+
+    /**
+     * Copies a row onto the heap as a <code>DataRow</code>, whose
+     * cells can be accessed by column label if the file has a header.
+     *
+     * @param row row index (starts at zero)
+     * @return new row holding the cells of the table row.
+     */
+    public synchronized DataRow getRow(long row) {
+        int n = getCellCount(row);
+        DataRow r = new DataRow(context);
+        r.ensureCapacity(n);
+        for (int c = 0; c < n; c++) {
+            r.add(getString(c, row));
+        }
+        r.setHeaderIndex(index);
+        return r;
+    }
+
+    /**
+     * Scans a column for a cell equal to the specified value, without
+     * copying the cells.
+     *
+     * @param column column index (starts at zero)
+     * @param value value to look for.
+     * @param fromRow row index at which to start the scan.
+     * @return index of the first matching row at or after
+     *         <code>fromRow</code>, or <code>-1</code> if none.
+     */
+    public synchronized long find(int column, CharSequence value, long fromRow) {
+        int len = value.length();
+        for (long r = Math.max(fromRow, 0); r < rows; r++) {
+            Cell c = locate(column, r, cursor);
+            if (c.length() != len) {
+                continue;
+            }
+            int i = 0;
+            while (i < len && c.charAt(i) == value.charAt(i)) {
+                i++;
+            }
+            if (i == len) {
+                return r;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Releases the memory segments of the table, which are freed when
+     * the garbage collector reclaims their buffers.  Calling it again
+     * has no effect.
+     */
+    public synchronized void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        segments.clear();
+        addresses.clear();
+        segment = null;
+        memory = 0;
+    }
+
+    /**
+     * Helper method to point a view at a cell.
+     */
+    private Cell locate(int column, long row, Cell c) {
+        checkOpen();
+        if (row < 0 || row >= rows) {
+            throw new IndexOutOfBoundsException(String.valueOf(row));
+        }
+        long a = ((ByteBuffer)addresses.get((int)(row >>> INDEX_SHIFT)))
+            .getLong((int)(row & (INDEX_ROWS - 1)) * 8);
+        ByteBuffer b = (ByteBuffer)segments.get((int)(a >>> 32));
+        int pos = (int)a;
+        int head = b.getInt(pos);
+        int n = head >>> 1;
+        if (column >= 0 && column < n) {
+            int start = (column == 0) ? 0 : b.getInt(pos + 4 * column);
+            c.set(b, (head & 1) != 0, n, pos + 4 + 4 * n, start,
+                  b.getInt(pos + 4 + 4 * column));
+        }
+        else {
+            c.set(b, (head & 1) != 0, n, 0, 0, 0);
+        }
+        return c;
+    }
+
+    /**
+     * Helper method to parse a cell the fast parsers do not read, with
+     * the rules of <code>DataRow</code>.
+     */
+    private DataRow heapRow(Cell c) {
+        DataRow r = new DataRow(context);
+        r.add(c.toString());
+        return r;
+    }
+
+    /**
+     * Helper method to start a new memory segment with room for at
+     * least <code>size</code> bytes.
+     */
+    private void allocate(int size) {
+        int next = (segment == null) ? FIRST_SEGMENT_SIZE
+            : Math.min(segment.capacity() * 2, SEGMENT_SIZE);
+        segment = ByteBuffer.allocateDirect(Math.max(next, size))
+            .order(ByteOrder.nativeOrder());
+        segments.add(segment);
+        segmentNo = segments.size() - 1;
+        memory += segment.capacity();
+    }
+
+    private void setAddress(long row, long address) {
+        int i = (int)(row >>> INDEX_SHIFT);
+        if (i == addresses.size()) {
+            ByteBuffer b = ByteBuffer.allocateDirect(INDEX_ROWS * 8)
+                .order(ByteOrder.nativeOrder());
+            addresses.add(b);
+            memory += b.capacity();
+        }
+        ((ByteBuffer)addresses.get(i)).putLong((int)(row & (INDEX_ROWS - 1)) * 8, address);
+    }
+
+    private void checkOpen() {
+        if (closed) {
+            throw new IllegalStateException("table is closed");
+        }
+    }
+
+    /**
+     * View of the text of one cell.
+     */
+    private static final class Cell implements CharSequence {
+
+        private final OffHeapTable table;
+        private ByteBuffer buf = null;
+        private boolean wide = false;
+        int cells = 0;
+        private int text = 0;
+        private int start = 0;
+        private int end = 0;
+
+        Cell(OffHeapTable table) {
+            this.table = table;
+        }
+
+        void set(ByteBuffer buf, boolean wide, int cells, int text,
+                 int start, int end) {
+            this.buf = buf;
+            this.wide = wide;
+            this.cells = cells;
+            this.text = text;
+            this.start = start;
+            this.end = end;
+        }
+
+        public int length() {
+            return end - start;
+        }
+
+        public char charAt(int index) {
+            if (index < 0 || index >= end - start) {
+                throw new IndexOutOfBoundsException(String.valueOf(index));
+            }
+            table.checkOpen();
+            return (wide) ? buf.getChar(text + 2 * (start + index))
+                : (char)(buf.get(text + start + index) & 0xff);
+        }
+
+        public CharSequence subSequence(int s, int e) {
+            return toString().substring(s, e);
+        }
+
+        public String toString() {
+            table.checkOpen();
+            char[] cs = new char[end - start];
+            for (int i = 0; i < cs.length; i++) {
+                cs[i] = (wide) ? buf.getChar(text + 2 * (start + i))
+                    : (char)(buf.get(text + start + i) & 0xff);
+            }
+            return new String(cs);
+        }
+
+    }
+
+}
@@ -0,0 +1,520 @@
+/*
+ * $Id$
+ *
+ * Copyright(c) 2002 Infomata
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+package com.infomata.data;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Reads rows of a file in parallel.  The file is split into chunks of
+ * bytes that are parsed on a <code>ForkJoinPool</code>; each chunk yields
+ * the rows that start inside it.
+ * <p>
+ * For formats with quoted cells (CSV) a line break inside a chunk may
+ * belong to a cell, so the quotes in each chunk are counted first.  The
+ * parity of the quotes preceding a chunk tells whether its first byte is
+ * inside a quoted cell, and from there the first row boundary of the
+ * chunk is found exactly.
+ * </p>
+ * <p>
+ * Rows are returned either in file order, or in the order in which
+ * chunks finish parsing.  The number of chunks parsed ahead of the
+ * consumer is bounded to keep memory use in check.
+ * </p>
+ *
+ * @version $Revision$
+ */
+final class ParallelRowReader
+{
+
+    /**
+     * Default number of bytes in each chunk (8 MB).
+     */
+    static final int DEFAULT_CHUNK_SIZE = 8 << 20;
+
+    /**
+     * Number of bytes mapped past the end of a chunk, so that the last
+     * row of a chunk usually fits in its window.
+     */
+    private static final int SLACK = 64 << 10;
+
+    private RandomAccessFile file = null;
+    private FileChannel channel = null;
+    private ByteDataFormat format = null;
+    private Charset charset = null;
+    private boolean cellViews = false;
+    private ParseContext context = null;
+    private boolean[] projection = null;
+    private RowFilter filter = null;
+    private AtomicLong rejected = new AtomicLong();
+    private int quote = -1;
+
+    private ForkJoinPool pool = null;
+    private boolean ordered = true;
+    private long start = 0;
+    private int chunkSize = 0;
+    private int chunks = 0;
+    private int maxInFlight = 0;
+
+    /**
+     * Quote counting tasks, by chunk.
+     */
+    private ForkJoinTask[] counts = null;
+
+    /**
+     * Next chunk whose quotes are to be counted.
+     */
+    private int counted = 0;
+
+    /**
+     * Next chunk to parse.
+     */
+    private int scheduled = 0;
+
+    /**
+     * <code>true</code> if an odd number of quotes precedes chunk
+     * <code>scheduled</code>.
+     */
+    private boolean odd = false;
+
+    /**
+     * Parse tasks in file order (ordered mode).
+     */
+    private LinkedList pending = new LinkedList();
+
+    /**
+     * Finished chunks in completion order (unordered mode).
+     */
+    private LinkedBlockingQueue done = new LinkedBlockingQueue();
+
+    private int inFlight = 0;
+    private List current = null;
+    private int index = 0;
+
+    /**
+     * Creates a new <code>ParallelRowReader</code> instance.
+     *
+     * @param f file to read.
+     * @param start file offset of the first row to read.
+     * @param format format used to locate rows and cells.
+     * @param charset character set of the file.
+     * @param parallelism number of threads parsing the file.
+     * @param chunkSize number of bytes in each chunk.
+     * @param ordered <code>true</code> to return rows in file order.
+     * @throws IOException if the file cannot be opened.
+     */
+    ParallelRowReader(File f, long start, ByteDataFormat format,
+                      Charset charset, int parallelism, int chunkSize,
+                      boolean ordered) throws IOException
+    {
+        this.format = format;
+        this.charset = charset;
+        this.start = start;
+        this.chunkSize = chunkSize;
+        this.ordered = ordered;
+
+        format.setCharset(charset);
+        quote = format.getQuote();
+
+        file = new RandomAccessFile(f, "r");
+        channel = file.getChannel();
+
+        long len = Math.max(channel.size() - start, 0);
+        chunks = (int)((len + chunkSize - 1) / chunkSize);
+        counts = new ForkJoinTask[chunks];
+        maxInFlight = parallelism * 2;
+        pool = new ForkJoinPool(parallelism);
+    }
+
+    /**
+     * Specifies whether cells are kept as views of the mapped bytes.
+     *
+     * @param cellViews <code>true</code> to keep cells as views.
+     */
+    void setCellViews(boolean cellViews)
+    {
+        this.cellViews = cellViews;
+    }
+
+    /**
+     * Sets a condition on the rows returned.
+     *
+     * @param filter filter with all columns given by index, or
+     *               <code>null</code> to return all rows.
+     */
+    void setFilter(RowFilter filter)
+    {
+        this.filter = filter;
+    }
+
+    /**
+     * Retrieves the number of rows skipped by the filter in the chunks
+     * parsed so far.
+     *
+     * @return number of rows rejected.
+     */
+    long getRowsRejected()
+    {
+        return rejected.get();
+    }
+
+    /**
+     * Restricts decoding to the columns of a mask.
+     *
+     * @param projection mask of the columns to decode, or
+     *                   <code>null</code> for all columns.
+     */
+    void setProjection(boolean[] projection)
+    {
+        this.projection = projection;
+    }
+
+    /**
+     * Sets the parse context of the rows read.  Each chunk is parsed
+     * with its own copy (see {@link ParseContext#copy()}), so that the
+     * worker threads never share a <code>NumberFormat</code>.
+     *
+     * @param context parse context of the reader.
+     */
+    void setParseContext(ParseContext context)
+    {
+        this.context = context;
+    }
+
+    /**
+     * Reads the next row.
+     *
+     * @return next row of data or <code>null</code> at the end of file.
+     * @throws IOException if the file cannot be read or parsed.
+     */
+    DataRow next() throws IOException
+    {
+        while (current == null || index >= current.size())
+        {
+            current = null;
+            schedule();
+            if (inFlight == 0)
+            {
+                return null;
+            }
+            current = take();
+            index = 0;
+            inFlight--;
+        }
+
+        DataRow row = (DataRow)current.get(index);
+        current.set(index++, null);
+        return row;
+    }
+
+    /**
+     * Stops all parsing and releases the file.
+     *
+     * @throws IOException if the file fails to close.
+     */
+    void close() throws IOException
+    {
+        pool.shutdownNow();
+        pending.clear();
+        done.clear();
+        current = null;
+        file.close();
+    }
+
+    /**
+     * Helper method to start parsing chunks until the maximum number of
+     * chunks are in flight.
+     */
+    private void schedule() throws IOException
+    {
+        while (inFlight < maxInFlight && scheduled < chunks)
+        {
+            // count quotes ahead of the chunks being parsed.
+            int ahead = Math.min(chunks, scheduled + maxInFlight * 2);
+            while (quote >= 0 && counted < ahead)
+            {
+                counts[counted] = pool.submit(new CountTask(counted));
+                counted++;
+            }
+
+            if (scheduled > 0 && quote >= 0)
+            {
+                int n = ((Integer)join(counts[scheduled - 1])).intValue();
+                counts[scheduled - 1] = null;
+                odd ^= (n & 1) == 1;
+            }
+
+            ForkJoinTask task = pool.submit(new ParseTask(scheduled, odd));
+            if (ordered)
+            {
+                pending.addLast(task);
+            }
+            scheduled++;
+            inFlight++;
+        }
+    }
+
+    /**
+     * Helper method to retrieve the rows of the next finished chunk.
+     */
+    private List take() throws IOException
+    {
+        if (ordered)
+        {
+            return (List)join((ForkJoinTask)pending.removeFirst());
+        }
+
+        Object res = null;
+        try
+        {
+            res = done.take();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted while reading");
+        }
+        if (res instanceof Throwable)
+        {
+            throw asIOException((Throwable)res);
+        }
+        return (List)res;
+    }
+
+    private static Object join(ForkJoinTask task) throws IOException
+    {
+        try
+        {
+            return task.join();
+        }
+        catch (RuntimeException e)
+        {
+            throw asIOException(e);
+        }
+    }
+
+    private static IOException asIOException(Throwable t)
+    {
+        while (t instanceof RuntimeException && t.getCause() != null)
+        {
+            t = t.getCause();
+        }
+        if (t instanceof IOException)
+        {
+            return (IOException)t;
+        }
+        IOException e = new IOException("parallel read failed: " + t);
+        e.initCause(t);
+        return e;
+    }
+
+    /**
+     * Counts the quote bytes in one chunk.
+     */
+    private class CountTask implements Callable
+    {
+        private final int chunk;
+
+        CountTask(int chunk)
+        {
+            this.chunk = chunk;
+        }
+
+        public Object call() throws IOException
+        {
+            long from = start + (long)chunk * chunkSize;
+            long to = Math.min(from + chunkSize, channel.size());
+            return Integer.valueOf((int)countQuotes(channel, from, to, quote));
+        }
+    }
+
+    /**
+     * Parses the rows starting in one chunk.
+     */
+    private class ParseTask implements Callable
+    {
+        private final int chunk;
+        private final boolean odd;
+
+        ParseTask(int chunk, boolean odd)
+        {
+            this.chunk = chunk;
+            this.odd = odd;
+        }
+
+        public Object call() throws IOException
+        {
+            try
+            {
+                List rows = parse();
+                if (!ordered)
+                {
+                    done.add(rows);
+                }
+                return rows;
+            }
+            catch (IOException e)
+            {
+                if (!ordered)
+                {
+                    done.add(e);
+                }
+                throw e;
+            }
+            catch (RuntimeException e)
+            {
+                if (!ordered)
+                {
+                    done.add(e);
+                }
+                throw e;
+            }
+        }
+
+        private List parse() throws IOException
+        {
+            long from = start + (long)chunk * chunkSize;
+            long end = Math.min(from + chunkSize, channel.size());
+            List rows = new ArrayList();
+
+            // map from the byte before the chunk to find the first
+            // row boundary.
+            long base = (chunk == 0) ? from : from - 1;
+            MappedFileInput in = new MappedFileInput(channel, base,
+                    (int)(end - base) + SLACK);
+
+            long first = (chunk == 0) ? from : findRowStart(in, end, odd, quote);
+            if (first < end)
+            {
+                ByteRowReader reader = new ByteRowReader(in, format, charset);
+                reader.setCellViews(cellViews);
+                // each task parses with its own formats, which are not
+                // thread safe
+                reader.setParseContext((context != null) ? context.copy() : null);
+                reader.setProjection(projection);
+                reader.setFilter(filter);
+                reader.seek(first);
+                for (DataRow row = reader.next(null, end); row != null;
+                     row = reader.next(null, end))
+                {
+                    rows.add(row);
+                }
+                rejected.addAndGet(reader.getRowsRejected());
+            }
+            in.close();
+            return rows;
+        }
+    }
+
+    /**
+     * Finds the first row boundary after the first byte of a window,
+     * scanning from that byte.
+     *
+     * @param in input whose window starts at the byte before the
+     *           range searched.
+     * @param end offset at which to stop searching.
+     * @param odd <code>true</code> if an odd number of quotes precedes
+     *            the byte after the first byte of the window (counting
+     *            the first byte).
+     * @param quote quote byte of the format, or <code>-1</code>.
+     * @return offset of the first row boundary, or <code>end</code>
+     *         if there is none before it.
+     * @throws IOException if the file cannot be mapped.
+     */
+    static long findRowStart(MappedFileInput in, long end, boolean odd,
+                             int quote) throws IOException
+    {
+        ByteBuffer buf = in.window();
+        boolean quoted = odd ^ (quote >= 0 && buf.get(0) == quote);
+        for (long pos = in.base(); pos < end; pos++)
+        {
+            int i = (int)(pos - in.base());
+            if (i >= buf.limit())
+            {
+                in.moveTo(pos);
+                buf = in.window();
+                i = 0;
+            }
+            byte b = buf.get(i);
+            if (quote >= 0 && b == quote)
+            {
+                quoted = !quoted;
+            }
+            else if (!quoted && (b == '\n' || b == '\r'))
+            {
+                long next = pos + 1;
+                if (b == '\r' && next < in.size() && byteAt(in, next) == '\n')
+                {
+                    next++;
+                }
+                return next;
+            }
+        }
+        return end;
+    }
+
+    private static byte byteAt(MappedFileInput in, long pos) throws IOException
+    {
+        long i = pos - in.base();
+        if (i >= in.window().limit())
+        {
+            in.moveTo(pos);
+            i = 0;
+        }
+        return in.window().get((int)i);
+    }
+
+    /**
+     * Counts the quote bytes in a range of a file.
+     *
+     * @param channel channel of the file.
+     * @param from offset of the first byte to scan.
+     * @param to offset after the last byte to scan.
+     * @param quote quote byte.
+     * @return number of quote bytes.
+     * @throws IOException if the file cannot be mapped.
+     */
+    static long countQuotes(FileChannel channel, long from, long to,
+                            int quote) throws IOException
+    {
+        long n = 0;
+        while (from < to)
+        {
+            int len = (int)Math.min(to - from, 1 << 30);
+            ByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, from, len);
+            n += StructuralScanner.getInstance().count(buf, 0, len, (byte)quote);
+            from += len;
+        }
+        return n;
+    }
+
+}
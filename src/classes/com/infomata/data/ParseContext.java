@@ -0,0 +1,184 @@
+/*
+ * $Id$
+ *
+ * Copyright(c) 2002 Infomata
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+package com.infomata.data;
+
+import java.text.NumberFormat;
+import java.text.SimpleDateFormat;
+
+/**
+ * Number and date parsing state shared by all rows read by one
+ * {@link com.infomata.data.DataFile}.  Rows created with a context take
+ * their <code>NumberFormat</code> and <code>SimpleDateFormat</code> from
+ * it instead of building their own, so reading a line no longer
+ * constructs locale dependent format objects.
+ * <p>
+ * Like the format objects it holds, a context is not thread safe: rows
+ * sharing a context must not be parsed concurrently.
+ * </p>
+ *
+ * @see com.infomata.data.AbstractDataFormat#setParseContext(ParseContext)
+ * @version $Revision$
+ */
+public class ParseContext {
+
+    /**
+     * <code>NumberFormat</code> instance used to parse
+     * numeric values (created on first use if not set).
+     */
+    private NumberFormat nf = null;
+
+    /**
+     * Parser following the rules of <code>nf</code>
+     * (created on first use).
+     */
+    private NumberParser parser = null;
+
+    /**
+     * SimpleDateFormat instance used to parse date items.
+     */
+    private SimpleDateFormat df = null;
+
+    /**
+     * Pattern currently applied to <code>df</code>.
+     */
+    private String pattern = null;
+
+    /**
+     * Metrics counting the cells that fail to parse, or
+     * <code>null</code>.
+     */
+    private DataFileStats stats = null;
+
+    /**
+     * Creates a new <code>ParseContext</code> instance.
+     * Uses JVM's locale for parsing numbers.
+     */
+    public ParseContext() {
+        this(null);
+    }
+
+    /**
+     * Creates a new <code>ParseContext</code> instance.
+     *
+     * @param format <code>NumberFormat</code> used to parse numbers,
+     *               or <code>null</code> to use JVM's locale.
+     */
+    public ParseContext(NumberFormat format) {
+        setNumberFormat(format);
+    }
+
+    /**
+     * Retrieves the <code>NumberFormat</code> used to parse numbers.
+     *
+     * @return shared number format.
+     */
+    public NumberFormat getNumberFormat() {
+        if (nf == null) {
+            nf = createNumberFormat();
+        }
+        return nf;
+    }
+
+    /**
+     * Sets the <code>NumberFormat</code> used to parse numbers.
+     *
+     * @param format number format, or <code>null</code> to use
+     *               JVM's locale.
+     */
+    public void setNumberFormat(NumberFormat format) {
+        nf = format;
+        parser = null;
+    }
+
+    /**
+     * Retrieves the parser following the rules of the
+     * <code>NumberFormat</code> of this context.
+     *
+     * @return shared number parser.
+     */
+    NumberParser getNumberParser() {
+        if (parser == null) {
+            parser = NumberParser.forFormat(getNumberFormat());
+        }
+        return parser;
+    }
+
+    /**
+     * Sets the metrics counting the cells that fail to parse.
+     *
+     * @param stats metrics of the file, or <code>null</code>.
+     */
+    void setStats(DataFileStats stats) {
+        this.stats = stats;
+    }
+
+    /**
+     * Records a cell that could not be converted by a typed accessor.
+     */
+    void parseFailed() {
+        if (stats != null) {
+            stats.parseError();
+        }
+    }
+
+    /**
+     * Retrieves the shared <code>SimpleDateFormat</code> with the
+     * specified pattern applied.  The pattern is only compiled
+     * again when it differs from the one used last.
+     *
+     * @param pattern date format pattern.
+     * @return shared date format.
+     */
+    SimpleDateFormat getDateFormat(String pattern) {
+        if (df == null) {
+            df = new SimpleDateFormat(pattern);
+        }
+        else if (!pattern.equals(this.pattern)) {
+            df.applyPattern(pattern);
+        }
+        this.pattern = pattern;
+        return df;
+    }
+
+    /**
+     * Creates a context with the same rules for use by another thread:
+     * it holds a clone of the <code>NumberFormat</code> and records
+     * parse errors in the same metrics.
+     *
+     * @return new context.
+     */
+    ParseContext copy() {
+        ParseContext c = new ParseContext((NumberFormat)getNumberFormat().clone());
+        c.stats = stats;
+        return c;
+    }
+
+    /**
+     * Creates the default <code>NumberFormat</code> for JVM's locale.
+     *
+     * @return new number format.
+     */
+    static NumberFormat createNumberFormat() {
+        NumberFormat format = NumberFormat.getInstance();
+        format.setMaximumFractionDigits(50);
+        return format;
+    }
+
+}
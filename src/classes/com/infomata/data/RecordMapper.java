@@ -0,0 +1,515 @@
+/*
+ * $Id$
+ *
+ * Copyright(c) 2002 Infomata
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+package com.infomata.data;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.RecordComponent;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Hashtable;
+import java.util.List;
+
+/**
+ * Converts rows into instances of a record type or of a plain class.
+ * Properties (record components, or fields of a class set through
+ * their setter if there is one) are bound to columns by header label
+ * or by index:
+ * <pre class="example">
+ * RecordMapper mapper = new RecordMapper(Trade.class);
+ * mapper.bind("trade id", "id");
+ * mapper.bind(4, "price");
+ * reader.setRecordMapper(mapper);
+ * reader.open(file);
+ * for (Trade t = (Trade)reader.nextRecord(); t != null;
+ *      t = (Trade)reader.nextRecord()) {
+ *     ...
+ * }
+ * </pre>
+ * Without explicit bindings, each property is bound to the column whose
+ * label equals the property name (ignoring case), and the components of
+ * a record in a file without a header row are bound to the columns in
+ * order.
+ * <p>
+ * The constructor and setters are looked up once, as method handles,
+ * and labels are resolved to column indexes once per file, so mapping
+ * a row only parses its cells and assigns them.  Supported property
+ * types are <code>String</code>, <code>CharSequence</code>,
+ * <code>int</code>, <code>long</code>, <code>double</code>,
+ * <code>float</code>, <code>boolean</code>, their wrappers and
+ * <code>BigDecimal</code>.  Numbers are parsed as by
+ * {@link DataRow#getInt(int, int)} and the like (0 when not a number);
+ * wrappers and <code>BigDecimal</code> are <code>null</code> for empty
+ * cells.  Booleans are true for "true", "yes", "y" and "1".
+ * </p>
+ * <p>
+ * A mapper holds the column positions of the file being read and must
+ * not be used by several readers at once.
+ * </p>
+ *
+ * @see com.infomata.data.DataFileReader#setRecordMapper(RecordMapper)
+ * @version $Revision$
+ */
+public class RecordMapper {
+
+    private static final int STRING = 0;
+    private static final int CHARS = 1;
+    private static final int INT = 2;
+    private static final int LONG = 3;
+    private static final int DOUBLE = 4;
+    private static final int FLOAT = 5;
+    private static final int BOOLEAN = 6;
+    private static final int DECIMAL = 7;
+
+    /**
+     * Type of the instances created.
+     */
+    private final Class type;
+
+    /**
+     * Flag that indicates whether the type is a record.
+     */
+    private final boolean record;
+
+    /**
+     * Properties by name, in declaration order.
+     */
+    private final List properties = new ArrayList();
+    private final Hashtable byName = new Hashtable();
+
+    /**
+     * Creates the instances: takes an <code>Object[]</code> of
+     * component values for a record, no arguments for a class.
+     */
+    private final MethodHandle constructor;
+
+    /**
+     * Explicit bindings: property name to <code>Integer</code> column
+     * or <code>String</code> label.
+     */
+    private final Hashtable bindings = new Hashtable();
+
+    /**
+     * Properties bound in the file being read, with their columns.
+     */
+    private Property[] bound = new Property[0];
+    private int[] columns = new int[0];
+
+    /**
+     * Creates a mapper to the specified type, which must be a record or
+     * a class with a constructor taking no arguments.
+     *
+     * @param type type of the instances created.
+     * @throws IllegalArgumentException if the type cannot be created or
+     *         has a property of an unsupported type.
+     */
+    public RecordMapper(Class type) {
+        this.type = type;
+        this.record = type.isRecord();
+        MethodHandles.Lookup lookup = MethodHandles.lookup();
+        try {
+            if (record) {
+                RecordComponent[] rc = type.getRecordComponents();
+                Class[] types = new Class[rc.length];
+                for (int i = 0; i < rc.length; i++) {
+                    types[i] = rc[i].getType();
+                    add(new Property(rc[i].getName(), types[i], i, null));
+                }
+                Constructor c = type.getDeclaredConstructor(types);
+                c.setAccessible(true);
+                constructor = lookup.unreflectConstructor(c)
+                    .asSpreader(Object[].class, rc.length)
+                    .asType(MethodType.methodType(Object.class,
+                                                  Object[].class));
+            }
+            else {
+                Constructor c = type.getDeclaredConstructor(new Class[0]);
+                c.setAccessible(true);
+                constructor = lookup.unreflectConstructor(c)
+                    .asType(MethodType.methodType(Object.class));
+                for (Class k = type; k != null && k != Object.class;
+                     k = k.getSuperclass()) {
+                    Field[] fields = k.getDeclaredFields();
+                    for (int i = 0; i < fields.length; i++) {
+                        int mod = fields[i].getModifiers();
+                        if (!Modifier.isStatic(mod) && !Modifier.isFinal(mod)
+                            && !fields[i].isSynthetic()
+                            && byName.get(fields[i].getName()) == null) {
+                            add(new Property(fields[i].getName(),
+                                             fields[i].getType(), -1,
+                                             fields[i]));
+                        }
+                    }
+                }
+            }
+        }
+        catch (NoSuchMethodException e) {
+            throw new IllegalArgumentException(type.getName()
+                + " is neither a record nor has a constructor without arguments.");
+        }
+        catch (IllegalAccessException e) {
+            throw new IllegalArgumentException("Cannot access " + type.getName()
+                                               + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Binds a property to the column with the specified label.
+     *
+     * @param label column label (header)
+     * @param property name of the record component or field.
+     * @return this mapper.
+     * @throws IllegalArgumentException if there is no such property.
+     */
+    public RecordMapper bind(String label, String property) {
+        bindings.put(property(property).name, label);
+        return this;
+    }
+
+    /**
+     * Binds a property to the column at the specified index.
+     *
+     * @param column column index (starts at zero)
+     * @param property name of the record component or field.
+     * @return this mapper.
+     * @throws IllegalArgumentException if there is no such property.
+     */
+    public RecordMapper bind(int column, String property) {
+        if (column < 0) {
+            throw new IllegalArgumentException("negative column: " + column);
+        }
+        bindings.put(property(property).name, Integer.valueOf(column));
+        return this;
+    }
+
+    /**
+     * Retrieves the type of the instances created.
+     *
+     * @return record or class mapped to.
+     */
+    public Class getType() {
+        return type;
+    }
+
+    /**
+     * Resolves the bindings against the header row of a file, so that
+     * rows of the file can be mapped.
+     *
+     * @param header column labels, or <code>null</code> if the file has
+     *               no header row.
+     * @throws IllegalArgumentException if a bound label is not in the
+     *         header, or nothing can be bound.
+     */
+    void resolve(List header) {
+        List props = new ArrayList();
+        List cols = new ArrayList();
+        for (int i = 0; i < properties.size(); i++) {
+            Property p = (Property)properties.get(i);
+            int col = column(p, i, header);
+            if (col >= 0) {
+                props.add(p);
+                cols.add(Integer.valueOf(col));
+            }
+        }
+        if (props.isEmpty()) {
+            throw new IllegalArgumentException("No column is bound to "
+                                               + type.getName());
+        }
+        bound = (Property[])props.toArray(new Property[props.size()]);
+        columns = new int[cols.size()];
+        for (int i = 0; i < columns.length; i++) {
+            columns[i] = ((Integer)cols.get(i)).intValue();
+        }
+    }
+
+    /**
+     * Adds the resolved columns, as <code>Integer</code>s, to a list.
+     */
+    void columns(List list) {
+        for (int i = 0; i < columns.length; i++) {
+            list.add(Integer.valueOf(columns[i]));
+        }
+    }
+
+    /**
+     * Creates an instance from a row, using the columns resolved by
+     * {@link #resolve(List)}.  Properties that are not bound keep their
+     * default value (record components get 0, <code>false</code> or
+     * <code>null</code>).
+     *
+     * @param row row of data.
+     * @return new instance.
+     * @throws IllegalArgumentException if the constructor or a setter
+     *         fails with a checked exception.
+     */
+    public Object map(DataRow row) {
+        try {
+            if (record) {
+                Object[] args = new Object[properties.size()];
+                for (int i = 0; i < args.length; i++) {
+                    args[i] = ((Property)properties.get(i)).empty;
+                }
+                for (int i = 0; i < bound.length; i++) {
+                    args[bound[i].index] = bound[i].value(row, columns[i]);
+                }
+                return (Object)constructor.invokeExact(args);
+            }
+
+            Object o = (Object)constructor.invokeExact();
+            for (int i = 0; i < bound.length; i++) {
+                bound[i].set(o, row, columns[i]);
+            }
+            return o;
+        }
+        catch (RuntimeException e) {
+            throw e;
+        }
+        catch (Error e) {
+            throw e;
+        }
+        catch (Throwable t) {
+            IllegalArgumentException e = new IllegalArgumentException(
+                "Cannot create " + type.getName() + ": " + t);
+            e.initCause(t);
+            throw e;
+        }
+    }
+
+    /**
+     * Helper method to find the column of a property.
+     *
+     * @return column index, or <code>-1</code> if not bound.
+     */
+    private int column(Property p, int position, List header) {
+        Object b = bindings.get(p.name);
+        if (b instanceof Integer) {
+            return ((Integer)b).intValue();
+        }
+        if (b != null) {
+            int col = (header == null) ? -1 : header.indexOf(b);
+            if (col < 0) {
+                throw new IllegalArgumentException("No such column: " + b);
+            }
+            return col;
+        }
+        if (!bindings.isEmpty()) {
+            return -1;
+        }
+        if (header == null) {
+            return (record) ? position : -1;
+        }
+        for (int i = 0; i < header.size(); i++) {
+            Object label = header.get(i);
+            if (label != null && p.name.equalsIgnoreCase(label.toString())) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private void add(Property p) {
+        properties.add(p);
+        byName.put(p.name, p);
+    }
+
+    private Property property(String name) {
+        Property p = (Property)byName.get(name);
+        if (p == null) {
+            throw new IllegalArgumentException(type.getName()
+                + " has no property " + name);
+        }
+        return p;
+    }
+
+    /**
+     * Helper method to classify a property type.
+     */
+    private static int kind(Class c) {
+        if (c == String.class || c == Object.class) {
+            return STRING;
+        }
+        if (c == CharSequence.class) {
+            return CHARS;
+        }
+        if (c == int.class || c == Integer.class) {
+            return INT;
+        }
+        if (c == long.class || c == Long.class) {
+            return LONG;
+        }
+        if (c == double.class || c == Double.class) {
+            return DOUBLE;
+        }
+        if (c == float.class || c == Float.class) {
+            return FLOAT;
+        }
+        if (c == boolean.class || c == Boolean.class) {
+            return BOOLEAN;
+        }
+        if (c == BigDecimal.class) {
+            return DECIMAL;
+        }
+        return -1;
+    }
+
+    /**
+     * Record component or field of the mapped type.
+     */
+    private final class Property {
+
+        final String name;
+        final int kind;
+        final boolean primitive;
+
+        /**
+         * Position of a record component, or <code>-1</code>.
+         */
+        final int index;
+
+        /**
+         * Value of an unbound record component.
+         */
+        final Object empty;
+
+        /**
+         * Setter taking the instance and the value (of the exact
+         * primitive type for primitive fields), or <code>null</code>
+         * for record components.
+         */
+        final MethodHandle setter;
+
+        Property(String name, Class c, int index, Field field)
+            throws IllegalAccessException {
+            this.name = name;
+            this.kind = kind(c);
+            this.primitive = c.isPrimitive();
+            this.index = index;
+            if (kind < 0) {
+                throw new IllegalArgumentException("Unsupported type "
+                    + c.getName() + " of " + type.getName() + "." + name);
+            }
+            empty = (primitive) ? value("") : null;
+            setter = (field == null) ? null : setter(field);
+        }
+
+        private MethodHandle setter(Field field) throws IllegalAccessException {
+            MethodHandles.Lookup lookup = MethodHandles.lookup();
+            Class c = field.getType();
+            MethodHandle mh = null;
+            String set = "set" + Character.toUpperCase(name.charAt(0))
+                + name.substring(1);
+            try {
+                Method m = type.getMethod(set, new Class[] { c });
+                mh = lookup.unreflect(m);
+            }
+            catch (NoSuchMethodException e) {
+                field.setAccessible(true);
+                mh = lookup.unreflectSetter(field);
+            }
+            Class arg = (primitive) ? c : Object.class;
+            return mh.asType(MethodType.methodType(void.class, Object.class,
+                                                   arg));
+        }
+
+        /**
+         * Converts a cell into the value of the property (boxed).
+         */
+        Object value(DataRow row, int col) {
+            CharSequence cs = row.getCharSequence(col);
+            if (!primitive && kind != STRING && kind != CHARS
+                && NumberParser.isBlank(cs)) {
+                return null;
+            }
+            switch (kind) {
+            case STRING:
+                return row.getString(col);
+            case CHARS:
+                return cs;
+            case INT:
+                return Integer.valueOf(row.getInt(col, 0));
+            case LONG:
+                return Long.valueOf(row.getLong(col, 0L));
+            case DOUBLE:
+                return Double.valueOf(row.getDouble(col, 0d));
+            case FLOAT:
+                return Float.valueOf((float)row.getDouble(col, 0d));
+            case BOOLEAN:
+                return Boolean.valueOf(toBoolean(cs));
+            default:
+                return toDecimal(cs);
+            }
+        }
+
+        private Object value(String cell) {
+            DataRow row = new DataRow();
+            row.add(cell);
+            return value(row, 0);
+        }
+
+        /**
+         * Assigns a cell to the property of an instance, without boxing
+         * for primitive fields.
+         */
+        void set(Object o, DataRow row, int col) throws Throwable {
+            if (!primitive) {
+                setter.invokeExact(o, value(row, col));
+                return;
+            }
+            switch (kind) {
+            case INT:
+                setter.invokeExact(o, row.getInt(col, 0));
+                break;
+            case LONG:
+                setter.invokeExact(o, row.getLong(col, 0L));
+                break;
+            case DOUBLE:
+                setter.invokeExact(o, row.getDouble(col, 0d));
+                break;
+            case FLOAT:
+                setter.invokeExact(o, (float)row.getDouble(col, 0d));
+                break;
+            default:
+                setter.invokeExact(o, toBoolean(row.getCharSequence(col)));
+                break;
+            }
+        }
+    }
+
+    private static boolean toBoolean(CharSequence cs) {
+        String s = cs.toString().trim();
+        return s.equalsIgnoreCase("true") || s.equalsIgnoreCase("yes")
+            || s.equalsIgnoreCase("y") || s.equals("1");
+    }
+
+    private static BigDecimal toDecimal(CharSequence cs) {
+        try {
+            return new BigDecimal(cs.toString().trim());
+        }
+        catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+}
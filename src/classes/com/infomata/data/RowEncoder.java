@@ -0,0 +1,237 @@
+/*
+ * $Id$
+ *
+ * Copyright(c) 2002 Infomata
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+package com.infomata.data;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+
+/**
+ * Formats rows into a reused character buffer and encodes the buffer in
+ * bulk into a reused byte buffer for
+ * {@link com.infomata.data.DataFileWriter}.
+ * <p>
+ * Rows are appended to the character buffer together with their line
+ * separator; once it holds {@link #CHUNK} characters it is encoded
+ * with one call to the same <code>CharsetEncoder</code>, and full
+ * byte buffers are written to the output stream.  Characters that
+ * cannot be encoded are replaced, as <code>OutputStreamWriter</code>
+ * does.
+ * </p>
+ * <p>
+ * With a {@link com.infomata.data.CellDataFormat} rows can also be
+ * written one cell at a time with {@link #cell(CharSequence)} and
+ * {@link #endRow()}.
+ * </p>
+ *
+ * @version $Revision$
+ */
+final class RowEncoder
+{
+
+    /**
+     * Number of formatted characters encoded at a time.
+     */
+    static final int CHUNK = 8192;
+
+    private static final String NEW_LINE = System.getProperty("line.separator");
+
+    private final OutputStream out;
+    private final BufferDataFormat format;
+    private final CellDataFormat cells;
+    private final CharsetEncoder encoder;
+    private final FormatBuffer chars = new FormatBuffer(CHUNK + 256);
+    private final ByteBuffer bytes;
+
+    /**
+     * Index of the next cell of the row written cell by cell.
+     */
+    private int column = 0;
+
+    /**
+     * Creates a new <code>RowEncoder</code> instance.
+     *
+     * @param out stream the encoded rows are written to (closed by
+     *            {@link #close()}).
+     * @param charset character set of the file.
+     * @param format format of the rows.
+     * @param bufferSize size of the byte buffer written at a time.
+     */
+    RowEncoder(OutputStream out, Charset charset, DataFormat format, int bufferSize)
+    {
+        this.out = out;
+        this.format = StringFormatAdapter.of(format);
+        this.cells = (this.format instanceof CellDataFormat)
+            ? (CellDataFormat)this.format : null;
+        this.encoder = charset.newEncoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        this.bytes = ByteBuffer.allocate(Math.max(bufferSize,
+            (int)Math.ceil(encoder.maxBytesPerChar() * 64)));
+    }
+
+    /**
+     * Formats a row followed by a line separator, after ending the
+     * row written cell by cell, if any.  An empty row is written as
+     * an empty line.
+     *
+     * @param row row to write.
+     * @throws IOException if writing buffered rows fails.
+     */
+    void write(DataRow row) throws IOException
+    {
+        if (column > 0)
+        {
+            endRow();
+        }
+        if (row.size() > 0)
+        {
+            format.format(row, chars);
+        }
+        chars.append(NEW_LINE);
+        if (chars.length() >= CHUNK)
+        {
+            encode(false);
+        }
+    }
+
+    /**
+     * @return <code>true</code> if rows can be written cell by cell.
+     */
+    boolean formatsCells()
+    {
+        return cells != null;
+    }
+
+    /**
+     * @return <code>true</code> if cells of an unfinished row were
+     *         written.
+     */
+    boolean inRow()
+    {
+        return column > 0;
+    }
+
+    /**
+     * Formats the next cell of the current row.  Only valid if
+     * {@link #formatsCells()}.
+     *
+     * @param cell value of the cell, or <code>null</code>.
+     */
+    void cell(CharSequence cell)
+    {
+        cells.formatCell(cell, column++, chars);
+    }
+
+    /**
+     * Ends the row written cell by cell with a line separator.
+     *
+     * @throws IOException if writing buffered rows fails.
+     */
+    void endRow() throws IOException
+    {
+        column = 0;
+        chars.append(NEW_LINE);
+        if (chars.length() >= CHUNK)
+        {
+            encode(false);
+        }
+    }
+
+    /**
+     * Encodes and writes all buffered rows.
+     *
+     * @throws IOException if writing fails.
+     */
+    void flush() throws IOException
+    {
+        encode(false);
+        drain();
+        out.flush();
+    }
+
+    /**
+     * Encodes and writes all buffered rows and closes the output
+     * stream.
+     *
+     * @throws IOException if writing fails.
+     */
+    void close() throws IOException
+    {
+        try
+        {
+            if (column > 0)
+            {
+                endRow();
+            }
+            encode(true);
+            while (encoder.flush(bytes).isOverflow())
+            {
+                drain();
+            }
+            drain();
+        }
+        finally
+        {
+            out.close();
+        }
+    }
+
+    /**
+     * Helper method to encode the buffered characters.  Unless at the
+     * end of input, a trailing high surrogate is kept for the next
+     * call.
+     */
+    private void encode(boolean end) throws IOException
+    {
+        CharBuffer in = CharBuffer.wrap(chars.array(), 0, chars.length());
+        for (;;)
+        {
+            CoderResult r = encoder.encode(in, bytes, end);
+            if (r.isOverflow())
+            {
+                drain();
+            }
+            else
+            {
+                break;
+            }
+        }
+        chars.remove(in.position());
+    }
+
+    /**
+     * Helper method to write the encoded bytes.
+     */
+    private void drain() throws IOException
+    {
+        if (bytes.position() > 0)
+        {
+            out.write(bytes.array(), 0, bytes.position());
+            bytes.clear();
+        }
+    }
+
+}
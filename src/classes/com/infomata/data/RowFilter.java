@@ -0,0 +1,533 @@
+/*
+ * $Id$
+ *
+ * Copyright(c) 2002 Infomata
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+package com.infomata.data;
+
+import java.text.NumberFormat;
+import java.text.ParsePosition;
+import java.util.List;
+
+/**
+ * Condition on the cells of a row, evaluated by
+ * {@link com.infomata.data.DataFileReader} while reading so that rows
+ * that do not match are skipped.  With formats scanning bytes, the
+ * cells are compared in place in the bytes read, and no
+ * <code>DataRow</code> is built for rows that do not match.
+ * <p>
+ * Conditions are created with the static methods of this class, on
+ * columns given by index or by header label, and combined with
+ * {@link #and(RowFilter, RowFilter)}, {@link #or(RowFilter, RowFilter)}
+ * and {@link #not(RowFilter)}:
+ * </p>
+ * <pre class="example">
+ * reader.setFilter(RowFilter.and(RowFilter.eq("country", "HU"),
+ *                                RowFilter.range("price", 10, 99.5)));
+ * </pre>
+ * <p>
+ * Text is compared with the content of the cell as read (after
+ * unquoting).  A missing cell is empty.
+ * </p>
+ *
+ * @see com.infomata.data.DataFileReader#setFilter(RowFilter)
+ * @version $Revision$
+ */
+public abstract class RowFilter {
+
+    /**
+     * Cells of the row being filtered.
+     */
+    interface Cells {
+
+        /**
+         * Retrieves the content of a cell.
+         *
+         * @param column index of the cell.
+         * @return content of the cell, or an empty sequence if the row
+         *         has no such cell.
+         */
+        CharSequence get(int column);
+    }
+
+    /**
+     * Only subclassed in this package.
+     */
+    RowFilter() {
+    }
+
+    /**
+     * Creates a filter matching rows whose cell equals a value.
+     *
+     * @param column column index (starts at zero)
+     * @param value value of the cell.
+     * @return filter.
+     */
+    public static RowFilter eq(int column, String value) {
+        return new Equals(column, null, value);
+    }
+
+    /**
+     * Creates a filter matching rows whose cell equals a value.
+     *
+     * @param label column label (header)
+     * @param value value of the cell.
+     * @return filter.
+     */
+    public static RowFilter eq(String label, String value) {
+        return new Equals(-1, label, value);
+    }
+
+    /**
+     * Creates a filter matching rows whose cell starts with a prefix.
+     *
+     * @param column column index (starts at zero)
+     * @param prefix start of the cell.
+     * @return filter.
+     */
+    public static RowFilter prefix(int column, String prefix) {
+        return new Prefix(column, null, prefix);
+    }
+
+    /**
+     * Creates a filter matching rows whose cell starts with a prefix.
+     *
+     * @param label column label (header)
+     * @param prefix start of the cell.
+     * @return filter.
+     */
+    public static RowFilter prefix(String label, String prefix) {
+        return new Prefix(-1, label, prefix);
+    }
+
+    /**
+     * Creates a filter matching rows whose cell holds a number in a
+     * range (bounds included).  Numbers are parsed with the number
+     * format of the reader; cells that are not numbers do not match.
+     *
+     * @param column column index (starts at zero)
+     * @param min lowest value.
+     * @param max highest value.
+     * @return filter.
+     */
+    public static RowFilter range(int column, double min, double max) {
+        return new Range(column, null, min, max);
+    }
+
+    /**
+     * Creates a filter matching rows whose cell holds a number in a
+     * range (bounds included).
+     *
+     * @param label column label (header)
+     * @param min lowest value.
+     * @param max highest value.
+     * @return filter.
+     * @see #range(int, double, double)
+     */
+    public static RowFilter range(String label, double min, double max) {
+        return new Range(-1, label, min, max);
+    }
+
+    /**
+     * Creates a filter matching rows whose cell equals one of a set of
+     * values.
+     *
+     * @param column column index (starts at zero)
+     * @param values values of the cell.
+     * @return filter.
+     */
+    public static RowFilter in(int column, String[] values) {
+        return new In(column, null, values);
+    }
+
+    /**
+     * Creates a filter matching rows whose cell equals one of a set of
+     * values.
+     *
+     * @param label column label (header)
+     * @param values values of the cell.
+     * @return filter.
+     */
+    public static RowFilter in(String label, String[] values) {
+        return new In(-1, label, values);
+    }
+
+    /**
+     * Creates a filter matching rows whose cell is empty or missing.
+     *
+     * @param column column index (starts at zero)
+     * @return filter.
+     */
+    public static RowFilter isEmpty(int column) {
+        return new Empty(column, null);
+    }
+
+    /**
+     * Creates a filter matching rows whose cell is empty or missing.
+     *
+     * @param label column label (header)
+     * @return filter.
+     */
+    public static RowFilter isEmpty(String label) {
+        return new Empty(-1, label);
+    }
+
+    /**
+     * Creates a filter matching rows matched by both filters.  The
+     * second filter is only evaluated if the first matches.
+     *
+     * @param a first filter.
+     * @param b second filter.
+     * @return filter.
+     */
+    public static RowFilter and(RowFilter a, RowFilter b) {
+        return new And(a, b);
+    }
+
+    /**
+     * Creates a filter matching rows matched by either filter.  The
+     * second filter is only evaluated if the first does not match.
+     *
+     * @param a first filter.
+     * @param b second filter.
+     * @return filter.
+     */
+    public static RowFilter or(RowFilter a, RowFilter b) {
+        return new Or(a, b);
+    }
+
+    /**
+     * Creates a filter matching rows not matched by a filter.
+     *
+     * @param f filter to negate.
+     * @return filter.
+     */
+    public static RowFilter not(RowFilter f) {
+        return new Not(f);
+    }
+
+    /**
+     * Evaluates the filter.
+     *
+     * @param row cells of the row.
+     * @param context number parsing state, or <code>null</code>.
+     * @return <code>true</code> if the row matches.
+     */
+    abstract boolean matches(Cells row, ParseContext context);
+
+    /**
+     * Resolves the column labels of the filter against a header row.
+     *
+     * @param header column labels, or <code>null</code> if the file
+     *               has no header row.
+     * @return filter in which all columns are given by index.
+     * @throws IllegalArgumentException if a label is not in the header.
+     */
+    abstract RowFilter bind(List header);
+
+    /**
+     * Adds the indexes of the columns tested by the filter to a list.
+     *
+     * @param columns list of <code>Integer</code> column indexes.
+     */
+    abstract void columns(List columns);
+
+    /**
+     * Evaluates the filter on a row that has been built.
+     *
+     * @param row row of data.
+     * @param context number parsing state, or <code>null</code>.
+     * @return <code>true</code> if the row matches.
+     */
+    boolean matches(final DataRow row, ParseContext context) {
+        return matches(new Cells() {
+            public CharSequence get(int column) {
+                return row.getCharSequence(column);
+            }
+        }, context);
+    }
+
+    /**
+     * Helper method to compare a cell with a value.
+     */
+    static boolean equal(CharSequence cs, String value) {
+        int len = value.length();
+        if (cs.length() != len) {
+            return false;
+        }
+        for (int i = 0; i < len; i++) {
+            if (cs.charAt(i) != value.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Condition on one cell.
+     */
+    private abstract static class CellFilter extends RowFilter
+        implements Cloneable {
+
+        int column;
+        final String label;
+
+        CellFilter(int column, String label) {
+            if (label == null && column < 0) {
+                throw new IllegalArgumentException("negative column: "
+                                                   + column);
+            }
+            this.column = column;
+            this.label = label;
+        }
+
+        RowFilter bind(List header) {
+            if (label == null) {
+                return this;
+            }
+            int idx = (header == null) ? -1 : header.indexOf(label);
+            if (idx < 0) {
+                throw new IllegalArgumentException("No such column: "
+                                                   + label);
+            }
+            try {
+                CellFilter f = (CellFilter)clone();
+                f.column = idx;
+                return f;
+            }
+            catch (CloneNotSupportedException e) {
+                throw new IllegalStateException(e.toString());
+            }
+        }
+
+        void columns(List columns) {
+            columns.add(Integer.valueOf(column));
+        }
+
+        boolean matches(Cells row, ParseContext context) {
+            return matches(row.get(column), context);
+        }
+
+        abstract boolean matches(CharSequence cell, ParseContext context);
+    }
+
+    private static final class Equals extends CellFilter {
+
+        private final String value;
+
+        Equals(int column, String label, String value) {
+            super(column, label);
+            this.value = value;
+        }
+
+        boolean matches(CharSequence cell, ParseContext context) {
+            return equal(cell, value);
+        }
+    }
+
+    private static final class Prefix extends CellFilter {
+
+        private final String prefix;
+
+        Prefix(int column, String label, String prefix) {
+            super(column, label);
+            this.prefix = prefix;
+        }
+
+        boolean matches(CharSequence cell, ParseContext context) {
+            int len = prefix.length();
+            if (cell.length() < len) {
+                return false;
+            }
+            for (int i = 0; i < len; i++) {
+                if (cell.charAt(i) != prefix.charAt(i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    private static final class Range extends CellFilter {
+
+        private final double min;
+        private final double max;
+
+        Range(int column, String label, double min, double max) {
+            super(column, label);
+            this.min = min;
+            this.max = max;
+        }
+
+        boolean matches(CharSequence cell, ParseContext context) {
+            if (NumberParser.isBlank(cell)) {
+                return false;
+            }
+            double d = Double.NaN;
+            if (context != null) {
+                d = context.getNumberParser().parseDouble(cell);
+            }
+            if (Double.isNaN(d)) {
+                d = parseSlow(cell, context);
+            }
+            return d >= min && d <= max;
+        }
+
+        private static double parseSlow(CharSequence cell,
+                                        ParseContext context) {
+            String s = cell.toString().trim();
+            if (context != null) {
+                NumberFormat nf = context.getNumberFormat();
+                ParsePosition pos = new ParsePosition(0);
+                Number n = nf.parse(s, pos);
+                if (n != null && pos.getIndex() == s.length()) {
+                    return n.doubleValue();
+                }
+            }
+            try {
+                return Double.parseDouble(s);
+            }
+            catch (NumberFormatException e) {
+                return Double.NaN;
+            }
+        }
+    }
+
+    private static final class In extends CellFilter {
+
+        /**
+         * Values grouped by hash code (as computed by String).
+         */
+        private final String[][] table;
+
+        In(int column, String label, String[] values) {
+            super(column, label);
+            int size = 1;
+            while (size < values.length * 2) {
+                size <<= 1;
+            }
+            table = new String[size][];
+            for (int i = 0; i < values.length; i++) {
+                int slot = values[i].hashCode() & (size - 1);
+                String[] old = table[slot];
+                String[] slotValues = new String[(old == null) ? 1 : old.length + 1];
+                if (old != null) {
+                    System.arraycopy(old, 0, slotValues, 0, old.length);
+                }
+                slotValues[slotValues.length - 1] = values[i];
+                table[slot] = slotValues;
+            }
+        }
+
+        boolean matches(CharSequence cell, ParseContext context) {
+            int h = 0;
+            for (int i = 0; i < cell.length(); i++) {
+                h = 31 * h + cell.charAt(i);
+            }
+            String[] candidates = table[h & (table.length - 1)];
+            if (candidates != null) {
+                for (int i = 0; i < candidates.length; i++) {
+                    if (equal(cell, candidates[i])) {
+                        return true;
+                    }
+                }
+            }
+            return false;
+        }
+    }
+
+    private static final class Empty extends CellFilter {
+
+        Empty(int column, String label) {
+            super(column, label);
+        }
+
+        boolean matches(CharSequence cell, ParseContext context) {
+            return cell.length() == 0;
+        }
+    }
+
+    private static final class And extends RowFilter {
+
+        private final RowFilter a;
+        private final RowFilter b;
+
+        And(RowFilter a, RowFilter b) {
+            this.a = a;
+            this.b = b;
+        }
+
+        boolean matches(Cells row, ParseContext context) {
+            return a.matches(row, context) && b.matches(row, context);
+        }
+
+        RowFilter bind(List header) {
+            return new And(a.bind(header), b.bind(header));
+        }
+
+        void columns(List columns) {
+            a.columns(columns);
+            b.columns(columns);
+        }
+    }
+
+    private static final class Or extends RowFilter {
+
+        private final RowFilter a;
+        private final RowFilter b;
+
+        Or(RowFilter a, RowFilter b) {
+            this.a = a;
+            this.b = b;
+        }
+
+        boolean matches(Cells row, ParseContext context) {
+            return a.matches(row, context) || b.matches(row, context);
+        }
+
+        RowFilter bind(List header) {
+            return new Or(a.bind(header), b.bind(header));
+        }
+
+        void columns(List columns) {
+            a.columns(columns);
+            b.columns(columns);
+        }
+    }
+
+    private static final class Not extends RowFilter {
+
+        private final RowFilter f;
+
+        Not(RowFilter f) {
+            this.f = f;
+        }
+
+        boolean matches(Cells row, ParseContext context) {
+            return !f.matches(row, context);
+        }
+
+        RowFilter bind(List header) {
+            return new Not(f.bind(header));
+        }
+
+        void columns(List columns) {
+            f.columns(columns);
+        }
+    }
+
+}
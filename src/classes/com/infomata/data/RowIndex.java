@@ -0,0 +1,304 @@
+/*
+ * $Id$
+ *
+ * Copyright(c) 2002 Infomata
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+package com.infomata.data;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+
+/**
+ * Sparse index of the rows of a data file: the file offset of every
+ * <code>interval</code>-th row (counting the header row, if any), so
+ * that a row can be reached by moving to the nearest indexed row and
+ * skipping the rows in between.  Rows are located by a
+ * {@link com.infomata.data.ByteDataFormat}, so CSV rows spanning several
+ * lines count as one row.
+ * <p>
+ * The index is kept in a sidecar file named after the data file with
+ * <code>.idx</code> appended.  It records the size and modification
+ * time of the data file and the class of the format, and is ignored
+ * when any of them has changed.
+ * </p>
+ *
+ * @version $Revision$
+ */
+final class RowIndex
+{
+
+    /**
+     * Default number of rows between indexed rows.
+     */
+    static final int DEFAULT_INTERVAL = 1024;
+
+    /**
+     * Identifies index files ("DFIX").
+     */
+    private static final int MAGIC = 0x44464958;
+
+    private static final int VERSION = 1;
+
+    private int interval = 0;
+    private long[] offsets = new long[16];
+    private int count = 0;
+    private long rows = 0;
+    private long end = 0;
+
+    /**
+     * Creates a new, empty <code>RowIndex</code> instance.
+     *
+     * @param interval number of rows between indexed rows.
+     */
+    RowIndex(int interval)
+    {
+        this.interval = interval;
+    }
+
+    /**
+     * Records the file offset of a row while the rows are read in
+     * order.  Only every <code>interval</code>-th row is kept.
+     *
+     * @param row number of the row in the file (starting at zero).
+     * @param offset file offset at which the row starts.
+     */
+    void add(long row, long offset)
+    {
+        if (row % interval == 0 && row / interval == count)
+        {
+            if (count == offsets.length)
+            {
+                long[] o = new long[count * 2];
+                System.arraycopy(offsets, 0, o, 0, count);
+                offsets = o;
+            }
+            offsets[count++] = offset;
+        }
+    }
+
+    /**
+     * Completes the index once all rows have been read.
+     *
+     * @param rows number of rows in the file.
+     * @param end file offset of the end of the last row.
+     */
+    void finish(long rows, long end)
+    {
+        this.rows = rows;
+        this.end = end;
+    }
+
+    /**
+     * Retrieves the number of rows in the file.
+     *
+     * @return number of rows, including the header row.
+     */
+    long getRowCount()
+    {
+        return rows;
+    }
+
+    /**
+     * Retrieves the number of rows between indexed rows.
+     *
+     * @return index interval.
+     */
+    int getInterval()
+    {
+        return interval;
+    }
+
+    /**
+     * Retrieves the file offset of the indexed row at or before the
+     * specified row.
+     *
+     * @param row number of the row in the file.
+     * @return file offset of row <code>row - row % interval</code>, or
+     *         the end of the data if the row does not exist.
+     */
+    long offset(long row)
+    {
+        if (row >= rows)
+        {
+            return end;
+        }
+        return offsets[(int)(row / interval)];
+    }
+
+    /**
+     * Retrieves the file of the index kept next to a data file.
+     *
+     * @param data data file.
+     * @return index file.
+     */
+    static File sidecar(File data)
+    {
+        return new File(data.getPath() + ".idx");
+    }
+
+    /**
+     * Loads the index of a data file, if it exists and is up to date.
+     *
+     * @param data data file.
+     * @param format format the rows are read with.
+     * @return index, or <code>null</code> if the file has no valid
+     *         index.
+     */
+    static RowIndex load(File data, DataFormat format)
+    {
+        File f = sidecar(data);
+        if (!f.isFile())
+        {
+            return null;
+        }
+
+        DataInputStream in = null;
+        try
+        {
+            in = new DataInputStream(new BufferedInputStream(
+                    new FileInputStream(f)));
+            if (in.readInt() != MAGIC || in.readInt() != VERSION
+                || in.readLong() != data.length()
+                || in.readLong() != data.lastModified()
+                || !in.readUTF().equals(format.getClass().getName()))
+            {
+                return null;
+            }
+            RowIndex idx = new RowIndex(in.readInt());
+            idx.rows = in.readLong();
+            idx.end = in.readLong();
+            idx.count = in.readInt();
+            idx.offsets = new long[Math.max(idx.count, 1)];
+            for (int i = 0; i < idx.count; i++)
+            {
+                idx.offsets[i] = in.readLong();
+            }
+            return idx;
+        }
+        catch (IOException e)
+        {
+            // unreadable index, rebuilt by the caller.
+            return null;
+        }
+        finally
+        {
+            if (in != null)
+            {
+                try
+                {
+                    in.close();
+                }
+                catch (IOException e)
+                {
+                    // ignore.
+                }
+            }
+        }
+    }
+
+    /**
+     * Saves the index next to the data file.  An index that cannot be
+     * written is simply rebuilt the next time it is needed.
+     *
+     * @param data data file.
+     * @param format format the rows were read with.
+     */
+    void save(File data, DataFormat format)
+    {
+        File f = sidecar(data);
+        DataOutputStream out = null;
+        try
+        {
+            out = new DataOutputStream(new BufferedOutputStream(
+                    new FileOutputStream(f)));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(data.length());
+            out.writeLong(data.lastModified());
+            out.writeUTF(format.getClass().getName());
+            out.writeInt(interval);
+            out.writeLong(rows);
+            out.writeLong(end);
+            out.writeInt(count);
+            for (int i = 0; i < count; i++)
+            {
+                out.writeLong(offsets[i]);
+            }
+            out.close();
+            out = null;
+        }
+        catch (IOException e)
+        {
+            f.delete();
+        }
+        finally
+        {
+            if (out != null)
+            {
+                try
+                {
+                    out.close();
+                }
+                catch (IOException e)
+                {
+                    // ignore.
+                }
+                f.delete();
+            }
+        }
+    }
+
+    /**
+     * Builds the index of a data file by locating all of its rows.
+     *
+     * @param data data file.
+     * @param format format used to locate the rows.
+     * @param charset character set of the file.
+     * @param interval number of rows between indexed rows.
+     * @return index of the file.
+     * @throws IOException if the file cannot be read.
+     */
+    static RowIndex build(File data, ByteDataFormat format, Charset charset,
+                          int interval) throws IOException
+    {
+        RowIndex idx = new RowIndex(interval);
+        ByteRowReader reader = new ByteRowReader(new MappedFileInput(data,
+                MappedFileInput.DEFAULT_WINDOW_SIZE), format, charset);
+        try
+        {
+            long row = 0;
+            for (long pos = reader.position(); reader.skip(); pos = reader.position())
+            {
+                idx.add(row++, pos);
+            }
+            idx.finish(row, reader.position());
+        }
+        finally
+        {
+            reader.close();
+        }
+        return idx;
+    }
+
+}
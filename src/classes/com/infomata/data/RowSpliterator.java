@@ -0,0 +1,258 @@
+/*
+ * $Id$
+ *
+ * Copyright(c) 2002 Infomata
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+package com.infomata.data;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.text.NumberFormat;
+import java.util.Hashtable;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+
+/**
+ * Spliterator over the rows in a byte range of a file.  Splitting cuts
+ * the range in two at a row boundary: the middle of the range is
+ * aligned to the next row start using the parity of the quotes before
+ * it, as {@link ParallelRowReader} does for its chunks, so the two
+ * halves are read independently without buffering any rows.
+ * <p>
+ * Each spliterator parses with a parse context of its own, so the rows
+ * of different splits may be used by different threads.
+ * </p>
+ *
+ * @see com.infomata.data.DataFileReader#stream()
+ * @version $Revision$
+ */
+final class RowSpliterator implements Spliterator
+{
+
+    /**
+     * Ranges smaller than this number of bytes are not split.
+     */
+    static final int MIN_SPLIT = 1 << 20;
+
+    private final FileChannel channel;
+    private final ByteDataFormat format;
+    private final Charset charset;
+    private final NumberFormat nf;
+    private final int windowSize;
+    private boolean cellViews = false;
+    private boolean[] projection = null;
+    private RowFilter filter = null;
+    private Hashtable headerIndex = null;
+    private final int quote;
+
+    /**
+     * Offset of the first row of the range (a row boundary).
+     */
+    private long from;
+
+    /**
+     * Offset past the range; rows starting before it belong to the
+     * range.
+     */
+    private final long end;
+
+    private MappedFileInput in = null;
+    private ByteRowReader reader = null;
+
+    /**
+     * Creates a new <code>RowSpliterator</code> instance.
+     *
+     * @param channel channel of the file, closed by the caller.
+     * @param from offset of the first row.
+     * @param end offset past the last row start.
+     * @param format format used to locate rows and cells.
+     * @param charset character set of the file.
+     * @param nf number format copied into the parse context of each
+     *           split.
+     * @param windowSize number of bytes mapped at a time.
+     */
+    RowSpliterator(FileChannel channel, long from, long end,
+                   ByteDataFormat format, Charset charset, NumberFormat nf,
+                   int windowSize)
+    {
+        this.channel = channel;
+        this.from = from;
+        this.end = end;
+        this.format = format;
+        this.charset = charset;
+        this.nf = nf;
+        this.windowSize = windowSize;
+        quote = format.getQuote();
+    }
+
+    /**
+     * Specifies whether cells are kept as views of the mapped bytes.
+     *
+     * @param cellViews <code>true</code> to keep cells as views.
+     */
+    void setCellViews(boolean cellViews)
+    {
+        this.cellViews = cellViews;
+    }
+
+    /**
+     * Restricts decoding to the columns of a mask.
+     *
+     * @param projection mask of the columns to decode, or
+     *                   <code>null</code> for all columns.
+     */
+    void setProjection(boolean[] projection)
+    {
+        this.projection = projection;
+    }
+
+    /**
+     * Sets a condition on the rows returned.
+     *
+     * @param filter filter with all columns given by index, or
+     *               <code>null</code> to return all rows.
+     */
+    void setFilter(RowFilter filter)
+    {
+        this.filter = filter;
+    }
+
+    /**
+     * Sets the column label to index table of the rows returned.
+     *
+     * @param headerIndex header index of the reader, or
+     *                    <code>null</code> if the file has no header.
+     */
+    void setHeaderIndex(Hashtable headerIndex)
+    {
+        this.headerIndex = headerIndex;
+    }
+
+    public boolean tryAdvance(Consumer action)
+    {
+        try
+        {
+            if (reader == null)
+            {
+                if (from >= end)
+                {
+                    return false;
+                }
+                open();
+            }
+            DataRow row = reader.next(null, end);
+            if (row == null)
+            {
+                close();
+                from = end;
+                return false;
+            }
+            row.setHeaderIndex(headerIndex);
+            action.accept(row);
+            return true;
+        }
+        catch (IOException e)
+        {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public void forEachRemaining(Consumer action)
+    {
+        while (tryAdvance(action))
+        {
+            // keep going
+        }
+    }
+
+    /**
+     * Splits off the first half of the remaining range, ending at a
+     * row boundary.  A range is only split before it is read.
+     */
+    public Spliterator trySplit()
+    {
+        if (reader != null || end - from < MIN_SPLIT)
+        {
+            return null;
+        }
+        try
+        {
+            long mid = from + (end - from) / 2;
+            boolean odd = quote >= 0
+                && (ParallelRowReader.countQuotes(channel, from, mid, quote) & 1) == 1;
+            MappedFileInput scan = new MappedFileInput(channel, mid - 1,
+                                                       windowSize);
+            long boundary = ParallelRowReader.findRowStart(scan, end, odd,
+                                                           quote);
+            scan.close();
+            if (boundary >= end)
+            {
+                return null;
+            }
+            RowSpliterator prefix = new RowSpliterator(channel, from, boundary,
+                    format, charset, nf, windowSize);
+            prefix.setCellViews(cellViews);
+            prefix.setProjection(projection);
+            prefix.setFilter(filter);
+            prefix.setHeaderIndex(headerIndex);
+            from = boundary;
+            return prefix;
+        }
+        catch (IOException e)
+        {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Estimates the remaining rows by the number of remaining bytes.
+     */
+    public long estimateSize()
+    {
+        long pos = (reader == null) ? from : reader.position();
+        return Math.max(end - pos, 0);
+    }
+
+    public int characteristics()
+    {
+        return ORDERED | NONNULL | IMMUTABLE;
+    }
+
+    /**
+     * Helper method to start reading the range.
+     */
+    private void open() throws IOException
+    {
+        in = new MappedFileInput(channel, from, windowSize);
+        reader = new ByteRowReader(in, format, charset);
+        reader.setCellViews(cellViews);
+        reader.setParseContext(new ParseContext((NumberFormat)nf.clone()));
+        reader.setProjection(projection);
+        reader.setFilter(filter);
+        reader.seek(from);
+    }
+
+    private void close() throws IOException
+    {
+        in.close();
+        in = null;
+        reader = null;
+    }
+
+}
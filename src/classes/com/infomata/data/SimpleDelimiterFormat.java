@@ -19,6 +19,9 @@
  */
 package com.infomata.data;
 
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
 /**
  * SimpleDelimiterFormat is configurable data format that uses
  * simple delimiter and escape sequence scheme to encode data into a
@@ -44,10 +47,13 @@ package com.infomata.data;
  * @author <a href="mailto:oldman1004@gmail.com">Sam Kim</a>
  * @version $Revision: 1.2 $
  */
-public class SimpleDelimiterFormat implements DataFormat {
+public class SimpleDelimiterFormat extends AbstractDataFormat implements ByteDataFormat, CellDataFormat {
 
     private char[] delimiter = null;
     private char[] escape = null;
+    private byte[] delimiterBytes = null;
+    private byte[] escapeBytes = null;
+    private byte[] structural = null;
 
     /**
      * Creates a new instance of SimpleDelimiterFormat with
@@ -81,34 +87,40 @@ public class SimpleDelimiterFormat implements DataFormat {
      */
     public DataRow parseLine(String line) {
 
-        DataRow row = new DataRow();
+        DataRow row = createRow();
 
         if (line != null && line.length() > 0) {
 
-            StringBuffer o = new StringBuffer();
-
             char[] ch = line.toCharArray();
             int start = 0;
             boolean ignore = false;
+            boolean escaped = false;
 
             for (int i = 0; i < ch.length; i++) {
                 if (ch[i] == delimiter[0] && isDelimiter(ch, i)) {
                     if (ignore) {
                         ignore = false;
                     }
-                    else {
+                    else if (escaped && isProjected(row.size())) {
                         row.add(decodeData(new String(ch, start, i - start)));
                         start = i + delimiter.length;
+                        escaped = false;
+                    }
+                    else {
+                        addCell(row, ch, start, i - start);
+                        start = i + delimiter.length;
+                        escaped = false;
                     }
                     i += delimiter.length - 1;
                 }
                 else if (escape.length > 0 && ch[i] == escape[0] && isEscape(ch, i)) {
                     ignore = !ignore;
+                    escaped = true;
                     i += escape.length - 1;
                 }
             }
-            o.append(new String(ch, start, ch.length - start));
-            row.add(o.toString());
+            start = Math.min(start, ch.length);
+            addCell(row, ch, start, ch.length - start);
         }
         return row;
     }
@@ -117,17 +129,140 @@ public class SimpleDelimiterFormat implements DataFormat {
      * @see com.infomata.data.DataFormat#format(com.infomata.data.DataRow)
      */
     public String format(DataRow row) {
-        StringBuffer o = new StringBuffer();
-        if (row != null && row.size() > 0) {
-            o.append(encodeData(row.getString(0)));
-            for (int i = 1; i < row.size(); i++) {
-                o.append(delimiter);
-                o.append(encodeData(row.getString(i)));
-            }
+        FormatBuffer o = new FormatBuffer();
+        if (row != null) {
+            format(row, o);
         }
         return o.toString();
     }
 
+    /* (non-Javadoc)
+     * @see com.infomata.data.BufferDataFormat#format(com.infomata.data.DataRow, com.infomata.data.FormatBuffer)
+     */
+    public void format(DataRow row, FormatBuffer out) {
+        for (int i = 0; i < row.size(); i++) {
+            formatCell(row.getString(i), i, out);
+        }
+    }
+
+    /* (non-Javadoc)
+     * @see com.infomata.data.CellDataFormat#formatCell(java.lang.CharSequence, int, com.infomata.data.FormatBuffer)
+     */
+    public void formatCell(CharSequence cell, int column, FormatBuffer out) {
+        if (column > 0) {
+            out.append(delimiter, 0, delimiter.length);
+        }
+        encodeData(cell, out);
+    }
+
+    /**
+     * Encodes the delimiter and escape sequences in the character set
+     * of the data file.
+     * @see com.infomata.data.ByteDataFormat#setCharset(java.nio.charset.Charset)
+     */
+    public void setCharset(Charset charset) {
+        delimiterBytes = new String(delimiter).getBytes(charset);
+        escapeBytes = new String(escape).getBytes(charset);
+        structural = (escapeBytes.length > 0)
+            ? new byte[] { delimiterBytes[0], escapeBytes[0], NEW_LINE, CR }
+            : new byte[] { delimiterBytes[0], NEW_LINE, CR };
+    }
+
+    /**
+     * Every line break ends a row; the escape sequence only applies
+     * to delimiters.
+     * @see com.infomata.data.ByteDataFormat#getQuote()
+     */
+    public int getQuote() {
+        return -1;
+    }
+
+    /**
+     * Locates the cells of a row in encoded bytes.  Follows the same
+     * rules as {@link #parseLine(String)}.
+     * @see com.infomata.data.ByteDataFormat#scanRow(java.nio.ByteBuffer, int, int, boolean, com.infomata.data.CellIndex)
+     */
+    public int scanRow(ByteBuffer buf, int start, int limit, boolean eof,
+                       CellIndex cells) {
+
+        cells.clear();
+
+        StructuralIndex index = cells.structure(structural);
+        int lineEnd = index.next(buf, start, limit);
+        while (lineEnd < limit && buf.get(lineEnd) != NEW_LINE
+               && buf.get(lineEnd) != CR) {
+            lineEnd = index.next(buf, lineEnd + 1, limit);
+        }
+
+        int end = lineEnd + 1;
+        if (lineEnd == limit) {
+            if (!eof) {
+                return -1;
+            }
+            end = limit;
+        }
+        else if (buf.get(lineEnd) == CR) {
+            if (end == limit && !eof) {
+                return -1;
+            }
+            if (end < limit && buf.get(end) == NEW_LINE) {
+                end++;
+            }
+        }
+
+        if (lineEnd > start) {
+
+            int cell = start;
+            boolean ignore = false;
+            boolean escaped = false;
+
+            for (int i = index.next(buf, start, lineEnd); i < lineEnd;
+                 i = index.next(buf, i + 1, lineEnd)) {
+                byte b = buf.get(i);
+                if (b == delimiterBytes[0] && match(buf, delimiterBytes, i, lineEnd)) {
+                    if (ignore) {
+                        ignore = false;
+                    }
+                    else {
+                        cells.add(cell, i, escaped);
+                        cell = i + delimiterBytes.length;
+                        escaped = false;
+                    }
+                    i += delimiterBytes.length - 1;
+                }
+                else if (escapeBytes.length > 0 && b == escapeBytes[0]
+                         && match(buf, escapeBytes, i, lineEnd)) {
+                    ignore = !ignore;
+                    escaped = true;
+                    i += escapeBytes.length - 1;
+                }
+            }
+            cell = Math.min(cell, lineEnd);
+            cells.add(cell, lineEnd, false);
+        }
+
+        return end;
+    }
+
+    /**
+     * Removes escape sequences from a cell.
+     * @see com.infomata.data.ByteDataFormat#unescape(java.nio.ByteBuffer, int, int, byte[])
+     */
+    public int unescape(ByteBuffer buf, int start, int end, byte[] dest) {
+        int n = 0;
+        for (int i = start; i < end; i++) {
+            if (escapeBytes.length > 0 && buf.get(i) == escapeBytes[0]
+                && match(buf, escapeBytes, i, end)) {
+                i += escapeBytes.length;
+                if (i >= end) {
+                    break;
+                }
+            }
+            dest[n++] = buf.get(i);
+        }
+        return n;
+    }
+
     private String decodeData(String content) {
         StringBuffer o = new StringBuffer();
         if (content == null) {
@@ -145,22 +280,20 @@ public class SimpleDelimiterFormat implements DataFormat {
         return o.toString();
     }
 
-    private String encodeData(String content) {
-        StringBuffer o = new StringBuffer();
+    private void encodeData(CharSequence content, FormatBuffer o) {
         if (content == null) {
             o.append("null");
         }
         else if (content.length() > 0) {
-            char[] ch = content.toCharArray();
+            char[] ch = content.toString().toCharArray();
             for (int i = 0; i < ch.length; i++) {
                 if ((ch[i] == delimiter[0] && isDelimiter(ch, i))
                     || (escape.length > 0 && ch[i] == escape[0] && isEscape(ch, i))) {
-                    o.append(escape);
+                    o.append(escape, 0, escape.length);
                 }
                 o.append(ch[i]);
             }
         }
-        return o.toString();
     }
 
     private boolean isDelimiter(char[] ch, int offset) {
@@ -172,6 +305,15 @@ public class SimpleDelimiterFormat implements DataFormat {
     }
     
     
+	private boolean match(ByteBuffer buf, byte[] sp, int offset, int limit) {
+		for (int i = 0; i < sp.length && i + offset < limit; i++) {
+			if (buf.get(offset + i) != sp[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
 	private boolean match(char[] ch, char[] sp, int offset) {
 		for (int i = 0; i < sp.length && i + offset < ch.length; i++) {
 			if (ch[offset + i] != sp[i]) {
@@ -181,6 +323,9 @@ public class SimpleDelimiterFormat implements DataFormat {
 		return true;
 	}
 
+    private static final byte NEW_LINE = '\n';
+    private static final byte CR = '\r';
+
     /*
     protected void out(Object o) {
         System.out.print(o.toString());
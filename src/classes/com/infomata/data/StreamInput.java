@@ -0,0 +1,158 @@
+/*
+ * $Id$
+ *
+ * Copyright(c) 2002 Infomata
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+package com.infomata.data;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Window over the bytes of an input stream.  The stream is read a
+ * buffer at a time; when the window moves forward, the bytes of the
+ * unfinished row are carried over into a new buffer, so that cells
+ * viewed in an earlier buffer stay valid.  The window only moves
+ * forward, unless the stream reads a file whose channel is known.
+ *
+ * @version $Revision$
+ */
+final class StreamInput extends ByteInput
+{
+
+    /**
+     * Default size of the window (64 KB).
+     */
+    static final int DEFAULT_BUFFER_SIZE = 64 << 10;
+
+    private InputStream in = null;
+    private FileChannel channel = null;
+    private ByteBuffer window = null;
+    private long base = 0;
+    private int bufferSize = 0;
+    private boolean eof = false;
+
+    /**
+     * Reads the first window of the stream.
+     *
+     * @param in stream to read.
+     * @param bufferSize number of bytes read at a time.
+     * @throws IOException if the stream cannot be read.
+     */
+    StreamInput(InputStream in, int bufferSize) throws IOException
+    {
+        this(in, null, bufferSize);
+    }
+
+    /**
+     * Reads the first window of a file stream whose channel can be
+     * repositioned to move the window to any offset.
+     *
+     * @param in stream reading the file from its start.
+     * @param channel channel of the stream, or <code>null</code>.
+     * @param bufferSize number of bytes read at a time.
+     * @throws IOException if the stream cannot be read.
+     */
+    StreamInput(InputStream in, FileChannel channel, int bufferSize)
+        throws IOException
+    {
+        this.in = in;
+        this.channel = channel;
+        this.bufferSize = bufferSize;
+        fill(new byte[bufferSize], 0);
+    }
+
+    ByteBuffer window()
+    {
+        return window;
+    }
+
+    long base()
+    {
+        return base;
+    }
+
+    boolean isEof()
+    {
+        return eof;
+    }
+
+    void moveTo(long from) throws IOException
+    {
+        long rel = from - base;
+        if ((rel < 0 || rel > window.limit()) && channel != null)
+        {
+            channel.position(from);
+            base = from;
+            eof = false;
+            fill(new byte[bufferSize], 0);
+            return;
+        }
+        if (rel < 0 || rel > window.limit())
+        {
+            throw new IOException("Cannot move to offset " + from
+                                  + " of a stream read from offset " + base);
+        }
+
+        int keep = window.limit() - (int)rel;
+        int len = bufferSize;
+        if (rel == 0)
+        {
+            len = (int)Math.min((long)window.limit() * 2, Integer.MAX_VALUE);
+        }
+        byte[] b = new byte[Math.max(len, keep + 1)];
+        window.get((int)rel, b, 0, keep);
+        base = from;
+        fill(b, keep);
+    }
+
+    void close() throws IOException
+    {
+        window = ByteBuffer.allocate(0);
+        eof = true;
+        if (in != null)
+        {
+            in.close();
+            in = null;
+            channel = null;
+        }
+    }
+
+    /**
+     * Helper method to fill a buffer from the stream, unless the end
+     * of the stream has been reached.
+     */
+    private void fill(byte[] b, int off) throws IOException
+    {
+        while (!eof && off < b.length)
+        {
+            int n = in.read(b, off, b.length - off);
+            if (n < 0)
+            {
+                eof = true;
+            }
+            else
+            {
+                off += n;
+            }
+        }
+        window = ByteBuffer.wrap(b, 0, off).slice();
+    }
+
+}
@@ -0,0 +1,78 @@
+/*
+ * $Id$
+ *
+ * Copyright(c) 2002 Infomata
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+package com.infomata.data;
+
+/**
+ * Adapts a {@link com.infomata.data.DataFormat} that formats rows into
+ * <code>String</code>s to {@link com.infomata.data.BufferDataFormat},
+ * so that the writer handles all formats alike.
+ *
+ * @version $Revision$
+ */
+final class StringFormatAdapter implements BufferDataFormat {
+
+    private final DataFormat format;
+
+    private StringFormatAdapter(DataFormat format) {
+        this.format = format;
+    }
+
+    /**
+     * Returns the buffer format used to write rows of the specified
+     * format: the format itself if it formats into buffers and does
+     * not override {@link DataFormat#format(DataRow)} below its buffer
+     * method, or else an adapter calling
+     * {@link DataFormat#format(DataRow)}.
+     *
+     * @param format format of the rows.
+     * @return buffer format writing the same characters.
+     */
+    static BufferDataFormat of(DataFormat format) {
+        if (format instanceof BufferDataFormat) {
+            try {
+                Class c = format.getClass();
+                Class s = c.getMethod("format", new Class[] {DataRow.class})
+                    .getDeclaringClass();
+                Class b = c.getMethod("format", new Class[] {DataRow.class, FormatBuffer.class})
+                    .getDeclaringClass();
+                if (s.isAssignableFrom(b)) {
+                    return (BufferDataFormat)format;
+                }
+            }
+            catch (NoSuchMethodException e) {
+                // not reached: both methods are public interface methods.
+            }
+        }
+        return new StringFormatAdapter(format);
+    }
+
+    public DataRow parseLine(String line) {
+        return format.parseLine(line);
+    }
+
+    public String format(DataRow row) {
+        return format.format(row);
+    }
+
+    public void format(DataRow row, FormatBuffer out) {
+        out.append(format.format(row));
+    }
+
+}
@@ -0,0 +1,150 @@
+/*
+ * $Id$
+ *
+ * Copyright(c) 2002 Infomata
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+package com.infomata.data;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Positions of the structural bytes of a buffer, found a block at a
+ * time by a {@link com.infomata.data.StructuralScanner}.  A byte
+ * scanning format asks for the next structural byte after its current
+ * position instead of testing every byte, so runs of plain cell
+ * content are skipped at the speed of the scanner.
+ * <p>
+ * An index belongs to one {@link com.infomata.data.CellIndex} (and so
+ * to one reading thread), and caches the positions found in the last
+ * block of the last buffer scanned.
+ * </p>
+ *
+ * @version $Revision$
+ */
+final class StructuralIndex
+{
+
+    /**
+     * Number of bytes scanned at a time.
+     */
+    static final int BLOCK_SIZE = 16 * 1024;
+
+    private final StructuralScanner scanner = StructuralScanner.getInstance();
+    private final byte[] targets;
+
+    private ByteBuffer buf = null;
+    private int from = 0;
+    private int to = 0;
+    private int[] positions = new int[BLOCK_SIZE];
+    private int count = 0;
+    private int cursor = 0;
+
+    /**
+     * Creates a new <code>StructuralIndex</code> instance.
+     *
+     * @param targets structural bytes of the format.
+     */
+    StructuralIndex(byte[] targets)
+    {
+        this.targets = targets.clone();
+    }
+
+    /**
+     * Checks if this index looks for the specified bytes.
+     *
+     * @param targets structural bytes of a format.
+     * @return <code>true</code> if the index can be used for them.
+     */
+    boolean hasTargets(byte[] targets)
+    {
+        return Arrays.equals(this.targets, targets);
+    }
+
+    /**
+     * Forgets the positions found so far, for when the content of a
+     * buffer has changed.
+     */
+    void reset()
+    {
+        buf = null;
+    }
+
+    /**
+     * Finds the next structural byte.
+     *
+     * @param b buffer being scanned.
+     * @param pos index at which to start looking.
+     * @param limit index after the last byte to look at.
+     * @return index of the first structural byte at or after
+     *         <code>pos</code>, or <code>limit</code> if there is none
+     *         before it.
+     */
+    int next(ByteBuffer b, int pos, int limit)
+    {
+        while (pos < limit)
+        {
+            if (b != buf || pos < from || pos >= to)
+            {
+                buf = b;
+                from = pos;
+                to = Math.min(limit, pos + BLOCK_SIZE);
+                count = scanner.scan(b, from, to, targets, positions);
+                cursor = 0;
+            }
+            else if (cursor > 0 && positions[cursor - 1] >= pos)
+            {
+                cursor = search(pos);
+            }
+
+            while (cursor < count && positions[cursor] < pos)
+            {
+                cursor++;
+            }
+            if (cursor < count)
+            {
+                return Math.min(positions[cursor], limit);
+            }
+            pos = to;
+        }
+        return limit;
+    }
+
+    /**
+     * Helper method to find the first position not below
+     * <code>pos</code>.
+     */
+    private int search(int pos)
+    {
+        int lo = 0;
+        int hi = count;
+        while (lo < hi)
+        {
+            int mid = (lo + hi) >>> 1;
+            if (positions[mid] < pos)
+            {
+                lo = mid + 1;
+            }
+            else
+            {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+}
@@ -0,0 +1,244 @@
+/*
+ * $Id$
+ *
+ * Copyright(c) 2002 Infomata
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+package com.infomata.data;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Finds the structural bytes (delimiters, quotes, escapes and line
+ * breaks) of a block of encoded data, so that the byte scanning
+ * formats only look at the bytes that matter.  This implementation
+ * compares eight bytes at a time within a <code>long</code>.
+ * <p>
+ * {@link #getInstance()} returns an implementation built on the
+ * incubating Vector API (<code>jdk.incubator.vector</code>), which
+ * compares 32 or 64 bytes per instruction, when that module is
+ * available to the JVM (<code>--add-modules jdk.incubator.vector</code>).
+ * Otherwise, or when the system property
+ * <code>com.infomata.data.vector</code> is <code>false</code>, it
+ * returns this implementation.
+ * </p>
+ *
+ * @see com.infomata.data.StructuralIndex
+ * @version $Revision$
+ */
+class StructuralScanner
+{
+
+    private static final long ONES = 0x0101010101010101L;
+    private static final long LOW7 = 0x7F7F7F7F7F7F7F7FL;
+
+    /**
+     * Scanner shared by all readers.
+     */
+    private static StructuralScanner instance = null;
+
+    /**
+     * Retrieves the fastest scanner available in this JVM.
+     *
+     * @return shared scanner.
+     */
+    static synchronized StructuralScanner getInstance()
+    {
+        if (instance == null)
+        {
+            instance = create();
+        }
+        return instance;
+    }
+
+    /**
+     * Helper method to load the Vector API scanner, falling back to
+     * this implementation if the module or the class is missing, or
+     * if the loaded scanner does not work in this JVM.
+     */
+    private static StructuralScanner create()
+    {
+        if (!"false".equals(System.getProperty("com.infomata.data.vector")))
+        {
+            try
+            {
+                Class c = Class.forName("com.infomata.data.VectorScanner");
+                StructuralScanner s = (StructuralScanner)c
+                    .getDeclaredConstructor(new Class[0])
+                    .newInstance(new Object[0]);
+                if (s.selfTest())
+                {
+                    return s;
+                }
+            }
+            catch (Exception e)
+            {
+                // not compiled in
+            }
+            catch (LinkageError e)
+            {
+                // jdk.incubator.vector is not available
+            }
+        }
+        return new StructuralScanner();
+    }
+
+    /**
+     * Helper method to check that a scanner finds the same bytes as
+     * the scalar implementation.
+     */
+    private boolean selfTest()
+    {
+        byte[] data = new byte[300];
+        for (int i = 0; i < data.length; i++)
+        {
+            data[i] = (byte)((i * 7) % 5 == 0 ? ',' : i);
+        }
+        ByteBuffer buf = ByteBuffer.wrap(data);
+        byte[] targets = { ',', '\n' };
+        int[] expected = new int[data.length];
+        int[] found = new int[data.length];
+        StructuralScanner scalar = new StructuralScanner();
+        int n = scalar.scan(buf, 3, 290, targets, expected);
+        if (scan(buf, 3, 290, targets, found) != n
+            || count(buf, 3, 290, (byte)',') != scalar.count(buf, 3, 290, (byte)','))
+        {
+            return false;
+        }
+        for (int i = 0; i < n; i++)
+        {
+            if (found[i] != expected[i])
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Finds the positions of the bytes equal to any of the target
+     * bytes.
+     *
+     * @param buf buffer to scan.
+     * @param from index of the first byte to scan.
+     * @param to index after the last byte to scan.
+     * @param targets bytes to look for.
+     * @param out positions found, in ascending order (room for
+     *            <code>to - from</code> positions).
+     * @return number of positions found.
+     */
+    int scan(ByteBuffer buf, int from, int to, byte[] targets, int[] out)
+    {
+        long[] patterns = new long[targets.length];
+        for (int t = 0; t < targets.length; t++)
+        {
+            patterns[t] = (targets[t] & 0xffL) * ONES;
+        }
+        boolean swap = buf.order() == ByteOrder.BIG_ENDIAN;
+
+        int n = 0;
+        int i = from;
+        for (; i + 8 <= to; i += 8)
+        {
+            long w = buf.getLong(i);
+            if (swap)
+            {
+                w = Long.reverseBytes(w);
+            }
+            long hits = 0;
+            for (int t = 0; t < patterns.length; t++)
+            {
+                hits |= zeroBytes(w ^ patterns[t]);
+            }
+            while (hits != 0)
+            {
+                out[n++] = i + (Long.numberOfTrailingZeros(hits) >>> 3);
+                hits &= hits - 1;
+            }
+        }
+        return scanTail(buf, i, to, targets, out, n);
+    }
+
+    /**
+     * Counts the bytes equal to the target byte.
+     *
+     * @param buf buffer to scan.
+     * @param from index of the first byte to scan.
+     * @param to index after the last byte to scan.
+     * @param target byte to count.
+     * @return number of bytes equal to <code>target</code>.
+     */
+    int count(ByteBuffer buf, int from, int to, byte target)
+    {
+        long pattern = (target & 0xffL) * ONES;
+        int n = 0;
+        int i = from;
+        for (; i + 8 <= to; i += 8)
+        {
+            n += Long.bitCount(zeroBytes(buf.getLong(i) ^ pattern));
+        }
+        for (; i < to; i++)
+        {
+            if (buf.get(i) == target)
+            {
+                n++;
+            }
+        }
+        return n;
+    }
+
+    /**
+     * Scans the bytes that do not fill a whole word (or vector) one
+     * at a time.
+     *
+     * @param buf buffer to scan.
+     * @param from index of the first byte to scan.
+     * @param to index after the last byte to scan.
+     * @param targets bytes to look for.
+     * @param out positions found.
+     * @param n number of positions already in <code>out</code>.
+     * @return number of positions in <code>out</code>.
+     */
+    static int scanTail(ByteBuffer buf, int from, int to, byte[] targets,
+                        int[] out, int n)
+    {
+        for (int i = from; i < to; i++)
+        {
+            byte b = buf.get(i);
+            for (int t = 0; t < targets.length; t++)
+            {
+                if (b == targets[t])
+                {
+                    out[n++] = i;
+                    break;
+                }
+            }
+        }
+        return n;
+    }
+
+    /**
+     * Helper method to flag the zero bytes of a word: the high bit of
+     * each byte of the result is set exactly when that byte of
+     * <code>x</code> is zero.
+     */
+    private static long zeroBytes(long x)
+    {
+        return ~(((x & LOW7) + LOW7) | x | LOW7);
+    }
+
+}
@@ -19,7 +19,8 @@
  */
 package com.infomata.data;
 
-import java.util.Iterator;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
 
 /**
  * Implementation of DataFormat interface for tab delimited
@@ -28,7 +29,7 @@ import java.util.Iterator;
  * @author <a href="mailto:oldman1004@gmail.com">Sam Kim</a>
  * @version $Revision: 1.3 $
  */
-public class TabFormat implements DataFormat {
+public class TabFormat extends AbstractDataFormat implements ByteDataFormat, CellDataFormat {
 
     /**
      * parses a line of data separated by tab
@@ -45,18 +46,19 @@ public class TabFormat implements DataFormat {
 
         if (line != null) {
       
-            row = new DataRow();
+            row = createRow();
 
+            char[] cs = line.toCharArray();
             int last = 0;
-            int idx = line.indexOf(TAB, last);
       
-            while (idx >= 0) {
-                row.add(line.substring(last, idx));
-                last = idx + 1;
-                idx = line.indexOf(TAB, last);
+            for (int i = 0; i < cs.length; i++) {
+                if (cs[i] == TAB_CHAR) {
+                    addCell(row, cs, last, i - last);
+                    last = i + 1;
+                }
             }
 
-            row.add(line.substring(last));
+            addCell(row, cs, last, cs.length - last);
 
         }
 
@@ -69,23 +71,123 @@ public class TabFormat implements DataFormat {
      * @param row DataRow instance containing data.
      */
     public String format(DataRow row) {
+        FormatBuffer o = new FormatBuffer();
+        format(row, o);
+        return o.toString();
+    } // format(DataRow)
+
+    /**
+     * Appends the tab-separated data of the row to the buffer.  As in
+     * earlier versions, no tab is written until the line has content.
+     * @param row DataRow instance containing data.
+     * @param out buffer receiving the formatted line.
+     */
+    public void format(DataRow row, FormatBuffer out) {
+        int start = out.length();
+        int n = row.size();
+        for (int i = 0; i < n; i++) {
+            if (out.length() > start) {
+                out.append(TAB);
+            }
+            out.append(row.cell(i));
+        }
+    } // format(DataRow, FormatBuffer)
+
+    /**
+     * Appends a tab unless the cell is the first one, and the cell.
+     * Unlike {@link #format(DataRow, FormatBuffer)}, leading empty
+     * cells keep their tabs.
+     * @see com.infomata.data.CellDataFormat#formatCell(CharSequence, int, FormatBuffer)
+     */
+    public void formatCell(CharSequence cell, int column, FormatBuffer out) {
+        if (column > 0) {
+            out.append(TAB);
+        }
+        out.append(cell);
+    } // formatCell(CharSequence, int, FormatBuffer)
     
-        StringBuffer o = new StringBuffer();
-        Iterator i = row.iterator();
-        while (i.hasNext()) {
-            if (o.length() > 0) {
-                o.append(TAB);
+    /**
+     * Tab and new line characters are ASCII, so the byte scanner
+     * does not depend on the character set.
+     * @see com.infomata.data.ByteDataFormat#setCharset(Charset)
+     */
+    public void setCharset(Charset charset) {
+    }
+
+    /**
+     * Every line break ends a row.
+     * @see com.infomata.data.ByteDataFormat#getQuote()
+     */
+    public int getQuote() {
+        return -1;
+    }
+
+    /**
+     * Locates the tab separated cells of a row in encoded bytes.
+     * @see com.infomata.data.ByteDataFormat#scanRow(ByteBuffer, int, int, boolean, CellIndex)
+     */
+    public int scanRow(ByteBuffer buf, int start, int limit, boolean eof,
+                       CellIndex cells) {
+
+        cells.clear();
+
+        StructuralIndex index = cells.structure(STRUCTURAL);
+        int last = start;
+
+        for (int i = index.next(buf, start, limit); i < limit;
+             i = index.next(buf, i + 1, limit)) {
+            byte b = buf.get(i);
+            if (b == TAB_BYTE) {
+                cells.add(last, i, false);
+                last = i + 1;
+            }
+            else if (b == NEW_LINE || b == CR) {
+                int end = i + 1;
+                if (b == CR) {
+                    if (end == limit && !eof) {
+                        return -1;
+                    }
+                    if (end < limit && buf.get(end) == NEW_LINE) {
+                        end++;
+                    }
+                }
+                cells.add(last, i, false);
+                return end;
             }
-            o.append((String)i.next());
         }
 
-        return o.toString();
+        if (!eof) {
+            return -1;
+        }
+        cells.add(last, limit, false);
+        return limit;
+
+    } // scanRow(ByteBuffer, int, int, boolean, CellIndex)
+
+    /**
+     * Tab separated cells are never escaped; copies the content.
+     * @see com.infomata.data.ByteDataFormat#unescape(ByteBuffer, int, int, byte[])
+     */
+    public int unescape(ByteBuffer buf, int start, int end, byte[] dest) {
+        for (int i = start; i < end; i++) {
+            dest[i - start] = buf.get(i);
+        }
+        return end - start;
+    }
 
-    } // format(DataRow)
-    
     /**
      * constant for tab character in <code>String</code> format.
      */
     private static final String TAB = "\t";
 
+    private static final char TAB_CHAR = '\t';
+    private static final byte TAB_BYTE = '\t';
+    private static final byte NEW_LINE = '\n';
+    private static final byte CR = '\r';
+
+    /**
+     * Bytes that can end a cell or a row.
+     */
+    private static final byte[] STRUCTURAL = { TAB_BYTE, NEW_LINE, CR };
+
 }
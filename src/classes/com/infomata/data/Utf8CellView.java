@@ -0,0 +1,77 @@
+/*
+ * $Id$
+ *
+ * Copyright(c) 2002 Infomata
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+package com.infomata.data;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Cell content encoded in UTF-8, kept as bytes in the buffer it was
+ * read from.  The bytes are decoded on first access to the characters
+ * of the cell, so cells that are never used are never decoded.
+ *
+ * @version $Revision$
+ */
+final class Utf8CellView implements CharSequence {
+
+    private final ByteBuffer buf;
+    private final int offset;
+    private final int len;
+
+    /**
+     * Decoded content, once accessed.
+     */
+    private String value = null;
+
+    /**
+     * Creates a new <code>Utf8CellView</code> instance.
+     *
+     * @param buf buffer containing the cell.
+     * @param offset index of the first byte of the cell.
+     * @param len number of bytes in the cell.
+     */
+    Utf8CellView(ByteBuffer buf, int offset, int len) {
+        this.buf = buf;
+        this.offset = offset;
+        this.len = len;
+    }
+
+    public int length() {
+        return toString().length();
+    }
+
+    public char charAt(int index) {
+        return toString().charAt(index);
+    }
+
+    public CharSequence subSequence(int start, int end) {
+        return toString().subSequence(start, end);
+    }
+
+    public String toString() {
+        if (value == null) {
+            byte[] b = new byte[len];
+            buf.get(offset, b, 0, len);
+            value = new String(b, StandardCharsets.UTF_8);
+        }
+        return value;
+    }
+
+}
@@ -0,0 +1,109 @@
+/*
+ *
+ *
+ */
+package com.infomata.data.junit;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import junit.framework.TestCase;
+
+import com.infomata.data.ColumnBatch;
+import com.infomata.data.DataFileReader;
+import com.infomata.data.DataSchema;
+
+/**
+ * Tests reading columnar batches with and without memory mapping.
+ */
+public class ColumnBatchTest extends TestCase
+{
+    File file = null;
+
+    public void setUp() throws IOException
+    {
+        file = new File("column-batch-test.csv");
+        file.deleteOnExit();
+        FileOutputStream out = new FileOutputStream(file);
+        out.write(("id,name,price,qty\n"
+                   + "1,apple,1.25,10\n"
+                   + "2,\"pear, green\",,20\n"
+                   + "3,plum,n/a,3000000000\n"
+                   + "4,fig\n"
+                   + "5,\"kiwi\",2.5,7,extra\n").getBytes("UTF-8"));
+        out.close();
+    }
+
+    public void testLineBatches() throws IOException
+    {
+        read(false, false);
+    }
+
+    public void testMappedBatches() throws IOException
+    {
+        read(true, false);
+    }
+
+    public void testReusedBatches() throws IOException
+    {
+        read(true, true);
+    }
+
+    private void read(boolean mapped, boolean reuse) throws IOException
+    {
+        DataSchema schema = new DataSchema();
+        schema.setType(0, DataSchema.INT);
+        schema.setType("price", DataSchema.DOUBLE);
+        schema.setType("qty", DataSchema.LONG);
+
+        DataFileReader df = new DataFileReader("UTF-8");
+        df.setMemoryMapped(mapped);
+        df.setReuseRow(reuse);
+        df.containsHeader(true);
+        df.setSchema(schema);
+        df.open(file);
+        try
+        {
+            ColumnBatch b = df.nextBatch(3);
+            assertEquals(3, b.size());
+            assertEquals(4, b.getColumnCount());
+            assertEquals(DataSchema.STRING, b.getType(1));
+            assertEquals(2, b.getColumn("price"));
+            int[] ids = b.getInts(0);
+            assertEquals(1, ids[0]);
+            assertEquals(3, ids[2]);
+            assertEquals("pear, green", b.getString(1, 1));
+            assertEquals(1.25d, b.getDoubles(2)[0], 0d);
+            assertTrue(b.isNull(2, 1));
+            assertTrue(b.getNulls(2)[2]);
+            assertEquals("n/a", b.getString(2, 2));
+            assertEquals(3000000000L, b.getLongs(3)[2]);
+            assertEquals(20, b.getInt(3, 1));
+            assertNull(b.getDoubles(0));
+
+            char[] cs = b.getChars();
+            int start = b.getStarts(1)[0];
+            assertEquals("apple", new String(cs, start, b.getEnds(1)[0] - start));
+
+            b = df.nextBatch(3);
+            assertEquals(2, b.size());
+            assertEquals(5, b.getColumnCount());
+            assertEquals("fig", b.getCharSequence(1, 0).toString());
+            assertTrue(b.isNull(2, 0));
+            assertTrue(b.isNull(3, 0));
+            assertTrue(b.isNull(4, 0));
+            assertEquals("", b.getString(4, 0));
+            assertEquals("kiwi", b.getString(1, 1));
+            assertEquals(2.5d, b.getDouble(2, 1), 0d);
+            assertEquals("extra", b.getString(4, 1));
+
+            assertNull(df.nextBatch(3));
+        }
+        finally
+        {
+            df.close();
+        }
+    }
+
+}
@@ -114,6 +114,42 @@ public class CsvFormatTest extends DataFormatUT {
         assertEquals(4, row.size());
     }
 
+    public void testLongMultilineCell() throws java.io.IOException {
+        int lines = 100000;
+        StringBuffer text = new StringBuffer();
+        for (int i = 0; i < lines; i++) {
+            text.append((i == 0) ? "" : "\n").append("line ").append(i)
+                .append((i % 100 == 0) ? ", \"\"quoted\"\"" : "");
+        }
+        java.io.File file = new java.io.File("csv-long-cell.csv");
+        file.deleteOnExit();
+        java.io.Writer out = new java.io.OutputStreamWriter(
+            new java.io.FileOutputStream(file), "UTF-8");
+        out.write("a,\"" + text + "\",b\nnext,row\n\"open,\nend");
+        out.close();
+
+        String expected = text.toString().replaceAll("\"\"", "\"");
+        // a subclass parsing lines is read line by line.
+        DataFileReader df = new DataFileReader("UTF-8");
+        df.setCellViews(true);
+        df.setDataFormat(new CSVFormat() {
+            public DataRow parseLine(String line) {
+                return super.parseLine(line);
+            }
+        });
+        df.open(file);
+        DataRow row = df.next();
+        assertEquals(3, row.size());
+        assertEquals("a", row.getString(0));
+        assertEquals(expected, row.getString(1));
+        assertEquals("b", row.getString(2));
+        assertEquals("row", df.next().getString(1));
+        row = df.next();
+        assertEquals("\"open,\nend", row.getString(0));
+        assertNull(df.next());
+        df.close();
+    }
+
     /*
     public static Test suite() {
         return new TestSuite(CsvFormatTest.class);
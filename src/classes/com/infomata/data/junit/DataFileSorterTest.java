@@ -0,0 +1,197 @@
+/*
+ *
+ *
+ */
+package com.infomata.data.junit;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import com.infomata.data.CSVFormat;
+import com.infomata.data.DataFileReader;
+import com.infomata.data.DataFileSorter;
+import com.infomata.data.DataFileWriter;
+import com.infomata.data.DataRow;
+import com.infomata.data.DataSchema;
+import com.infomata.data.TabFormat;
+
+/**
+ * Tests sorting files in memory and through spilled runs.
+ */
+public class DataFileSorterTest extends TestCase
+{
+    private static final int ROWS = 20000;
+
+    File file = null;
+    File sorted = null;
+    List expected = null;
+
+    public void setUp() throws IOException
+    {
+        file = new File("sort-test.csv");
+        file.deleteOnExit();
+        sorted = new File("sort-test-out.csv");
+        sorted.deleteOnExit();
+
+        Random r = new Random(3);
+        List rows = new ArrayList();
+        DataFileWriter df = new DataFileWriter("UTF-8");
+        df.setDataFormat(new CSVFormat());
+        df.open(file);
+        df.writeString("name");
+        df.writeString("price");
+        df.writeString("day");
+        df.writeString("id");
+        df.endRow();
+        for (int i = 0; i < ROWS; i++)
+        {
+            String[] row = new String[4];
+            row[0] = "k" + r.nextInt(50) + ((i % 97 == 0) ? "\nsecond, line" : "");
+            row[1] = (i % 101 == 0) ? "" : String.valueOf(r.nextInt(200) / 4d - 10);
+            row[2] = (1 + r.nextInt(28)) + ".0" + (1 + r.nextInt(9)) + ".2020";
+            row[3] = String.valueOf(i);
+            for (int c = 0; c < row.length; c++)
+            {
+                df.writeString(row[c]);
+            }
+            df.endRow();
+            rows.add(row);
+        }
+        df.close();
+
+        // name ascending, price descending (empty first), input order
+        Collections.sort(rows, new Comparator()
+        {
+            public int compare(Object o1, Object o2)
+            {
+                String[] a = (String[])o1;
+                String[] b = (String[])o2;
+                int c = a[0].compareTo(b[0]);
+                if (c == 0)
+                {
+                    c = -Double.compare(price(a), price(b));
+                }
+                return c;
+            }
+
+            private double price(String[] row)
+            {
+                return (row[1].length() == 0) ? Double.NEGATIVE_INFINITY
+                    : Double.parseDouble(row[1]);
+            }
+        });
+        expected = rows;
+    }
+
+    public void testSortInMemory() throws IOException
+    {
+        DataFileSorter sorter = sorter();
+        sort(sorter);
+        assertEquals(0, sorter.getRunCount());
+        check();
+    }
+
+    public void testSortWithRuns() throws IOException
+    {
+        DataFileSorter sorter = sorter();
+        sorter.setMemoryLimit(64 * 1024);
+        sorter.setParallelism(2);
+        sort(sorter);
+        assertTrue(sorter.getRunCount() > 128);
+        check();
+    }
+
+    public void testDateKeys() throws IOException
+    {
+        DataFileSorter sorter = new DataFileSorter();
+        sorter.addDateKey("day", "d.MM.yyyy", false);
+        sorter.addKey(3, DataSchema.INT, true);
+        sorter.setMemoryLimit(256 * 1024);
+        DataFileReader in = new DataFileReader("UTF-8");
+        in.containsHeader(true);
+        in.open(file);
+        DataFileWriter out = new DataFileWriter("UTF-8");
+        out.setDataFormat(new TabFormat());
+        out.open(sorted);
+        sorter.sort(in, out);
+        in.close();
+        out.close();
+
+        in = new DataFileReader("UTF-8");
+        in.setDataFormat(new TabFormat());
+        in.open(sorted);
+        DataRow row = in.next();
+        assertEquals("day", row.getString(2));
+        long day = Long.MAX_VALUE;
+        int id = -1;
+        for (row = in.next(); row != null; row = in.next())
+        {
+            if (row.size() < 4)
+            {
+                continue; // second line of a multi-line name
+            }
+            long d = row.getEpochDay(2, "d.MM.yyyy", -1L);
+            assertTrue(d <= day);
+            if (d == day)
+            {
+                assertTrue(row.getInt(3) > id);
+            }
+            day = d;
+            id = row.getInt(3);
+        }
+        in.close();
+    }
+
+    private DataFileSorter sorter()
+    {
+        DataFileSorter sorter = new DataFileSorter();
+        sorter.addKey("name", DataSchema.STRING, true);
+        sorter.addKey(1, DataSchema.DOUBLE, false);
+        return sorter;
+    }
+
+    private void sort(DataFileSorter sorter) throws IOException
+    {
+        DataFileReader in = new DataFileReader("UTF-8");
+        in.containsHeader(true);
+        in.open(file);
+        DataFileWriter out = new DataFileWriter("UTF-8");
+        out.setDataFormat(new CSVFormat());
+        out.open(sorted);
+        try
+        {
+            sorter.sort(in, out);
+        }
+        finally
+        {
+            in.close();
+            out.close();
+        }
+    }
+
+    private void check() throws IOException
+    {
+        DataFileReader in = new DataFileReader("UTF-8");
+        in.containsHeader(true);
+        in.open(sorted);
+        assertEquals("price", in.getHeaderList().get(1));
+        for (int i = 0; i < expected.size(); i++)
+        {
+            String[] e = (String[])expected.get(i);
+            DataRow row = in.next();
+            for (int c = 0; c < e.length; c++)
+            {
+                assertEquals("row " + i, e[c], row.getString(c));
+            }
+        }
+        assertNull(in.next());
+        in.close();
+    }
+}
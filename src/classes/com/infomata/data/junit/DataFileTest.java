@@ -20,6 +20,7 @@ package com.infomata.data.junit;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.UnsupportedEncodingException;
 import java.util.List;
 
 import junit.framework.TestCase;
@@ -27,7 +28,13 @@ import junit.framework.TestCase;
 import com.infomata.data.CSVFormat;
 import com.infomata.data.DataFile;
 import com.infomata.data.DataFileFactory;
+import com.infomata.data.DataFileReader;
+import com.infomata.data.DataFileWriter;
 import com.infomata.data.DataRow;
+import com.infomata.data.FixedWidthFormat;
+import com.infomata.data.FormatBuffer;
+import com.infomata.data.ItemPerLineFormat;
+import com.infomata.data.TabFormat;
 
 /**
  * 
@@ -113,4 +120,249 @@ public class DataFileTest extends TestCase
         assertEquals(1, row.getInt("col 1"));
         df.close();
     }
+
+    /**
+     * Checks that an unknown encoding is reported as a checked
+     * <code>UnsupportedEncodingException</code>.
+     * @throws IOException
+     */
+    public void testUnsupportedEncoding() throws IOException
+    {
+        File file = new File("encoding-test.csv");
+        file.deleteOnExit();
+        DataFile df = DataFileFactory.createWriter("8859_1", false);
+        df.open(file);
+        df.next().add("a");
+        df.close();
+
+        df = DataFileFactory.createReader("no-such-encoding");
+        try
+        {
+            df.open(file);
+            fail("unknown encoding");
+        }
+        catch (UnsupportedEncodingException e)
+        {
+            // expected
+        }
+        try
+        {
+            df.open(file.toURI().toURL());
+            fail("unknown encoding");
+        }
+        catch (UnsupportedEncodingException e)
+        {
+            // expected
+        }
+        df.close();
+    }
+
+    /**
+     * Checks that a recycling reader refills the same row.
+     * @throws IOException
+     */
+    public void testReuseRow() throws IOException
+    {
+        File file = new File("reuse-row-test.csv");
+        file.deleteOnExit();
+
+        DataFile df = DataFileFactory.createWriter("8859_1", false);
+        df.setDataFormat(new CSVFormat());
+        df.open(file);
+        DataRow row = df.next();
+        row.add("a");
+        row.add("b");
+        for (int i = 0; i < 10; i++)
+        {
+            row = df.next();
+            row.add(i);
+            row.add("\"multi\nline " + i + "\"");
+        }
+        df.close();
+
+        for (int mode = 0; mode < 2; mode++)
+        {
+            DataFileReader reader = new DataFileReader("8859_1");
+            reader.setReuseRow(true);
+            reader.setMemoryMapped(mode == 1);
+            reader.containsHeader(true);
+            reader.open(file);
+            DataRow first = reader.next();
+            int n = 0;
+            for (row = first; row != null; row = reader.next())
+            {
+                assertSame(first, row);
+                assertEquals(2, row.size());
+                assertEquals(n, row.getInt("a"));
+                assertEquals("\"multi\nline " + n + "\"", row.getString("b"));
+                n++;
+            }
+            assertEquals(10, n);
+            reader.close();
+        }
+    }
+    /**
+     * Checks that a file written asynchronously is identical to the
+     * same file written synchronously.
+     */
+    public void testAsyncWrite() throws IOException
+    {
+        File sync = new File("datafile-sync.csv");
+        sync.deleteOnExit();
+        File async = new File("datafile-async.csv");
+        async.deleteOnExit();
+
+        write(sync, false);
+        write(async, true);
+
+        assertEquals(sync.length(), async.length());
+        java.io.DataInputStream a = new java.io.DataInputStream(
+                new java.io.FileInputStream(sync));
+        java.io.DataInputStream b = new java.io.DataInputStream(
+                new java.io.FileInputStream(async));
+        byte[] x = new byte[(int)sync.length()];
+        byte[] y = new byte[(int)async.length()];
+        a.readFully(x);
+        b.readFully(y);
+        a.close();
+        b.close();
+        assertTrue(java.util.Arrays.equals(x, y));
+    }
+
+    /**
+     * Checks that an error raised on the writing thread is thrown
+     * to the caller.
+     */
+    public void testAsyncError() throws IOException
+    {
+        File file = new File("datafile-error.csv");
+        file.deleteOnExit();
+        DataFileWriter df = new DataFileWriter("UTF-8");
+        df.setAsync(true);
+        df.setAsyncBufferRows(2);
+        df.setDataFormat(new CSVFormat()
+        {
+            public String format(DataRow row)
+            {
+                throw new IllegalStateException("broken format");
+            }
+        });
+        df.open(file);
+        try
+        {
+            for (int i = 0; i < 1000; i++)
+            {
+                df.next().add(i);
+            }
+            df.close();
+            fail("error not reported");
+        }
+        catch (IOException e)
+        {
+            assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+        try
+        {
+            df.close();
+            fail("error not reported on close");
+        }
+        catch (IOException e)
+        {
+            assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+        df.close();
+    }
+
+    /**
+     * Checks that rows formatted into the shared buffer and encoded in
+     * bulk match the formatted strings, for buffer formats, formats
+     * only producing strings and subclasses overriding
+     * <code>format(DataRow)</code>.
+     */
+    public void testBufferedEncoding() throws IOException
+    {
+        String nl = System.getProperty("line.separator");
+        StringBuffer text = new StringBuffer();
+        for (int i = 0; i < 5000; i++)
+        {
+            text.append("r\u00e9sum\u00e9 \ud83d\ude00 \u20ac" + i).append(nl);
+        }
+        String expected = text.toString();
+
+        assertEncoded(new ItemPerLineFormat(), "UTF-8", false, expected);
+        assertEncoded(new ItemPerLineFormat(), "UTF-8", true, expected);
+        assertEncoded(new TabFormat(), "UTF-8", false, expected);
+        assertEncoded(new CSVFormat(), "ISO-8859-1", false, expected);
+        assertEncoded(new CSVFormat()
+        {
+            public String format(DataRow row)
+            {
+                return "x";
+            }
+        }, "UTF-8", false, expected.replaceAll("[^\r\n]+", "x"));
+
+        DataRow row = new DataRow();
+        row.add("a");
+        row.add("bb");
+        row.add("");
+        row.add("d");
+        FixedWidthFormat fw = new FixedWidthFormat(new int[] {2, 1, 2});
+        FormatBuffer buf = new FormatBuffer(1);
+        fw.format(row, buf);
+        assertEquals("a b  ", buf.toString());
+        assertEquals(buf.toString(), fw.format(row));
+        CSVFormat csv = new CSVFormat();
+        row.add(" e,\"f\"");
+        assertEquals("a,bb,,d,\" e,\"\"f\"\"\"", csv.format(row));
+    }
+
+    private void assertEncoded(com.infomata.data.DataFormat fmt, String enc,
+            boolean async, String expected) throws IOException
+    {
+        File file = new File("datafile-encoded.txt");
+        file.deleteOnExit();
+        DataFileWriter df = new DataFileWriter(enc);
+        df.setAsync(async);
+        df.setDataFormat(fmt);
+        df.open(file);
+        for (int i = 0; i < 5000; i++)
+        {
+            df.next().add("r\u00e9sum\u00e9 \ud83d\ude00 \u20ac" + i);
+        }
+        df.close();
+
+        byte[] b = new byte[(int)file.length()];
+        java.io.DataInputStream in = new java.io.DataInputStream(
+                new java.io.FileInputStream(file));
+        in.readFully(b);
+        in.close();
+        assertTrue(java.util.Arrays.equals(expected.getBytes(enc), b));
+    }
+
+    private void write(File file, boolean async) throws IOException
+    {
+        DataFileWriter df = new DataFileWriter("UTF-8");
+        df.setAsync(async);
+        df.setAsyncBufferRows(7);
+        df.setDataFormat(new CSVFormat());
+        df.open(file);
+        try
+        {
+            for (int i = 0; i < 1000; i++)
+            {
+                DataRow row = df.next();
+                if (i % 100 != 0)
+                {
+                    row.add(i);
+                    row.add("text, \"" + i + "\"");
+                    row.add(i * 0.5d);
+                }
+            }
+            df.next().add("last");
+        }
+        finally
+        {
+            df.close();
+        }
+    }
 }
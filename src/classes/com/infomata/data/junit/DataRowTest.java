@@ -20,10 +20,20 @@ package com.infomata.data.junit;
 
 import java.io.File;
 import java.io.IOException;
+import java.text.NumberFormat;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.Locale;
 
 import junit.framework.TestCase;
 
 import com.infomata.data.CSVFormat;
+import com.infomata.data.DataFileReader;
+import com.infomata.data.ParseContext;
+import com.infomata.data.TabFormat;
 import com.infomata.data.DataFile;
 import com.infomata.data.DataFileFactory;
 import com.infomata.data.DataRow;
@@ -75,6 +85,185 @@ public class DataRowTest extends TestCase
         df.close();
     }
     
+    public void testCellViews()
+    {
+        CSVFormat fmt = new CSVFormat();
+        fmt.setCellViews(true);
+        DataRow row = fmt.parseLine(" 12,\"quoted, text\",-7 , \"a \"\"b\"\"\"");
+        assertEquals(4, row.size());
+        assertEquals(12, row.getInt(0));
+        assertEquals("quoted, text", row.getCharSequence(1).toString());
+        assertEquals(-7d, row.getDouble(2), 0d);
+        assertEquals("a \"b\"", row.getString(3));
+        assertEquals("quoted, text", row.getValues().get(1));
+
+        TabFormat tab = new TabFormat();
+        tab.setCellViews(true);
+        row = tab.parseLine("x\t1.5\t");
+        assertEquals(3, row.size());
+        assertEquals(1.5d, row.getDouble(1), 0d);
+        assertEquals("", row.getString(2));
+    }
+
+    public void testCellViewsOnRead() throws IOException
+    {
+        DataFileReader df = new DataFileReader("8859_1");
+        df.setCellViews(true);
+        df.open(file);
+        DataRow row = df.next();
+        assertEquals("item 2", row.getString(1));
+        assertEquals(1, row.getInt(2));
+        df.close();
+
+        df.setMemoryMapped(true);
+        df.open(file);
+        row = df.next();
+        assertEquals("item 1", row.getCharSequence(0).toString());
+        assertEquals(1, row.getInt(2));
+        df.close();
+    }
+
+    public void testParseContext()
+    {
+        ParseContext ctx = new ParseContext(NumberFormat.getInstance(Locale.GERMANY));
+        TabFormat fmt = new TabFormat();
+        fmt.setParseContext(ctx);
+        DataRow row = fmt.parseLine("1.100,5\t3");
+        assertEquals(1100.5d, row.getDouble(0), 0d);
+        assertEquals(3, row.getInt(1));
+        assertSame(ctx, fmt.getParseContext());
+    }
+
+    public void testReaderNumberFormat() throws IOException
+    {
+        DataFileReader df = new DataFileReader("8859_1");
+        df.setDataFormat(new TabFormat());
+        df.setNumberFormat(NumberFormat.getInstance(Locale.GERMANY));
+        File tab = new File("data-row-test.txt");
+        tab.deleteOnExit();
+        java.io.FileWriter out = new java.io.FileWriter(tab);
+        out.write("2,25\t1.000\n");
+        out.close();
+        df.open(tab);
+        DataRow row = df.next();
+        assertEquals(2.25d, row.getDouble(0), 0d);
+        assertEquals(1000, row.getInt(1, 0));
+        df.close();
+    }
+
+    public void testNumberParsing()
+    {
+        DataRow row = new DataRow(NumberFormat.getInstance(Locale.US));
+        row.add(" 1,234 ");
+        row.add("56-");
+        row.add("-0.125");
+        row.add("9876543210123");
+        row.add("1E3");
+        row.add("");
+        row.add("7.9");
+        row.add("12abc");
+        assertEquals(1234, row.getInt(0));
+        assertEquals(-56L, row.getLong(1));
+        assertEquals(-0.125d, row.getDouble(2), 0d);
+        assertEquals(9876543210123L, row.getLong(3));
+        assertEquals(1000d, row.getDouble(4), 0d);
+        assertEquals(-1L, row.getLong(5, -1L));
+        assertEquals(-1, row.getInt(5, -1));
+        assertEquals(7, row.getInt(6));
+        assertEquals(12L, row.getLong(7));
+        assertEquals(4L, row.getLong(99, 4L));
+
+        row = new DataRow(NumberFormat.getInstance(Locale.GERMANY));
+        row.add("1.234.567,5");
+        row.add("0,1-");
+        assertEquals(1234567.5d, row.getDouble(0), 0d);
+        assertEquals(-0.1d, row.getDouble(1), 0d);
+    }
+
+    public void testDoubleRounding()
+    {
+        DataRow row = new DataRow(NumberFormat.getInstance(Locale.US));
+        java.util.Random r = new java.util.Random(42);
+        String[] values = new String[2000];
+        for (int i = 0; i < values.length; i++)
+        {
+            double d = r.nextDouble() * Math.pow(10, r.nextInt(30) - 15);
+            values[i] = (i % 2 == 0) ? Double.toString(d).replaceAll("E.*", "")
+                : Long.toString(r.nextLong() % 1000000000L) + "." + r.nextInt(1000);
+            row.add(values[i]);
+        }
+        for (int i = 0; i < values.length; i++)
+        {
+            assertEquals(values[i], Double.parseDouble(values[i]),
+                         row.getDouble(i), 0d);
+        }
+    }
+
+    public void testLocalDates()
+    {
+        DataRow row = new DataRow();
+        row.add(" 2024-02-29 ");
+        row.add("20230115");
+        row.add("2023-02-30");
+        row.add("15.01.2023");
+        row.add("not a date");
+        row.add("1500-06-01");
+        assertEquals(LocalDate.of(2024, 2, 29), row.getLocalDate(0, null));
+        assertEquals(LocalDate.of(2023, 1, 15), row.getLocalDate(1, "yyyyMMdd"));
+        assertEquals(LocalDate.of(2023, 1, 15), row.getLocalDate(3, "dd.MM.yyyy"));
+        assertNull(row.getLocalDate(2, null));
+        assertEquals(LocalDate.of(2023, 2, 28), row.getLocalDate(2, "yyyy-MM-dd"));
+        assertNull(row.getLocalDate(4, "yyyy-MM-dd"));
+        assertNull(row.getLocalDate(9, null));
+        assertEquals(LocalDate.of(1500, 6, 1), row.getLocalDate(5, null));
+        assertEquals(LocalDate.of(2024, 2, 29).toEpochDay(),
+                     row.getEpochDay(0, "yyyy-MM-dd", -1L));
+        assertEquals(-1L, row.getEpochDay(4, null, -1L));
+
+        // the direct path agrees with the formatter
+        java.util.Random r = new java.util.Random(7);
+        DateTimeFormatter f = DateTimeFormatter.ofPattern("yyyy-MM-dd");
+        row = new DataRow();
+        String[] values = new String[3000];
+        for (int i = 0; i < values.length; i++)
+        {
+            values[i] = String.format("%04d-%02d-%02d", 1600 + r.nextInt(800),
+                                      1 + r.nextInt(12), 1 + r.nextInt(31));
+            row.add(values[i]);
+        }
+        for (int i = 0; i < values.length; i++)
+        {
+            assertEquals(values[i], LocalDate.parse(values[i], f),
+                         row.getLocalDate(i, "yyyy-MM-dd"));
+        }
+    }
+
+    public void testTimestamps()
+    {
+        DataRow row = new DataRow();
+        row.add("2023-05-06T07:08:09.123456");
+        row.add("2023-05-06T07:08:09+02:00");
+        row.add("2023-05-06 07:08:09");
+        row.add("2023-05-06T07:08Z");
+        row.add("06/05/2023 07:08");
+        row.add("2023-05-06T24:00:00");
+        LocalDateTime t = LocalDateTime.of(2023, 5, 6, 7, 8, 9, 123456000);
+        assertEquals(t, row.getLocalDateTime(0, null));
+        assertEquals(t.toInstant(ZoneOffset.UTC), row.getInstant(0, null));
+        assertNull(row.getLocalDateTime(1, null));
+        assertEquals(Instant.parse("2023-05-06T05:08:09Z"), row.getInstant(1, null));
+        assertEquals(LocalDateTime.of(2023, 5, 6, 7, 8, 9),
+                     row.getLocalDateTime(2, "yyyy-MM-dd HH:mm:ss"));
+        assertEquals(Instant.parse("2023-05-06T07:08:00Z").toEpochMilli(),
+                     row.getEpochMilli(3, null, -1L));
+        assertEquals(LocalDateTime.of(2023, 5, 6, 7, 8),
+                     row.getLocalDateTime(4, "dd/MM/yyyy HH:mm"));
+        assertNull(row.getLocalDateTime(5, null));
+        assertEquals(-1L, row.getEpochMilli(4, null, -1L));
+        assertEquals(Instant.parse("2023-05-06T07:08:09.123456Z").toEpochMilli(),
+                     row.getEpochMilli(0, null, -1L));
+    }
+
     public void tearDown()
     {
         
@@ -0,0 +1,135 @@
+/*
+ *
+ *
+ */
+package com.infomata.data.junit;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.text.NumberFormat;
+import java.util.Locale;
+
+import junit.framework.TestCase;
+
+import com.infomata.data.DataFileReader;
+import com.infomata.data.DataRow;
+import com.infomata.data.DataSchema;
+import com.infomata.data.DataTable;
+
+/**
+ * Tests loading data files into in-memory tables.
+ */
+public class DataTableTest extends TestCase
+{
+    File file = null;
+
+    public void setUp() throws IOException
+    {
+        file = new File("data-table-test.csv");
+        file.deleteOnExit();
+    }
+
+    public void testInferredSchema() throws IOException
+    {
+        write("id,big,price,name,code\n"
+              + "1,3000000000,1.5,apple,10\n"
+              + "2,,2,\"pear, green\",x1\n"
+              + "3,7,-0.25,\u0151sz\n");
+        DataTable t = read(new DataSchema(), true);
+
+        assertEquals(3, t.size());
+        assertEquals(5, t.getColumnCount());
+        assertEquals(DataSchema.INT, t.getType(0));
+        assertEquals(DataSchema.LONG, t.getType(1));
+        assertEquals(DataSchema.DOUBLE, t.getType(2));
+        assertEquals(DataSchema.STRING, t.getType(3));
+        assertEquals(DataSchema.STRING, t.getType(4));
+
+        int[] ids = t.getInts(0);
+        assertEquals(6, ids[0] + ids[1] + ids[2]);
+        assertEquals(3000000000L, t.getLong(1, 0));
+        assertTrue(t.isNull(1, 1));
+        assertEquals(0x2L, t.getNulls(1)[0]);
+        assertEquals(-0.25d, t.getDoubles(2)[2], 0d);
+        assertEquals("pear, green", t.getString(3, 1));
+        assertEquals("\u0151sz", t.getString(3, 2));
+        assertEquals("apple", t.getCharSequence(3, 0).toString());
+        assertTrue(t.isNull(4, 2));
+        assertEquals(2, t.find(3, "\u0151sz", 0));
+        assertEquals(-1, t.find(4, "x", 0));
+        assertEquals(4, t.getColumn("code"));
+
+        DataRow row = t.getRow(0);
+        assertEquals(1, row.getInt("id"));
+        assertEquals(3000000000L, row.getLong("big"));
+        assertEquals(1.5d, row.getDouble("price"), 0d);
+        assertEquals("apple", row.getString("name"));
+        assertEquals(DataSchema.LONG, t.getSchema().getType(1));
+    }
+
+    public void testDeclaredSchema() throws IOException
+    {
+        write("1;5\n2;1.000,5\n");
+        DataSchema schema = new DataSchema();
+        schema.setType(0, DataSchema.STRING);
+        schema.setType(1, DataSchema.DOUBLE);
+        DataFileReader df = new DataFileReader("UTF-8");
+        df.setDataFormat(new com.infomata.data.SimpleDelimiterFormat(";", null));
+        df.setNumberFormat(NumberFormat.getInstance(Locale.GERMANY));
+        df.setSchema(schema);
+        df.open(file);
+        DataTable t = df.readTable();
+        df.close();
+
+        assertEquals(DataSchema.STRING, t.getType(0));
+        assertEquals("2", t.getString(0, 1));
+        assertEquals(1000.5d, t.getDouble(1, 1), 0d);
+        assertEquals("1.000,5", t.getString(1, 1));
+    }
+
+    public void testMappedLoad() throws IOException
+    {
+        StringBuffer data = new StringBuffer("n,sq\n");
+        for (int i = 0; i < 10000; i++)
+        {
+            data.append(i).append(',').append(i * 0.5d).append('\n');
+        }
+        write(data.toString());
+        DataTable t = read(null, true);
+        assertEquals(10000, t.size());
+        double sum = 0;
+        double[] sq = t.getDoubles(1);
+        for (int i = 0; i < t.size(); i++)
+        {
+            sum += sq[i];
+        }
+        assertEquals(0.5d * 9999 * 10000 / 2, sum, 0d);
+        assertEquals(9999, t.getInt(0, 9999));
+    }
+
+    private DataTable read(DataSchema schema, boolean mapped) throws IOException
+    {
+        DataFileReader df = new DataFileReader("UTF-8");
+        df.setMemoryMapped(mapped);
+        df.containsHeader(true);
+        df.setSchema(schema);
+        df.open(file);
+        try
+        {
+            return df.readTable();
+        }
+        finally
+        {
+            df.close();
+        }
+    }
+
+    private void write(String data) throws IOException
+    {
+        FileOutputStream out = new FileOutputStream(file);
+        out.write(data.getBytes("UTF-8"));
+        out.close();
+    }
+
+}
@@ -0,0 +1,189 @@
+/*
+ *
+ *
+ */
+package com.infomata.data.junit;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import junit.framework.TestCase;
+
+import com.infomata.data.CSVFormat;
+import com.infomata.data.DataFileReader;
+import com.infomata.data.DataFileWriter;
+import com.infomata.data.DataRow;
+import com.infomata.data.FixedWidthFormat;
+
+/**
+ * Tests writing and reading gzip compressed files.
+ */
+public class GzipTest extends TestCase
+{
+    private static final int ROWS = 20000;
+
+    File plain = null;
+    File gz = null;
+
+    public void setUp() throws IOException
+    {
+        plain = new File("gzip-test.csv");
+        plain.deleteOnExit();
+        gz = new File("gzip-test.csv.gz");
+        gz.deleteOnExit();
+        write(plain, false, false);
+    }
+
+    public void testWriteBlocks() throws IOException
+    {
+        write(gz, true, false);
+        byte[] expected = readAll(new FileInputStream(plain));
+        byte[] actual = readAll(new GZIPInputStream(new FileInputStream(gz)));
+        assertTrue(expected.length > 4 * 0xff00);
+        assertEquals(expected.length, actual.length);
+        assertTrue(java.util.Arrays.equals(expected, actual));
+    }
+
+    public void testReadBlocks() throws IOException
+    {
+        write(gz, true, false);
+        check(gz, 1, false);
+        check(gz, 3, false);
+        check(gz, 3, true);
+    }
+
+    public void testAppend() throws IOException
+    {
+        write(gz, true, false);
+        write(gz, true, true);
+        DataFileReader df = new DataFileReader("UTF-8");
+        df.setGzipThreads(2);
+        df.open(gz);
+        int n = 0;
+        while (df.next() != null)
+        {
+            n++;
+        }
+        df.close();
+        assertEquals(2 * ROWS, n);
+    }
+
+    public void testReadStandardGzip() throws IOException
+    {
+        byte[] data = readAll(new FileInputStream(plain));
+        FileOutputStream out = new FileOutputStream(gz);
+        // two members, as written by concatenating gzip files.
+        for (int i = 0; i < 2; i++)
+        {
+            GZIPOutputStream z = new GZIPOutputStream(out)
+            {
+                public void close() throws IOException
+                {
+                    finish();
+                }
+            };
+            int half = data.length / 2;
+            z.write(data, i * half, (i == 0) ? half : data.length - half);
+            z.close();
+        }
+        out.close();
+        check(gz, 2, false);
+    }
+
+    public void testLineFormat() throws IOException
+    {
+        FixedWidthFormat fmt = new FixedWidthFormat(new int[] { 3, 4 });
+        DataFileWriter w = new DataFileWriter("ISO-8859-1");
+        w.setGzip(true);
+        w.setDataFormat(fmt);
+        w.open(gz);
+        for (int i = 0; i < 100; i++)
+        {
+            DataRow row = w.next();
+            row.add("r" + (i % 10));
+            row.add(i);
+        }
+        w.close();
+
+        DataFileReader df = new DataFileReader("ISO-8859-1");
+        df.setDataFormat(fmt);
+        df.open(gz);
+        for (int i = 0; i < 100; i++)
+        {
+            DataRow row = df.next();
+            assertEquals(i, row.getInt(1));
+        }
+        assertNull(df.next());
+        df.close();
+    }
+
+    private void check(File file, int threads, boolean mapped)
+        throws IOException
+    {
+        DataFileReader df = new DataFileReader("UTF-8");
+        df.setGzipThreads(threads);
+        df.setMemoryMapped(mapped);
+        df.containsHeader(true);
+        df.open(file);
+        try
+        {
+            int n = 0;
+            for (DataRow row = df.next(); row != null; row = df.next())
+            {
+                assertEquals(n, row.getInt("id"));
+                assertEquals("text, \"" + n + "\"", row.getString("text"));
+                n++;
+            }
+            assertEquals(ROWS - 1, n);
+        }
+        finally
+        {
+            df.close();
+        }
+    }
+
+    private void write(File file, boolean gzip, boolean append)
+        throws IOException
+    {
+        DataFileWriter df = new DataFileWriter("UTF-8");
+        df.setGzip(gzip);
+        df.setGzipThreads(3);
+        df.setAppendToFile(append);
+        df.setDataFormat(new CSVFormat());
+        df.open(file);
+        try
+        {
+            DataRow row = df.next();
+            row.add("id");
+            row.add("text");
+            for (int i = 0; i < ROWS - 1; i++)
+            {
+                row = df.next();
+                row.add(i);
+                row.add("text, \"" + i + "\"");
+            }
+        }
+        finally
+        {
+            df.close();
+        }
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] b = new byte[8192];
+        for (int n = in.read(b); n >= 0; n = in.read(b))
+        {
+            out.write(b, 0, n);
+        }
+        in.close();
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,214 @@
+/*
+ *
+ *
+ */
+package com.infomata.data.junit;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import junit.framework.TestCase;
+
+import com.infomata.data.CSVFormat;
+import com.infomata.data.DataFormat;
+import com.infomata.data.DataFileReader;
+import com.infomata.data.DataRow;
+import com.infomata.data.SimpleDelimiterFormat;
+import com.infomata.data.TabFormat;
+
+/**
+ * Compares rows read in memory mapped mode and from a stream of bytes
+ * with rows read line by line.
+ */
+public class MappedReadTest extends TestCase
+{
+    File file = null;
+
+    public void setUp()
+    {
+        file = new File("mapped-read-test.txt");
+        file.deleteOnExit();
+    }
+
+    public void testCsv() throws IOException
+    {
+        write("a,b,c\n"
+              + "1, \"two, 2\",3.5\r\n"
+              + "\"multi\r\nline \"\"quoted\"\"\",,\n"
+              + "\"simple\",x,\"\"\n"
+              + "last,row");
+        compare(new CSVFormat(), 5);
+    }
+
+    public void testTab() throws IOException
+    {
+        write("a\tb\tc\n\n1\t2\t3\r\n\t\tx\rlast");
+        compare(new TabFormat(), 5);
+    }
+
+    public void testSimpleDelimiter() throws IOException
+    {
+        write("a||b||c\nx\\||y||z\n\n1||2||3\n");
+        compare(new SimpleDelimiterFormat("||", "\\"), 4);
+    }
+
+    public void testUtf8() throws IOException
+    {
+        write("\u00e1rv\u00edzt\u0171r\u0151,\"t\u00fck\u00f6rf\u00far\u00f3g\u00e9p\"\n\u20ac,1\n");
+        compare(new CSVFormat(), 2);
+    }
+
+    public void testLatin1() throws IOException
+    {
+        FileOutputStream out = new FileOutputStream(file);
+        out.write("caf\u00e9,\"na\u00efve, \u00bd\"\n\u00ff\n".getBytes("ISO-8859-1"));
+        out.close();
+        for (int views = 0; views < 2; views++)
+        {
+            DataFileReader df = new DataFileReader("ISO-8859-1");
+            df.setCellViews(views == 1);
+            df.setStreamBufferSize(3);
+            df.open(file);
+            DataRow row = df.next();
+            assertEquals("caf\u00e9", row.getString(0));
+            assertEquals("na\u00efve, \u00bd", row.getString(1));
+            assertEquals("\u00ff", df.next().getString(0));
+            assertNull(df.next());
+            df.close();
+        }
+    }
+
+    public void testLongCells() throws IOException
+    {
+        java.util.Random r = new java.util.Random(7);
+        StringBuffer csv = new StringBuffer();
+        StringBuffer tab = new StringBuffer();
+        for (int row = 0; row < 12; row++)
+        {
+            for (int cell = 0; cell < 3; cell++)
+            {
+                String text = word(r, 20 + r.nextInt(60));
+                if (cell > 0)
+                {
+                    csv.append(',');
+                    tab.append('\t');
+                }
+                tab.append(text);
+                if (r.nextBoolean())
+                {
+                    csv.append('"').append(text).append(", \"\"q\"\"\n")
+                       .append(text).append('"');
+                }
+                else
+                {
+                    csv.append(text);
+                }
+            }
+            csv.append(row % 3 == 0 ? "\r\n" : "\n");
+            tab.append(row % 3 == 0 ? "\r\n" : "\n");
+        }
+        write(csv.toString());
+        compare(new CSVFormat(), 12);
+        write(tab.toString());
+        compare(new TabFormat(), 12);
+        write(tab.toString().replace('\t', '|'));
+        compare(new SimpleDelimiterFormat("|", "\\"), 12);
+    }
+
+    private static String word(java.util.Random r, int len)
+    {
+        char[] cs = new char[len];
+        for (int i = 0; i < len; i++)
+        {
+            cs[i] = (char)('a' + r.nextInt(26));
+        }
+        return new String(cs);
+    }
+
+    public void testHeader() throws IOException
+    {
+        write("col 1,col 2\n1,2\n3,4\n");
+        DataFileReader df = new DataFileReader("UTF-8");
+        df.setMemoryMapped(true);
+        df.containsHeader(true);
+        df.open(file);
+        assertEquals("col 2", df.getHeaderList().get(1));
+        DataRow row = df.next();
+        assertEquals(2, row.getInt("col 2"));
+        row = df.next();
+        assertEquals(3, row.getInt("col 1"));
+        assertNull(df.next());
+        df.close();
+    }
+
+    /**
+     * Reads the file line by line, and in mapped mode and from a stream
+     * with windows of every size up to the file size (with and without
+     * cell views), and checks the rows match.
+     */
+    private void compare(final DataFormat fmt, int rows) throws IOException
+    {
+        // hides the byte scanning of the format to read line by line.
+        DataFormat lines = new DataFormat()
+        {
+            public DataRow parseLine(String line)
+            {
+                return fmt.parseLine(line);
+            }
+
+            public String format(DataRow row)
+            {
+                return fmt.format(row);
+            }
+        };
+        DataRow[] expected = read(lines, false, 0, false);
+        assertEquals(rows, expected.length);
+        for (int w = 1; w <= file.length() * 4; w++)
+        {
+            boolean mapped = w % 4 < 2;
+            DataRow[] actual = read(fmt, mapped, w / 4 + 1, w % 2 == 0);
+            assertEquals("window " + w, expected.length, actual.length);
+            for (int i = 0; i < expected.length; i++)
+            {
+                assertEquals("window " + w + ", row " + i,
+                        expected[i].getValues(), actual[i].getValues());
+            }
+        }
+    }
+
+    private DataRow[] read(DataFormat fmt, boolean mapped, int window,
+                           boolean views) throws IOException
+    {
+        DataFileReader df = new DataFileReader("UTF-8");
+        df.setDataFormat(fmt);
+        df.setMemoryMapped(mapped);
+        df.setCellViews(views);
+        if (window > 0)
+        {
+            df.setMappedWindowSize(window);
+            df.setStreamBufferSize(window);
+        }
+        java.util.ArrayList rows = new java.util.ArrayList();
+        try
+        {
+            df.open(file);
+            for (DataRow row = df.next(); row != null; row = df.next())
+            {
+                rows.add(row);
+            }
+        }
+        finally
+        {
+            df.close();
+        }
+        return (DataRow[])rows.toArray(new DataRow[rows.size()]);
+    }
+
+    private void write(String content) throws IOException
+    {
+        FileOutputStream out = new FileOutputStream(file);
+        out.write(content.getBytes("UTF-8"));
+        out.close();
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ *
+ *
+ */
+package com.infomata.data.junit;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.Set;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import junit.framework.TestCase;
+
+import com.infomata.data.CSVFormat;
+import com.infomata.data.DataFileReader;
+import com.infomata.data.DataFileStats;
+import com.infomata.data.DataFileWriter;
+import com.infomata.data.DataRow;
+
+/**
+ * Tests the metrics published by readers and writers.
+ */
+public class MetricsTest extends TestCase
+{
+    File file = null;
+
+    public void setUp() throws IOException
+    {
+        file = new File("metrics-test.csv");
+        file.deleteOnExit();
+        DataFileWriter w = new DataFileWriter("UTF-8");
+        w.setMetricsEnabled(true);
+        w.setDataFormat(new CSVFormat());
+        w.open(file);
+        for (int i = 0; i < 100; i++)
+        {
+            DataRow row = w.next();
+            row.add((i == 7) ? "x7" : Integer.toString(i));
+            row.add((i % 10 == 0) ? "\"two\nlines\"" : "text " + i);
+        }
+        w.close();
+        DataFileStats stats = w.getStats();
+        assertEquals(100, stats.getRows());
+        assertEquals(file.length(), stats.getBytes());
+        assertEquals(0, stats.getOpenFiles());
+    }
+
+    public void testDisabled() throws IOException
+    {
+        DataFileReader df = new DataFileReader("UTF-8");
+        df.open(file);
+        assertNull(df.getStats());
+        df.close();
+    }
+
+    public void testReaders() throws IOException
+    {
+        for (int mode = 0; mode < 3; mode++)
+        {
+            DataFileReader df = new DataFileReader("UTF-8");
+            df.setMetricsEnabled(true);
+            df.setMemoryMapped(mode == 1);
+            if (mode == 2)
+            {
+                df.setDataFormat(new CSVFormat()
+                {
+                    public DataRow parseLine(String line)
+                    {
+                        return super.parseLine(line);
+                    }
+                });
+            }
+            df.open(file);
+            DataFileStats stats = df.getStats();
+            assertEquals(1, stats.getOpenFiles());
+            assertEquals(1, registered("type=DataFileReader,id=*,source="
+                    + ObjectName.quote(file.getPath())));
+            int n = 0;
+            for (DataRow row = df.next(); row != null; row = df.next())
+            {
+                assertEquals((n == 7) ? -1 : n, row.getInt(0, -1));
+                n++;
+            }
+            assertEquals("mode " + mode, 100, stats.getRows());
+            assertEquals("mode " + mode, 10, stats.getMultilineRows());
+            assertEquals("mode " + mode, 1, stats.getParseErrors());
+            assertEquals("mode " + mode, file.length(), stats.getBytes());
+            assertTrue(stats.getMeanRowMicros() > 0);
+            assertTrue(stats.getMaxRowMicros() >= stats.getMeanRowMicros());
+            df.close();
+            assertEquals(0, stats.getOpenFiles());
+        }
+        assertEquals(0, registered("type=DataFileReader,id=*,*"));
+        assertEquals(1, registered("type=DataFileReader,format="
+                + ObjectName.quote(CSVFormat.class.getName())));
+    }
+
+    public void testFailedOpen() throws IOException
+    {
+        File missing = new File("no-such-dir", "metrics-missing.csv");
+        DataFileReader df = new DataFileReader("UTF-8");
+        df.setMetricsEnabled(true);
+        try
+        {
+            df.open(missing.toURI().toURL());
+            fail("missing file opened");
+        }
+        catch (IOException e)
+        {
+            // expected
+        }
+        assertEquals(0, registered("type=DataFileReader,id=*,*"));
+
+        DataFileWriter w = new DataFileWriter("UTF-8");
+        w.setMetricsEnabled(true);
+        try
+        {
+            w.open(missing.toURI().toURL());
+            fail("file opened in missing directory");
+        }
+        catch (IOException e)
+        {
+            // expected
+        }
+        assertEquals(0, registered("type=DataFileWriter,id=*,*"));
+    }
+
+    private int registered(String properties) throws IOException
+    {
+        try
+        {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            Set names = server.queryNames(new ObjectName("com.infomata.data:"
+                    + properties), null);
+            return names.size();
+        }
+        catch (javax.management.MalformedObjectNameException e)
+        {
+            throw new IOException(e.toString());
+        }
+    }
+}
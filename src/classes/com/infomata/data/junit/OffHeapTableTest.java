@@ -0,0 +1,185 @@
+/*
+ *
+ *
+ */
+package com.infomata.data.junit;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.time.LocalDate;
+
+import junit.framework.TestCase;
+
+import com.infomata.data.DataFileReader;
+import com.infomata.data.DataRow;
+import com.infomata.data.OffHeapTable;
+
+/**
+ * Tests loading files into an off-heap table.
+ */
+public class OffHeapTableTest extends TestCase
+{
+    private static final int ROWS = 150000;
+
+    File file = null;
+
+    public void setUp() throws IOException
+    {
+        file = new File("off-heap-test.csv");
+        file.deleteOnExit();
+        Writer out = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+        out.write("id,name,price,day\n");
+        out.write("1,\"caf\u00e9, \"\"noir\"\"\",2.5,2024-02-29\n");
+        out.write("2,\u65e5\u672c,,29.02.2024\n");
+        out.write("3,x\n");
+        for (int i = 4; i <= ROWS; i++)
+        {
+            out.write(i + ",row " + i + "," + (i / 4d) + ",2020-01-01\n");
+        }
+        out.close();
+    }
+
+    public void testLineRead() throws IOException
+    {
+        read(false);
+    }
+
+    public void testMappedRead() throws IOException
+    {
+        read(true);
+    }
+
+    public void testConcurrentReads() throws Exception
+    {
+        DataFileReader df = new DataFileReader("UTF-8");
+        df.containsHeader(true);
+        df.open(file);
+        final OffHeapTable t = df.readOffHeapTable();
+        df.close();
+        final long[] sums = new long[4];
+        Thread[] threads = new Thread[sums.length];
+        for (int i = 0; i < threads.length; i++)
+        {
+            final int n = i;
+            threads[i] = new Thread()
+            {
+                public void run()
+                {
+                    for (long r = 3; r < ROWS; r++)
+                    {
+                        sums[n] += t.getLong(0, r) + (long)(t.getDouble(2, r) * 4);
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (int i = 0; i < threads.length; i++)
+        {
+            threads[i].join();
+        }
+        long expected = (long)ROWS * (ROWS + 1) - 12;
+        for (int i = 0; i < sums.length; i++)
+        {
+            assertEquals(expected, sums[i]);
+        }
+        t.close();
+        try
+        {
+            t.getInt(0, 0);
+            fail("closed table read");
+        }
+        catch (IllegalStateException e)
+        {
+            // expected
+        }
+    }
+
+    public void testIntRange() throws IOException
+    {
+        File big = new File("off-heap-int.csv");
+        big.deleteOnExit();
+        Writer out = new OutputStreamWriter(new FileOutputStream(big), "UTF-8");
+        out.write("2147483647,2147483648,-2147483649\n");
+        out.close();
+        DataFileReader df = new DataFileReader("UTF-8");
+        df.open(big);
+        OffHeapTable t = df.readOffHeapTable();
+        df.close();
+        try
+        {
+            assertEquals(Integer.MAX_VALUE, t.getInt(0, 0));
+            assertEquals(2147483648L, t.getLong(1, 0));
+            assertEquals(-1, t.getInt(1, 0, -1));
+            assertEquals(-1, t.getInt(2, 0, -1));
+            t.getInt(1, 0);
+            fail("int overflow");
+        }
+        catch (NumberFormatException e)
+        {
+            // expected
+        }
+        finally
+        {
+            t.close();
+        }
+    }
+
+    private void read(boolean mapped) throws IOException
+    {
+        DataFileReader df = new DataFileReader("UTF-8");
+        df.setMemoryMapped(mapped);
+        df.setCellViews(true);
+        df.containsHeader(true);
+        df.open(file);
+        OffHeapTable t = df.readOffHeapTable();
+        df.close();
+        try
+        {
+            assertEquals(ROWS, t.size());
+            assertEquals(4, t.getColumnCount());
+            assertEquals(2, t.getColumn("price"));
+            assertEquals("day", t.getLabel(3));
+            assertTrue(t.getMemorySize() > file.length());
+
+            assertEquals("caf\u00e9, \"noir\"", t.getString(1, 0));
+            assertEquals(2.5d, t.getDouble(2, 0), 0d);
+            assertEquals(LocalDate.of(2024, 2, 29), t.getLocalDate(3, 0, null));
+            assertEquals("\u65e5\u672c", t.getCharSequence(1, 1).toString());
+            assertEquals('\u672c', t.getCharSequence(1, 1).charAt(1));
+            assertEquals(-1d, t.getDouble(2, 1, -1d), 0d);
+            assertEquals(LocalDate.of(2024, 2, 29).toEpochDay(),
+                         t.getEpochDay(3, 1, "dd.MM.yyyy", -1L));
+            assertEquals(2, t.getCellCount(2));
+            assertEquals("", t.getString(3, 2));
+            assertEquals(7, t.getInt(2, 2, 7));
+
+            long last = ROWS - 1;
+            assertEquals(ROWS, t.getInt(0, last));
+            assertEquals((long)ROWS, t.getLong(0, last));
+            assertEquals(ROWS / 4d, t.getDouble(2, last), 0d);
+            assertEquals(last, t.find(1, "row " + ROWS, 0));
+            assertEquals(-1, t.find(1, "row " + ROWS, ROWS));
+
+            DataRow r = t.getRow(ROWS / 2);
+            assertEquals(ROWS / 2 + 1, r.getInt("id"));
+            assertEquals("2020-01-01", r.getString("day"));
+        }
+        finally
+        {
+            t.close();
+        }
+        t.close();
+        try
+        {
+            t.getString(0, 0);
+            fail("closed table read");
+        }
+        catch (IllegalStateException e)
+        {
+            // expected
+        }
+    }
+}
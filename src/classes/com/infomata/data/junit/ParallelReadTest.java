@@ -0,0 +1,231 @@
+/*
+ *
+ *
+ */
+package com.infomata.data.junit;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import com.infomata.data.CSVFormat;
+import com.infomata.data.DataFileReader;
+import com.infomata.data.DataFormat;
+import com.infomata.data.DataRow;
+import com.infomata.data.RowFilter;
+import com.infomata.data.TabFormat;
+
+/**
+ * Compares rows read in parallel with rows read sequentially.
+ */
+public class ParallelReadTest extends TestCase
+{
+    File file = null;
+
+    public void setUp()
+    {
+        file = new File("parallel-read-test.txt");
+        file.deleteOnExit();
+    }
+
+    public void testCsvOrdered() throws IOException
+    {
+        writeCsv(500);
+        List expected = read(new CSVFormat(), 1, 0, true, false);
+        assertEquals(501, expected.size());
+        int[] chunks = {1, 7, 64, 1000, 100000};
+        for (int i = 0; i < chunks.length; i++)
+        {
+            assertEquals("chunk " + chunks[i], expected,
+                    read(new CSVFormat(), 3, chunks[i], true, false));
+        }
+    }
+
+    public void testCsvUnordered() throws IOException
+    {
+        writeCsv(300);
+        List expected = read(new CSVFormat(), 1, 0, true, false);
+        List actual = read(new CSVFormat(), 4, 50, false, false);
+        Collections.sort(expected);
+        Collections.sort(actual);
+        assertEquals(expected, actual);
+    }
+
+    public void testHeader() throws IOException
+    {
+        writeCsv(100);
+        DataFileReader df = new DataFileReader("UTF-8");
+        df.containsHeader(true);
+        df.setParallelism(2);
+        df.setParallelChunkSize(100);
+        df.open(file);
+        assertEquals("text", df.getHeaderList().get(1));
+        int n = 0;
+        for (DataRow row = df.next(); row != null; row = df.next())
+        {
+            assertEquals(n++, row.getInt("id"));
+        }
+        assertEquals(100, n);
+        df.close();
+    }
+
+    public void testReopenUrl() throws IOException
+    {
+        writeCsv(100);
+        DataFileReader df = new DataFileReader("UTF-8");
+        df.containsHeader(true);
+        df.setParallelism(2);
+        df.setParallelChunkSize(100);
+        df.open(file);
+        for (int i = 0; i < 10; i++)
+        {
+            df.next();
+        }
+        df.open(file.toURI().toURL());
+        int n = 0;
+        for (DataRow row = df.next(); row != null; row = df.next())
+        {
+            assertEquals(n++, row.getInt("id"));
+        }
+        assertEquals(100, n);
+        df.close();
+    }
+
+    public void testTab() throws IOException
+    {
+        StringBuffer o = new StringBuffer();
+        for (int i = 0; i < 400; i++)
+        {
+            o.append(i).append('\t').append("value ").append(i % 17)
+                .append(i % 3 == 0 ? "\r\n" : "\n");
+        }
+        write(o.toString());
+        List expected = read(new TabFormat(), 1, 0, true, false);
+        assertEquals(400, expected.size());
+        assertEquals(expected, read(new TabFormat(), 2, 33, true, true));
+    }
+
+    /**
+     * Checks that a range filter gives the same rows in parallel when
+     * its cells need the <code>NumberFormat</code> (exponents and
+     * grouped numbers), which each worker must not share.
+     */
+    public void testRangeFilter() throws IOException
+    {
+        StringBuffer o = new StringBuffer("id,value\n");
+        for (int i = 0; i < 20000; i++)
+        {
+            o.append(i).append(',');
+            if (i % 2 == 0)
+            {
+                o.append(i).append("E0");
+            }
+            else
+            {
+                o.append("\"").append(i / 1000).append(',')
+                    .append(String.valueOf(1000 + i % 1000).substring(1))
+                    .append("\"");
+            }
+            o.append('\n');
+        }
+        write(o.toString());
+
+        List expected = null;
+        for (int threads = 1; threads <= 4; threads += 3)
+        {
+            DataFileReader df = new DataFileReader("UTF-8");
+            df.setNumberFormat(java.text.NumberFormat.getInstance(java.util.Locale.US));
+            df.containsHeader(true);
+            df.setFilter(RowFilter.range("value", 5000, 15000));
+            if (threads > 1)
+            {
+                df.setParallelism(threads);
+                df.setParallelChunkSize(4096);
+            }
+            List ids = new ArrayList();
+            df.open(file);
+            for (DataRow row = df.next(); row != null; row = df.next())
+            {
+                ids.add(row.getString("id"));
+            }
+            df.close();
+            if (expected == null)
+            {
+                expected = ids;
+                assertEquals(10001, ids.size());
+            }
+            else
+            {
+                assertEquals(expected, ids);
+            }
+        }
+    }
+
+    private void writeCsv(int rows) throws IOException
+    {
+        Random rnd = new Random(rows);
+        StringBuffer o = new StringBuffer("id,text,number\n");
+        for (int i = 0; i < rows; i++)
+        {
+            o.append(i).append(',');
+            switch (rnd.nextInt(4))
+            {
+            case 0:
+                o.append("plain ").append(i);
+                break;
+            case 1:
+                o.append("\"quoted, \"\"with\"\" comma\"");
+                break;
+            case 2:
+                o.append("\"multi\nline\r\n\"\"cell\"\"\n,\n\"");
+                break;
+            default:
+                o.append("\"\"");
+            }
+            o.append(',').append(rnd.nextInt(1000));
+            o.append(rnd.nextBoolean() ? "\r\n" : "\n");
+        }
+        write(o.toString());
+    }
+
+    private List read(DataFormat fmt, int threads, int chunk,
+                      boolean ordered, boolean views) throws IOException
+    {
+        DataFileReader df = new DataFileReader("UTF-8");
+        df.setDataFormat(fmt);
+        df.setCellViews(views);
+        if (threads > 1)
+        {
+            df.setParallelism(threads);
+            df.setParallelChunkSize(chunk);
+            df.setOrdered(ordered);
+        }
+        List rows = new ArrayList();
+        try
+        {
+            df.open(file);
+            for (DataRow row = df.next(); row != null; row = df.next())
+            {
+                rows.add(row.getValues().toString());
+            }
+        }
+        finally
+        {
+            df.close();
+        }
+        return rows;
+    }
+
+    private void write(String content) throws IOException
+    {
+        FileOutputStream out = new FileOutputStream(file);
+        out.write(content.getBytes("UTF-8"));
+        out.close();
+    }
+}
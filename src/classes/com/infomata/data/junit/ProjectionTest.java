@@ -0,0 +1,162 @@
+/*
+ *
+ *
+ */
+package com.infomata.data.junit;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import junit.framework.TestCase;
+
+import com.infomata.data.CSVFormat;
+import com.infomata.data.ColumnBatch;
+import com.infomata.data.DataFileReader;
+import com.infomata.data.DataRow;
+import com.infomata.data.FixedWidthFormat;
+import com.infomata.data.SimpleDelimiterFormat;
+import com.infomata.data.TabFormat;
+
+/**
+ * Tests reading a projection of the columns.
+ */
+public class ProjectionTest extends TestCase
+{
+    File file = null;
+
+    public void setUp() throws IOException
+    {
+        file = new File("projection-test.csv");
+        file.deleteOnExit();
+        StringBuffer sb = new StringBuffer("a,b,c,d,e\n");
+        for (int i = 0; i < 300; i++)
+        {
+            sb.append(i).append(",\"skip, \"\"me\"\"\",")
+              .append("\"keep\n").append(i).append("\",x,")
+              .append(i * 2).append('\n');
+        }
+        FileOutputStream out = new FileOutputStream(file);
+        out.write(sb.toString().getBytes("UTF-8"));
+        out.close();
+    }
+
+    public void testParseLine()
+    {
+        CSVFormat csv = new CSVFormat();
+        csv.setProjection(new int[] { 2, 0 });
+        DataRow row = csv.parseLine("1,\"a, \"\"b\"\"\",c, \"d\"");
+        assertEquals(4, row.size());
+        assertEquals("1", row.getString(0));
+        assertEquals("", row.getString(1));
+        assertEquals("c", row.getString(2));
+        assertEquals("", row.getString(3));
+
+        TabFormat tab = new TabFormat();
+        tab.setProjection(new int[] { 1 });
+        row = tab.parseLine("x\ty\tz");
+        assertEquals(3, row.size());
+        assertEquals("y", row.getString(1));
+        assertEquals("", row.getString(2));
+
+        SimpleDelimiterFormat sd = new SimpleDelimiterFormat("|", "\\");
+        sd.setProjection(new int[] { 2 });
+        row = sd.parseLine("a|b\\|b|c");
+        assertEquals("", row.getString(0));
+        assertEquals("c", row.getString(2));
+
+        FixedWidthFormat fixed = new FixedWidthFormat(new int[] { 2, 3, 2 });
+        fixed.setProjection(new int[] { 1 });
+        row = fixed.parseLine("ab cd ef");
+        assertEquals("", row.getString(0));
+        assertEquals("cd", row.getString(1));
+        assertEquals("", row.getString(2));
+    }
+
+    public void testReadByLabel() throws IOException
+    {
+        for (int mode = 0; mode < 3; mode++)
+        {
+            DataFileReader df = new DataFileReader("UTF-8");
+            df.setMemoryMapped(mode == 1);
+            if (mode == 2)
+            {
+                df.setParallelism(2);
+                df.setParallelChunkSize(512);
+            }
+            df.containsHeader(true);
+            df.setProjection(new String[] { "e", "c" });
+            df.open(file);
+            assertEquals("b", df.getHeaderList().get(1));
+            int n = 0;
+            for (DataRow row = df.next(); row != null; row = df.next())
+            {
+                assertEquals("mode " + mode, 5, row.size());
+                assertEquals("", row.getString("a"));
+                assertEquals("", row.getString("b"));
+                assertEquals("keep\n" + n, row.getString("c"));
+                assertEquals("", row.getString(3));
+                assertEquals(n * 2, row.getInt("e"));
+                n++;
+            }
+            assertEquals(300, n);
+            df.close();
+        }
+    }
+
+    public void testLineFormat() throws IOException
+    {
+        // a subclass overriding parseLine is read line by line.
+        DataFileReader df = new DataFileReader("UTF-8");
+        df.setDataFormat(new CSVFormat()
+        {
+            public DataRow parseLine(String line)
+            {
+                return super.parseLine(line);
+            }
+        });
+        df.setProjection(new int[] { 4 });
+        df.open(file);
+        DataRow row = df.next();
+        assertEquals("e", row.getString(4));
+        assertEquals("", row.getString(0));
+        row = df.next();
+        assertEquals(0, row.getInt(4));
+        assertEquals("", row.getString(2));
+        df.close();
+    }
+
+    public void testBatch() throws IOException
+    {
+        DataFileReader df = new DataFileReader("UTF-8");
+        df.containsHeader(true);
+        df.setProjection(new int[] { 0 });
+        df.open(file);
+        ColumnBatch b = df.nextBatch(10);
+        assertEquals(10, b.size());
+        assertEquals("9", b.getString(0, 9));
+        assertTrue(b.isNull(1, 0));
+        assertTrue(b.isNull(4, 9));
+        df.close();
+    }
+
+    public void testUnknownLabel() throws IOException
+    {
+        DataFileReader df = new DataFileReader("UTF-8");
+        df.containsHeader(true);
+        df.setProjection(new String[] { "a", "nope" });
+        try
+        {
+            df.open(file);
+            fail("unknown label accepted");
+        }
+        catch (IllegalArgumentException e)
+        {
+            // expected
+        }
+        finally
+        {
+            df.close();
+        }
+    }
+}
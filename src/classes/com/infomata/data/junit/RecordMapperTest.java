@@ -0,0 +1,166 @@
+/*
+ *
+ *
+ */
+package com.infomata.data.junit;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+
+import junit.framework.TestCase;
+
+import com.infomata.data.DataFileReader;
+import com.infomata.data.RecordMapper;
+
+/**
+ * Tests mapping rows to records and plain classes.
+ */
+public class RecordMapperTest extends TestCase
+{
+    public record Trade(long id, String symbol, double price, Integer qty,
+                        boolean settled) {}
+
+    public static class Quote
+    {
+        private String symbol;
+        private double bid;
+        private int size;
+        private BigDecimal ask;
+        int setterCalls;
+
+        public void setSymbol(String symbol)
+        {
+            this.symbol = symbol;
+            setterCalls++;
+        }
+    }
+
+    File file = null;
+
+    public void setUp() throws IOException
+    {
+        file = new File("record-mapper-test.csv");
+        file.deleteOnExit();
+        FileOutputStream out = new FileOutputStream(file);
+        out.write(("ID,Symbol,Price,Qty,Settled,Ask\n"
+                   + "1,ABC,10.5,100,yes,10.75\n"
+                   + "2,\"X, Y\",,,false,\n"
+                   + "3000000000,Z,n/a,7,1,2\n").getBytes("UTF-8"));
+        out.close();
+    }
+
+    public void testRecordByLabel() throws IOException
+    {
+        for (int mode = 0; mode < 2; mode++)
+        {
+            DataFileReader df = new DataFileReader("UTF-8");
+            df.setMemoryMapped(mode == 1);
+            df.containsHeader(true);
+            df.setRecordMapper(new RecordMapper(Trade.class));
+            df.open(file);
+            try
+            {
+                assertEquals(new Trade(1, "ABC", 10.5d, Integer.valueOf(100), true),
+                             df.nextRecord());
+                assertEquals(new Trade(2, "X, Y", 0d, null, false),
+                             df.nextRecord());
+                assertEquals(new Trade(3000000000L, "Z", 0d, Integer.valueOf(7), true),
+                             df.nextRecord());
+                assertNull(df.nextRecord());
+            }
+            finally
+            {
+                df.close();
+            }
+        }
+    }
+
+    public void testExplicitBindings() throws IOException
+    {
+        RecordMapper mapper = new RecordMapper(Quote.class);
+        mapper.bind("Symbol", "symbol").bind(2, "bid").bind("Qty", "size")
+            .bind("Ask", "ask");
+        DataFileReader df = new DataFileReader("UTF-8");
+        df.containsHeader(true);
+        df.setProjection(new String[] { "ID" });
+        df.setRecordMapper(mapper);
+        df.open(file);
+        try
+        {
+            Quote q = (Quote)df.nextRecord();
+            assertEquals("ABC", q.symbol);
+            assertEquals(10.5d, q.bid, 0d);
+            assertEquals(100, q.size);
+            assertEquals(new BigDecimal("10.75"), q.ask);
+            assertEquals(1, q.setterCalls);
+            q = (Quote)df.nextRecord();
+            assertEquals("X, Y", q.symbol);
+            assertEquals(0, q.size);
+            assertNull(q.ask);
+        }
+        finally
+        {
+            df.close();
+        }
+    }
+
+    public void testPositional()
+    {
+        RecordMapper mapper = new RecordMapper(Trade.class);
+        DataFileReader df = new DataFileReader("UTF-8");
+        df.setRecordMapper(mapper);
+        try
+        {
+            df.open(file);
+            assertNotNull(df.nextRecord()); // header row as data
+            Trade t = (Trade)df.nextRecord();
+            assertEquals(1L, t.id());
+            assertEquals(10.5d, t.price(), 0d);
+            assertEquals("ABC", t.symbol());
+            assertTrue(t.settled());
+            df.close();
+        }
+        catch (IOException e)
+        {
+            fail(e.toString());
+        }
+    }
+
+    public void testErrors() throws IOException
+    {
+        try
+        {
+            new RecordMapper(Trade.class).bind("x", "nothing");
+            fail("unknown property");
+        }
+        catch (IllegalArgumentException e)
+        {
+        }
+        try
+        {
+            new RecordMapper(File.class);
+            fail("no constructor");
+        }
+        catch (IllegalArgumentException e)
+        {
+        }
+
+        DataFileReader df = new DataFileReader("UTF-8");
+        df.containsHeader(true);
+        df.setRecordMapper(new RecordMapper(Trade.class).bind("Missing", "id"));
+        try
+        {
+            df.open(file);
+            fail("missing column");
+        }
+        catch (IllegalArgumentException e)
+        {
+        }
+        finally
+        {
+            df.close();
+        }
+    }
+}
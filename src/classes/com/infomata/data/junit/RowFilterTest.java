@@ -0,0 +1,204 @@
+/*
+ *
+ *
+ */
+package com.infomata.data.junit;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import junit.framework.TestCase;
+
+import com.infomata.data.CSVFormat;
+import com.infomata.data.ColumnBatch;
+import com.infomata.data.DataFileReader;
+import com.infomata.data.DataRow;
+import com.infomata.data.RowFilter;
+
+/**
+ * Tests filtering rows while reading.
+ */
+public class RowFilterTest extends TestCase
+{
+    private static final int ROWS = 1000;
+    private static final String[] COUNTRIES = { "HU", "AT", "DE", "" };
+
+    File file = null;
+
+    public void setUp() throws IOException
+    {
+        file = new File("row-filter-test.csv");
+        file.deleteOnExit();
+        StringBuffer sb = new StringBuffer("id,country,price,name\n");
+        for (int i = 0; i < ROWS; i++)
+        {
+            sb.append(i).append(',').append(country(i)).append(',')
+              .append(price(i)).append(',');
+            sb.append((i % 5 == 0) ? "\"x, " + i + "\n\"\"q\"\"\"" : "n" + i);
+            sb.append('\n');
+        }
+        FileOutputStream out = new FileOutputStream(file);
+        out.write(sb.toString().getBytes("UTF-8"));
+        out.close();
+    }
+
+    private static String country(int i)
+    {
+        return COUNTRIES[i % COUNTRIES.length];
+    }
+
+    private static double price(int i)
+    {
+        return (i % 97) + 0.5d;
+    }
+
+    private static boolean expected(int i)
+    {
+        boolean inSet = "HU".equals(country(i)) || "AT".equals(country(i));
+        return inSet && ((price(i) >= 10 && price(i) <= 50) || i % 5 == 0);
+    }
+
+    private static RowFilter filter()
+    {
+        return RowFilter.and(
+                RowFilter.in("country", new String[] { "HU", "AT" }),
+                RowFilter.or(RowFilter.range("price", 10, 50),
+                             RowFilter.prefix(3, "x, ")));
+    }
+
+    public void testStream() throws IOException
+    {
+        check(reader(0));
+    }
+
+    public void testMapped() throws IOException
+    {
+        check(reader(1));
+    }
+
+    public void testParallel() throws IOException
+    {
+        check(reader(2));
+    }
+
+    public void testLines() throws IOException
+    {
+        check(reader(3));
+    }
+
+    public void testEmptyAndNot() throws IOException
+    {
+        DataFileReader df = reader(1);
+        df.setFilter(RowFilter.not(RowFilter.or(RowFilter.isEmpty("country"),
+                RowFilter.eq(1, "DE"))));
+        df.setProjection(new String[] { "id" });
+        df.open(file);
+        int n = 0;
+        for (DataRow row = df.next(); row != null; row = df.next())
+        {
+            int id = row.getInt("id");
+            assertTrue(id % 4 < 2);
+            n++;
+        }
+        assertEquals(ROWS / 2, n);
+        assertEquals(ROWS, df.getRowsScanned());
+        df.close();
+        assertEquals(ROWS / 2, df.getRowsEmitted());
+        assertEquals(ROWS, df.getRowsScanned());
+    }
+
+    public void testBatch() throws IOException
+    {
+        for (int mode = 0; mode < 4; mode += 3)
+        {
+            DataFileReader df = reader(mode);
+            df.setFilter(filter());
+            df.open(file);
+            int n = 0;
+            for (ColumnBatch b = df.nextBatch(64); b != null; b = df.nextBatch(64))
+            {
+                for (int r = 0; r < b.size(); r++)
+                {
+                    assertTrue(expected(Integer.parseInt(b.getString(0, r))));
+                    n++;
+                }
+            }
+            assertEquals(n, df.getRowsEmitted());
+            assertEquals(ROWS, df.getRowsScanned());
+            df.close();
+        }
+    }
+
+    public void testUnknownLabel() throws IOException
+    {
+        DataFileReader df = reader(0);
+        df.setFilter(RowFilter.eq("nope", "1"));
+        try
+        {
+            df.open(file);
+            fail("unknown label accepted");
+        }
+        catch (IllegalArgumentException e)
+        {
+            // expected
+        }
+        df.close();
+    }
+
+    private void check(DataFileReader df) throws IOException
+    {
+        df.setFilter(filter());
+        df.open(file);
+        try
+        {
+            int next = 0;
+            int n = 0;
+            for (DataRow row = df.next(); row != null; row = df.next())
+            {
+                int id = row.getInt("id");
+                while (!expected(next))
+                {
+                    next++;
+                }
+                assertEquals(next++, id);
+                assertEquals(country(id), row.getString("country"));
+                n++;
+            }
+            for (; next < ROWS; next++)
+            {
+                assertFalse(expected(next));
+            }
+            assertEquals(n, df.getRowsEmitted());
+        }
+        finally
+        {
+            df.close();
+        }
+        assertEquals(ROWS, df.getRowsScanned());
+    }
+
+    private DataFileReader reader(int mode)
+    {
+        DataFileReader df = new DataFileReader("UTF-8");
+        df.containsHeader(true);
+        df.setMemoryMapped(mode == 1);
+        if (mode == 2)
+        {
+            df.setParallelism(3);
+            df.setParallelChunkSize(256);
+        }
+        if (mode == 3)
+        {
+            // a subclass overriding parseLine is read line by line.
+            df.setDataFormat(new CSVFormat()
+            {
+                public DataRow parseLine(String line)
+                {
+                    return super.parseLine(line);
+                }
+            });
+        }
+        return df;
+    }
+}
@@ -0,0 +1,176 @@
+/*
+ *
+ *
+ */
+package com.infomata.data.junit;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import com.infomata.data.DataFileReader;
+import com.infomata.data.DataRow;
+
+/**
+ * Tests seeking rows with the sidecar row index.
+ */
+public class RowIndexTest extends TestCase
+{
+    private static final int ROWS = 5000;
+
+    File file = null;
+    File idx = null;
+
+    public void setUp() throws IOException
+    {
+        file = new File("row-index-test.csv");
+        file.deleteOnExit();
+        idx = new File("row-index-test.csv.idx");
+        idx.deleteOnExit();
+        idx.delete();
+        write(ROWS);
+    }
+
+    public void testSeekMapped() throws IOException
+    {
+        seek(true);
+    }
+
+    public void testSeekStream() throws IOException
+    {
+        seek(false);
+    }
+
+    public void testSidecar() throws IOException
+    {
+        DataFileReader df = reader(false);
+        df.setRowIndex(true);
+        df.open(file);
+        int n = 0;
+        while (df.next() != null)
+        {
+            n++;
+        }
+        df.close();
+        assertEquals(ROWS, n);
+        assertTrue(idx.isFile());
+        long built = idx.lastModified();
+
+        df.open(file);
+        assertEquals(ROWS, df.getRowCount());
+        df.seek(4321);
+        assertEquals(4321, df.next().getInt("id"));
+        df.close();
+        assertEquals(built, idx.lastModified());
+
+        // a changed file invalidates the index.
+        write(ROWS / 2);
+        df.open(file);
+        assertEquals(ROWS / 2, df.getRowCount());
+        df.seek(ROWS / 2 - 1);
+        assertEquals(ROWS / 2 - 1, df.next().getInt("id"));
+        assertNull(df.next());
+        df.close();
+    }
+
+    public void testReadRows() throws IOException
+    {
+        DataFileReader df = reader(false);
+        df.setReuseRow(true);
+        df.open(file);
+        List rows = df.readRows(1020, 10);
+        assertEquals(10, rows.size());
+        for (int i = 0; i < rows.size(); i++)
+        {
+            DataRow row = (DataRow)rows.get(i);
+            assertEquals(1020 + i, row.getInt("id"));
+        }
+        rows = df.readRows(ROWS - 3, 10);
+        assertEquals(3, rows.size());
+        assertEquals(ROWS - 1, ((DataRow)rows.get(2)).getInt(0));
+        assertEquals(0, df.readRows(ROWS + 5, 10).size());
+        df.close();
+    }
+
+    public void testUnsupported() throws IOException
+    {
+        DataFileReader df = reader(false);
+        df.open(file.toURI().toURL());
+        try
+        {
+            df.seek(3);
+            fail("seek on a URL");
+        }
+        catch (IOException e)
+        {
+            // expected
+        }
+        df.close();
+    }
+
+    private void seek(boolean mapped) throws IOException
+    {
+        DataFileReader df = reader(mapped);
+        df.setMappedWindowSize(4096);
+        df.setStreamBufferSize(4096);
+        df.open(file);
+        try
+        {
+            assertEquals(0, df.next().getInt("id"));
+            java.util.Random r = new java.util.Random(3);
+            for (int i = 0; i < 200; i++)
+            {
+                int row = r.nextInt(ROWS);
+                df.seek(row);
+                DataRow d = df.next();
+                assertEquals(row, d.getInt("id"));
+                assertEquals(text(row), d.getString("text"));
+                if (row + 1 < ROWS)
+                {
+                    assertEquals(row + 1, df.next().getInt("id"));
+                }
+            }
+            df.seek(ROWS);
+            assertNull(df.next());
+            df.seek(0);
+            assertEquals(0, df.next().getInt("id"));
+            assertEquals(ROWS, df.getRowCount());
+        }
+        finally
+        {
+            df.close();
+        }
+    }
+
+    private DataFileReader reader(boolean mapped)
+    {
+        DataFileReader df = new DataFileReader("UTF-8");
+        df.setMemoryMapped(mapped);
+        df.containsHeader(true);
+        return df;
+    }
+
+    private static String text(int row)
+    {
+        return (row % 7 == 0) ? "multi\nline, " + row : "row " + row;
+    }
+
+    private void write(int rows) throws IOException
+    {
+        StringBuffer sb = new StringBuffer("id,text\n");
+        for (int i = 0; i < rows; i++)
+        {
+            String t = text(i);
+            sb.append(i).append(',');
+            sb.append((i % 7 == 0) ? "\"" + t + "\"" : t).append('\n');
+        }
+        FileOutputStream out = new FileOutputStream(file);
+        out.write(sb.toString().getBytes("UTF-8"));
+        out.close();
+        // distinguishes rewritten files of the same size.
+        file.setLastModified(file.lastModified() - 2000 - rows);
+    }
+}
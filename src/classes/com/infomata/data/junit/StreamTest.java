@@ -0,0 +1,162 @@
+/*
+ *
+ *
+ */
+package com.infomata.data.junit;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import junit.framework.TestCase;
+
+import com.infomata.data.DataFileReader;
+import com.infomata.data.DataRow;
+import com.infomata.data.RecordMapper;
+import com.infomata.data.TabFormat;
+
+/**
+ * Tests streams of rows, split at row boundaries.
+ */
+public class StreamTest extends TestCase
+{
+    public record Item(int id, String text) {}
+
+    static final int ROWS = 60000;
+
+    File file = null;
+
+    public void setUp() throws IOException
+    {
+        file = new File("stream-test.csv");
+        file.deleteOnExit();
+        OutputStream out = new java.io.BufferedOutputStream(
+                new FileOutputStream(file));
+        out.write("id,text\n".getBytes("UTF-8"));
+        for (int i = 0; i < ROWS; i++)
+        {
+            // quoted line breaks and commas make false row boundaries.
+            String text = (i % 3 == 0) ? "\"line\n" + i + ", \"\"q\"\"\r\n\""
+                : "plain " + i + " ........................";
+            out.write((i + "," + text + "\n").getBytes("UTF-8"));
+        }
+        out.close();
+    }
+
+    public void testParallelStream() throws IOException
+    {
+        DataFileReader df = reader();
+        Stream<DataRow> rows = df.stream();
+        try
+        {
+            List<Integer> ids = rows.parallel().map(r -> Integer.valueOf(r.getInt(0)))
+                .collect(Collectors.toList());
+            assertEquals(ROWS, ids.size());
+            for (int i = 0; i < ROWS; i++)
+            {
+                assertEquals(i, ids.get(i).intValue());
+            }
+        }
+        finally
+        {
+            rows.close();
+            df.close();
+        }
+    }
+
+    public void testSplits() throws IOException
+    {
+        DataFileReader df = reader();
+        Stream<DataRow> rows = df.stream();
+        Spliterator<DataRow> b = rows.spliterator();
+        Spliterator<DataRow> a = b.trySplit();
+        assertNotNull(a);
+        long[] n = new long[1];
+        int[] next = new int[1];
+        a.forEachRemaining(r -> {
+            assertEquals(next[0]++, r.getInt(0));
+            n[0]++;
+        });
+        int first = next[0];
+        assertTrue(first > 0 && first < ROWS);
+        b.forEachRemaining(r -> {
+            assertEquals(next[0]++, r.getInt(0));
+            n[0]++;
+        });
+        assertEquals(ROWS, n[0]);
+        rows.close();
+        df.close();
+    }
+
+    public void testLabels() throws IOException
+    {
+        DataFileReader df = reader();
+        Stream<DataRow> rows = df.stream();
+        try
+        {
+            long n = rows.parallel()
+                .filter(r -> r.getString("text").startsWith("plain "))
+                .filter(r -> r.getString("text").equals("plain " + r.getString("id")
+                                                         + " ........................"))
+                .count();
+            assertEquals(ROWS - ROWS / 3, n);
+        }
+        finally
+        {
+            rows.close();
+            df.close();
+        }
+    }
+
+    public void testRecords() throws IOException
+    {
+        DataFileReader df = reader();
+        df.setRecordMapper(new RecordMapper(Item.class));
+        df.open(file);
+        df.next();
+        Stream<Item> items = df.records();
+        long n = items.parallel().filter(o -> o.text().startsWith("line"))
+            .count();
+        assertEquals(ROWS / 3 - 1, n);
+        items.close();
+        assertEquals(1, df.next().getInt(0));
+        df.close();
+    }
+
+    public void testSequential() throws IOException
+    {
+        File tab = new File("stream-test.txt");
+        tab.deleteOnExit();
+        java.io.FileWriter out = new java.io.FileWriter(tab);
+        out.write("a\t1\nb\t2\nc\t3\n");
+        out.close();
+        DataFileReader df = new DataFileReader("UTF-8");
+        df.setDataFormat(new TabFormat()
+        {
+            public DataRow parseLine(String line)
+            {
+                return super.parseLine(line.toUpperCase());
+            }
+        });
+        df.open(tab);
+        assertEquals("A", df.next().getString(0));
+        assertEquals(5, df.stream().parallel()
+                     .mapToInt(r -> r.getInt(1)).sum());
+        assertNull(df.next());
+        df.close();
+    }
+
+    private DataFileReader reader() throws IOException
+    {
+        DataFileReader df = new DataFileReader("UTF-8");
+        df.containsHeader(true);
+        df.setCellViews(true);
+        df.open(file);
+        return df;
+    }
+}
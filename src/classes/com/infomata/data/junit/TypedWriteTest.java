@@ -0,0 +1,190 @@
+/*
+ *
+ *
+ */
+package com.infomata.data.junit;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.text.NumberFormat;
+import java.util.Locale;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import com.infomata.data.CSVFormat;
+import com.infomata.data.DataFormat;
+import com.infomata.data.DataFileWriter;
+import com.infomata.data.DataRow;
+import com.infomata.data.FixedWidthFormat;
+import com.infomata.data.ItemPerLineFormat;
+import com.infomata.data.TabFormat;
+
+/**
+ * Tests writing cells with the typed methods of the writer.
+ */
+public class TypedWriteTest extends TestCase
+{
+    private static final String NL = System.getProperty("line.separator");
+
+    File file = null;
+
+    public void setUp()
+    {
+        file = new File("typed-write-test.txt");
+        file.deleteOnExit();
+    }
+
+    public void testShortestDoubles() throws IOException
+    {
+        double[] values = {0d, -0d, 1d, -3d, 0.1d, 0.3d, 2d / 3, 100d, 1e21d, 1e22d,
+            123456.789d, 1e-6d, 1.5e-7d, 5e-324d, Double.MAX_VALUE,
+            Double.MIN_NORMAL, 9007199254740993d, Math.PI, 1e23d,
+            Double.NaN, Double.NEGATIVE_INFINITY};
+        String[] expected = {"0", "-0", "1", "-3", "0.1", "0.3",
+            "0.6666666666666666", "100", "1E21", "1E22", "123456.789",
+            "0.000001", "1.5E-7", "5E-324", "1.7976931348623157E308",
+            "2.2250738585072014E-308", "9007199254740992",
+            "3.141592653589793", "1E23", "NaN", "-Infinity"};
+
+        DataFileWriter df = new DataFileWriter("US-ASCII");
+        df.setDataFormat(new CSVFormat());
+        df.open(file);
+        for (int i = 0; i < values.length; i++)
+        {
+            df.writeDouble(values[i]);
+        }
+        df.endRow();
+
+        Random r = new Random(11);
+        double[] random = new double[20000];
+        for (int i = 0; i < random.length; i++)
+        {
+            random[i] = (i % 2 == 0) ? Double.longBitsToDouble(r.nextLong())
+                : r.nextInt(1000000) / 1000d;
+            df.writeDouble(random[i]);
+            df.endRow();
+        }
+        df.close();
+
+        String[] lines = read().split(NL);
+        assertEquals(join(expected, ","), lines[0]);
+        for (int i = 0; i < random.length; i++)
+        {
+            String s = lines[i + 1];
+            if (Double.isNaN(random[i]))
+            {
+                assertEquals("NaN", s);
+                continue;
+            }
+            assertEquals(s, random[i], Double.parseDouble(s), 0d);
+            // never longer than the digits of Double.toString
+            assertTrue(s, digits(s) <= digits(Double.toString(random[i])));
+        }
+    }
+
+    public void testCells() throws IOException
+    {
+        DataFileWriter df = new DataFileWriter("UTF-8");
+        df.setDataFormat(new CSVFormat());
+        df.open(file);
+        DataRow row = df.next();
+        row.add("from row");
+        df.writeInt(Integer.MIN_VALUE);
+        df.writeLong(Long.MAX_VALUE);
+        df.writeString("a, \"b\"");
+        df.writeString(null);
+        df.endRow();
+        df.endRow();
+        df.writeInt(-7);
+        df.next().add("x");
+        df.writeLong(0);
+        df.close();
+        assertEquals("from row" + NL
+                     + "-2147483648,9223372036854775807,\"a, \"\"b\"\"\",null" + NL
+                     + NL + "-7" + NL + "x" + NL + "0" + NL, read());
+
+        df.setDataFormat(new FixedWidthFormat(new int[] {3, 4}));
+        df.open(file);
+        df.writeInt(12345);
+        df.writeDouble(0.5d);
+        df.writeString("ignored");
+        df.endRow();
+        df.close();
+        assertEquals("1230.5 " + NL, read());
+
+        df.setDataFormat(new TabFormat());
+        df.setLocaleNumbers(true);
+        df.setNumberFormat(NumberFormat.getInstance(Locale.GERMANY));
+        df.open(file);
+        df.writeString("");
+        df.writeDouble(1234.5d);
+        df.close();
+        assertEquals("\t1.234,5" + NL, read());
+    }
+
+    public void testRowFormats() throws IOException
+    {
+        // formats without cell support and asynchronous writers fill rows
+        assertRows(new ItemPerLineFormat(), false, "1" + NL + "a" + NL + NL + "2.5" + NL);
+        assertRows(new CSVFormat(), true, "1,x" + NL + "a" + NL + NL + "2.5" + NL);
+        assertRows(new CSVFormat()
+        {
+            public String format(DataRow row)
+            {
+                return "<" + super.format(row) + ">";
+            }
+        }, false, "<1,x>" + NL + "<a>" + NL + NL + "<2.5>" + NL);
+    }
+
+    private void assertRows(DataFormat fmt, boolean async, String expected)
+        throws IOException
+    {
+        DataFileWriter df = new DataFileWriter("UTF-8");
+        df.setAsync(async);
+        df.setDataFormat(fmt);
+        df.open(file);
+        df.writeInt(1);
+        df.writeString("x");
+        df.endRow();
+        df.writeString("a");
+        df.endRow();
+        df.endRow();
+        df.writeDouble(2.5d);
+        df.close();
+        assertEquals(expected, read());
+    }
+
+    private String read() throws IOException
+    {
+        byte[] b = new byte[(int)file.length()];
+        DataInputStream in = new DataInputStream(new FileInputStream(file));
+        in.readFully(b);
+        in.close();
+        return new String(b, "UTF-8");
+    }
+
+    private static int digits(String s)
+    {
+        int n = s.indexOf('E');
+        String m = (n < 0) ? s : s.substring(0, n);
+        m = m.replace("-", "").replace(".", "").replaceAll("^0+", "").replaceAll("0+$", "");
+        return m.length();
+    }
+
+    private static String join(String[] s, String sep)
+    {
+        StringBuffer b = new StringBuffer();
+        for (int i = 0; i < s.length; i++)
+        {
+            if (i > 0)
+            {
+                b.append(sep);
+            }
+            b.append(s[i]);
+        }
+        return b.toString();
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * $Id$
+ *
+ * Copyright(c) 2002 Infomata
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+package com.infomata.data;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * {@link com.infomata.data.StructuralScanner} built on the incubating
+ * Vector API: compares a whole vector of bytes (32 or 64 with AVX2 or
+ * AVX-512) against each structural byte at once, and turns the
+ * resulting lane mask into positions.
+ * <p>
+ * Compiled from a separate source directory with
+ * <code>--add-modules jdk.incubator.vector</code>, and only loaded
+ * when the module is available at run time.
+ * </p>
+ *
+ * @version $Revision$
+ */
+final class VectorScanner extends StructuralScanner
+{
+
+    /**
+     * Widest vector whose lane mask fits in a <code>long</code>.
+     */
+    private static final VectorSpecies<Byte> SPECIES =
+        (ByteVector.SPECIES_PREFERRED.length() > 64) ? ByteVector.SPECIES_512
+        : ByteVector.SPECIES_PREFERRED;
+
+    VectorScanner()
+    {
+    }
+
+    int scan(ByteBuffer buf, int from, int to, byte[] targets, int[] out)
+    {
+        int n = 0;
+        int i = from;
+        int step = SPECIES.length();
+        int bound = from + SPECIES.loopBound(to - from);
+        for (; i < bound; i += step)
+        {
+            ByteVector v = ByteVector.fromByteBuffer(SPECIES, buf, i,
+                                                     ByteOrder.nativeOrder());
+            VectorMask<Byte> m = v.eq(targets[0]);
+            for (int t = 1; t < targets.length; t++)
+            {
+                m = m.or(v.eq(targets[t]));
+            }
+            long bits = m.toLong();
+            while (bits != 0)
+            {
+                out[n++] = i + Long.numberOfTrailingZeros(bits);
+                bits &= bits - 1;
+            }
+        }
+        return scanTail(buf, i, to, targets, out, n);
+    }
+
+    int count(ByteBuffer buf, int from, int to, byte target)
+    {
+        int n = 0;
+        int i = from;
+        int step = SPECIES.length();
+        int bound = from + SPECIES.loopBound(to - from);
+        for (; i < bound; i += step)
+        {
+            n += ByteVector.fromByteBuffer(SPECIES, buf, i, ByteOrder.nativeOrder())
+                .eq(target).trueCount();
+        }
+        for (; i < to; i++)
+        {
+            if (buf.get(i) == target)
+            {
+                n++;
+            }
+        }
+        return n;
+    }
+
+}